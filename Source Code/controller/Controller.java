@@ -1,14 +1,18 @@
 package controller;
 
+import java.awt.Dimension;
+import java.util.Arrays;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import model.RegionRouter;
 import model.Search;
 import model.Stopwatch;
 import model.data.Edge;
 import model.data.Point;
+import model.data.RoadType;
 import model.graph.Route;
 import view.RouteEvent;
 import view.View;
@@ -19,11 +23,25 @@ import controller.threads.LoadingPercentUpdater;
 
 public class Controller implements CanvasObserver {
 
+	private static final double SAMPLESCALE = 50;	// The metres per pixel above which the edges are sampled, as most roads are then a few pixels long
+	private static final int EDGELIMIT = 50000;		// The most edges drawn in a frame, so a frame takes bounded time however dense the map is
+
 	private String[] startSearch, endSearch;
 	private View view;
+	private volatile RegionRouter regions;		// The map, the addresses and the routes are searched in these regions. Null until the data is loaded
 
 	public static void main(String[] args) {
 
+		// Started with -rtree the edges are indexed by an R-tree instead of a KDTree, with -lod by an R-tree per zoom level,
+		// and with -mapped by a flat kd-tree searched in its mapped file
+		if(args.length > 0 && (args[0].equals("-rtree") || args[0].equals("-lod") || args[0].equals("-mapped"))) {
+			Search.Data.Index index = Search.Data.Index.LOD;
+			if(args[0].equals("-rtree"))		index = Search.Data.Index.RTREE;
+			else if(args[0].equals("-mapped"))	index = Search.Data.Index.MAPPED;
+			Search.Data.INSTANCE.setIndex(index);
+			args = Arrays.copyOfRange(args, 1, args.length);
+		}
+
 		// Create the view
 		View v = new View();
 
@@ -36,7 +54,9 @@ public class Controller implements CanvasObserver {
 		CountDownLatch dfReady = new CountDownLatch(1);
 		
 		// Sets two runnables in queue and shuts down the executor service, when those are finished
-		executor.execute(new DataFetching(c,dfReady));
+		// Started with -update <point file> <edge file> the newer krak files are applied to the stored data
+		if(args.length == 3 && args[0].equals("-update"))	executor.execute(new DataFetching(c,dfReady,args[1],args[2]));
+		else												executor.execute(new DataFetching(c,dfReady));
 		executor.execute(new LoadingPercentUpdater(c,dfReady));
 		executor.shutdown();
 		
@@ -47,6 +67,15 @@ public class Controller implements CanvasObserver {
 		view.setLoadPercent(percent, type);
 	}
 
+	/**
+	 * Sets the regions the map, the addresses and the routes are searched in. Called when the data is loaded, before setViewport
+	 * @param regions
+	 */
+	public void setRegions(RegionRouter regions) {
+		if(regions == null)	throw new NullPointerException("parameter regions was null");
+		this.regions = regions;
+	}
+
 	// Create a viewport
 	public void setViewport() {
 		view.setViewport();
@@ -61,22 +90,40 @@ public class Controller implements CanvasObserver {
 	}
 
 	/**
-	 * This method updates the view with all edges in the data structure.
+	 * This method updates the view with all edges in the data structure, sampled as most of them fall in the same pixels of the whole map.
 	 */
 	@Override
 	public void startMap() {
-		view.updateEdges( Search.Data.INSTANCE.getAll() );
+		RegionRouter regions = this.regions;
+		if(regions == null) return; // The data is not loaded yet
+		view.updateEdges( getEdges(regions, regions.getMinPoint(), regions.getMaxPoint(), RoadType.getMaxZoom()) );
+	}
+
+	// The edges in the range. Sampled when the view is zoomed out beyond SAMPLESCALE, or when the range holds more than EDGELIMIT edges
+	private Set<Edge> getEdges(RegionRouter regions, Point from, Point to, int zoomLevel) {
+		double resolution = resolution(from, to);
+		if(resolution > SAMPLESCALE || regions.count(from, to, zoomLevel, EDGELIMIT) >= EDGELIMIT)
+			return regions.getSample(from, to, zoomLevel, resolution, EDGELIMIT);
+		return regions.getRange(from, to, zoomLevel);
+	}
+
+	// The width of a pixel when the range fills the map of the view
+	private double resolution(Point from, Point to) {
+		Dimension size = view.getMapSize();
+		return Math.max((to.getX() - from.getX()) / Math.max(1, size.width), (to.getY() - from.getY()) / Math.max(1, size.height));
 	}
 
 	
 	/**
 	 * This method requests edges in a range from Point from to Point to,
 	 * with the zoomlevel passed as parameter. It then updates the edges with
-	 * the received edges.
+	 * the received edges. The edges are sampled when zoomed out, so the view is not slowed down by the edges falling in the same pixels.
 	 */
 	@Override
 	public void requestEdges(Point from, Point to, int zoomLevel) {
-		view.updateEdges( Search.Data.INSTANCE.getRange(from, to,zoomLevel) );
+		RegionRouter regions = this.regions;
+		if(regions == null) return; // The data is not loaded yet
+		view.updateEdges( getEdges(regions, from, to, zoomLevel) );
 	}
 
 	/**
@@ -93,9 +140,10 @@ public class Controller implements CanvasObserver {
 		String[] tmp = AddressParser.parseAddress(prefix.trim());
 		String search = tmp[0]; // Address name from parsing method
 
-		if(search == null || search.length() < 2) return;
+		RegionRouter regions = this.regions;
+		if(search == null || search.length() < 2 || regions == null) return;
 
-		Iterable<String> results = Search.Text.INSTANCE.prefixAndPostal(search); // Get addresses to show in the view
+		Iterable<String> results = regions.prefixAndPostal(search); // Get addresses to show in the view
 
 		switch(e.getRouteType()) {
 		case ROUTESTART:  
@@ -107,8 +155,8 @@ public class Controller implements CanvasObserver {
 			endSearch = tmp;
 			break;
 		case ROUTESEARCH:
-			Set<Edge> from = Search.Text.INSTANCE.get(startSearch);
-			Set<Edge> to = Search.Text.INSTANCE.get(endSearch);
+			Set<Edge> from = regions.get(startSearch);
+			Set<Edge> to = regions.get(endSearch);
 
 			// Iterate through all possible edges to find an arbitrary shortest route.
 			Edge fromEdge = null;
@@ -120,8 +168,8 @@ public class Controller implements CanvasObserver {
 				{
 					toEdge = edgetwo;
 					if(fromEdge != null && toEdge != null) { 
-							Route r = Search.Graph.INSTANCE.searchRoutes(fromEdge, toEdge); // Search the Graph for a shortest route.
-							if(r.geted().size() > 1) {
+							Route r = regions.searchRoutes(fromEdge, toEdge); // Search the graph of the region owning both edges for a shortest route.
+							if(r != null && r.geted().size() > 1) {
 								view.updateRoute(r.getVisualRoute()); // Update with edges that are to display as route.
 								return;
 							}
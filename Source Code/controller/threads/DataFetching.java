@@ -1,7 +1,10 @@
 package controller.threads;
 
+import java.util.Collections;
 import java.util.concurrent.CountDownLatch;
 
+import model.RegionDataset;
+import model.RegionRouter;
 import model.Search;
 import controller.Controller;
 
@@ -9,12 +12,25 @@ public class DataFetching implements Runnable {
 
 	private Controller c;
 	private CountDownLatch cdl;
+	private String updatePointFile, updateEdgeFile;
 	
 	public DataFetching( Controller c , CountDownLatch cdl ) {
 	
 		this.c = c;
 		this.cdl = cdl;
 	}
+
+	/**
+	 * Fetches the data, and applies the newer krak files to it before the map is shown
+	 */
+	public DataFetching( Controller c , CountDownLatch cdl , String updatePointFile , String updateEdgeFile ) {
+		this(c, cdl);
+		if(updatePointFile == null)		throw new NullPointerException("parameter updatePointFile was null");
+		else if(updateEdgeFile == null)	throw new NullPointerException("parameter updateEdgeFile was null");
+
+		this.updatePointFile = updatePointFile;
+		this.updateEdgeFile = updateEdgeFile;
+	}
 	
 	@Override
 	public void run() {
@@ -26,6 +42,12 @@ public class DataFetching implements Runnable {
 		
 		Search.Graph.INSTANCE.initialize();
 		
+		if(updatePointFile != null) {
+			System.out.println("Update: " + Search.Data.INSTANCE.update(updatePointFile, updateEdgeFile));
+		}
+		
+		// The data of the singletons is the only region, so the controller searches it through the same router as several regions
+		c.setRegions(new RegionRouter(Collections.singletonList(RegionDataset.fromSearch("krak"))));
 		c.setViewport();
 		
 		
@@ -77,6 +77,25 @@ public class Bag<Item> implements Iterable<Item> {
         assert check();
     }
 
+   /**
+     * Remove the first occurrence of the item from the bag.
+     * Return true if the item was in the bag.
+     */
+    public boolean remove(Item item) {
+        Node previous = null;
+        for (Node x = first; x != null; x = x.next) {
+            if (item == null ? x.item == null : item.equals(x.item)) {
+                if (previous == null) first = x.next;
+                else                  previous.next = x.next;
+                N--;
+                assert check();
+                return true;
+            }
+            previous = x;
+        }
+        return false;
+    }
+
     // check internal invariants
     private boolean check() {
         if (N == 0) {
@@ -1,8 +1,12 @@
 package model;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import model.tree.KDTMetric;
+import model.tree.RangeVisitor;
+
 /**
  * This interface needs to be implemented by any class representing the 'data' functionality as it is defined in the report.
  * 
@@ -24,6 +28,14 @@ public interface DataSearch<K, V>{
 	 */
 	public void put(K key, V value);
 	
+	/**
+	 * Removes key with the associated value from the data structure.
+	 * @param key
+	 * @param value	Can be null.
+	 * @return true if the pair was found
+	 */
+	public boolean remove(K key, V value);
+	
 	/**
 	 * Return all values in the range key1 - key2
 	 * @param key1
@@ -32,10 +44,45 @@ public interface DataSearch<K, V>{
 	 */
 	public Set<V> getRange(K key1, K key2);
 	
+	/**
+	 * Passes the values in the range key1 - key2 to visitor, without collecting them, see RangeVisitor
+	 * @param key1
+	 * @param key2
+	 * @param visitor	gets a value once for every key of it in the range
+	 * @param limit		the search ends when visitor has counted this many values. Integer.MAX_VALUE for no limit
+	 * @return the number of values visitor counted
+	 */
+	public int getRange(K key1, K key2, RangeVisitor<? super V> visitor, int limit);
+
+	/**
+	 * Passes the values in every range keys1.get(i) - keys2.get(i) to visitors.get(i), searching the structure once for all the ranges,
+	 * such as the tiles around the view. A part of the structure is only tested against the ranges reaching into it
+	 * @param keys1
+	 * @param keys2
+	 * @param visitors	visitors.get(i) gets a value once for every key of it in range i
+	 * @return the number of values every visitor counted
+	 */
+	public int[] getRanges(List<K> keys1, List<K> keys2, List<? extends RangeVisitor<? super V>> visitors);
+
+	/**
+	 * Finds the k values nearest to a query, by a best-first branch and bound search
+	 * @param metric the distance from the query to the keys
+	 * @param k the number of values
+	 * @return at most k distinct values, nearest first
+	 */
+	public List<V> nearest(KDTMetric<K> metric, int k);
+	
 	/**
 	 * Recursively build the data structure 
 	 * @param map containing the key-value pairs to be included in the datastructure
 	 */
 	public void build(Map<K, V> map);
 	
+	/**
+	 * Recursively build the data structure 
+	 * @param keys to be included in the datastructure
+	 * @param values where values.get(i) is associated with keys.get(i)
+	 */
+	public void build(List<K> keys, List<V> values);
+	
 }
@@ -1,11 +1,14 @@
 package model;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import model.data.Edge;
 import model.data.KrakDataLoader;
+import model.data.NodeStore;
 import model.data.Point;
+import model.graph.DiGraph;
 import model.tree.KrakTreeKey;
 
 public enum KrakLoader {
@@ -29,16 +32,44 @@ public enum KrakLoader {
 		return loaderInstance.getEdgeMap();
 	}
 	
-	public Map<Integer, Point> getNodeMap() {
-		return loaderInstance.getNodeMap();
+	public NodeStore getNodeStore() {
+		return loaderInstance.getNodeStore();
 	}
 	
-	public Map<String, Set<Edge>> getEdgesByName(){
-		return loaderInstance.getEdgesByName();
+	/**
+	 * @return the keys of all edges. The edge of getKeys().get(i) is getValues().get(i)
+	 */
+	public List<KrakTreeKey> getKeys(){
+		return loaderInstance.getKeys();
+	}
+	
+	/**
+	 * @return the edges of the keys. The edge of getKeys().get(i) is getValues().get(i)
+	 */
+	public List<Edge> getValues(){
+		return loaderInstance.getValues();
+	}
+	
+	/**
+	 * @return every edge once, in the order they were read
+	 */
+	public List<Edge> getEdges(){
+		return loaderInstance.getEdges();
+	}
+	
+	/**
+	 * Releases the keys and their edges. They are only needed until the index is built
+	 */
+	public void releaseKeys(){
+		loaderInstance.releaseKeys();
+	}
+	
+	public TextSearch<Set<Edge>> getNameIndex(){
+		return loaderInstance.getNameIndex();
 	}
 	
-	public Set<Edge> getAllEdges(){
-		return loaderInstance.getEdgeSet();
+	public DiGraph getGraph(){
+		return loaderInstance.getGraph();
 	}
 	
 	/**
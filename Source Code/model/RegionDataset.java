@@ -0,0 +1,315 @@
+package model;
+
+import java.util.Set;
+
+import model.data.Edge;
+import model.data.KrakDataLoader;
+import model.data.Point;
+import model.data.RoadType;
+import model.graph.DiGraph;
+import model.graph.DijkstraSP;
+import model.graph.Route;
+import model.tree.KrakTreeKey;
+
+/**
+ * The data of one region: its nodes, the index of its edges, the name index and the graph.
+ * A region owns everything it loads, so several regions, or two versions of the same region, can be loaded side by side.
+ * The edges are indexed by the structure chosen by Search.Data.setIndex, and searched like those of Search.Data.
+ *
+ * A region is empty until load() is called. After that it is unconditionally thread-safe
+ * @author ejer
+ *
+ */
+public class RegionDataset {
+
+	private final String name;
+	private final String pointFile, edgeFile;
+	private final Search.Data.Index index;
+	private final int buffer = Search.Data.buffer;		// Amount to expand range search (As the KDTree only returns values where all dimensions are in range)
+
+	private volatile DataSearch<KrakTreeKey, Edge> data;
+	private volatile TextSearch<Set<Edge>> text;
+	private volatile DiGraph graph;
+	private volatile Point minPoint, maxPoint;
+	private volatile long memory;
+	private volatile double loadTime;
+
+	private final Object loadLock = new Object();
+
+	/**
+	 * Creates a region that will be loaded from the parameter files, and indexed by the structure chosen for Search.Data
+	 * @param name of the region
+	 * @param pointFile	containing node information
+	 * @param edgeFile	containing edge information
+	 */
+	public RegionDataset(String name, String pointFile, String edgeFile){
+		this(name, pointFile, edgeFile, Search.Data.INSTANCE.getIndex());
+	}
+
+	/**
+	 * Creates a region that will be loaded from the parameter files
+	 * @param name of the region
+	 * @param pointFile	containing node information
+	 * @param edgeFile	containing edge information
+	 * @param index	the structure the edges are indexed by
+	 */
+	public RegionDataset(String name, String pointFile, String edgeFile, Search.Data.Index index){
+		if(name == null)				throw new NullPointerException("parameter name was null");
+		else if(pointFile == null)		throw new NullPointerException("parameter pointFile was null");
+		else if(edgeFile == null)		throw new NullPointerException("parameter edgeFile was null");
+		else if(index == null)			throw new NullPointerException("parameter index was null");
+
+		this.name = name;
+		this.pointFile = pointFile;
+		this.edgeFile = edgeFile;
+		this.index = index;
+	}
+
+	// A region of the structures of the Search singletons, loaded already
+	private RegionDataset(String name){
+		this.name = name;
+		this.pointFile = "";
+		this.edgeFile = "";
+		this.index = Search.Data.INSTANCE.getIndex();
+		this.text = Search.Text.INSTANCE.textInstance;
+		this.graph = Search.Graph.INSTANCE.getGraph();
+		this.minPoint = Search.Coordinate.INSTANCE.getMinPoint();
+		this.maxPoint = Search.Coordinate.INSTANCE.getMaxPoint();
+		this.data = Search.Data.INSTANCE.dataInstance;
+	}
+
+	/**
+	 * The region shares the index, name index and graph of the Search singletons, so an update applied to them is seen by the region,
+	 * but its bounds are those of Search.Coordinate when it is made. Its memory is not measured, as it was not loaded by the region.
+	 * Search.Data, Search.Text and Search.Graph must be initialized
+	 * @param name of the region
+	 * @return the data of the Search singletons as a loaded region
+	 */
+	public static RegionDataset fromSearch(String name){
+		if(name == null)	throw new NullPointerException("parameter name was null");
+		if(Search.Graph.INSTANCE.getGraph() == null)	throw new IllegalStateException("the Search singletons are not initialized");
+
+		return new RegionDataset(name);
+	}
+
+	/**
+	 * Loads the files of this region and builds its index. Calling load() on a loaded region does nothing.
+	 * The memory of the region is measured as the growth of the heap in use, after a garbage collection, from before to after the load.
+	 * Everything else the program keeps while the region loads is counted too, so regions loaded side by side each count some of the others.
+	 */
+	public void load(){
+		synchronized(loadLock){
+			if(data != null)	return;
+
+			long before = usedMemory();
+			Stopwatch sw = new Stopwatch();
+			KrakDataLoader loader = new KrakDataLoader(pointFile, edgeFile);
+			DataSearch<KrakTreeKey, Edge> built = Search.Data.build(index, loader.getEdges(), loader.getKeys(), loader.getValues());
+			loader.releaseKeys();
+
+			graph = loader.getGraph();
+			text = loader.getNameIndex();
+			minPoint = loader.getNodeStore().getMinPoint();
+			maxPoint = loader.getNodeStore().getMaxPoint();
+			loadTime = sw.elapsedTime();
+			loader = null;		// Only what the region keeps is measured
+			memory = Math.max(0, usedMemory() - before);
+			data = built;		// Published last, as it marks the region as loaded
+		}
+	}
+
+	// The bytes of the heap in use after a garbage collection
+	private static long usedMemory(){
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * @return true if load() has finished
+	 */
+	public boolean isLoaded(){
+		return data != null;
+	}
+
+	private void checkLoaded(){
+		if(data == null)	throw new IllegalStateException("region " + name + " is not loaded");
+	}
+
+	/**
+	 * @return the name of the region
+	 */
+	public String getName(){
+		return name;
+	}
+
+	/**
+	 * @return the structure the edges are indexed by
+	 */
+	public Search.Data.Index getIndex(){
+		return index;
+	}
+
+	/**
+	 * Return all values in the range, see Search.Data.getRange
+	 * @param from	the lower left corner of the range
+	 * @param to	the upper right corner of the range
+	 * @param zoom	the zoom level deciding the least important road type
+	 * @return a set containing all edges within the range
+	 */
+	public Set<Edge> getRange(Point from, Point to, int zoom){
+		if(from == null)		throw new NullPointerException("parameter from was null");
+		else if(to == null)		throw new NullPointerException("parameter to was null");
+		checkLoaded();
+
+		return Search.Data.getRange(data, index, from, to, zoom);
+	}
+
+	/**
+	 * Return a sample of the edges in the range for a zoomed out view, see Search.Data.getSample
+	 * @param from			the lower left corner of the range
+	 * @param to			the upper right corner of the range
+	 * @param zoom			the zoom level deciding the least important road type
+	 * @param resolution	the width of a pixel of the view. Edges starting in the same pixel are drawn by one of them
+	 * @param limit			the largest number of edges returned
+	 * @return				a set of at most limit edges in the range
+	 */
+	public Set<Edge> getSample(Point from, Point to, int zoom, double resolution, int limit){
+		if(from == null)		throw new NullPointerException("parameter from was null");
+		else if(to == null)		throw new NullPointerException("parameter to was null");
+		checkLoaded();
+
+		return Search.Data.getSample(data, index, from, to, zoom, resolution, limit);
+	}
+
+	/**
+	 * Counts the edges in the range up to limit, see Search.Data.count
+	 * @param from	the lower left corner of the range
+	 * @param to	the upper right corner of the range
+	 * @param zoom	the zoom level deciding the least important road type
+	 * @param limit	the count ends at this many edges
+	 * @return the number of edges in the range, at most limit
+	 */
+	public int count(Point from, Point to, int zoom, int limit){
+		if(from == null)		throw new NullPointerException("parameter from was null");
+		else if(to == null)		throw new NullPointerException("parameter to was null");
+		checkLoaded();
+
+		return Search.Data.count(data, index, from, to, zoom, limit);
+	}
+
+	/**
+	 * @param name of a road
+	 * @return the edges of the road in this region. Null if the region has no road with that name
+	 */
+	public Set<Edge> getEdges(String name){
+		if(name == null)	throw new NullPointerException("parameter name was null");
+		checkLoaded();
+
+		if(name.length() == 0)	return null;
+		return text.get(name);
+	}
+
+	/**
+	 * @param prefix
+	 * @return the road names in this region starting with prefix
+	 */
+	public Iterable<String> prefixMatch(String prefix){
+		if(prefix == null)	throw new NullPointerException("parameter prefix was null");
+		checkLoaded();
+
+		return text.prefixMatch(prefix);
+	}
+
+	/**
+	 * Finds the shortest route between two edges of this region
+	 * @param from
+	 * @param to
+	 * @return the route
+	 */
+	public Route searchRoutes(Edge from, Edge to){
+		checkLoaded();
+
+		return DijkstraSP.searchRoutes(graph, from, to);
+	}
+
+	/**
+	 * @param p
+	 * @return true if p lies within the bounds of this region
+	 */
+	public boolean contains(Point p){
+		if(p == null)	throw new NullPointerException("parameter p was null");
+		checkLoaded();
+
+		return p.getX() >= minPoint.getX() && p.getX() <= maxPoint.getX() && p.getY() >= minPoint.getY() && p.getY() <= maxPoint.getY();
+	}
+
+	/**
+	 * Regions can overlap, so an edge is looked up in the KDTree rather than judged by its coordinates.
+	 * @param e
+	 * @return true if e is an edge of this region
+	 */
+	public boolean contains(Edge e){
+		if(e == null)	throw new NullPointerException("parameter e was null");
+		checkLoaded();
+
+		Point from = new Point(Math.min(e.getStartX(), e.getEndX()), Math.min(e.getStartY(), e.getEndY()));
+		Point to = new Point(Math.max(e.getStartX(), e.getEndX()), Math.max(e.getStartY(), e.getEndY()));
+		if(!contains(from) || !contains(to))	return false;
+		return getRange(from, to, RoadType.getMaxZoom()).contains(e);
+	}
+
+	/**
+	 * @param from	the lower left corner of the range
+	 * @param to	the upper right corner of the range
+	 * @return true if the range overlaps the bounds of this region, expanded like a range search
+	 */
+	public boolean intersects(Point from, Point to){
+		if(from == null)		throw new NullPointerException("parameter from was null");
+		else if(to == null)		throw new NullPointerException("parameter to was null");
+		checkLoaded();
+
+		return from.getX() - buffer <= maxPoint.getX() && to.getX() + buffer >= minPoint.getX()
+				&& from.getY() - buffer <= maxPoint.getY() && to.getY() + buffer >= minPoint.getY();
+	}
+
+	/**
+	 * Note: This point does not represent an actual point in the data
+	 * @return A point consisting of the lowest x-, and y- value of the region.
+	 */
+	public Point getMinPoint(){
+		checkLoaded();
+		return minPoint;
+	}
+
+	/**
+	 * Note: This point does not represent an actual point in the data
+	 * @return A point consisting of the largest x-, and y- value of the region.
+	 */
+	public Point getMaxPoint(){
+		checkLoaded();
+		return maxPoint;
+	}
+
+	/**
+	 * @return the number of bytes the heap grew by while this region loaded, see load(). 0 for a region made by fromSearch
+	 */
+	public long getMemoryUsage(){
+		checkLoaded();
+		return memory;
+	}
+
+	/**
+	 * @return the number of seconds it took to load the region
+	 */
+	public double getLoadTime(){
+		checkLoaded();
+		return loadTime;
+	}
+
+	@Override
+	public String toString(){
+		if(!isLoaded())		return name + ": not loaded";
+		return name + ": " + data.size() + " keys, " + (memory >> 20) + " MB, loaded in " + loadTime + " s";
+	}
+}
@@ -0,0 +1,269 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import model.data.Dictionary;
+import model.data.Edge;
+import model.data.Point;
+import model.graph.Route;
+
+/**
+ * Front-end for a number of regions. Range searches go to the regions overlapping the range,
+ * name searches go to every region, and a route is searched in the region owning both of its edges.
+ *
+ * This class is unconditionally thread-safe
+ * @author ejer
+ *
+ */
+public class RegionRouter {
+
+	private final List<RegionDataset> regions;
+	private volatile long memory;		// The growth of the heap over the last call of load()
+
+	/**
+	 * @param regions the regions to route to. They are loaded by load()
+	 */
+	public RegionRouter(List<RegionDataset> regions){
+		if(regions == null)	throw new NullPointerException("parameter regions was null");
+
+		this.regions = new ArrayList<RegionDataset>(regions);
+	}
+
+	/**
+	 * Loads every region, each on its own thread, using at most as many threads as there are processors.
+	 * Returns when all regions are loaded.
+	 */
+	public void load(){
+		load(Math.max(1, Math.min(regions.size(), Runtime.getRuntime().availableProcessors())));
+	}
+
+	/**
+	 * Loads every region, at most threads of them at a time. Returns when all regions are loaded.
+	 * @param threads the number of regions loaded side by side
+	 */
+	public void load(int threads){
+		if(threads <= 0)	throw new IllegalArgumentException("parameter threads was not positive");
+
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long before = runtime.totalMemory() - runtime.freeMemory();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for(final RegionDataset region : regions){
+			futures.add(executor.submit(new Runnable(){
+				@Override
+				public void run(){
+					region.load();
+				}
+			}));
+		}
+		executor.shutdown();
+
+		for(int i = 0 ; i < futures.size() ; i++){
+			try {
+				futures.get(i).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while loading " + regions.get(i).getName(), e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Loading of " + regions.get(i).getName() + " failed", e.getCause());
+			}
+		}
+
+		System.gc();
+		memory = Math.max(0, runtime.totalMemory() - runtime.freeMemory() - before);
+	}
+
+	/**
+	 * @return the regions, in the order they were given
+	 */
+	public List<RegionDataset> getRegions(){
+		return new ArrayList<RegionDataset>(regions);
+	}
+
+	/**
+	 * Return all values in the range from the regions overlapping it
+	 * @param from	the lower left corner of the range
+	 * @param to	the upper right corner of the range
+	 * @param zoom	the zoom level deciding the least important road type
+	 * @return a set containing all edges within the range
+	 */
+	public Set<Edge> getRange(Point from, Point to, int zoom){
+		if(from == null)		throw new NullPointerException("parameter from was null");
+		else if(to == null)		throw new NullPointerException("parameter to was null");
+
+		Set<Edge> result = new HashSet<Edge>();
+		for(RegionDataset region : regions){
+			if(region.intersects(from, to))		result.addAll(region.getRange(from, to, zoom));
+		}
+		return result;
+	}
+
+	/**
+	 * Return a sample of the edges in the range from the regions overlapping it, see RegionDataset.getSample.
+	 * The regions are sampled in order, each up to what is left of limit
+	 * @param from			the lower left corner of the range
+	 * @param to			the upper right corner of the range
+	 * @param zoom			the zoom level deciding the least important road type
+	 * @param resolution	the width of a pixel of the view. Edges starting in the same pixel are drawn by one of them
+	 * @param limit			the largest number of edges returned
+	 * @return				a set of at most limit edges in the range
+	 */
+	public Set<Edge> getSample(Point from, Point to, int zoom, double resolution, int limit){
+		if(from == null)		throw new NullPointerException("parameter from was null");
+		else if(to == null)		throw new NullPointerException("parameter to was null");
+
+		Set<Edge> result = new HashSet<Edge>();
+		for(RegionDataset region : regions){
+			if(result.size() >= limit)	break;
+			if(region.intersects(from, to))		result.addAll(region.getSample(from, to, zoom, resolution, limit - result.size()));
+		}
+		return result;
+	}
+
+	/**
+	 * Counts the edges in the range up to limit in the regions overlapping it, see RegionDataset.count
+	 * @param from	the lower left corner of the range
+	 * @param to	the upper right corner of the range
+	 * @param zoom	the zoom level deciding the least important road type
+	 * @param limit	the count ends at this many edges
+	 * @return the number of edges in the range, at most limit
+	 */
+	public int count(Point from, Point to, int zoom, int limit){
+		if(from == null)		throw new NullPointerException("parameter from was null");
+		else if(to == null)		throw new NullPointerException("parameter to was null");
+
+		int count = 0;
+		for(RegionDataset region : regions){
+			if(count >= limit)	break;
+			if(region.intersects(from, to))		count += region.count(from, to, zoom, limit - count);
+		}
+		return count;
+	}
+
+	/**
+	 * Note: This point does not represent an actual point in the data
+	 * @return A point consisting of the lowest x-, and y- value of all regions.
+	 */
+	public Point getMinPoint(){
+		double x = Double.POSITIVE_INFINITY, y = Double.POSITIVE_INFINITY;
+		for(RegionDataset region : regions){
+			x = Math.min(x, region.getMinPoint().getX());
+			y = Math.min(y, region.getMinPoint().getY());
+		}
+		return new Point(x, y);
+	}
+
+	/**
+	 * Note: This point does not represent an actual point in the data
+	 * @return A point consisting of the largest x-, and y- value of all regions.
+	 */
+	public Point getMaxPoint(){
+		double x = Double.NEGATIVE_INFINITY, y = Double.NEGATIVE_INFINITY;
+		for(RegionDataset region : regions){
+			x = Math.max(x, region.getMaxPoint().getX());
+			y = Math.max(y, region.getMaxPoint().getY());
+		}
+		return new Point(x, y);
+	}
+
+	/**
+	 * Find all edges of a road with a postal code in any region, like Search.Text.get
+	 * @param key the road name at index 0, and the postal code at index 2
+	 * @return a set.
+	 */
+	public Set<Edge> get(String[] key){
+		if(key == null)	throw new NullPointerException("parameter key was null");
+
+		Set<Edge> sorted = new HashSet<Edge>();
+		String name = key[0].trim();
+		int postal = Dictionary.POSTALCODES.indexOf(key[2]);
+		if(name.length() == 0 || postal < 0)	return sorted;
+
+		for(RegionDataset region : regions){
+			Set<Edge> results = region.getEdges(name);
+			if(results == null)	continue;
+			for(Edge e : results){
+				if(e.getPostalLeftId() == postal || e.getPostalRightId() == postal)		sorted.add(e);
+			}
+		}
+		return sorted;
+	}
+
+	/**
+	 * The addresses starting with address in any region, with postal codes and names appended, like Search.Text.prefixAndPostal
+	 * @param address the prefix to match addresses against. The first letter of every word is matched as upper case
+	 * @return a list of strings with appended postal codes and names
+	 */
+	public Iterable<String> prefixAndPostal(String address){
+		if(address == null)	throw new NullPointerException("parameter address was null");
+
+		Set<String> done = new HashSet<String>();
+		for(String name : prefixMatch(Search.Text.capitalize(address))){
+			Set<Integer> postals = new HashSet<Integer>();		// The distinct postal codes of the road in every region, so each string is only built once
+			for(RegionDataset region : regions){
+				Set<Edge> edges = region.getEdges(name);
+				if(edges == null)	continue;
+				for(Edge e : edges){
+					postals.add(e.getPostalLeftId());
+					postals.add(e.getPostalRightId());
+				}
+			}
+			for(int id : postals)	done.add(Search.Text.INSTANCE.withPostal(name, id));
+		}
+		return done;
+	}
+
+	/**
+	 * @param prefix
+	 * @return the road names starting with prefix in any region, each name once
+	 */
+	public Iterable<String> prefixMatch(String prefix){
+		if(prefix == null)	throw new NullPointerException("parameter prefix was null");
+
+		Set<String> names = new LinkedHashSet<String>();
+		for(RegionDataset region : regions){
+			for(String name : region.prefixMatch(prefix))	names.add(name);
+		}
+		return names;
+	}
+
+	/**
+	 * Searches a route in the region owning both edges. Routes between regions are not searched.
+	 * @param from
+	 * @param to
+	 * @return the route. Null if no region owns both edges
+	 */
+	public Route searchRoutes(Edge from, Edge to){
+		if(from == null)	throw new NullPointerException("parameter from was null");
+		else if(to == null)	throw new NullPointerException("parameter to was null");
+
+		for(RegionDataset region : regions){
+			if(region.contains(from) && region.contains(to))	return region.searchRoutes(from, to);
+		}
+		return null;
+	}
+
+	/**
+	 * The regions load side by side, so the memory measured for each of them also counts some of the others, see RegionDataset.load.
+	 * The total is measured over the whole load, and is not the sum of the regions.
+	 * @return the memory measured for every region, one region per line, and the total
+	 */
+	public String memoryReport(){
+		StringBuilder sb = new StringBuilder();
+		for(RegionDataset region : regions){
+			sb.append(region).append('\n');
+		}
+		sb.append("total: ").append(memory >> 20).append(" MB\n");
+		return sb.toString();
+	}
+}
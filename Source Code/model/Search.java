@@ -1,19 +1,36 @@
 package model;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import model.data.Dictionary;
 import model.data.Edge;
+import model.data.KrakDataLoader;
+import model.data.KrakDelta;
+import model.data.NodeStore;
 import model.data.Point;
 import model.data.RoadType;
 import model.graph.DiGraph;
 import model.graph.DijkstraSP;
 import model.graph.Route;
+import model.tree.CorridorMetric;
+import model.tree.DistinctEdges;
+import model.tree.FlatKDTree;
 import model.tree.KDTree;
 import model.tree.KrakTreeKey;
+import model.tree.LODIndex;
+import model.tree.PixelSampler;
+import model.tree.RTree;
+import model.tree.RangeVisitor;
+import model.tree.SegmentMetric;
 import model.trie.PostalMap;
 import model.trie.TST;
 
@@ -30,12 +47,34 @@ public enum Search{
 	public enum Data implements Progress{
 		INSTANCE;
 
+		/**
+		 * The structures the edges can be indexed by
+		 */
+		public enum Index{
+			KDTREE	("kdtree.ser", false),		// Edges cut into keys of at most KrakDataLoader.DELTA length, searched with a padded range
+			RTREE	("rtree.ser", true),		// Whole segments, searched with the exact range
+			LOD		("lod.ser", true),			// Whole segments in one R-tree per zoom level, see LODIndex
+			MAPPED	("kdtree.idx", false);		// Edges cut as for KDTREE, in a flat kd-tree mapped from its file rather than read, see FlatKDTree.map
+
+			private final String file;
+			private final boolean wholeSegments;	// True if the keys are whole segments, see RTree.keyOf
+
+			Index(String file, boolean wholeSegments){
+				this.file = file;
+				this.wholeSegments = wholeSegments;
+			}
+		}
+
 		DataSearch<KrakTreeKey, Edge> dataInstance = new KDTree<KrakTreeKey, Edge>(new KrakTreeKey());
-		final int buffer = 210;		// Amount to expand range search (As dataInstance only returns values where all dimensions are in range)
+		private Index index = Index.KDTREE;
+		static final int buffer = 210;		// Amount to expand range search (As dataInstance only returns values where all dimensions are in range)
 		final File datdir = new File("dat");
-		final File kdfile = new File(datdir + File.separator + "kdtree.ser");
 		final File nodefile = new File(datdir + File.separator + "nodesize.ser");
+		final File nodestorefile = new File(datdir + File.separator + "nodes.ser");
 		private int nodeSize = 0;
+		private NodeStore nodes;			// Only read from disk when an update is applied
+		private final Object updateLock = new Object();
+		private boolean ingested = false;	// True if the data was ingested by KrakLoader rather than read from disk
 		private double progress = 0;
 		private final Object progressLock = new Object();
 
@@ -46,7 +85,7 @@ public enum Search{
 				return Serializer.read(nodefile);
 			}
 			else {
-				int size = KrakLoader.LOADER.getNodeMap().size();
+				int size = KrakLoader.LOADER.getNodeStore().size();
 				Serializer.write(size, nodefile);
 				return size;
 			}
@@ -60,23 +99,150 @@ public enum Search{
 			return nodeSize;
 		}
 
+		/**
+		 * Chooses the structure the edges are indexed by. Must be called before initialize
+		 * @param index
+		 */
+		public void setIndex(Index index){
+			if(index == null)	throw new NullPointerException("parameter index was null");
+			this.index = index;
+		}
+
+		/**
+		 * @return the structure the edges are indexed by
+		 */
+		public Index getIndex(){
+			return index;
+		}
+
+		// The file the index is stored in. Every index has its own file
+		private File indexFile(){
+			return new File(datdir + File.separator + index.file);
+		}
+
+		/**
+		 * @param e
+		 * @return the keys e is indexed by
+		 */
+		private List<KrakTreeKey> keysOf(Edge e){
+			if(index.wholeSegments)		return Collections.singletonList(RTree.keyOf(e));
+			return KrakDataLoader.generateKeys(e);
+		}
+
 		/**
 		 * Used to initialize the DataSearch object contained in this singleton together with the nodeSize field
 		 */
 		public void initialize(){
 
 			nodeSize = nodeSize();
+			File indexfile = indexFile();
 
-			KDTree<KrakTreeKey, Edge> kt = null;
-
-			if(kdfile.exists()) {
-				dataInstance = Serializer.readImplementer(kdfile);
+			if(indexfile.exists()) {
+				dataInstance = readIndex(indexfile);
 			}else {
-				dataInstance.build(KrakLoader.LOADER.getEdgeMap());
-				kt = (KDTree<KrakTreeKey, Edge>) dataInstance;
+				Stopwatch sw = new Stopwatch();
+				dataInstance = build(index, KrakLoader.LOADER.getEdges(), KrakLoader.LOADER.getKeys(), KrakLoader.LOADER.getValues());
+				System.out.println(index + ": " + dataInstance.size() + " keys built in " + sw.elapsedTime() + " s");
+				KrakLoader.LOADER.releaseKeys();
+				ingested = true;
 				if(!datdir.exists()) { datdir.mkdir(); } 
-				Serializer.writeImplementer(kt, new File("dat/kdtree.ser"));
+				writeIndex(indexfile);
+				nodes = KrakLoader.LOADER.getNodeStore();
+				Serializer.write(nodes, nodestorefile);
+			}
+		}
+
+		/**
+		 * Builds an index of the edges, as initialize does. Also used by RegionDataset, so a region is indexed like the whole data
+		 * @param index		the structure to build
+		 * @param edges		every edge once, indexed by the structures of whole segments
+		 * @param keys		the keys of the edges cut by KrakDataLoader, indexed by the other structures
+		 * @param values	the edge of keys.get(i) is values.get(i)
+		 * @return			the index
+		 */
+		static DataSearch<KrakTreeKey, Edge> build(Index index, List<Edge> edges, List<KrakTreeKey> keys, List<Edge> values){
+			if(index.wholeSegments){
+				List<KrakTreeKey> segments = new ArrayList<KrakTreeKey>(edges.size());
+				for(Edge e : edges)		segments.add(RTree.keyOf(e));
+				DataSearch<KrakTreeKey, Edge> data = index == Index.LOD ? new LODIndex() : new RTree();
+				data.build(segments, edges);
+				return data;
+			}else if(index == Index.MAPPED){
+				DataSearch<KrakTreeKey, Edge> data = new FlatKDTree();
+				data.build(keys, values);
+				return data;
 			}
+			KDTree<KrakTreeKey, Edge> tree = new KDTree<KrakTreeKey, Edge>(new KrakTreeKey());
+			tree.buildParallel(keys, values);
+			return tree;
+		}
+
+		// The mapped index is opened in place, the others are deserialized
+		private DataSearch<KrakTreeKey, Edge> readIndex(File file){
+			if(index != Index.MAPPED)	return Serializer.readImplementer(file);
+			try{
+				return FlatKDTree.map(file);
+			}catch(IOException e){
+				throw new IllegalStateException("could not map " + file + ", delete " + datdir + " to ingest the data again", e);
+			}
+		}
+
+		private void writeIndex(File file){
+			if(index != Index.MAPPED){
+				Serializer.writeImplementer((Serializable) dataInstance, file);
+				return;
+			}
+			try{
+				((FlatKDTree) dataInstance).write(file);
+			}catch(IOException e){
+				System.out.println("IOException while writing " + file + " : " + e);
+			}
+		}
+
+		/**
+		 * Applies newer krak files to the data, the name index and the graph, and writes the updated data to disk.
+		 * Only the edges that were added, removed or changed are taken out of or put into the structures.
+		 * Must be called after the singletons are initialized, and not while routes are searched.
+		 * @param pointFile the new point file
+		 * @param edgeFile the new edge file
+		 * @return the difference that was applied
+		 */
+		public KrakDelta update(String pointFile, String edgeFile){
+			if(pointFile == null)		throw new NullPointerException("parameter pointFile was null");
+			else if(edgeFile == null)	throw new NullPointerException("parameter edgeFile was null");
+
+			synchronized(updateLock){
+				if(nodes == null && nodestorefile.exists())	nodes = Serializer.read(nodestorefile);
+				if(nodes == null)	throw new IllegalStateException("no nodes stored in " + nodestorefile + ", delete " + datdir + " to ingest the data again");
+
+				KrakDelta delta = new KrakDelta(nodes, getAll(), pointFile, edgeFile);
+
+				for(Edge e : delta.getOutgoing()){
+					for(KrakTreeKey key : keysOf(e))	dataInstance.remove(key, e);
+				}
+				for(Edge e : delta.getIncoming()){
+					for(KrakTreeKey key : keysOf(e))	dataInstance.put(key, e);
+				}
+				nodes = delta.getNodeStore();
+				nodeSize = nodes.size();
+
+				Search.Coordinate.INSTANCE.update(nodes);
+				Search.Text.INSTANCE.update(delta);
+				Search.Graph.INSTANCE.update(delta);
+
+				if(!datdir.exists()) { datdir.mkdir(); }
+				writeIndex(indexFile());
+				Serializer.write(nodes, nodestorefile);
+				Serializer.write(nodeSize, nodefile);
+				return delta;
+			}
+		}
+
+		/**
+		 * @return true if the data was ingested from the krak files during initialize, in which case KrakLoader also holds the name index and the graph
+		 */
+		boolean isIngested(){
+			return ingested;
 		}
 
 		/** 
@@ -93,15 +259,268 @@ public enum Search{
 		 * @return			a set containing all V within the bounds of start and end
 		 */
 		public Set<Edge> getRange(Point from, Point to, int zoom){
+			return getRange(dataInstance, index, from, to, zoom);
+		}
+
+		// Searches data, an index of the kind index, as getRange(Point, Point, int)
+		static Set<Edge> getRange(DataSearch<KrakTreeKey, Edge> data, Index index, Point from, Point to, int zoom){
 			RoadType roadType = RoadType.getTypeByZoom(zoom);
-			from = new Point(0, from.getX()-buffer, from.getY()-buffer);
-			to = new Point(0, to.getX()+buffer, to.getY()+buffer);
+			int pad = index.wholeSegments ? 0 : buffer;		// The R-tree tests the segments themselves
+			from = new Point(0, from.getX()-pad, from.getY()-pad);
+			to = new Point(0, to.getX()+pad, to.getY()+pad);
 			KrakTreeKey key1 = new KrakTreeKey(from, from, RoadType.MOTORVEJ);
 			KrakTreeKey key2 = new KrakTreeKey(to, to, roadType);
-			Set<Edge> resultset = dataInstance.getRange(key1, key2);
+			Set<Edge> resultset = data.getRange(key1, key2);
 			return resultset;				
 		}
 
+		/**
+		 * Passes the edges in the range to visitor, every edge once, without collecting them in a set.
+		 * The edges a search has seen are kept in a bitset reused by the calling thread, see DistinctEdges,
+		 * so repeated searches, such as those of a pan, make no garbage beyond the keys of the range.
+		 * @param from		the lower left corner of the range
+		 * @param to		the upper right corner of the range
+		 * @param zoom		the zoom level deciding the least important road type
+		 * @param visitor	gets every edge in the range once
+		 * @param limit		the search ends after this many edges. Integer.MAX_VALUE for no limit
+		 * @return			the number of edges visited
+		 */
+		public int getRange(Point from, Point to, int zoom, RangeVisitor<? super Edge> visitor, int limit){
+			if(from == null)			throw new NullPointerException("parameter from was null");
+			else if(to == null)			throw new NullPointerException("parameter to was null");
+			else if(visitor == null)	throw new NullPointerException("parameter visitor was null");
+
+			return getRange(dataInstance, index, from, to, RoadType.MOTORVEJ, RoadType.getTypeByZoom(zoom), visitor, limit);
+		}
+
+		// Searches the road types with a zoom level from that of lowest to that of highest
+		private static int getRange(DataSearch<KrakTreeKey, Edge> data, Index index, Point from, Point to, RoadType lowest, RoadType highest, RangeVisitor<? super Edge> visitor, int limit){
+			int pad = index.wholeSegments ? 0 : buffer;
+			KrakTreeKey key1 = new KrakTreeKey(from.getX()-pad, from.getY()-pad, from.getX()-pad, from.getY()-pad, lowest);
+			KrakTreeKey key2 = new KrakTreeKey(to.getX()+pad, to.getY()+pad, to.getX()+pad, to.getY()+pad, highest);
+			DistinctEdges distinct = DistinctEdges.acquire(visitor);
+			try{
+				return data.getRange(key1, key2, distinct, limit);
+			}finally{
+				distinct.release();
+			}
+		}
+
+		/**
+		 * Return a sample of the edges in the range for a zoomed out view, where most edges fall in the same pixels, so the time of a frame is bounded
+		 * by the size of the view and limit rather than by the number of edges in it. The KDTree passes one of the most important roads starting in every pixel,
+		 * searching the most important roads first, see KDTree.sampleRange. The other indexes pass the edges of the range through a PixelSampler,
+		 * which keeps the same pixels, most important roads first: The LODIndex searches its levels in that order, and the RTree and FlatKDTree
+		 * are searched once for every zoom level of the road types. Those searches take time in proportion to the edges of the range rather than the pixels.
+		 * @param from			the lower left corner of the range
+		 * @param to			the upper right corner of the range
+		 * @param zoom			the zoom level deciding the least important road type
+		 * @param resolution	the width of a pixel of the view. Edges starting in the same pixel are drawn by one of them
+		 * @param limit			the largest number of edges returned
+		 * @return				a set of at most limit edges in the range
+		 */
+		public Set<Edge> getSample(Point from, Point to, int zoom, double resolution, int limit){
+			return getSample(dataInstance, index, from, to, zoom, resolution, limit);
+		}
+
+		// Samples data, an index of the kind index, as getSample(Point, Point, int, double, int)
+		static Set<Edge> getSample(DataSearch<KrakTreeKey, Edge> data, Index index, Point from, Point to, int zoom, double resolution, int limit){
+			if(from == null)		throw new NullPointerException("parameter from was null");
+			else if(to == null)		throw new NullPointerException("parameter to was null");
+
+			final Set<Edge> resultset = new HashSet<Edge>();
+			RangeVisitor<Edge> visitor = new RangeVisitor<Edge>(){
+				@Override
+				public boolean visit(Edge e){
+					return resultset.add(e);
+				}
+			};
+			RoadType roadType = RoadType.getTypeByZoom(zoom);
+			if(!(data instanceof KDTree)){
+				PixelSampler sampler = new PixelSampler(visitor, from.getX(), from.getY(), to.getX(), to.getY(), resolution);
+				if(index == Index.LOD){
+					getRange(data, index, from, to, RoadType.MOTORVEJ, roadType, sampler, limit);
+					return resultset;
+				}
+				for(RoadType level : zoomLevels(roadType)){
+					if(sampler.getCounted() >= limit)	break;
+					getRange(data, index, from, to, level, level, sampler, limit - sampler.getCounted());
+				}
+				return resultset;
+			}
+
+			KrakTreeKey key1 = new KrakTreeKey(from.getX()-buffer, from.getY()-buffer, from.getX()-buffer, from.getY()-buffer, RoadType.MOTORVEJ);
+			KrakTreeKey key2 = new KrakTreeKey(to.getX()+buffer, to.getY()+buffer, to.getX()+buffer, to.getY()+buffer, roadType);
+			((KDTree<KrakTreeKey, Edge>) data).sampleRange(key1, key2, resolution, visitor, limit);
+			return resultset;
+		}
+
+		/**
+		 * Counts the edges in the range up to limit, such as to decide whether the range is over the budget of a frame before searching it.
+		 * The KDTree counts the keys starting in the range from the sizes of its subtrees, see KDTree.densityGrid. As the keys are pieces of
+		 * the edges, long roads count more than once. The other indexes visit the edges of the range until limit.
+		 * @param from	the lower left corner of the range
+		 * @param to	the upper right corner of the range
+		 * @param zoom	the zoom level deciding the least important road type
+		 * @param limit	the count ends at this many edges
+		 * @return		the number of edges in the range, at most limit
+		 */
+		public int count(Point from, Point to, int zoom, int limit){
+			return count(dataInstance, index, from, to, zoom, limit);
+		}
+
+		// Counts the edges of data, an index of the kind index, as count(Point, Point, int, int)
+		static int count(DataSearch<KrakTreeKey, Edge> data, Index index, Point from, Point to, int zoom, int limit){
+			if(from == null)		throw new NullPointerException("parameter from was null");
+			else if(to == null)		throw new NullPointerException("parameter to was null");
+
+			RoadType roadType = RoadType.getTypeByZoom(zoom);
+			if(data instanceof KDTree){
+				KrakTreeKey key1 = new KrakTreeKey(from.getX(), from.getY(), from.getX()-buffer, from.getY()-buffer, RoadType.MOTORVEJ);
+				KrakTreeKey key2 = new KrakTreeKey(to.getX(), to.getY(), to.getX()+buffer, to.getY()+buffer, roadType);
+				return Math.min(limit, ((KDTree<KrakTreeKey, Edge>) data).densityGrid(key1, key2, 1, 1)[0][0]);
+			}
+			return getRange(data, index, from, to, RoadType.MOTORVEJ, roadType, new RangeVisitor<Edge>(){
+				@Override
+				public boolean visit(Edge e){
+					return true;
+				}
+			}, limit);
+		}
+
+		// A road type of every zoom level up to that of highest, most important first
+		private static List<RoadType> zoomLevels(RoadType highest){
+			List<RoadType> levels = new ArrayList<RoadType>();
+			for(int zoom = 0 ; zoom <= highest.getZoomLevel() ; zoom++){
+				RoadType level = RoadType.getTypeByZoom(zoom);
+				if(level.getZoomLevel() == zoom)	levels.add(level);
+			}
+			return levels;
+		}
+
+		/**
+		 * Return the edges in every range, searching the index once for all of them, as for the tiles around the view when they are prefetched.
+		 * The top of the index is walked once, and every part of it is only tested against the ranges reaching into it, see DataSearch.getRanges
+		 * @param from	the lower left corners of the ranges
+		 * @param to	the upper right corners of the ranges
+		 * @param zoom	the zoom level deciding the least important road type
+		 * @return		the edges of range i at index i
+		 */
+		public List<Set<Edge>> getRanges(List<Point> from, List<Point> to, int zoom){
+			List<Set<Edge>> resultsets = new ArrayList<Set<Edge>>();
+			List<RangeVisitor<Edge>> visitors = new ArrayList<RangeVisitor<Edge>>();
+			for(int i = 0 ; i < from.size() ; i++){
+				final Set<Edge> resultset = new HashSet<Edge>();
+				resultsets.add(resultset);
+				visitors.add(new RangeVisitor<Edge>(){
+					@Override
+					public boolean visit(Edge e){
+						return resultset.add(e);
+					}
+				});
+			}
+			getRanges(from, to, zoom, visitors);
+			return resultsets;
+		}
+
+		/**
+		 * Passes the edges in every range to the visitor of the range, every edge once, searching the index once for all of them.
+		 * Every range has its own bitset of the edges seen, see DistinctEdges
+		 * @param from		the lower left corners of the ranges
+		 * @param to		the upper right corners of the ranges
+		 * @param zoom		the zoom level deciding the least important road type
+		 * @param visitors	visitors.get(i) gets every edge in range i once
+		 * @return			the number of edges every visitor counted
+		 */
+		public int[] getRanges(List<Point> from, List<Point> to, int zoom, List<? extends RangeVisitor<? super Edge>> visitors){
+			if(from == null)			throw new NullPointerException("parameter from was null");
+			else if(to == null)			throw new NullPointerException("parameter to was null");
+			else if(visitors == null)	throw new NullPointerException("parameter visitors was null");
+			else if(from.size() != to.size() || from.size() != visitors.size())	throw new IllegalArgumentException("parameters from, to and visitors differ in size");
+
+			int pad = index.wholeSegments ? 0 : buffer;
+			RoadType roadType = RoadType.getTypeByZoom(zoom);
+			List<KrakTreeKey> keys1 = new ArrayList<KrakTreeKey>(), keys2 = new ArrayList<KrakTreeKey>();
+			List<DistinctEdges> distinct = new ArrayList<DistinctEdges>();
+			try{
+				for(int i = 0 ; i < from.size() ; i++){
+					Point f = from.get(i), t = to.get(i);
+					if(f == null || t == null)	throw new NullPointerException("parameter from or to contained null");
+					keys1.add(new KrakTreeKey(f.getX()-pad, f.getY()-pad, f.getX()-pad, f.getY()-pad, RoadType.MOTORVEJ));
+					keys2.add(new KrakTreeKey(t.getX()+pad, t.getY()+pad, t.getX()+pad, t.getY()+pad, roadType));
+					distinct.add(DistinctEdges.acquire(visitors.get(i)));
+				}
+				return dataInstance.getRanges(keys1, keys2, distinct);
+			}finally{
+				for(DistinctEdges d : distinct)	d.release();
+			}
+		}
+
+		/**
+		 * Counts the roads in a grid over the range, such as for a density overlay of the whole map.
+		 * The KDTree counts the keys starting in every cell from the sizes of its subtrees, without visiting them. As the keys are pieces of at most
+		 * KrakDataLoader.DELTA of the edges, roads count by their length. The R-trees visit the edges in the range, and count every edge by its start point.
+		 * @param from	the lower left corner of the grid
+		 * @param to	the upper right corner of the grid
+		 * @param zoom	the zoom level deciding the least important road type
+		 * @param cols	the number of cells along x
+		 * @param rows	the number of cells along y
+		 * @return		grid[row][col], with row 0 and column 0 at from
+		 */
+		public int[][] densityGrid(Point from, Point to, int zoom, int cols, int rows){
+			if(from == null)	throw new NullPointerException("parameter from was null");
+			else if(to == null)	throw new NullPointerException("parameter to was null");
+
+			RoadType roadType = RoadType.getTypeByZoom(zoom);
+			if(dataInstance instanceof KDTree){
+				KrakTreeKey key1 = new KrakTreeKey(from.getX(), from.getY(), from.getX()-buffer, from.getY()-buffer, RoadType.MOTORVEJ);
+				KrakTreeKey key2 = new KrakTreeKey(to.getX(), to.getY(), to.getX()+buffer, to.getY()+buffer, roadType);
+				return ((KDTree<KrakTreeKey, Edge>) dataInstance).densityGrid(key1, key2, cols, rows);
+			}
+
+			if(cols <= 0)		throw new IllegalArgumentException("parameter cols was not positive");
+			else if(rows <= 0)	throw new IllegalArgumentException("parameter rows was not positive");
+			final int[][] grid = new int[rows][cols];
+			final double x = from.getX(), y = from.getY(), width = to.getX() - x, height = to.getY() - y;
+			getRange(from, to, zoom, new RangeVisitor<Edge>(){
+				@Override
+				public boolean visit(Edge e){
+					double sx = e.getStartX() - x, sy = e.getStartY() - y;
+					if(sx < 0 || sy < 0 || sx > width || sy > height)	return false;
+					int col = width > 0 ? Math.min((int) (sx / width * grid[0].length), grid[0].length - 1) : 0;
+					int row = height > 0 ? Math.min((int) (sy / height * grid.length), grid.length - 1) : 0;
+					grid[row][col]++;
+					return true;
+				}
+			}, Integer.MAX_VALUE);
+			return grid;
+		}
+
+		/**
+		 * Finds the edges nearest to a point, by their true distance to the point, such as the roads nearest to the mouse
+		 * @param point		the point to measure from
+		 * @param k			the number of edges
+		 * @param maxRoadType	the least important road type to include
+		 * @return			at most k edges, nearest first
+		 */
+		public List<Edge> nearest(Point point, int k, RoadType maxRoadType){
+			double extent = index.wholeSegments ? Double.POSITIVE_INFINITY : KrakDataLoader.DELTA;		// Cut keys are short
+			return dataInstance.nearest(new SegmentMetric(point, maxRoadType, extent), k);
+		}
+
+		/**
+		 * Finds the edges near a route, such as detour candidates, searching only the regions reaching into the corridor of buffer around its edges
+		 * rather than the bounding box of the route, see CorridorMetric
+		 * @param route			the edges of the route, as those of Route.getVisualRoute()
+		 * @param buffer		the largest distance from the route of an edge found
+		 * @param maxRoadType	the least important road type to include
+		 * @return			the edges within buffer of the route, nearest first
+		 */
+		public List<Edge> corridor(Edge[] route, double buffer, RoadType maxRoadType){
+			double extent = index.wholeSegments ? Double.POSITIVE_INFINITY : KrakDataLoader.DELTA;		// Cut keys are short
+			return dataInstance.nearest(new CorridorMetric(route, buffer, maxRoadType, extent), Integer.MAX_VALUE);
+		}
+
 		/**
 		 * @return All values.
 		 */
@@ -131,7 +550,7 @@ public enum Search{
 	public enum Text implements Progress{
 		INSTANCE;
 
-		final TextSearch<Set<Edge>> textInstance = new TST<Set<Edge>>();
+		TextSearch<Set<Edge>> textInstance = new TST<Set<Edge>>();
 		final File postalFile = new File("dat" + File.separator + "postalinfo.txt");
 		Map<String,String> postalMap = new PostalMap(postalFile).getPostalMap();
 		private double progress = 0;
@@ -141,7 +560,12 @@ public enum Search{
 		 * Used to initialize the TextSearch object contained in this singleton.
 		 */
 		public void initialize(){
-			textInstance.build(getEdgesByName());
+			if(Search.Data.INSTANCE.isIngested()){
+				textInstance = KrakLoader.LOADER.getNameIndex();		// Built while the data was ingested
+				setProgress(1);
+			}else{
+				textInstance.build(getEdgesByName());
+			}
 		}
 
 		private Map<String, Set<Edge>> getEdgesByName(){
@@ -156,6 +580,40 @@ public enum Search{
 			return edgesByName;
 		}
 
+		/**
+		 * Takes the outgoing edges of delta out of the name index, and puts the incoming edges in.
+		 * The sets of edges are replaced rather than modified, so a set returned by get is never changed.
+		 * @param delta
+		 */
+		void update(KrakDelta delta){
+			Map<String, Set<Edge>> patched = new HashMap<String, Set<Edge>>();
+			for(Edge e : delta.getOutgoing()){
+				String name = e.getRoadName();
+				if(name.length() == 0) continue;
+				named(name, patched).remove(e);
+			}
+			for(Edge e : delta.getIncoming()){
+				String name = e.getRoadName();
+				if(name.length() == 0) continue;
+				named(name, patched).add(e);
+			}
+			for(Map.Entry<String, Set<Edge>> entry : patched.entrySet()){
+				if(entry.getValue().isEmpty()) textInstance.put(entry.getKey(), null); // Names without edges are left out of prefix matches
+				else textInstance.put(entry.getKey(), entry.getValue());
+			}
+		}
+
+		// A copy of the edges named name, made the first time the name is patched
+		private Set<Edge> named(String name, Map<String, Set<Edge>> patched){
+			Set<Edge> set = patched.get(name);
+			if(set == null){
+				Set<Edge> current = textInstance.contains(name) ? textInstance.get(name) : null;
+				set = current == null ? new HashSet<Edge>() : new HashSet<Edge>(current);
+				patched.put(name, set);
+			}
+			return set;
+		}
+
 		/**
 		 * Find all edges associated with parameter
 		 * @param key
@@ -167,9 +625,11 @@ public enum Search{
 			if(key[0].trim() == null || key[0].trim().length() == 0) return sorted;
 			Set<Edge> results = textInstance.get(key[0].trim());
 			if(results == null) return sorted;
+			int postal = Dictionary.POSTALCODES.indexOf(key[2]);	// No edge can match a postal code that is not in the dictionary
+			if(postal < 0) return sorted;
 			for(Edge e : results)
 			{
-				if(e.getPostalLeft().equals(key[2]) || e.getPostalRight().equals(key[2]))
+				if(e.getPostalLeftId() == postal || e.getPostalRightId() == postal)
 				{
 					sorted.add(e);
 				}
@@ -183,15 +643,17 @@ public enum Search{
 		 * @return all keys starting with prefix
 		 */
 		public Iterable<String> prefixMatch(String prefix){
-			// Create a new string, with first letter of every word as upper case
+			return textInstance.prefixMatch(capitalize(prefix));
+		}
+
+		// Create a new string, with first letter of every word as upper case, as the road names are written
+		static String capitalize(String prefix){
 			String[] tmp = prefix.split(" ");
 			String tmp1 = "";
 			for(int i = 0 ; i < tmp.length ; i++){
 				tmp1 += Character.toUpperCase(tmp[i].charAt(0)) + tmp[i].substring(1) + " "; 
 			}
-			tmp1 = tmp1.substring(0, tmp1.length()-1);
-
-			return textInstance.prefixMatch(tmp1);
+			return tmp1.substring(0, tmp1.length()-1);
 		}
 
 		/**
@@ -211,22 +673,34 @@ public enum Search{
 			{
 				Iterable<Edge> edges = textInstance.get(s); // Get suitable edges from TST
 				if(edges == null) continue;
+				Set<Integer> postals = new HashSet<Integer>(); // The distinct postal codes of the road, so each string is only built once
 				for(Edge e : edges)
 				{
 					if(e == null) continue;
-					String left = s + ", " + e.getPostalLeft(); // Get postal information from edges
-					String right = s + ", " + e.getPostalRight();
-					if(postalMap.get(e.getPostalLeft().trim()) != null) { left += ", " + postalMap.get(e.getPostalLeft().trim()); }
-					if(postalMap.get(e.getPostalRight().trim()) != null) { right += ", " + postalMap.get(e.getPostalRight().trim()); }
-
-					done.add(left);
-					done.add(right); // Add postal codes to the returned list.
+					postals.add(e.getPostalLeftId()); // Get postal information from edges
+					postals.add(e.getPostalRightId());
+				}
+				for(int id : postals)
+				{
+					done.add(withPostal(s, id)); // Add postal codes to the returned list.
 				}
 			}
 			return done;
 
 		}
 
+		/**
+		 * @param address	a road name
+		 * @param postalId	the id of a postal code in Dictionary.POSTALCODES
+		 * @return the address with the postal code appended, and the postal name if the postal info document has it
+		 */
+		String withPostal(String address, int postalId){
+			String postal = Dictionary.POSTALCODES.get(postalId);
+			String full = address + ", " + postal;
+			if(postalMap.get(postal.trim()) != null) { full += ", " + postalMap.get(postal.trim()); }
+			return full;
+		}
+
 		@Override
 		public double getProgress(){
 			synchronized(progressLock){
@@ -251,8 +725,8 @@ public enum Search{
 		private final File maxPointFile = new File("dat/maxpoint.ser");
 		private final File minPointFile = new File("dat/minpoint.ser");
 
-		private final Point maxPoint;
-		private final Point minPoint;
+		private volatile Point maxPoint;
+		private volatile Point minPoint;
 
 		/**
 		 * Initializes the two points
@@ -288,6 +762,17 @@ public enum Search{
 		public Point getMinPoint(){
 			return minPoint;
 		}
+
+		/**
+		 * Replaces the two points with the bounds of the nodes, and writes them to disk
+		 * @param nodes
+		 */
+		void update(NodeStore nodes){
+			maxPoint = nodes.getMaxPoint();
+			minPoint = nodes.getMinPoint();
+			Serializer.write(maxPoint, maxPointFile);
+			Serializer.write(minPoint, minPointFile);
+		}
 	}
 
 	/**
@@ -298,15 +783,41 @@ public enum Search{
 
 		private double progress = 0;
 		private Object progressLock = new Object();
+		private DiGraph graph;
 
 		/**
 		 * Initialize the graph object contained in this singleton.
 		 */
 		public void initialize() {
-			DiGraph dg = new DiGraph();
+			DiGraph dg = null;
+			if(Search.Data.INSTANCE.isIngested()){
+				dg = KrakLoader.LOADER.getGraph();		// Built while the data was ingested
+				setProgress(1);
+			}else{
+				dg = new DiGraph();
+			}
+			graph = dg;
 			DijkstraSP.setGraph(dg);
 		}
 
+		/**
+		 * Takes the outgoing roads of delta out of the graph, and adds the incoming roads. The graph grows with the nodes of delta.
+		 * @param delta
+		 */
+		void update(KrakDelta delta){
+			if(graph == null) return;
+			if(graph.V() < delta.getNodeStore().size()) graph.grow(delta.getNodeStore().size());
+			for(Edge e : delta.getOutgoing()) graph.removeRoad(e);
+			for(Edge e : delta.getIncoming()) graph.addRoad(e);
+		}
+
+		/**
+		 * @return the graph, null until initialize is called
+		 */
+		DiGraph getGraph(){
+			return graph;
+		}
+
 		/**
 		 * Constructs 2 shortest paths - from edge start and end
 		 * @param to - edge to search to
@@ -0,0 +1,81 @@
+package model.data;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared dictionaries for the strings repeated across many edges. Every distinct string is stored once and
+ * identified by an int id, so an edge only has to keep the ids, and strings can be compared by comparing ids.
+ * Ids are handed out from 0 in the order the strings are first seen, and a string keeps its id for the lifetime of the program.
+ *
+ * This enum is unconditionally thread-safe. Lookups of known strings and ids take no locks.
+ * @author ejer
+ *
+ */
+public enum Dictionary {
+	ROADNAMES, POSTALCODES;
+
+	private final Map<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	private volatile String[] strings = new String[1024];		// strings[id] is the string with id. Replaced, never modified, once published
+	private int size = 0;
+
+	private final Object stateLock = new Object();
+
+	/**
+	 * Finds the id of s, adding s to the dictionary if it is unknown
+	 * @param s
+	 * @return the id of s
+	 */
+	public int id(String s){
+		if(s == null)	throw new NullPointerException("parameter s was null");
+
+		Integer id = ids.get(s);
+		if(id != null)	return id;
+
+		synchronized(stateLock){
+			id = ids.get(s);
+			if(id != null)	return id;
+
+			String[] snapshot = strings;
+			if(size == snapshot.length){
+				String[] grown = new String[snapshot.length * 2];
+				System.arraycopy(snapshot, 0, grown, 0, size);
+				snapshot = grown;
+			}
+			snapshot[size] = s;
+			strings = snapshot;			// Publish the string before its id
+			ids.put(s, size);
+			return size++;
+		}
+	}
+
+	/**
+	 * Finds the id of s without adding it to the dictionary
+	 * @param s
+	 * @return the id of s. -1 if s is unknown
+	 */
+	public int indexOf(String s){
+		if(s == null)	throw new NullPointerException("parameter s was null");
+
+		Integer id = ids.get(s);
+		if(id == null)	return -1;
+		return id;
+	}
+
+	/**
+	 * @param id
+	 * @return the string with id
+	 */
+	public String get(int id){
+		if(id < 0)	throw new IllegalArgumentException("parameter id was negative");
+
+		return strings[id];
+	}
+
+	/**
+	 * @return the number of distinct strings in the dictionary
+	 */
+	public int size(){
+		return ids.size();
+	}
+}
@@ -3,11 +3,15 @@ package model.data;
 import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 /**
  * This class represent edges in our system. 
  * This class is fully serializable including a serialization proxy.
+ * The road name and postal codes are kept as ids in the shared dictionaries, see Dictionary.
+ * The length is calculated when asked for rather than kept, as it is only read while routes are searched.
  * 
- * The edge is an immutable class.
+ * The edge is an immutable class. Its id is handed out the first time it is asked for, so only edges that are searched for take one.
  * @author Stahl
  *
  */
@@ -19,13 +23,15 @@ public class Edge implements Serializable{
 		NONE, FROMTO, TOFROM, NODRIVING;
 	}
 
-	private transient final Point fromP, toP;
-	private transient final double dist;
-	private transient final String roadName,postalleft, postalright;
+	private transient final int fromId, toId;
+	private transient final double fromX, fromY, toX, toY;		// The end points are kept as primitives, so no Point object is held per node
+	private transient final int roadName, postalleft, postalright;	// Ids in the road name and postal code dictionaries
 	private transient final RoadType roadType;
 	private transient final OneWayType onewaytype;
-	
-	private transient final Object stateLock = new Object();
+
+	private static final AtomicInteger nextId = new AtomicInteger();		// Ids are dense from 1, so they can key a bitset
+	private static final AtomicIntegerFieldUpdater<Edge> idUpdater = AtomicIntegerFieldUpdater.newUpdater(Edge.class, "id");
+	private transient volatile int id;		// 0 until getId is first called
 
 	public Edge(Point fromP, Point toP, String roadName, RoadType roadType, OneWayType onewaytype, String postalleft, String postalright){
 		if(fromP == null)				throw new NullPointerException("parameter fromP was null");
@@ -35,16 +41,46 @@ public class Edge implements Serializable{
 		else if(onewaytype == null)		throw new NullPointerException("parameter onewaytype was null");
 		else if(postalleft == null)		throw new NullPointerException("parameter postalleft was null");
 		else if(postalright == null)	throw new NullPointerException("parameter postalright was null");
-		
-		this.fromP = fromP;
-		this.toP = toP;
+
+		this.fromId = fromP.getId();
+		this.toId = toP.getId();
+		this.fromX = fromP.getX();
+		this.fromY = fromP.getY();
+		this.toX = toP.getX();
+		this.toY = toP.getY();
+		this.roadType = roadType;
+		this.roadName = Dictionary.ROADNAMES.id(roadName);
+		this.postalleft = Dictionary.POSTALCODES.id(postalleft);
+		this.postalright = Dictionary.POSTALCODES.id(postalright);
+		this.onewaytype = onewaytype;
+	}
+
+	/**
+	 * Creates an edge from strings already in the dictionaries
+	 * @param roadName id in Dictionary.ROADNAMES
+	 * @param postalleft id in Dictionary.POSTALCODES
+	 * @param postalright id in Dictionary.POSTALCODES
+	 */
+	public Edge(Point fromP, Point toP, int roadName, RoadType roadType, OneWayType onewaytype, int postalleft, int postalright){
+		if(fromP == null)				throw new NullPointerException("parameter fromP was null");
+		else if(toP == null)			throw new NullPointerException("parameter toP was null");
+		else if(roadName < 0)			throw new IllegalArgumentException("parameter roadName was negative");
+		else if(roadType == null)		throw new NullPointerException("parameter roadType was null");
+		else if(onewaytype == null)		throw new NullPointerException("parameter onewaytype was null");
+		else if(postalleft < 0)			throw new IllegalArgumentException("parameter postalleft was negative");
+		else if(postalright < 0)		throw new IllegalArgumentException("parameter postalright was negative");
+
+		this.fromId = fromP.getId();
+		this.toId = toP.getId();
+		this.fromX = fromP.getX();
+		this.fromY = fromP.getY();
+		this.toX = toP.getX();
+		this.toY = toP.getY();
 		this.roadType = roadType;
 		this.roadName = roadName;
 		this.postalleft = postalleft;
 		this.postalright = postalright;
 		this.onewaytype = onewaytype;
-
-		dist = calculateDist();
 	}
 
 	public Edge(Point fromP, Point toP, String roadName, RoadType roadType){
@@ -58,35 +94,111 @@ public class Edge implements Serializable{
 	}
 
 	public Edge invertEdge(){
-		return new Edge(toP,fromP,roadName,roadType,invertedOneWay(),postalleft,postalright);
+		return new Edge(getEnd(),getStart(),roadName,roadType,invertedOneWay(),postalleft,postalright);
+	}
+
+	/**
+	 * Edges are compared by identity, so the id is unique to this object, not to the road segment. A deserialized edge gets a new id.
+	 * @return the id of this edge, from 1 up. The same on every call
+	 */
+	public int getId(){
+		int i = id;
+		if(i == 0){
+			idUpdater.compareAndSet(this, 0, nextId.incrementAndGet());		// A thread losing the race reads the id of the winner
+			i = id;
+		}
+		return i;
 	}
 
 	public OneWayType getOneWay(){
 		return onewaytype;
 	}
 
-	private double calculateDist() {
-		double x1 = fromP.getX(); double y1 = fromP.getY();
-		double x2 = toP.getX(); double y2 = toP.getY();
-		double dx = x1 - x2; double dy = y1 - y2;
-		double dxs = Math.pow(dx, 2); double dys = Math.pow(dy, 2);
-		return Math.sqrt(dxs + dys);
+	/**
+	 * @return the length of this edge. Calculated on every call, always to the same value
+	 */
+	public double getDist(){
+		double dx = fromX - toX; double dy = fromY - toY;
+		return Math.sqrt(dx * dx + dy * dy);
 	}
 
+	/**
+	 * @return a new point at the start of this edge
+	 */
 	public Point getStart(){
-		return fromP;
+		return new Point(fromId, fromX, fromY);
 	}
 
+	/**
+	 * @return a new point at the end of this edge
+	 */
 	public Point getEnd(){
-		return toP;
+		return new Point(toId, toX, toY);
 	}
 
-	public double getDist(){
-		return dist;
+	/**
+	 * @return the id of the point at the start of this edge
+	 */
+	public int getStartId(){
+		return fromId;
+	}
+
+	/**
+	 * @return the id of the point at the end of this edge
+	 */
+	public int getEndId(){
+		return toId;
+	}
+
+	/**
+	 * @return the x coordinate of the start of this edge
+	 */
+	public double getStartX(){
+		return fromX;
+	}
+
+	/**
+	 * @return the y coordinate of the start of this edge
+	 */
+	public double getStartY(){
+		return fromY;
+	}
+
+	/**
+	 * @return the x coordinate of the end of this edge
+	 */
+	public double getEndX(){
+		return toX;
+	}
+
+	/**
+	 * @return the y coordinate of the end of this edge
+	 */
+	public double getEndY(){
+		return toY;
+	}
+
+	/**
+	 * Edges are compared by identity everywhere else, as two road segments can share every attribute.
+	 * @param that
+	 * @return true if that edge has the same end points, coordinates and attributes as this edge
+	 */
+	boolean sameAs(Edge that){
+		return fromId == that.fromId && toId == that.toId
+				&& fromX == that.fromX && fromY == that.fromY && toX == that.toX && toY == that.toY
+				&& roadName == that.roadName && postalleft == that.postalleft && postalright == that.postalright
+				&& roadType == that.roadType && onewaytype == that.onewaytype;
 	}
 
 	public String getRoadName() {
-		return "" + roadName;
+		return Dictionary.ROADNAMES.get(roadName);
+	}
+
+	/**
+	 * @return the id of the road name in Dictionary.ROADNAMES
+	 */
+	public int getRoadNameId(){
+		return roadName;
 	}
 
 	public RoadType getRoadType(){
@@ -95,21 +207,35 @@ public class Edge implements Serializable{
 
 	@Override
 	public String toString(){	
-		return fromP.getId() + " " + toP.getId() + " " + dist;
+		return fromId + " " + toId + " " + getDist();
 	}
 
 	public String getPostalLeft(){
-		return postalleft;
+		return Dictionary.POSTALCODES.get(postalleft);
 	}
 
 	public String getPostalRight(){
+		return Dictionary.POSTALCODES.get(postalright);
+	}
+
+	/**
+	 * @return the id of the left postal code in Dictionary.POSTALCODES
+	 */
+	public int getPostalLeftId(){
+		return postalleft;
+	}
+
+	/**
+	 * @return the id of the right postal code in Dictionary.POSTALCODES
+	 */
+	public int getPostalRightId(){
 		return postalright;
 	}
 
 	public String toFormatString(){	
-		String distString = ((Double) dist).toString();
+		String distString = ((Double) getDist()).toString();
 		int index = distString.indexOf(".");
-		if(distString.length() > index+2)	return "From: " + fromP.getX() + "," + fromP.getY() + " To: " + toP.getX() + "," + toP.getY() + " " + distString.substring(0, index+3);
+		if(distString.length() > index+2)	return "From: " + fromX + "," + fromY + " To: " + toX + "," + toY + " " + distString.substring(0, index+3);
 		return toString();
 	}	
 
@@ -133,11 +259,11 @@ public class Edge implements Serializable{
 		 * @serialData
 		 */
 		SerializationProxy(Edge e){
-			fromP = e.fromP;
-			toP = e.toP;
-			roadName = e.roadName;
-			postalleft = e.postalleft;
-			postalright = e.postalright;
+			fromP = e.getStart();
+			toP = e.getEnd();
+			roadName = e.getRoadName();				// The strings are written, as the ids are only valid in this program
+			postalleft = e.getPostalLeft();
+			postalright = e.getPostalRight();
 			roadType = e.roadType;
 			onewaytype = e.onewaytype;
 		}
@@ -159,9 +285,7 @@ public class Edge implements Serializable{
 	 * @serial
 	 */
 	private Object writeReplace(){
-		synchronized(stateLock){
-			return new SerializationProxy(this);
-		}
+		return new SerializationProxy(this);
 	}
 
 	/**
@@ -0,0 +1,205 @@
+package model.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import model.data.ValidationReport.Problem;
+
+/**
+ * Validates the edge chunks of a source against the node store they refer to. Every chunk is checked by its own task on the parsers ForkJoinPool,
+ * so the chunks are validated in parallel while the source is still being read. Duplicate segments are found when the results are joined,
+ * by a single pass over the node pairs of all chunks in source order.
+ *
+ * This class is not thread-safe. submit and finish must be called from the same thread
+ * @author ejer
+ *
+ */
+class EdgeValidator {
+
+	private final NodeStore nodes;
+	private final List<ForkJoinTask<ChunkResult>> tasks = new ArrayList<ForkJoinTask<ChunkResult>>();
+
+	EdgeValidator(NodeStore nodes){
+		if(nodes == null)	throw new NullPointerException("parameter nodes was null");
+
+		this.nodes = nodes;
+	}
+
+	/**
+	 * Starts the validation of a chunk. The chunk must not be changed while it is validated
+	 * @param chunk
+	 */
+	void submit(KrakParser.EdgeChunk chunk){
+		if(chunk == null)	throw new NullPointerException("parameter chunk was null");
+
+		tasks.add(KrakParser.pool.submit(new ChunkTask(nodes, chunk)));
+	}
+
+	/**
+	 * Waits for every submitted chunk and joins their results
+	 * @param source the name of the source
+	 * @return the report of all chunks
+	 */
+	ValidationReport finish(String source){
+		ValidationReport report = new ValidationReport(source);
+		long nanos = 0;
+		int pairs = 0;
+		List<ChunkResult> results = new ArrayList<ChunkResult>(tasks.size());
+		for(ForkJoinTask<ChunkResult> task : tasks){
+			ChunkResult result = task.join();
+			results.add(result);
+			nanos += result.nanos;
+			pairs += result.pairCount;
+		}
+		tasks.clear();
+
+		long start = System.nanoTime();
+		// The problems of each chunk are reported in source order, so the samples are the first lines showing them
+		for(Problem problem : Problem.values()){
+			if(problem == Problem.DUPLICATE)	continue;
+			for(ChunkResult result : results)	report.add(problem, result.counts[problem.ordinal()], result.samples[problem.ordinal()]);
+		}
+
+		LongSet seen = new LongSet(pairs);
+		for(ChunkResult result : results){
+			report.addRecords(result.records);
+			for(int i = 0 ; i < result.pairCount ; i++){
+				if(!seen.add(result.pairs[i]))	report.add(Problem.DUPLICATE, result.pairLines[i]);
+			}
+			for(int i = 0 ; i < result.unknownTypes.length ; i += 2)	report.addUnknownType(result.unknownTypes[i], result.unknownTypes[i+1]);
+			for(int id : result.danglingNodes)	report.addDanglingNode(id);
+		}
+		report.setTime((nanos + System.nanoTime() - start) / 1e9);
+		return report;
+	}
+
+	/**
+	 * The problems of one chunk. Only the counts, the first lines of every problem, and the node pairs of the valid segments are kept, not the chunk
+	 */
+	private static class ChunkResult{
+		int records;
+		final int[] counts = new int[Problem.values().length];
+		final int[][] samples = new int[Problem.values().length][];
+		int[] unknownTypes;		// Pairs of type id and count
+		int[] danglingNodes;
+		long[] pairs;			// The node ids of a segment, the lower in the high bits
+		int[] pairLines;
+		int pairCount;
+		long nanos;
+	}
+
+	@SuppressWarnings("serial")
+	private static class ChunkTask extends RecursiveTask<ChunkResult>{
+		private final NodeStore nodes;
+		private KrakParser.EdgeChunk chunk;
+
+		ChunkTask(NodeStore nodes, KrakParser.EdgeChunk chunk){
+			this.nodes = nodes;
+			this.chunk = chunk;
+		}
+
+		@Override
+		protected ChunkResult compute(){
+			long start = System.nanoTime();
+			ChunkResult result = new ChunkResult();
+			int[][] samples = new int[Problem.values().length][ValidationReport.SAMPLES];
+			List<Integer> unknown = new ArrayList<Integer>();
+			List<Integer> dangling = new ArrayList<Integer>();
+			result.pairs = new long[chunk.size];
+			result.pairLines = new int[chunk.size];
+
+			for(int i = 0 ; i < chunk.size ; i++){
+				int from = chunk.from[i], to = chunk.to[i], line = chunk.line[i];
+				if(chunk.malformed[i]){
+					add(result, samples, Problem.MALFORMED, line);
+					continue;
+				}
+				if(RoadType.getRoadType(chunk.type[i]) == null){
+					add(result, samples, Problem.UNKNOWNTYPE, line);
+					addUnknownType(unknown, chunk.type[i]);
+				}
+				if(from == to){
+					add(result, samples, Problem.SELFLOOP, line);
+					continue;
+				}
+
+				int fromIndex = nodes.indexOf(from), toIndex = nodes.indexOf(to);
+				if(fromIndex < 0 || toIndex < 0){
+					add(result, samples, Problem.DANGLINGNODE, line);
+					if(fromIndex < 0 && dangling.size() < ValidationReport.SAMPLES)		dangling.add(from);
+					if(toIndex < 0 && dangling.size() < ValidationReport.SAMPLES)		dangling.add(to);
+					continue;
+				}
+				if(nodes.getX(fromIndex) == nodes.getX(toIndex) && nodes.getY(fromIndex) == nodes.getY(toIndex))	add(result, samples, Problem.ZEROLENGTH, line);
+
+				long low = Math.min(from, to), high = Math.max(from, to);
+				result.pairs[result.pairCount] = low << 32 | (high & 0xffffffffL);
+				result.pairLines[result.pairCount++] = line;
+			}
+
+			result.records = chunk.size;
+			for(int p = 0 ; p < samples.length ; p++){
+				int[] kept = new int[Math.min(result.counts[p], ValidationReport.SAMPLES)];
+				System.arraycopy(samples[p], 0, kept, 0, kept.length);
+				result.samples[p] = kept;
+			}
+			result.unknownTypes = toArray(unknown);
+			result.danglingNodes = toArray(dangling);
+			chunk = null;		// The chunk is released as soon as it is validated
+			result.nanos = System.nanoTime() - start;
+			return result;
+		}
+
+		private static void add(ChunkResult result, int[][] samples, Problem problem, int line){
+			int count = result.counts[problem.ordinal()]++;
+			if(count < ValidationReport.SAMPLES)	samples[problem.ordinal()][count] = line;
+		}
+
+		// unknown holds pairs of type id and count. There are only a few unknown ids, so they are searched linearly
+		private static void addUnknownType(List<Integer> unknown, int typeID){
+			for(int i = 0 ; i < unknown.size() ; i += 2){
+				if(unknown.get(i) == typeID){
+					unknown.set(i+1, unknown.get(i+1) + 1);
+					return;
+				}
+			}
+			unknown.add(typeID);
+			unknown.add(1);
+		}
+
+		private static int[] toArray(List<Integer> list){
+			int[] a = new int[list.size()];
+			for(int i = 0 ; i < a.length ; i++)		a[i] = list.get(i);
+			return a;
+		}
+	}
+
+	/**
+	 * Open addressing set of longs
+	 */
+	private static class LongSet{
+		private final long[] table;
+		private final boolean[] used;
+
+		LongSet(int capacity){
+			int size = 16;
+			while(size < capacity * 2)	size <<= 1;
+			table = new long[size];
+			used = new boolean[size];
+		}
+
+		// Returns false if value was already in the set
+		boolean add(long value){
+			int slot = (int) ((value * 0x9E3779B97F4A7C15L) >>> 32) & (table.length - 1);
+			while(used[slot]){
+				if(table[slot] == value)	return false;
+				slot = (slot + 1) & (table.length - 1);
+			}
+			used[slot] = true;
+			table[slot] = value;
+			return true;
+		}
+	}
+}
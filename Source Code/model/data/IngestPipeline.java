@@ -0,0 +1,368 @@
+package model.data;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Streams the edge file, or another source of edge chunks, through a number of stages: The file is parsed chunk by chunk, the edges of each chunk are created,
+ * and every batch of edges is fanned out to the registered sinks, each running on its own thread.
+ * The stages are connected by bounded queues, so a slow stage holds back the stages before it,
+ * and a batch can be collected as soon as every sink has consumed it.
+ *
+ * The throughput of every stage is measured and can be read with report() after run().
+ * Every parsed chunk is also validated in parallel with the other stages, and the problems found are read with getValidationReport() after run().
+ * Edges referring to missing nodes are dropped rather than created, just like self loops.
+ *
+ * @author ejer
+ *
+ */
+public class IngestPipeline {
+
+	private static final int QUEUESIZE = 4;				// Number of batches waiting between two stages
+	private static final Object END = new Object();		// Marks the end of the stream
+
+	/**
+	 * A producer of edge chunks, such as a parsed edge file. The from and to ids of the chunks are looked up in the node store of the pipeline.
+	 */
+	public interface Source{
+
+		/**
+		 * Streams every chunk of the source to handler, in order. Called on the thread running the pipeline.
+		 * @param handler
+		 */
+		public void stream(KrakParser.ChunkHandler<KrakParser.EdgeChunk> handler);
+	}
+
+	/**
+	 * A consumer of the edge stream. Each sink is called from a single thread.
+	 */
+	public interface Sink{
+
+		/**
+		 * Consumes a batch of edges. The batch is shared by all sinks and must not be modified.
+		 * @param batch
+		 */
+		public void consume(Edge[] batch);
+
+		/**
+		 * Called once after the last batch has been consumed
+		 */
+		public void finish();
+	}
+
+	private final NodeStore nodes;
+	private final Map<String, Sink> sinks = new LinkedHashMap<String, Sink>();
+	private final List<Throughput> throughput = new ArrayList<Throughput>();
+	private ValidationReport validation;
+
+	/**
+	 * @param nodes the nodes the edges refer to
+	 */
+	public IngestPipeline(NodeStore nodes){
+		if(nodes == null)	throw new NullPointerException("parameter nodes was null");
+
+		this.nodes = nodes;
+	}
+
+	/**
+	 * Registers a sink. Must be called before run()
+	 * @param name of the stage, used in the report
+	 * @param sink
+	 */
+	public void addSink(String name, Sink sink){
+		if(name == null)		throw new NullPointerException("parameter name was null");
+		else if(sink == null)	throw new NullPointerException("parameter sink was null");
+
+		sinks.put(name, sink);
+	}
+
+	/**
+	 * Streams the edge file through all stages and returns when every sink has finished.
+	 * @param edgeFile
+	 */
+	public void run(String edgeFile){
+		if(edgeFile == null)	throw new NullPointerException("parameter edgeFile was null");
+
+		run(fileSource(edgeFile));
+	}
+
+	/**
+	 * @param edgeFile
+	 * @return a source parsing the edge file
+	 */
+	public static Source fileSource(final String edgeFile){
+		if(edgeFile == null)	throw new NullPointerException("parameter edgeFile was null");
+
+		return new Source(){
+			@Override
+			public void stream(KrakParser.ChunkHandler<KrakParser.EdgeChunk> handler){
+				KrakParser.parseEdges(edgeFile, handler);
+			}
+
+			@Override
+			public String toString(){
+				return edgeFile;
+			}
+		};
+	}
+
+	/**
+	 * Streams the source through all stages and returns when every sink has finished.
+	 * If the source or a stage fails, every stage is still waited for, and then the failure of the source, or else of the first failed stage, is rethrown.
+	 * @param source
+	 */
+	public void run(Source source){
+		if(source == null)	throw new NullPointerException("parameter source was null");
+
+		final EdgeValidator validator = new EdgeValidator(nodes);
+		final Throughput parse = new Throughput("parse");
+		final Throughput create = new Throughput("create edges");
+		throughput.add(parse);
+		throughput.add(create);
+
+		ExecutorService executor = Executors.newFixedThreadPool(sinks.size() + 1);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+
+		final BlockingQueue<Object> parsed = new ArrayBlockingQueue<Object>(QUEUESIZE);
+		final List<BlockingQueue<Object>> outputs = new ArrayList<BlockingQueue<Object>>();
+		for(Map.Entry<String, Sink> entry : sinks.entrySet()){
+			BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(QUEUESIZE);
+			Throughput stage = new Throughput(entry.getKey());
+			outputs.add(queue);
+			throughput.add(stage);
+			futures.add(executor.submit(new SinkStage(entry.getValue(), queue, stage)));
+		}
+		futures.add(executor.submit(new Runnable(){
+			@Override
+			public void run(){
+				createEdges(parsed, outputs, create);
+			}
+		}));
+		executor.shutdown();
+
+		// A failure of the source is held back like that of a stage, so the stages still get the end of the stream and are waited for
+		final long[] started = { System.nanoTime() };
+		Throwable failure = null;
+		try{
+			source.stream(new KrakParser.ChunkHandler<KrakParser.EdgeChunk>(){
+				@Override
+				public void handle(KrakParser.EdgeChunk chunk){
+					parse.add(chunk.size, System.nanoTime() - started[0]);
+					validator.submit(chunk);
+					put(parsed, chunk);
+					started[0] = System.nanoTime();
+				}
+			});
+		}catch(RuntimeException e){
+			failure = e;
+		}catch(Error e){
+			failure = e;
+		}finally{
+			put(parsed, END);
+		}
+
+		// Every stage and the validation of every chunk is waited for before a failure is rethrown, so nothing is still running when run() returns
+		for(Future<?> future : futures){
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while ingesting " + source, e);
+			} catch (ExecutionException e) {
+				if(failure == null)		failure = new RuntimeException("Ingestion of " + source + " failed", e.getCause());
+			}
+		}
+		ValidationReport report = null;
+		try{
+			report = validator.finish(source.toString());
+		}catch(RuntimeException e){
+			if(failure == null)		failure = e;
+		}
+		rethrow(failure);
+		validation = report;
+	}
+
+	/**
+	 * Only validates the edges of the source, without creating them, so a bad extract can be found before any index is built on it
+	 * @param nodes the nodes the edges refer to
+	 * @param source
+	 * @return the problems found
+	 */
+	public static ValidationReport validate(NodeStore nodes, Source source){
+		if(nodes == null)			throw new NullPointerException("parameter nodes was null");
+		else if(source == null)		throw new NullPointerException("parameter source was null");
+
+		final EdgeValidator validator = new EdgeValidator(nodes);
+		source.stream(new KrakParser.ChunkHandler<KrakParser.EdgeChunk>(){
+			@Override
+			public void handle(KrakParser.EdgeChunk chunk){
+				validator.submit(chunk);
+			}
+		});
+		return validator.finish(source.toString());
+	}
+
+	/**
+	 * @return the problems found in the edges of the last run. Null before run() has finished
+	 */
+	public ValidationReport getValidationReport(){
+		return validation;
+	}
+
+	/**
+	 * @return the throughput of every stage, one stage per line, followed by the validation report
+	 */
+	public String report(){
+		StringBuilder sb = new StringBuilder();
+		for(Throughput stage : throughput)	sb.append(stage).append('\n');
+		if(validation != null)	sb.append(validation);
+		return sb.toString();
+	}
+
+	// If an edge can not be created the remaining chunks are drained, so the parser is not blocked, and the failure is rethrown at the end of the stream.
+	// The end is passed on to the sinks however this stage ends
+	private void createEdges(BlockingQueue<Object> parsed, List<BlockingQueue<Object>> outputs, Throughput stage){
+		Throwable failure = null;
+		try{
+			Object next = take(parsed);
+			while(next != END){
+				if(failure == null){
+					long start = System.nanoTime();
+					try {
+						Edge[] edges = createEdges((KrakParser.EdgeChunk) next);
+						stage.add(edges.length, System.nanoTime() - start);
+						for(BlockingQueue<Object> output : outputs)		put(output, edges);
+					} catch (RuntimeException e) {
+						failure = e;
+					} catch (Error e) {
+						failure = e;
+					}
+				}
+				next = take(parsed);
+			}
+		}finally{
+			for(BlockingQueue<Object> output : outputs)		put(output, END);
+		}
+		rethrow(failure);
+	}
+
+	private Edge[] createEdges(KrakParser.EdgeChunk chunk){
+		List<Edge> batch = new ArrayList<Edge>(chunk.size);
+		for(int i = 0 ; i < chunk.size ; i++){
+			if(chunk.malformed[i])				continue;		// The validator reports it
+			if(chunk.from[i] == chunk.to[i])	continue;		// Self loops are not part of the road network
+			Edge e = createEdge(chunk, i);
+			if(e != null)	batch.add(e);
+		}
+		return batch.toArray(new Edge[batch.size()]);
+	}
+
+	// Returns null if a node of the edge is missing. The validator reports it
+	private Edge createEdge(KrakParser.EdgeChunk chunk, int i){
+		Point from = nodes.getNode(chunk.from[i]), to = nodes.getNode(chunk.to[i]);
+		if(from == null || to == null)	return null;
+
+		RoadType roadType = RoadType.getRoadType(chunk.type[i]);
+		if(roadType == null)	roadType = RoadType.STEDNAVN;					// Da roadType af en eller anden grund bliver null, sætter vi den til ANDENVEJ..
+
+		return new Edge(from, to, Dictionary.ROADNAMES.id(chunk.name[i]), roadType, chunk.oneway[i], chunk.postalLeft[i], chunk.postalRight[i]);
+	}
+
+	/**
+	 * Feeds the batches of one queue to a sink. If the sink fails the remaining batches are drained,
+	 * so the stages before it are not blocked, and the failure is rethrown at the end of the stream.
+	 */
+	private static class SinkStage implements Runnable{
+		private final Sink sink;
+		private final BlockingQueue<Object> queue;
+		private final Throughput stage;
+
+		SinkStage(Sink sink, BlockingQueue<Object> queue, Throughput stage){
+			this.sink = sink;
+			this.queue = queue;
+			this.stage = stage;
+		}
+
+		@Override
+		public void run(){
+			Throwable failure = null;
+			Object next = take(queue);
+			while(next != END){
+				if(failure == null){
+					long start = System.nanoTime();
+					Edge[] batch = (Edge[]) next;
+					try {
+						sink.consume(batch);
+					} catch (RuntimeException e) {
+						failure = e;
+					} catch (Error e) {
+						failure = e;
+					}
+					stage.add(batch.length, System.nanoTime() - start);
+				}
+				next = take(queue);
+			}
+			rethrow(failure);
+
+			long start = System.nanoTime();
+			sink.finish();
+			stage.add(0, System.nanoTime() - start);
+		}
+	}
+
+	// Throws failure, which is a RuntimeException or an Error, unless it is null
+	private static void rethrow(Throwable failure){
+		if(failure instanceof Error)	throw (Error) failure;
+		else if(failure != null)		throw (RuntimeException) failure;
+	}
+
+	private static void put(BlockingQueue<Object> queue, Object o){
+		try {
+			queue.put(o);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while ingesting", e);
+		}
+	}
+
+	private static Object take(BlockingQueue<Object> queue){
+		try {
+			return queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while ingesting", e);
+		}
+	}
+
+	/**
+	 * The number of edges handled by a stage and the time it spent working on them, not counting time spent waiting on the queues.
+	 */
+	private static class Throughput{
+		private final String name;
+		private long edges, nanos;
+
+		Throughput(String name){
+			this.name = name;
+		}
+
+		synchronized void add(long edges, long nanos){
+			this.edges += edges;
+			this.nanos += nanos;
+		}
+
+		@Override
+		public synchronized String toString(){
+			double seconds = nanos / 1e9;
+			long rate = seconds > 0 ? (long) (edges / seconds) : 0;
+			return name + ": " + edges + " edges in " + seconds + " s (" + rate + " edges/s)";
+		}
+	}
+}
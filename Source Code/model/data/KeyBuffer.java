@@ -0,0 +1,261 @@
+package model.data;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+import model.tree.KrakTreeKey;
+
+/**
+ * The keys of a number of edges, kept in parallel primitive arrays instead of as KrakTreeKey objects.
+ * Every edge is cut into keys of at most KrakDataLoader.DELTA length, and every key refers to its edge by an index into the edges of the buffer.
+ * Key objects are only created when they are read through keys() or getKey(int).
+ *
+ * A buffer is filled by a single thread, and must be safely published before it is read by others
+ * @author ejer
+ *
+ */
+public class KeyBuffer {
+
+	private static final RoadType[] ROADTYPES = RoadType.values();
+	private static final double EPSILON = Math.pow(10, -9);
+
+	private double[] startx, starty, endx, endy;
+	private byte[] type;		// RoadType ordinal
+	private int[] edge;			// Index of the edge of the key in edges
+	private int size = 0;
+	private Edge[] edges;
+
+	/**
+	 * Creates an empty buffer
+	 * @param capacity the number of keys the buffer can hold before it grows
+	 */
+	public KeyBuffer(int capacity){
+		if(capacity < 0)	throw new IllegalArgumentException("parameter capacity was negative");
+
+		capacity = Math.max(capacity, 1);
+		startx = new double[capacity];
+		starty = new double[capacity];
+		endx = new double[capacity];
+		endy = new double[capacity];
+		type = new byte[capacity];
+		edge = new int[capacity];
+	}
+
+	/**
+	 * Joins buffers into one, in order
+	 * @param parts the buffers to join. Their edge indices must refer to edges
+	 * @param edges the edges of all the parts
+	 * @return a buffer with the keys of all parts
+	 */
+	public static KeyBuffer join(List<KeyBuffer> parts, Edge[] edges){
+		if(parts == null)		throw new NullPointerException("parameter parts was null");
+		else if(edges == null)	throw new NullPointerException("parameter edges was null");
+
+		int total = 0;
+		for(KeyBuffer part : parts)		total += part.size;
+
+		KeyBuffer joined = new KeyBuffer(total);
+		for(KeyBuffer part : parts){
+			System.arraycopy(part.startx, 0, joined.startx, joined.size, part.size);
+			System.arraycopy(part.starty, 0, joined.starty, joined.size, part.size);
+			System.arraycopy(part.endx, 0, joined.endx, joined.size, part.size);
+			System.arraycopy(part.endy, 0, joined.endy, joined.size, part.size);
+			System.arraycopy(part.type, 0, joined.type, joined.size, part.size);
+			System.arraycopy(part.edge, 0, joined.edge, joined.size, part.size);
+			joined.size += part.size;
+		}
+		joined.edges = edges;
+		return joined;
+	}
+
+	/**
+	 * Cuts e into keys of at most DELTA length and adds them to the buffer
+	 * @param e
+	 * @param index the index of e among the edges of the buffer
+	 */
+	public void add(Edge e, int index){
+		if(e == null)	throw new NullPointerException("parameter e was null");
+
+		double dx = e.getEndX() - e.getStartX();
+		double dy = e.getEndY() - e.getStartY();
+		double maxdelta = maxAbs(dx, dy);
+		double modifier = (int) maxdelta / Math.abs(maxdelta);
+		int amount = (int) Math.abs(maxdelta)/KrakDataLoader.DELTA;
+		double startx = e.getStartX();		double starty = e.getStartY();
+		double endx = e.getEndX();			double endy = e.getEndY();
+		byte roadType = (byte) e.getRoadType().ordinal();
+		boolean alongx = Math.abs(Math.abs(maxdelta) - Math.abs(dx)) < EPSILON;		// if maxdelta = dx
+		double a = dy/dx;
+
+		if(dx == 0)		a = 0;
+		if(dy == 0)		a = 1;
+
+		double b = (starty - (a * startx));
+
+		while(amount > 0){
+			double startxnew = startx;
+			double startynew = starty;
+
+			if(alongx){
+				startxnew = startx + KrakDataLoader.DELTA * modifier;		// original value plus our delta.
+				if(dy != 0)
+					startynew = a * startxnew + b;
+
+			}else{
+				startynew = starty + KrakDataLoader.DELTA * modifier;		// original value plus our delta.
+				if(a != 0)
+					startxnew = (startynew - b) / a;
+			}
+			append(startx, starty, startxnew, startynew, roadType, index);
+
+			startx = startxnew;
+			starty = startynew;
+			amount--;
+		}
+
+		if(!(startx == endx && starty == endy))		append(startx, starty, endx, endy, roadType, index);		// The rest of the edge, unless nothing is left
+	}
+
+	private static double maxAbs(double x1, double x2){
+		if(Math.abs(Math.abs(x1) - Math.abs(x2)) < EPSILON)		return x1;
+		else if(Math.abs(x1) > Math.abs(x2))					return x1;
+		else													return x2;
+	}
+
+	private void append(double sx, double sy, double ex, double ey, byte roadType, int index){
+		if(size == edge.length)		grow();
+		startx[size] = sx;
+		starty[size] = sy;
+		endx[size] = ex;
+		endy[size] = ey;
+		type[size] = roadType;
+		edge[size] = index;
+		size++;
+	}
+
+	private void grow(){
+		int capacity = edge.length * 2;
+		startx = copy(startx, capacity);
+		starty = copy(starty, capacity);
+		endx = copy(endx, capacity);
+		endy = copy(endy, capacity);
+
+		byte[] t = new byte[capacity];
+		System.arraycopy(type, 0, t, 0, size);
+		type = t;
+
+		int[] i = new int[capacity];
+		System.arraycopy(edge, 0, i, 0, size);
+		edge = i;
+	}
+
+	private double[] copy(double[] a, int capacity){
+		double[] b = new double[capacity];
+		System.arraycopy(a, 0, b, 0, size);
+		return b;
+	}
+
+	/**
+	 * @return the number of keys
+	 */
+	public int size(){
+		return size;
+	}
+
+	public double getStartX(int i){
+		return startx[i];
+	}
+
+	public double getStartY(int i){
+		return starty[i];
+	}
+
+	public double getEndX(int i){
+		return endx[i];
+	}
+
+	public double getEndY(int i){
+		return endy[i];
+	}
+
+	public RoadType getRoadType(int i){
+		return ROADTYPES[type[i]];
+	}
+
+	/**
+	 * @param i
+	 * @return a new key object for key i
+	 */
+	public KrakTreeKey getKey(int i){
+		return new KrakTreeKey(startx[i], starty[i], endx[i], endy[i], ROADTYPES[type[i]]);
+	}
+
+	/**
+	 * @param i
+	 * @return the edge of key i. Only available on a joined buffer
+	 */
+	public Edge getEdge(int i){
+		if(edges == null)	throw new IllegalStateException("the buffer holds no edges");
+		return edges[edge[i]];
+	}
+
+	/**
+	 * @param i
+	 * @return the index of the edge of key i among the edges of the buffer
+	 */
+	public int getEdgeId(int i){
+		return edge[i];
+	}
+
+	/**
+	 * @return a read-only view of the keys, creating a key object whenever a key is read
+	 */
+	public List<KrakTreeKey> keys(){
+		return new Keys();
+	}
+
+	/**
+	 * @return a read-only view of the edges, where values().get(i) is the edge of keys().get(i). Only available on a joined buffer
+	 */
+	public List<Edge> values(){
+		if(edges == null)	throw new IllegalStateException("the buffer holds no edges");
+		return new Values();
+	}
+
+	/**
+	 * @return a read-only view of the edges of the buffer, each edge once, by the index keys refer to them by. Only available on a joined buffer
+	 */
+	public List<Edge> edges(){
+		if(edges == null)	throw new IllegalStateException("the buffer holds no edges");
+		return Collections.unmodifiableList(Arrays.asList(edges));
+	}
+
+	private class Keys extends AbstractList<KrakTreeKey> implements RandomAccess{
+		@Override
+		public KrakTreeKey get(int i){
+			if(i < 0 || i >= size)	throw new IndexOutOfBoundsException("index " + i + " of " + size);
+			return getKey(i);
+		}
+
+		@Override
+		public int size(){
+			return size;
+		}
+	}
+
+	private class Values extends AbstractList<Edge> implements RandomAccess{
+		@Override
+		public Edge get(int i){
+			if(i < 0 || i >= size)	throw new IndexOutOfBoundsException("index " + i + " of " + size);
+			return getEdge(i);
+		}
+
+		@Override
+		public int size(){
+			return size;
+		}
+	}
+}
@@ -1,16 +1,25 @@
 package model.data;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
-import model.data.Edge.OneWayType;
+import model.TextSearch;
+import model.graph.DiGraph;
 import model.tree.KrakTreeKey;
+import model.trie.TST;
 
 /**
+ * Loads the krak data. The edges are streamed through an IngestPipeline which fans them out to the key generator,
+ * the name index and the graph, so the edges are never collected in an intermediate collection.
+ * 
+ * All state belongs to the instance, so several data sets can be loaded side by side.
+ *
  * This class is unconditionally thread-safe
  * @author ejer
  *
@@ -18,23 +27,22 @@ import model.tree.KrakTreeKey;
 public class KrakDataLoader {
 
 	public static final int DELTA = 200;
-	private static Set<Edge> edgeset;
-	private static Map<String, Set<Edge>> edgesByName;
-	private static Map<Integer, Point> nodemap;
+	private static final int KEYTASKSIZE = 4096;		// Number of edges cut into keys by one task
+	private final NodeStore nodes;
 
-	private final Object accessorLock = new Object();
+	private KeyBuffer keys;
+	private final TST<Set<Edge>> nameIndex = new TST<Set<Edge>>();
+	private final DiGraph graph;
+	private int edgeCount = 0;
+	private ValidationReport validation;
 
-	private static double maxPx = 0, maxPy = 0;
-	private static double minPx = Double.POSITIVE_INFINITY, minPy = Double.POSITIVE_INFINITY;
+	private final Object accessorLock = new Object();
 
 	/**
 	 * Constructs a KrakLoader object that will read from the default input files
 	 */
 	public KrakDataLoader(){
-		edgesByName = new HashMap<String, Set<Edge>>();
-		MapParser.loadDefaultFiles();
-		loadNodeMap(); 
-		loadEdgesFromTXT();
+		this(KrakParser.POINTFILE, KrakParser.EDGEFILE);
 	}
 
 	/**
@@ -47,172 +55,239 @@ public class KrakDataLoader {
 		else if(edgeFile == null)		throw new NullPointerException("parameter edgeFile was null");
 		else if(pointFile.equals(""))	throw new IllegalArgumentException("parameter pointFile was emptystring");
 		else if(edgeFile.equals(""))	throw new IllegalArgumentException("parameter edgeFile was emptystring");
-		edgesByName = new HashMap<String, Set<Edge>>();
-		MapParser.loadSpecFiles(pointFile, edgeFile);
-		loadNodeMap(); 
-		loadEdgesFromTXT();
-		
+		nodes = new NodeStore(KrakParser.parseNodes(pointFile)); 
+		graph = new DiGraph(nodes.size());
+		ingest(IngestPipeline.fileSource(edgeFile));
 	}
 
 	/**
-	 * Creates all edges and puts them in edgeMap
+	 * Constructs a KrakLoader object that will read the edges of source, such as an imported OpenStreetMap file
+	 * @param nodes	the nodes the edges of source refer to
+	 * @param source of edge chunks
 	 */
-	public Map<KrakTreeKey, Edge> getEdgeMap(){
-
-		Map<KrakTreeKey, Edge> edgemap = new HashMap<KrakTreeKey, Edge>();
-		List<KrakTreeKey> keys = new LinkedList<KrakTreeKey>();
+	public KrakDataLoader(NodeStore nodes, IngestPipeline.Source source){
+		if(nodes == null)			throw new NullPointerException("parameter nodes was null");
+		else if(source == null)		throw new NullPointerException("parameter source was null");
+		this.nodes = nodes;
+		graph = new DiGraph(nodes.size());
+		ingest(source);
+	}
 
+	private void ingest(IngestPipeline.Source source){
+		IngestPipeline pipeline = new IngestPipeline(nodes);
+		pipeline.addSink("keys", new KeySink());
+		pipeline.addSink("names", new NameSink());
+		pipeline.addSink("graph", new GraphSink());
+		pipeline.run(source);
 		synchronized(accessorLock){
-			for(Edge e : edgeset){
-				keys = generateKeys(e, keys);
-				for(KrakTreeKey key : keys){
-					edgemap.put(key, e);
-				}
-				keys.clear();
-			}
-			return edgemap;
+			validation = pipeline.getValidationReport();
 		}
-	}
-
-	public Map<Integer,Point> getNodeMap()  {
-		return nodemap;
+		System.out.print(pipeline.report());
 	}
 
 	/**
-	 * Creates all nodes and puts them in nodeMap
+	 * Cuts every edge into keys of at most DELTA length. The batches are split into tasks on the parsers ForkJoinPool,
+	 * so the keys are generated in parallel while the file is still being read. The keys of the tasks are joined in order when the stream ends.
 	 */
-	private void loadNodeMap(){
-		nodemap = new HashMap<Integer, Point>();
-		String[] idXY = MapParser.nextNodeInfo();
-		while(idXY != null){
-			Point node = new Point(Integer.parseInt(idXY[0])-1, Double.parseDouble(idXY[1]), Double.parseDouble(idXY[2]));
+	private class KeySink implements IngestPipeline.Sink{
+		private final List<Edge[]> batches = new ArrayList<Edge[]>();
+		private final List<ForkJoinTask<KeyBuffer>> tasks = new ArrayList<ForkJoinTask<KeyBuffer>>();
+		private int edges = 0;
+
+		@Override
+		public void consume(Edge[] batch){
+			for(int lo = 0 ; lo < batch.length ; lo += KEYTASKSIZE){
+				tasks.add(KrakParser.pool.submit(new KeyTask(batch, lo, Math.min(batch.length, lo + KEYTASKSIZE), edges)));
+			}
+			batches.add(batch);
+			edges += batch.length;
+		}
 
-			if(node.getX() > maxPx)	maxPx = node.getX();		// Dynamically determine the largest value of x
-			if(node.getY() > maxPy)	maxPy = node.getY();		// Dynamically determine the largest value of y
+		@Override
+		public void finish(){
+			Edge[] all = new Edge[edges];
+			int n = 0;
+			for(Edge[] batch : batches){
+				System.arraycopy(batch, 0, all, n, batch.length);
+				n += batch.length;
+			}
 
-			if(node.getX() < minPx)	minPx = node.getX();		// Dynamically determine the lowest value of x
-			if(node.getY() < minPy)	minPy = node.getY();		// Dynamically determine the lowest value of y
+			List<KeyBuffer> parts = new ArrayList<KeyBuffer>(tasks.size());
+			for(ForkJoinTask<KeyBuffer> task : tasks)	parts.add(task.join());
 
-			nodemap.put(node.getId(), node);
-			idXY = MapParser.nextNodeInfo();
+			synchronized(accessorLock){
+				keys = KeyBuffer.join(parts, all);
+			}
 		}
 	}
 
 	/**
-	 * Creates all edges and puts them in edgeMap
+	 * Cuts the edges from lo to hi of a batch into keys
 	 */
-	private void loadEdgesFromTXT(){
-		edgeset = new HashSet<Edge>();
-		String[] fromto = MapParser.nextEdgeInfo();
-		while(fromto != null){	
-			if(Integer.parseInt(fromto[0]) == Integer.parseInt(fromto[1])){ 
-				fromto = MapParser.nextEdgeInfo(); 
-				continue;
-			}
-			Edge e = createEdge(nodemap, fromto);
-			edgeset.add(e);
-			fromto = MapParser.nextEdgeInfo();
+	@SuppressWarnings("serial")
+	private static class KeyTask extends RecursiveTask<KeyBuffer>{
+		private final Edge[] batch;
+		private final int lo, hi, first;
+
+		/**
+		 * @param first the index of the first edge of the batch among all edges
+		 */
+		KeyTask(Edge[] batch, int lo, int hi, int first){
+			this.batch = batch;
+			this.lo = lo;
+			this.hi = hi;
+			this.first = first;
 		}
-		loadEdgeMap();		
-	}
 
-
-	private void loadEdgeMap(){
-		for(Edge e : edgeset) {
-			String name = e.getRoadName();
-			if(edgesByName.get(name) == null) 
-				edgesByName.put(name, new HashSet<Edge>());
-			edgesByName.get(name).add(e);
+		@Override
+		protected KeyBuffer compute(){
+			KeyBuffer buffer = new KeyBuffer(2 * (hi - lo));
+			for(int i = lo ; i < hi ; i++)		buffer.add(batch[i], first + i);
+			return buffer;
 		}
 	}
 
-	private Edge createEdge(Map<Integer, Point> map, String[] fromto){
-		int fromId = Integer.parseInt(fromto[0]) -1;
-		int toId = Integer.parseInt(fromto[1]) -1;
-		String roadName = fromto[2].substring(1, fromto[2].length()-1).trim();
-		RoadType roadType = RoadType.getRoadType(Integer.parseInt(fromto[3]));
-		String oneway = fromto[4].substring(1, fromto[4].length()-1).trim();
-		OneWayType onewaytype = null;
-		if(oneway.equals("ft")) { onewaytype = OneWayType.FROMTO; }
-		else if(oneway.equals("tf")) { onewaytype = OneWayType.TOFROM; }
-		else if(oneway.equals("n")) { onewaytype = OneWayType.NODRIVING; }
-		else { onewaytype = OneWayType.NONE; }
-		String postleft = fromto[5].trim();
-		String postright = fromto[6].trim();
-
-		if(roadType == null)	roadType = RoadType.STEDNAVN;					// Da roadType af en eller anden grund bliver null, sætter vi den til ANDENVEJ..
+	/**
+	 * Puts every edge in the name index under its road name
+	 */
+	private class NameSink implements IngestPipeline.Sink{
+		@Override
+		public void consume(Edge[] batch){
+			for(Edge e : batch){
+				String name = e.getRoadName();
+				if(name.length() == 0)	continue;
+				Set<Edge> named = nameIndex.get(name);
+				if(named == null){
+					named = new HashSet<Edge>();
+					nameIndex.put(name, named);
+				}
+				named.add(e);
+			}
+		}
 
-		return new Edge(map.get(fromId), map.get(toId), roadName, roadType, onewaytype, postleft, postright);
+		@Override
+		public void finish(){
+		}
 	}
 
-	private List<KrakTreeKey> generateKeys(Edge e, List<KrakTreeKey> list){
-
-		double dx = e.getEnd().getX() - e.getStart().getX();
-		double dy = e.getEnd().getY() - e.getStart().getY();	
-
-		list = addKeys(list, e, dx, dy);		
+	/**
+	 * Adds every edge to the graph
+	 */
+	private class GraphSink implements IngestPipeline.Sink{
+		@Override
+		public void consume(Edge[] batch){
+			for(Edge e : batch)		graph.addRoad(e);
+			edgeCount += batch.length;
+		}
 
-		return list;
+		@Override
+		public void finish(){
+		}
 	}
 
-	private List<KrakTreeKey> addKeys(List<KrakTreeKey> list, Edge e, double dx, double dy){
-		double maxdelta = maxAbs(dx, dy);
-		double modifier = (int) maxdelta / Math.abs(maxdelta);
-		int amount = (int) Math.abs(maxdelta)/DELTA;
-		double startx = e.getStart().getX();			double starty = e.getStart().getY();
-		double endx = e.getEnd().getX();				double endy = e.getEnd().getY();
-		double a = dy/dx;		
+	/**
+	 * Puts the keys of all edges in a map. The index is built from getKeys() and getValues() without this map
+	 */
+	public Map<KrakTreeKey, Edge> getEdgeMap(){
+		KeyBuffer buffer = getKeyBuffer();
 
-		if(dx == 0)		a = 0;
-		if(dy == 0)		a = 1;
+		Map<KrakTreeKey, Edge> edgemap = new HashMap<KrakTreeKey, Edge>();
+		for(int i = 0 ; i < buffer.size() ; i++){
+			edgemap.put(buffer.getKey(i), buffer.getEdge(i));
+		}
+		return edgemap;
+	}
 
-		double b = (starty - (a * startx));
+	/**
+	 * @return the keys of all edges in primitive form
+	 */
+	public KeyBuffer getKeyBuffer(){
+		synchronized(accessorLock){
+			if(keys == null)	throw new IllegalStateException("the keys have been released");
+			return keys;
+		}
+	}
 
-		while(amount > 0){
-			double startxnew = startx;	
-			double startynew = starty;
+	/**
+	 * @return the keys of all edges. The edge of getKeys().get(i) is getValues().get(i)
+	 */
+	public List<KrakTreeKey> getKeys(){
+		return getKeyBuffer().keys();
+	}
 
-			if(Math.abs(Math.abs(maxdelta) - Math.abs(dx)) < Math.pow(10, -9)){		// if maxdelta = dx
-				startxnew = startx + DELTA * modifier;		// original value plus our delta.
-				if(dy != 0)			
-					startynew = a * startxnew + b;
+	/**
+	 * @return the edges of the keys. The edge of getKeys().get(i) is getValues().get(i)
+	 */
+	public List<Edge> getValues(){
+		return getKeyBuffer().values();
+	}
 
-			}else{
-				startynew = starty + DELTA * modifier;	// original value plus our delta.
-				if(a != 0)	
-					startxnew = (startynew - b) / a;
-			}
-			//			System.out.println("dx: " + dx + ", dy: " + dy + ", maxdelta: " + maxdelta + ", startx = " + startx + ", startxnew = " + startxnew + ", starty = " + starty + ", startynew = " + startynew + ", a = " + a + ", b = " + b);
-			list.add(new KrakTreeKey(new Point(0, startx, starty), new Point(0, startxnew, startynew), e.getRoadType()));
+	/**
+	 * @return every edge once, in the order they were read
+	 */
+	public List<Edge> getEdges(){
+		return getKeyBuffer().edges();
+	}
 
-			startx = startxnew;
-			starty = startynew;
-			amount--;
+	/**
+	 * Releases the keys and their edges. They are only needed until the index is built
+	 */
+	public void releaseKeys(){
+		synchronized(accessorLock){
+			keys = null;
 		}
+	}
 
-		if(!(startx == endx) && !(starty == endy))	
-			list.add(new KrakTreeKey(new Point(0, startx, starty), new Point(0, endx, endy), e.getRoadType()));
+	/**
+	 * @return the problems found in the edges while they were loaded
+	 */
+	public ValidationReport getValidationReport(){
+		synchronized(accessorLock){
+			return validation;
+		}
+	}
 
-		return list;
+	/**
+	 * @return the number of edges loaded
+	 */
+	public int getEdgeCount(){
+		synchronized(accessorLock){
+			return edgeCount;
+		}
+	}
 
+	/**
+	 * @return the nodes, indexed densely from 0 to the number of nodes
+	 */
+	public NodeStore getNodeStore()  {
+		return nodes;
 	}
 
-	private double maxAbs(double x1, double x2){
-		if(Math.abs(Math.abs(x1) - Math.abs(x2)) < Math.pow(10, -9))		return x1;
-		else if(Math.abs(x1) > Math.abs(x2))								return x1;
-		else																return x2;
+	/**
+	 * @return the edges with the same road name, by road name
+	 */
+	public TextSearch<Set<Edge>> getNameIndex(){
+		return nameIndex;
 	}
 
-	public Map<String, Set<Edge>> getEdgesByName(){
-		return edgesByName;
+	/**
+	 * @return the road network with a vertex for every node
+	 */
+	public DiGraph getGraph(){
+		return graph;
 	}
 
 	/**
-	 * Return all edges as a set
-	 * @return all edges
+	 * Cuts an edge into keys of at most DELTA length. The keys only depend on the edge, so the keys of an edge can be generated again to find them in the index.
+	 * @param e
+	 * @return the keys of e
 	 */
-	public Set<Edge> getEdgeSet(){
-		return edgeset;
+	public static List<KrakTreeKey> generateKeys(Edge e){
+		if(e == null)	throw new NullPointerException("parameter e was null");
+
+		KeyBuffer buffer = new KeyBuffer(4);
+		buffer.add(e, 0);
+		return new ArrayList<KrakTreeKey>(buffer.keys());
 	}
 
 	/**
@@ -220,7 +295,7 @@ public class KrakDataLoader {
 	 * @return A point consisting of the largest x-, and y- value. (Not necessary from the same point).
 	 */
 	public Point getMaxPoint(){
-		return new Point(0, maxPx, maxPy);
+		return nodes.getMaxPoint();
 	}
 
 	/**
@@ -228,6 +303,6 @@ public class KrakDataLoader {
 	 * @return A point consisting of the lowest x-, and y- value. (Not necessary from the same point).
 	 */
 	public Point getMinPoint(){
-		return new Point(0, minPx, minPy);
+		return nodes.getMinPoint();
 	}
 }
@@ -0,0 +1,198 @@
+package model.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The difference between the edges currently loaded and a newer extract of the krak files.
+ * The node store of the current edges is extended with the new point file, so every known node keeps its index,
+ * and edges are matched by the indices of their end points. A matched edge is changed if its coordinates or attributes differ.
+ * Parallel edges share their end points, so a new edge is first matched to a current edge with the same attributes, wherever either is in its file.
+ * The new edges left over are then paired with the current edges left over in the order of the files, and the pairings that had more than one
+ * candidate are counted as ambiguous.
+ *
+ * Finding the difference streams the new edge file once, but only the added, removed and changed edges are kept.
+ *
+ * This class is immutable and thereby unconditionally thread-safe
+ * @author ejer
+ *
+ */
+public class KrakDelta {
+
+	private final NodeStore nodes;
+	private final List<Edge> added = new ArrayList<Edge>();
+	private final List<Edge> removed = new ArrayList<Edge>();
+	private final List<Edge> changed = new ArrayList<Edge>();		// The new versions of the changed edges
+	private final List<Edge> replaced = new ArrayList<Edge>();		// The current versions of the changed edges. replaced.get(i) is replaced by changed.get(i)
+	private int unchanged = 0;
+	private int ambiguous = 0;
+
+	/**
+	 * Finds the difference between the current edges and the new krak files
+	 * @param current the nodes the current edges refer to
+	 * @param edges the current edges, each edge occurring once
+	 * @param pointFile the new point file
+	 * @param edgeFile the new edge file
+	 */
+	public KrakDelta(NodeStore current, Iterable<Edge> edges, String pointFile, String edgeFile){
+		if(current == null)				throw new NullPointerException("parameter current was null");
+		else if(edges == null)			throw new NullPointerException("parameter edges was null");
+		else if(pointFile == null)		throw new NullPointerException("parameter pointFile was null");
+		else if(edgeFile == null)		throw new NullPointerException("parameter edgeFile was null");
+
+		nodes = NodeStore.extend(current, KrakParser.parseNodes(pointFile));
+
+		final Map<Long, List<Edge>> byEndpoints = new HashMap<Long, List<Edge>>();
+		final Map<Long, List<Edge>> unmatched = new LinkedHashMap<Long, List<Edge>>();		// The new edges with current edges at their end points, but none the same
+		for(Edge e : edges){
+			Long key = endpoints(e);
+			List<Edge> list = byEndpoints.get(key);
+			if(list == null){
+				list = new LinkedList<Edge>();
+				byEndpoints.put(key, list);
+			}
+			list.add(e);
+		}
+
+		IngestPipeline pipeline = new IngestPipeline(nodes);
+		pipeline.addSink("diff", new IngestPipeline.Sink(){
+			@Override
+			public void consume(Edge[] batch){
+				for(Edge e : batch){
+					Long key = endpoints(e);
+					List<Edge> list = byEndpoints.get(key);
+					if(list == null || list.isEmpty()){
+						added.add(e);
+						continue;
+					}
+
+					if(removeSame(list, e))	unchanged++;
+					else{
+						List<Edge> pending = unmatched.get(key);
+						if(pending == null){
+							pending = new LinkedList<Edge>();
+							unmatched.put(key, pending);
+						}
+						pending.add(e);
+					}
+				}
+			}
+
+			@Override
+			public void finish(){
+				for(Map.Entry<Long, List<Edge>> entry : unmatched.entrySet()){
+					List<Edge> list = byEndpoints.get(entry.getKey());
+					List<Edge> pending = entry.getValue();
+					for(Edge e : pending){
+						if(list.isEmpty()){
+							added.add(e);
+							continue;
+						}
+						if(list.size() > 1 || pending.size() > 1)	ambiguous++;
+						changed.add(e);
+						replaced.add(list.remove(0));
+					}
+				}
+				for(List<Edge> list : byEndpoints.values())		removed.addAll(list);
+			}
+		});
+		pipeline.run(edgeFile);
+	}
+
+	// Removes the first edge of list that is the same as e, and returns whether there was one
+	private static boolean removeSame(List<Edge> list, Edge e){
+		for(Iterator<Edge> it = list.iterator(); it.hasNext(); ){
+			if(it.next().sameAs(e)){
+				it.remove();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Long endpoints(Edge e){
+		return ((long) e.getStartId() << 32) | (e.getEndId() & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @return the current nodes extended with the new point file. Both the current and the new edges refer to it
+	 */
+	public NodeStore getNodeStore(){
+		return nodes;
+	}
+
+	/**
+	 * @return the edges only in the new files
+	 */
+	public List<Edge> getAdded(){
+		return new ArrayList<Edge>(added);
+	}
+
+	/**
+	 * @return the current edges missing from the new files
+	 */
+	public List<Edge> getRemoved(){
+		return new ArrayList<Edge>(removed);
+	}
+
+	/**
+	 * @return the new versions of the edges that changed. getChanged().get(i) replaces getReplaced().get(i)
+	 */
+	public List<Edge> getChanged(){
+		return new ArrayList<Edge>(changed);
+	}
+
+	/**
+	 * @return the current versions of the edges that changed. getChanged().get(i) replaces getReplaced().get(i)
+	 */
+	public List<Edge> getReplaced(){
+		return new ArrayList<Edge>(replaced);
+	}
+
+	/**
+	 * @return the number of edges that are the same in the new files
+	 */
+	public int getUnchangedCount(){
+		return unchanged;
+	}
+
+	/**
+	 * @return all edges to take out of the indices: the removed edges and the current versions of the changed edges
+	 */
+	public List<Edge> getOutgoing(){
+		List<Edge> list = new ArrayList<Edge>(removed.size() + replaced.size());
+		list.addAll(removed);
+		list.addAll(replaced);
+		return list;
+	}
+
+	/**
+	 * @return all edges to put into the indices: the added edges and the new versions of the changed edges
+	 */
+	public List<Edge> getIncoming(){
+		List<Edge> list = new ArrayList<Edge>(added.size() + changed.size());
+		list.addAll(added);
+		list.addAll(changed);
+		return list;
+	}
+
+	/**
+	 * Parallel edges cannot be told apart once their attributes change, so such a pairing of a new and a current edge may be the wrong way round.
+	 * Both are still in the changed and replaced edges, so the indices end up with the new edges either way.
+	 * @return the number of changed edges that were paired among several parallel edges
+	 */
+	public int getAmbiguousCount(){
+		return ambiguous;
+	}
+
+	@Override
+	public String toString(){
+		return "nodes: " + nodes.getAddedCount() + " added, " + nodes.getMovedCount() + " moved. "
+				+ "edges: " + added.size() + " added, " + removed.size() + " removed, " + changed.size() + " changed (" + ambiguous + " among parallel edges), " + unchanged + " unchanged";
+	}
+}
@@ -0,0 +1,481 @@
+package model.data;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import model.data.Edge.OneWayType;
+
+/**
+ * Parser for the krak data files. The files are memory mapped, split into line-aligned chunks
+ * and the chunks are parsed in parallel on a ForkJoinPool.
+ * Fields are decoded straight from the ISO-8859-1 bytes, so the only Strings created are the road names and the distinct postal codes of a chunk.
+ *
+ * This class is unconditionally thread-safe
+ * @author ejer
+ *
+ */
+public class KrakParser {
+
+	public static final String POINTFILE = "kdv_node_unload.txt";
+	public static final String EDGEFILE = "kdv_unload.txt";
+
+	private static final int CHUNKSIZE = 1 << 22;		// Approximate number of bytes in each chunk
+	private static final int MAXFIELDS = 64;
+
+	// The columns of the edge file used by KrakDataLoader.createEdge
+	private static final int FROMCOLUMN = 0, TOCOLUMN = 1, TYPECOLUMN = 5, NAMECOLUMN = 6, POSTALLEFTCOLUMN = 17, POSTALRIGHTCOLUMN = 18, ONEWAYCOLUMN = 27;
+
+	private static final int MALFORMED = Integer.MIN_VALUE;	// Returned by parseInt for a field that is empty or not a decimal integer
+
+	private static final double[] POWERS = new double[23];		// Powers of ten that are exactly representable as doubles
+	static{
+		POWERS[0] = 1;
+		for(int i = 1 ; i < POWERS.length ; i++)	POWERS[i] = POWERS[i-1] * 10;
+	}
+
+	static final ForkJoinPool pool = new ForkJoinPool();		// Also used for the key generation of KrakDataLoader
+
+	/**
+	 * Receives the chunks of a file in file order while the file is being parsed.
+	 * @param <C> the type of chunk
+	 */
+	public interface ChunkHandler<C>{
+		public void handle(C chunk);
+	}
+
+	/**
+	 * The nodes of one chunk of the point file. The arrays are parallel, and only the first size entries are used.
+	 */
+	public static class NodeChunk{
+		public final int[] id;
+		public final double[] x, y;
+		public int size;
+
+		NodeChunk(int capacity){
+			id = new int[capacity];
+			x = new double[capacity];
+			y = new double[capacity];
+		}
+	}
+
+	/**
+	 * The edges of one chunk of the edge file. The arrays are parallel, and only the first size entries are used.
+	 * Postal codes are stored as their ids in Dictionary.POSTALCODES, as written in the file without surrounding white space,
+	 * so "0800" keeps its leading zero. A missing postal code is the empty string. The line of an entry is its line in the source, counted from 1.
+	 * An entry is malformed if its from, to or type field is empty or not a decimal integer, such as "12a". Those fields are then -1
+	 */
+	public static class EdgeChunk{
+		public final int[] from, to, type, postalLeft, postalRight, line;
+		public final boolean[] malformed;
+		public final String[] name;
+		public final OneWayType[] oneway;
+		public int size;
+		int lines;		// Number of lines of the file the chunk spans
+
+		EdgeChunk(int capacity){
+			from = new int[capacity];
+			to = new int[capacity];
+			type = new int[capacity];
+			postalLeft = new int[capacity];
+			postalRight = new int[capacity];
+			line = new int[capacity];
+			malformed = new boolean[capacity];
+			name = new String[capacity];
+			oneway = new OneWayType[capacity];
+		}
+	}
+
+	/**
+	 * Parses the point file. Every line contributes the id, x and y found in its last three columns.
+	 * @param filename of the point file
+	 * @return the chunks of the file in file order. Empty if the file could not be read
+	 * @throws IllegalArgumentException if the id of a line is empty or not a decimal integer, as the node could not be referred to
+	 */
+	public static NodeChunk[] parseNodes(String filename){
+		if(filename == null)	throw new NullPointerException("parameter filename was null");
+
+		FileInputStream in = null;
+		try{
+			in = new FileInputStream(filename);
+			FileChannel channel = in.getChannel();
+			long[] bounds = chunkBounds(channel);
+			NodeChunk[] chunks = new NodeChunk[bounds.length-1];
+			pool.invoke(new NodeTask(channel, bounds, chunks, 0, chunks.length));
+			return chunks;
+		}catch(IOException e){
+			System.out.println("IOException while parsing " + filename + " : " + e);
+			return new NodeChunk[0];
+		}finally{
+			close(in);
+		}
+	}
+
+	/**
+	 * Parses the edge file. Only the columns needed to create an Edge are decoded.
+	 * @param filename of the edge file
+	 * @return the chunks of the file in file order. Empty if the file could not be read
+	 */
+	public static EdgeChunk[] parseEdges(String filename){
+		final List<EdgeChunk> chunks = new ArrayList<EdgeChunk>();
+		parseEdges(filename, new ChunkHandler<EdgeChunk>(){
+			@Override
+			public void handle(EdgeChunk chunk){
+				chunks.add(chunk);
+			}
+		});
+		return chunks.toArray(new EdgeChunk[chunks.size()]);
+	}
+
+	/**
+	 * Parses the edge file and streams the chunks to handler. Only a window of as many chunks as the pool has threads
+	 * is parsed ahead, so a handler that blocks holds back the parsing.
+	 * @param filename of the edge file
+	 * @param handler receiving the chunks in file order. Nothing is received if the file could not be read
+	 */
+	public static void parseEdges(String filename, ChunkHandler<EdgeChunk> handler){
+		if(filename == null)		throw new NullPointerException("parameter filename was null");
+		else if(handler == null)	throw new NullPointerException("parameter handler was null");
+
+		FileInputStream in = null;
+		try{
+			in = new FileInputStream(filename);
+			FileChannel channel = in.getChannel();
+			long[] bounds = chunkBounds(channel);
+			int chunkcount = bounds.length-1;
+			int window = pool.getParallelism();
+			int line = 2;		// The first line of the first chunk follows the header
+			for(int lo = 0 ; lo < chunkcount ; lo += window){
+				EdgeChunk[] chunks = new EdgeChunk[Math.min(window, chunkcount - lo)];
+				pool.invoke(new EdgeTask(channel, bounds, chunks, lo, 0, chunks.length));
+				for(int c = 0 ; c < chunks.length ; c++){
+					for(int i = 0 ; i < chunks[c].size ; i++)	chunks[c].line[i] += line;		// The chunks only know the lines relative to their start
+					line += chunks[c].lines;
+					handler.handle(chunks[c]);
+				}
+			}
+		}catch(IOException e){
+			System.out.println("IOException while parsing " + filename + " : " + e);
+		}finally{
+			close(in);
+		}
+	}
+
+	private static void close(FileInputStream in){
+		if(in == null)	return;
+		try {
+			in.close();
+		} catch (IOException e) {
+			System.out.println("IOException while closing In-stream : " + e);
+		}
+	}
+
+	/**
+	 * Splits the file into chunks of roughly CHUNKSIZE bytes. Every chunk ends just after a line break. The header line is skipped.
+	 * @return the offsets where the chunks start followed by the size of the file
+	 */
+	private static long[] chunkBounds(FileChannel channel) throws IOException{
+		long size = channel.size();
+		List<Long> bounds = new ArrayList<Long>();
+		long start = nextLine(channel, 0);
+		bounds.add(start);
+		while(start < size){
+			long end = start + CHUNKSIZE;
+			end = end >= size ? size : nextLine(channel, end);
+			bounds.add(end);
+			start = end;
+		}
+
+		long[] result = new long[bounds.size()];
+		for(int i = 0 ; i < result.length ; i++)	result[i] = bounds.get(i);
+		return result;
+	}
+
+	// Returns the offset just after the first line break at or after position
+	private static long nextLine(FileChannel channel, long position) throws IOException{
+		ByteBuffer buf = ByteBuffer.allocate(512);
+		long size = channel.size();
+		while(position < size){
+			buf.clear();
+			int read = channel.read(buf, position);
+			if(read <= 0)	break;
+			for(int i = 0 ; i < read ; i++){
+				if(buf.get(i) == '\n')	return position + i + 1;
+			}
+			position += read;
+		}
+		return size;
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, long[] bounds, int chunk) throws IOException{
+		return channel.map(FileChannel.MapMode.READ_ONLY, bounds[chunk], bounds[chunk+1] - bounds[chunk]);
+	}
+
+	/**
+	 * Splits the chunk range in halves until a single chunk remains, which is then parsed.
+	 */
+	@SuppressWarnings("serial")
+	private static class NodeTask extends RecursiveAction{
+		private final FileChannel channel;
+		private final long[] bounds;
+		private final NodeChunk[] chunks;
+		private final int lo, hi;
+
+		NodeTask(FileChannel channel, long[] bounds, NodeChunk[] chunks, int lo, int hi){
+			this.channel = channel;
+			this.bounds = bounds;
+			this.chunks = chunks;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute(){
+			if(hi - lo > 1){
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new NodeTask(channel, bounds, chunks, lo, mid), new NodeTask(channel, bounds, chunks, mid, hi));
+				return;
+			}
+			if(hi == lo)	return;
+
+			try {
+				chunks[lo] = parseNodeChunk(map(channel, bounds, lo), lo);
+			} catch (IOException e) {
+				System.out.println("IOException while parsing node chunk " + lo + " : " + e);
+				chunks[lo] = new NodeChunk(0);
+			}
+		}
+	}
+
+	/**
+	 * Splits the chunk range in halves until a single chunk remains, which is then parsed.
+	 * Chunk i of the file is stored at chunks[i - first].
+	 */
+	@SuppressWarnings("serial")
+	private static class EdgeTask extends RecursiveAction{
+		private final FileChannel channel;
+		private final long[] bounds;
+		private final EdgeChunk[] chunks;
+		private final int first, lo, hi;
+
+		EdgeTask(FileChannel channel, long[] bounds, EdgeChunk[] chunks, int first, int lo, int hi){
+			this.channel = channel;
+			this.bounds = bounds;
+			this.chunks = chunks;
+			this.first = first;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute(){
+			if(hi - lo > 1){
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new EdgeTask(channel, bounds, chunks, first, lo, mid), new EdgeTask(channel, bounds, chunks, first, mid, hi));
+				return;
+			}
+			if(hi == lo)	return;
+
+			try {
+				chunks[lo] = parseEdgeChunk(map(channel, bounds, first + lo));
+			} catch (IOException e) {
+				System.out.println("IOException while parsing edge chunk " + (first + lo) + " : " + e);
+				chunks[lo] = new EdgeChunk(0);
+			}
+		}
+	}
+
+	private static NodeChunk parseNodeChunk(ByteBuffer buf, int index){
+		NodeChunk chunk = new NodeChunk(countLines(buf));
+		int[] fields = new int[MAXFIELDS + 1];
+		int pos = 0, line = 0;
+		while(pos < buf.limit()){
+			int end = lineEnd(buf, pos);
+			int count = splitLine(buf, pos, end, fields);
+			if(count >= 3){
+				int i = chunk.size++;
+				chunk.id[i] = parseInt(buf, fields[count-3], fields[count-2]-1);
+				if(chunk.id[i] == MALFORMED)	throw new IllegalArgumentException("malformed node id on line " + (line + 1) + " of chunk " + index + " of the point file");
+				chunk.x[i] = parseDouble(buf, fields[count-2], fields[count-1]-1);
+				chunk.y[i] = parseDouble(buf, fields[count-1], fields[count]-1);
+			}
+			pos = end + 1;
+			line++;
+		}
+		return chunk;
+	}
+
+	private static EdgeChunk parseEdgeChunk(ByteBuffer buf){
+		EdgeChunk chunk = new EdgeChunk(countLines(buf));
+		int[] fields = new int[MAXFIELDS + 1];
+		char[] chars = new char[256];
+		Map<Long, Integer> postalcodes = new HashMap<Long, Integer>();
+		int pos = 0, line = 0;
+		while(pos < buf.limit()){
+			int end = lineEnd(buf, pos);
+			int count = splitLine(buf, pos, end, fields);
+			if(count > ONEWAYCOLUMN){
+				int i = chunk.size++;
+				chunk.line[i] = line;
+				chunk.from[i] = parseInt(buf, fields[FROMCOLUMN], fields[FROMCOLUMN+1]-1);
+				chunk.to[i] = parseInt(buf, fields[TOCOLUMN], fields[TOCOLUMN+1]-1);
+				chunk.type[i] = parseInt(buf, fields[TYPECOLUMN], fields[TYPECOLUMN+1]-1);
+				if(chunk.from[i] == MALFORMED || chunk.to[i] == MALFORMED || chunk.type[i] == MALFORMED){
+					chunk.malformed[i] = true;
+					if(chunk.from[i] == MALFORMED)	chunk.from[i] = -1;
+					if(chunk.to[i] == MALFORMED)	chunk.to[i] = -1;
+					if(chunk.type[i] == MALFORMED)	chunk.type[i] = -1;
+				}
+				chunk.postalLeft[i] = postalCode(buf, fields[POSTALLEFTCOLUMN], fields[POSTALLEFTCOLUMN+1]-1, postalcodes);
+				chunk.postalRight[i] = postalCode(buf, fields[POSTALRIGHTCOLUMN], fields[POSTALRIGHTCOLUMN+1]-1, postalcodes);
+
+				// The road name is surrounded by quotes
+				int from = fields[NAMECOLUMN] + 1, to = fields[NAMECOLUMN+1] - 2;
+				if(to - from > chars.length)	chars = new char[to - from];
+				chunk.name[i] = decode(buf, from, to, chars);
+				chunk.oneway[i] = parseOneWay(buf, fields[ONEWAYCOLUMN] + 1, fields[ONEWAYCOLUMN+1] - 2);
+			}
+			pos = end + 1;
+			line++;
+		}
+		chunk.lines = line;
+		return chunk;
+	}
+
+	private static int countLines(ByteBuffer buf){
+		int lines = 0;
+		for(int i = 0 ; i < buf.limit() ; i++){
+			if(buf.get(i) == '\n')	lines++;
+		}
+		return buf.limit() > 0 && buf.get(buf.limit()-1) != '\n' ? lines + 1 : lines;
+	}
+
+	// Returns the index of the line break ending the line starting at pos, or the limit of the buffer
+	private static int lineEnd(ByteBuffer buf, int pos){
+		while(pos < buf.limit() && buf.get(pos) != '\n')	pos++;
+		return pos;
+	}
+
+	/**
+	 * Finds the fields of the line from start to end. Field i spans the bytes from fields[i] to fields[i+1]-2 (both inclusive).
+	 * @return the number of fields found
+	 */
+	private static int splitLine(ByteBuffer buf, int start, int end, int[] fields){
+		if(end > start && buf.get(end-1) == '\r')	end--;
+		if(end == start)	return 0;
+
+		int count = 0;
+		fields[count++] = start;
+		for(int i = start ; i < end && count < MAXFIELDS ; i++){
+			if(buf.get(i) == ',')	fields[count++] = i + 1;
+		}
+		fields[count] = end + 1;
+		return count;
+	}
+
+	/**
+	 * Parses a decimal integer in the bytes from and including from to and excluding to. Surrounding white space is ignored.
+	 * @return the integer. MALFORMED if the field is empty or is not a decimal integer, such as "12a"
+	 */
+	private static int parseInt(ByteBuffer buf, int from, int to){
+		while(from < to && blank(buf.get(from)))	from++;
+		while(to > from && blank(buf.get(to-1)))	to--;
+		boolean negative = from < to && buf.get(from) == '-';
+		if(negative)	from++;
+		if(from == to)	return MALFORMED;
+
+		int value = 0;
+		for(; from < to ; from++){
+			int digit = buf.get(from) - '0';
+			if(digit < 0 || digit > 9)	return MALFORMED;
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Finds the id in Dictionary.POSTALCODES of the bytes from and including from to and excluding to. Surrounding white space is removed.
+	 * Fields of up to 7 bytes are packed into a long and looked up in codes first, so the String of a postal code is only created once per chunk.
+	 */
+	private static int postalCode(ByteBuffer buf, int from, int to, Map<Long, Integer> codes){
+		while(from < to && blank(buf.get(from)))	from++;
+		while(to > from && blank(buf.get(to-1)))	to--;
+		if(to - from > 7)	return Dictionary.POSTALCODES.id(decode(buf, from, to, new char[to - from]));
+
+		long key = to - from;		// The length is part of the key, so "0800" and "800" differ
+		for(int i = from ; i < to ; i++)	key = key << 8 | (buf.get(i) & 0xff);
+		Integer id = codes.get(key);
+		if(id == null){
+			id = Dictionary.POSTALCODES.id(decode(buf, from, to, new char[to - from]));
+			codes.put(key, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Parses a decimal number in the bytes from and including from to and excluding to.
+	 * Numbers with an exponent or more than 15 significant digits are handed to Double.parseDouble.
+	 */
+	private static double parseDouble(ByteBuffer buf, int from, int to){
+		while(from < to && blank(buf.get(from)))	from++;
+		while(to > from && blank(buf.get(to-1)))	to--;
+
+		int i = from;
+		boolean negative = i < to && buf.get(i) == '-';
+		if(negative || (i < to && buf.get(i) == '+'))	i++;
+
+		long mantissa = 0;
+		int digits = 0, decimals = 0;
+		boolean point = false;
+		for(; i < to ; i++){
+			byte b = buf.get(i);
+			if(b == '.' && !point){
+				point = true;
+			}else if(b >= '0' && b <= '9'){
+				mantissa = mantissa * 10 + (b - '0');
+				if(mantissa != 0)	digits++;
+				if(point)			decimals++;
+			}else{
+				break;
+			}
+		}
+
+		if(i < to || digits > 15 || decimals >= POWERS.length)	return Double.parseDouble(decode(buf, from, to, new char[to - from]));
+
+		double value = decimals == 0 ? mantissa : mantissa / POWERS[decimals];	// A single correctly rounded division
+		return negative ? -value : value;
+	}
+
+	// True for white space and control characters. Bytes are signed, so the letters of ISO-8859-1 above 127, such as the Ø of Østergade, are negative
+	private static boolean blank(byte b){
+		return b >= 0 && b <= ' ';
+	}
+
+	// Decodes the bytes from and including from to and excluding to as ISO-8859-1. Surrounding white space is removed.
+	private static String decode(ByteBuffer buf, int from, int to, char[] chars){
+		while(from < to && blank(buf.get(from)))	from++;
+		while(to > from && blank(buf.get(to-1)))	to--;
+		if(to <= from)	return "";
+
+		for(int i = from ; i < to ; i++)	chars[i - from] = (char) (buf.get(i) & 0xff);
+		return new String(chars, 0, to - from);
+	}
+
+	private static OneWayType parseOneWay(ByteBuffer buf, int from, int to){
+		while(from < to && blank(buf.get(from)))	from++;
+		while(to > from && blank(buf.get(to-1)))	to--;
+
+		if(to - from == 1 && buf.get(from) == 'n')									return OneWayType.NODRIVING;
+		if(to - from == 2 && buf.get(from) == 'f' && buf.get(from+1) == 't')		return OneWayType.FROMTO;
+		if(to - from == 2 && buf.get(from) == 't' && buf.get(from+1) == 'f')		return OneWayType.TOFROM;
+		return OneWayType.NONE;
+	}
+}
@@ -0,0 +1,219 @@
+package model.data;
+
+import java.io.Serializable;
+
+/**
+ * This class stores the nodes of the krak data. The krak ids are remapped to dense indices 0..N-1,
+ * and the coordinates are kept in parallel arrays indexed by those.
+ * The minimum and maximum coordinates are determined while the store is filled.
+ *
+ * Point objects are only created on request, and their id is the dense index.
+ * A store can be extended with a newer extract of the point file, in which case every known node keeps its index.
+ *
+ * This class is immutable and thereby unconditionally thread-safe
+ * @author ejer
+ *
+ */
+public class NodeStore implements Serializable{
+
+	private static final long serialVersionUID = -2604418624372212235L;
+
+	private final int[] ids;			// ids[index] = krak id
+	private final double[] xs, ys;		// coordinates of the node at index
+	private final int[] table;			// open addressing table from krak id to index+1. 0 marks an empty slot
+	private final int size;
+	private final int added, moved;		// Number of nodes that were not in, or had other coordinates in, the store this one extends
+
+	private final double maxPx, maxPy, minPx, minPy;
+
+	/**
+	 * Builds a store from the parsed chunks of a point file. If a krak id occurs more than once the last coordinates are kept.
+	 * @param chunks
+	 */
+	public NodeStore(KrakParser.NodeChunk[] chunks){
+		this(null, chunks);
+	}
+
+	/**
+	 * Builds a store from the parsed chunks of a newer point file. Nodes known by previous keep their index and get the new coordinates,
+	 * and new nodes are given the following indices. Nodes missing from the new file are kept, so edges of previous stay valid,
+	 * but they do not count towards the minimum and maximum coordinates.
+	 * @param previous the store to extend
+	 * @param chunks
+	 * @return the extended store
+	 */
+	public static NodeStore extend(NodeStore previous, KrakParser.NodeChunk[] chunks){
+		if(previous == null)	throw new NullPointerException("parameter previous was null");
+		else if(chunks == null)	throw new NullPointerException("parameter chunks was null");
+
+		return new NodeStore(previous, chunks);
+	}
+
+	private NodeStore(NodeStore previous, KrakParser.NodeChunk[] chunks){
+		if(chunks == null)	throw new NullPointerException("parameter chunks was null");
+
+		int known = previous == null ? 0 : previous.size;
+		int capacity = known;
+		for(KrakParser.NodeChunk chunk : chunks)	capacity += chunk.size;
+
+		ids = new int[capacity];
+		xs = new double[capacity];
+		ys = new double[capacity];
+		table = new int[tableSize(capacity)];
+
+		for(int i = 0 ; i < known ; i++){
+			insert(previous.ids[i], i);
+			xs[i] = previous.xs[i];
+			ys[i] = previous.ys[i];
+		}
+
+		double maxx = 0, maxy = 0;
+		double minx = Double.POSITIVE_INFINITY, miny = Double.POSITIVE_INFINITY;
+		int n = known, movedcount = 0;
+		for(KrakParser.NodeChunk chunk : chunks){
+			for(int i = 0 ; i < chunk.size ; i++){
+				int index = insert(chunk.id[i], n);
+				if(index == n)	n++;
+
+				double x = chunk.x[i], y = chunk.y[i];
+				if(index < known && (xs[index] != x || ys[index] != y))	movedcount++;
+				xs[index] = x;
+				ys[index] = y;
+
+				if(x > maxx)	maxx = x;		// Dynamically determine the largest value of x
+				if(y > maxy)	maxy = y;		// Dynamically determine the largest value of y
+
+				if(x < minx)	minx = x;		// Dynamically determine the lowest value of x
+				if(y < miny)	miny = y;		// Dynamically determine the lowest value of y
+			}
+		}
+		size = n;
+		added = n - known;
+		moved = movedcount;
+		maxPx = maxx;	maxPy = maxy;
+		minPx = minx;	minPy = miny;
+	}
+
+	// The smallest power of two at least twice the capacity
+	private static int tableSize(int capacity){
+		int tablesize = 2;
+		while(tablesize < 2 * capacity)	tablesize <<= 1;
+		return tablesize;
+	}
+
+	private int slot(int id){
+		int h = id * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (table.length - 1);
+	}
+
+	// Inserts id with index next unless id is already known. Returns the index of id
+	private int insert(int id, int next){
+		int slot = slot(id);
+		while(table[slot] != 0){
+			if(ids[table[slot]-1] == id)	return table[slot]-1;
+			slot = (slot + 1) & (table.length - 1);
+		}
+		table[slot] = next + 1;
+		ids[next] = id;
+		return next;
+	}
+
+	/**
+	 * @param id a krak node id
+	 * @return the dense index of the node. -1 if the id is unknown
+	 */
+	public int indexOf(int id){
+		int slot = slot(id);
+		while(table[slot] != 0){
+			if(ids[table[slot]-1] == id)	return table[slot]-1;
+			slot = (slot + 1) & (table.length - 1);
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of nodes
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * @return the number of bytes held by the arrays of this store
+	 */
+	public long getMemoryUsage(){
+		return 4L * ids.length + 8L * xs.length + 8L * ys.length + 4L * table.length;
+	}
+
+	/**
+	 * @return the number of nodes that were not in the store this one extends. All nodes, if this store does not extend another
+	 */
+	public int getAddedCount(){
+		return added;
+	}
+
+	/**
+	 * @return the number of nodes that got new coordinates compared to the store this one extends
+	 */
+	public int getMovedCount(){
+		return moved;
+	}
+
+	/**
+	 * @param index
+	 * @return the krak id of the node at index
+	 */
+	public int getId(int index){
+		return ids[index];
+	}
+
+	/**
+	 * @param index
+	 * @return the x coordinate of the node at index
+	 */
+	public double getX(int index){
+		return xs[index];
+	}
+
+	/**
+	 * @param index
+	 * @return the y coordinate of the node at index
+	 */
+	public double getY(int index){
+		return ys[index];
+	}
+
+	/**
+	 * @param index
+	 * @return a new point with the coordinates of the node at index, using index as its id
+	 */
+	public Point getPoint(int index){
+		return new Point(index, xs[index], ys[index]);
+	}
+
+	/**
+	 * @param id a krak node id
+	 * @return a new point for the node with the krak id. Null if the id is unknown
+	 */
+	public Point getNode(int id){
+		int index = indexOf(id);
+		if(index < 0)	return null;
+		return getPoint(index);
+	}
+
+	/**
+	 * Note: This point does not represent an actual point in the data
+	 * @return A point consisting of the largest x-, and y- value. (Not necessary from the same point).
+	 */
+	public Point getMaxPoint(){
+		return new Point(0, maxPx, maxPy);
+	}
+
+	/**
+	 * Note: This point does not represent an actual point in the data
+	 * @return A point consisting of the lowest x-, and y- value. (Not necessary from the same point).
+	 */
+	public Point getMinPoint(){
+		return new Point(0, minPx, minPy);
+	}
+}
@@ -0,0 +1,118 @@
+package model.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import model.data.Edge.OneWayType;
+
+/**
+ * The edges of the roads of an OpenStreetMap file, spilled to a temporary file while the ways are parsed instead of being kept on the heap.
+ * The edges can not be created while the ways are parsed, as the node store is only complete when the last way has been read,
+ * so they are read back chunk by chunk afterwards.
+ * Road names and postal codes are stored as their ids in Dictionary.ROADNAMES and Dictionary.POSTALCODES, so no String is kept per edge.
+ *
+ * Record layout: int from, int to, int type, int road name id, int oneway ordinal, int postal code id, int line.
+ *
+ * This class is not thread-safe
+ * @author ejer
+ *
+ */
+class OsmEdgeFile {
+
+	private static final OneWayType[] ONEWAYTYPES = OneWayType.values();
+
+	private final File file;
+	private DataOutputStream out;
+	private int count = 0;
+
+	OsmEdgeFile() throws IOException{
+		file = File.createTempFile("osmedges", ".bin");
+		file.deleteOnExit();
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+	}
+
+	/**
+	 * Appends an edge. Must be called before close()
+	 */
+	void add(int from, int to, RoadType roadType, String name, OneWayType oneway, int postal, int line) throws IOException{
+		if(out == null)		throw new IllegalStateException("edges can not be added after the file is closed");
+
+		out.writeInt(from);
+		out.writeInt(to);
+		out.writeInt(roadType.getTypeID());
+		out.writeInt(Dictionary.ROADNAMES.id(name));
+		out.writeInt(oneway.ordinal());
+		out.writeInt(postal);
+		out.writeInt(line);
+		count++;
+	}
+
+	/**
+	 * Flushes the appended edges, so they can be streamed
+	 */
+	void close() throws IOException{
+		if(out == null)		return;
+		out.close();
+		out = null;
+	}
+
+	/**
+	 * @return the number of edges in the file
+	 */
+	int size(){
+		return count;
+	}
+
+	/**
+	 * Reads the edges back in the order they were added and streams them to handler in chunks of at most chunksize edges.
+	 * Every chunk is a new object, so the handler may keep it.
+	 * @param chunksize
+	 * @param handler
+	 */
+	void stream(int chunksize, KrakParser.ChunkHandler<KrakParser.EdgeChunk> handler) throws IOException{
+		if(out != null)		throw new IllegalStateException("the file must be closed before it is streamed");
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try{
+			int remaining = count;
+			while(remaining > 0){
+				KrakParser.EdgeChunk chunk = new KrakParser.EdgeChunk(Math.min(chunksize, remaining));
+				for(int i = 0 ; i < chunk.from.length ; i++){
+					chunk.from[i] = in.readInt();
+					chunk.to[i] = in.readInt();
+					chunk.type[i] = in.readInt();
+					chunk.name[i] = Dictionary.ROADNAMES.get(in.readInt());
+					chunk.oneway[i] = ONEWAYTYPES[in.readInt()];
+					chunk.postalLeft[i] = chunk.postalRight[i] = in.readInt();
+					chunk.line[i] = in.readInt();
+				}
+				chunk.size = chunk.from.length;
+				remaining -= chunk.size;
+				handler.handle(chunk);
+			}
+		}catch(EOFException e){
+			throw new IOException("the edge file " + file + " was truncated", e);
+		}finally{
+			in.close();
+		}
+	}
+
+	/**
+	 * Deletes the file
+	 */
+	void delete(){
+		try{
+			close();
+		}catch(IOException e){
+			System.out.println("IOException while closing writing stream : " + e);
+		}
+		if(!file.delete())	System.out.println("Could not delete " + file + ", it is deleted on exit");
+	}
+}
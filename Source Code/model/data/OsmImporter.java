@@ -0,0 +1,338 @@
+package model.data;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import model.data.Edge.OneWayType;
+
+/**
+ * Imports the roads of an OpenStreetMap XML file, so areas without krak data can be loaded by KrakDataLoader.
+ * The file is streamed with StAX. Its nodes are spilled to a memory mapped file, and only the nodes used by roads are kept on the heap,
+ * projected to UTM zone 32 like the krak coordinates. Every pair of consecutive nodes of a road becomes an edge,
+ * with the highway tag mapped to a RoadType and the oneway tags mapped to a OneWayType.
+ * The edges are spilled to a temporary file while the ways are parsed, and are streamed from it in chunks, so the heap only holds the used nodes.
+ *
+ * The nodes must appear before the ways and in ascending id order, as in the files from the OpenStreetMap servers and extracts.
+ *
+ * This class is immutable and thereby unconditionally thread-safe
+ * @author ejer
+ *
+ */
+public class OsmImporter {
+
+	private static final int CHUNKSIZE = 1 << 15;		// Number of edges in each chunk
+
+	private static final Map<String, RoadType> ROADTYPES = new HashMap<String, RoadType>();
+	private static final Map<String, RoadType> TUNNELTYPES = new HashMap<String, RoadType>();
+	private static final Set<String> NODRIVING = new HashSet<String>();
+	static{
+		ROADTYPES.put("motorway", RoadType.MOTORVEJ);
+		ROADTYPES.put("motorway_link", RoadType.MOTORVEJAFKØRSEL);
+		ROADTYPES.put("trunk", RoadType.MOTORTRAFIKVEJ);
+		ROADTYPES.put("trunk_link", RoadType.MOTORTRAFIKVEJAFKØRSEL);
+		ROADTYPES.put("primary", RoadType.PRIMÆRRUTESTRSEKSM);
+		ROADTYPES.put("primary_link", RoadType.PRIMÆRVEJAFKØRSEL);
+		ROADTYPES.put("secondary", RoadType.SEKUNDÆRRUTESTRSEKSM);
+		ROADTYPES.put("secondary_link", RoadType.SEKUNDÆRVEJAFKØRSEL);
+		ROADTYPES.put("tertiary", RoadType.VEJTRETILSEKSM);
+		ROADTYPES.put("tertiary_link", RoadType.VEJTRETILSEKSM);
+		ROADTYPES.put("unclassified", RoadType.ANDENVEJ);
+		ROADTYPES.put("residential", RoadType.ANDENVEJ);
+		ROADTYPES.put("living_street", RoadType.ANDENVEJ);
+		ROADTYPES.put("service", RoadType.ANDENVEJ);
+		ROADTYPES.put("road", RoadType.ANDENVEJ);
+		ROADTYPES.put("pedestrian", RoadType.GÅGADE);
+		ROADTYPES.put("track", RoadType.MARKVEJ);
+		ROADTYPES.put("footway", RoadType.STI);
+		ROADTYPES.put("cycleway", RoadType.STI);
+		ROADTYPES.put("path", RoadType.STI);
+		ROADTYPES.put("bridleway", RoadType.STI);
+		ROADTYPES.put("steps", RoadType.STI);
+
+		TUNNELTYPES.put("motorway", RoadType.MOTORVEJSTUNNEL);
+		TUNNELTYPES.put("trunk", RoadType.MOTORTRAFIKVEJSTUNNEL);
+		TUNNELTYPES.put("primary", RoadType.PRIMÆRVEJTUNNEL);
+		TUNNELTYPES.put("secondary", RoadType.SEKUNDÆRVEJTUNNEL);
+		TUNNELTYPES.put("unclassified", RoadType.ANDENVEJTUNNEL);
+		TUNNELTYPES.put("residential", RoadType.ANDENVEJTUNNEL);
+		TUNNELTYPES.put("service", RoadType.MINDREVEJTUNNEL);
+		TUNNELTYPES.put("footway", RoadType.STITUNNEL);
+		TUNNELTYPES.put("cycleway", RoadType.STITUNNEL);
+		TUNNELTYPES.put("path", RoadType.STITUNNEL);
+
+		NODRIVING.add("pedestrian");
+		NODRIVING.add("footway");
+		NODRIVING.add("cycleway");
+		NODRIVING.add("path");
+		NODRIVING.add("bridleway");
+		NODRIVING.add("steps");
+	}
+
+	// WGS84 ellipsoid and the transverse mercator projection of UTM zone 32
+	private static final double A = 6378137, F = 1 / 298.257223563, E2 = F * (2 - F), EP2 = E2 / (1 - E2);
+	private static final double K0 = 0.9996, LON0 = Math.toRadians(9), FALSEEASTING = 500000;
+
+	private final String osmFile;
+	private final List<KrakParser.NodeChunk> nodeChunks = new ArrayList<KrakParser.NodeChunk>();
+	private final OsmEdgeFile edges;
+	private final NodeStore nodes;
+	private int nodeCount = 0, wayCount = 0, roadCount = 0, missingNodes = 0;
+
+	/**
+	 * Reads the roads of an OpenStreetMap XML file
+	 * @param osmFile
+	 * @throws IllegalStateException if the file can not be read or is not well formed XML, so a bad extract is not loaded partially
+	 */
+	public OsmImporter(String osmFile){
+		if(osmFile == null)				throw new NullPointerException("parameter osmFile was null");
+		else if(osmFile.equals(""))		throw new IllegalArgumentException("parameter osmFile was emptystring");
+
+		this.osmFile = osmFile;
+		OsmNodeFile spill = null;
+		OsmEdgeFile edgeFile = null;
+		InputStream in = null;
+		boolean read = false;
+		try{
+			spill = new OsmNodeFile();
+			edgeFile = new OsmEdgeFile();
+			in = new BufferedInputStream(new FileInputStream(osmFile), 1 << 16);
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);		// OpenStreetMap files have no DTD, and external entities are not followed
+			XMLStreamReader reader = factory.createXMLStreamReader(in);
+			try{
+				read(reader, spill, edgeFile);
+			}finally{
+				reader.close();
+			}
+			edgeFile.close();
+			read = true;
+		}catch(IOException e){
+			throw new IllegalStateException("IOException while importing " + osmFile, e);
+		}catch(XMLStreamException e){
+			throw new IllegalStateException("XMLStreamException while importing " + osmFile, e);
+		}finally{
+			if(spill != null)					spill.delete();
+			if(!read && edgeFile != null)		edgeFile.delete();
+			close(in);
+		}
+		edges = edgeFile;
+		nodes = new NodeStore(nodeChunks.toArray(new KrakParser.NodeChunk[nodeChunks.size()]));
+		nodeChunks.clear();
+	}
+
+	private static void close(InputStream in){
+		if(in == null)	return;
+		try {
+			in.close();
+		} catch (IOException e) {
+			System.out.println("IOException while closing In-stream : " + e);
+		}
+	}
+
+	private void read(XMLStreamReader reader, OsmNodeFile spill, OsmEdgeFile edgeFile) throws XMLStreamException, IOException{
+		List<Long> refs = new ArrayList<Long>();
+		Map<String, String> tags = new HashMap<String, String>();
+		boolean inWay = false;
+		int wayLine = 0;
+
+		while(reader.hasNext()){
+			int event = reader.next();
+			if(event == XMLStreamConstants.START_ELEMENT){
+				String element = reader.getLocalName();
+				if(element.equals("node")){
+					spill.add(Long.parseLong(reader.getAttributeValue(null, "id")),
+							Double.parseDouble(reader.getAttributeValue(null, "lat")),
+							Double.parseDouble(reader.getAttributeValue(null, "lon")));
+					nodeCount++;
+				}else if(element.equals("way")){
+					inWay = true;
+					wayLine = reader.getLocation().getLineNumber();
+					refs.clear();
+					tags.clear();
+				}else if(inWay && element.equals("nd")){
+					refs.add(Long.parseLong(reader.getAttributeValue(null, "ref")));
+				}else if(inWay && element.equals("tag")){
+					tags.put(reader.getAttributeValue(null, "k"), reader.getAttributeValue(null, "v"));
+				}
+			}else if(event == XMLStreamConstants.END_ELEMENT && inWay && reader.getLocalName().equals("way")){
+				inWay = false;
+				wayCount++;
+				addWay(refs, tags, wayLine, spill, edgeFile);
+			}
+		}
+	}
+
+	private void addWay(List<Long> refs, Map<String, String> tags, int line, OsmNodeFile spill, OsmEdgeFile edgeFile) throws IOException{
+		RoadType roadType = roadType(tags);
+		if(roadType == null || refs.size() < 2)		return;
+		roadCount++;
+
+		String name = tags.containsKey("name") ? tags.get("name") : "";
+		OneWayType oneway = oneWay(tags);
+		int postal = postalCode(tags.get("addr:postcode"));
+
+		int previous = -1;
+		for(Long ref : refs){
+			int index = nodeIndex(ref, spill);
+			if(index < 0){
+				missingNodes++;			// Extracts cut at a border can refer to nodes outside the file
+				previous = -1;
+				continue;
+			}
+			if(previous >= 0)	edgeFile.add(previous, index, roadType, name, oneway, postal, line);		// line is the line of the way, so problems found by the ingest pipeline can be traced back to it
+			previous = index;
+		}
+	}
+
+	// The dense index of the node with id, adding it to the used nodes the first time. -1 if the node is not in the file
+	private int nodeIndex(long id, OsmNodeFile spill) throws IOException{
+		long record = spill.find(id);
+		if(record < 0)	return -1;
+
+		int before = spill.denseCount();
+		int index = spill.denseIndex(record);
+		if(index == before){
+			KrakParser.NodeChunk chunk = nodeChunks.isEmpty() ? null : nodeChunks.get(nodeChunks.size()-1);
+			if(chunk == null || chunk.size == chunk.id.length){
+				chunk = new KrakParser.NodeChunk(CHUNKSIZE);
+				nodeChunks.add(chunk);
+			}
+			double lat = Math.toRadians(spill.getLat(record)), lon = Math.toRadians(spill.getLon(record));
+			chunk.id[chunk.size] = index;			// The dense index doubles as the id of the node store
+			chunk.x[chunk.size] = easting(lat, lon);
+			chunk.y[chunk.size] = northing(lat, lon);
+			chunk.size++;
+		}
+		return index;
+	}
+
+	/**
+	 * @param tags of a way
+	 * @return the road type of the way. Null if the way is not a road
+	 */
+	static RoadType roadType(Map<String, String> tags){
+		if("ferry".equals(tags.get("route")))	return RoadType.FÆRGEFORBINDELSE;
+
+		String highway = tags.get("highway");
+		if(highway == null)		return null;
+		if("yes".equals(tags.get("tunnel")) && TUNNELTYPES.containsKey(highway))	return TUNNELTYPES.get(highway);
+		return ROADTYPES.get(highway);
+	}
+
+	/**
+	 * @param tags of a road
+	 * @return the direction the road can be driven in
+	 */
+	static OneWayType oneWay(Map<String, String> tags){
+		String highway = tags.get("highway");
+		String oneway = tags.get("oneway");
+		if(NODRIVING.contains(highway) || "no".equals(tags.get("motor_vehicle")) || "no".equals(tags.get("access")))	return OneWayType.NODRIVING;
+
+		if("yes".equals(oneway) || "true".equals(oneway) || "1".equals(oneway))		return OneWayType.FROMTO;
+		if("-1".equals(oneway) || "reverse".equals(oneway))							return OneWayType.TOFROM;
+		if(oneway != null)																return OneWayType.NONE;
+		if("motorway".equals(highway) || "motorway_link".equals(highway) || "roundabout".equals(tags.get("junction")))	return OneWayType.FROMTO;	// Implied one way
+		return OneWayType.NONE;
+	}
+
+	/**
+	 * @param postcode the addr:postcode tag of a road. Null if the road has none
+	 * @return the id of the trimmed tag in Dictionary.POSTALCODES, so codes such as "0800", "SW1A 1AA" and "1012 AB" are kept as written
+	 */
+	static int postalCode(String postcode){
+		return Dictionary.POSTALCODES.id(postcode == null ? "" : postcode.trim());
+	}
+
+	private static double easting(double lat, double lon){
+		double n = A / Math.sqrt(1 - E2 * Math.sin(lat) * Math.sin(lat));
+		double t = Math.tan(lat) * Math.tan(lat);
+		double c = EP2 * Math.cos(lat) * Math.cos(lat);
+		double a = Math.cos(lat) * (lon - LON0);
+		return K0 * n * (a + (1 - t + c) * Math.pow(a, 3) / 6 + (5 - 18 * t + t * t + 72 * c - 58 * EP2) * Math.pow(a, 5) / 120) + FALSEEASTING;
+	}
+
+	private static double northing(double lat, double lon){
+		double n = A / Math.sqrt(1 - E2 * Math.sin(lat) * Math.sin(lat));
+		double t = Math.tan(lat) * Math.tan(lat);
+		double c = EP2 * Math.cos(lat) * Math.cos(lat);
+		double a = Math.cos(lat) * (lon - LON0);
+		double e4 = E2 * E2, e6 = e4 * E2;
+		double m = A * ((1 - E2 / 4 - 3 * e4 / 64 - 5 * e6 / 256) * lat
+				- (3 * E2 / 8 + 3 * e4 / 32 + 45 * e6 / 1024) * Math.sin(2 * lat)
+				+ (15 * e4 / 256 + 45 * e6 / 1024) * Math.sin(4 * lat)
+				- (35 * e6 / 3072) * Math.sin(6 * lat));
+		return K0 * (m + n * Math.tan(lat) * (a * a / 2 + (5 - t + 9 * c + 4 * c * c) * Math.pow(a, 4) / 24
+				+ (61 - 58 * t + t * t + 600 * c - 330 * EP2) * Math.pow(a, 6) / 720));
+	}
+
+	/**
+	 * @return the nodes used by the roads, indexed densely. The edge chunks refer to them by index
+	 */
+	public NodeStore getNodeStore(){
+		return nodes;
+	}
+
+	/**
+	 * @return a source streaming the edge chunks of the roads into an IngestPipeline, reading them from the spilled edge file.
+	 * The source can be streamed until delete() is called
+	 */
+	public IngestPipeline.Source getSource(){
+		return new IngestPipeline.Source(){
+			@Override
+			public void stream(KrakParser.ChunkHandler<KrakParser.EdgeChunk> handler){
+				if(handler == null)	throw new NullPointerException("parameter handler was null");
+
+				try{
+					edges.stream(CHUNKSIZE, handler);
+				}catch(IOException e){
+					throw new IllegalStateException("IOException while streaming the edges of " + osmFile, e);
+				}
+			}
+
+			@Override
+			public String toString(){
+				return osmFile;
+			}
+		};
+	}
+
+	/**
+	 * Loads the roads of an OpenStreetMap XML file the way krak files are loaded
+	 * @param osmFile
+	 * @return the loader holding the keys, the name index and the graph of the roads
+	 */
+	public static KrakDataLoader load(String osmFile){
+		OsmImporter importer = new OsmImporter(osmFile);
+		System.out.println(importer);
+		try{
+			return new KrakDataLoader(importer.getNodeStore(), importer.getSource());
+		}finally{
+			importer.delete();
+		}
+	}
+
+	/**
+	 * Deletes the spilled edge file. The file is also deleted when the program exits
+	 */
+	public void delete(){
+		edges.delete();
+	}
+
+	@Override
+	public String toString(){
+		return osmFile + ": " + nodeCount + " nodes, " + wayCount + " ways, " + roadCount + " roads with " + edges.size() + " edges using " + nodes.size() + " nodes, " + missingNodes + " missing node references";
+	}
+}
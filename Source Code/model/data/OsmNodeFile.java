@@ -0,0 +1,144 @@
+package model.data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The nodes of an OpenStreetMap file, spilled to a temporary file instead of being kept on the heap.
+ * Nodes are appended in ascending id order, as they appear in OpenStreetMap files, and are then found by binary search in the memory mapped file.
+ * Every record also holds a dense index, handed out the first time a node is used by a road.
+ *
+ * Record layout: long id, int latitude and int longitude in 1e-7 degrees, int dense index (-1 until the node is used).
+ *
+ * This class is not thread-safe
+ * @author ejer
+ *
+ */
+class OsmNodeFile {
+
+	private static final int RECORD = 20;
+	private static final long SEGMENT = RECORD * (1L << 25);		// Bytes mapped by each buffer, a multiple of RECORD below 2 GB
+	private static final double SCALE = 1e7;
+
+	private final File file;
+	private DataOutputStream out;
+	private MappedByteBuffer[] segments;
+	private long count = 0;
+	private long lastId = Long.MIN_VALUE;
+	private int dense = 0;
+
+	OsmNodeFile() throws IOException{
+		file = File.createTempFile("osmnodes", ".bin");
+		file.deleteOnExit();
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+	}
+
+	/**
+	 * Appends a node. Must be called before the first lookup, with ascending ids.
+	 */
+	void add(long id, double lat, double lon) throws IOException{
+		if(out == null)		throw new IllegalStateException("nodes can not be added after the first lookup");
+		if(id <= lastId)	throw new IllegalArgumentException("the nodes are not sorted by id: " + id + " follows " + lastId);
+
+		out.writeLong(id);
+		out.writeInt((int) Math.round(lat * SCALE));
+		out.writeInt((int) Math.round(lon * SCALE));
+		out.writeInt(-1);
+		lastId = id;
+		count++;
+	}
+
+	// Closes the writer and maps the file in segments
+	private void map() throws IOException{
+		out.close();
+		out = null;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try{
+			FileChannel channel = raf.getChannel();
+			long size = count * RECORD;
+			segments = new MappedByteBuffer[(int) ((size + SEGMENT - 1) / SEGMENT)];
+			for(int i = 0 ; i < segments.length ; i++){
+				long start = i * SEGMENT;
+				segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(SEGMENT, size - start));
+			}
+		}finally{
+			raf.close();		// The mappings stay valid after the channel is closed
+		}
+	}
+
+	/**
+	 * @param id
+	 * @return the record number of the node. -1 if the node is unknown
+	 */
+	long find(long id) throws IOException{
+		if(segments == null)	map();
+
+		long lo = 0, hi = count - 1;
+		while(lo <= hi){
+			long mid = (lo + hi) >>> 1;
+			long midId = segment(mid).getLong(offset(mid));
+			if		(midId < id)	lo = mid + 1;
+			else if	(midId > id)	hi = mid - 1;
+			else					return mid;
+		}
+		return -1;
+	}
+
+	double getLat(long record){
+		return segment(record).getInt(offset(record) + 8) / SCALE;
+	}
+
+	double getLon(long record){
+		return segment(record).getInt(offset(record) + 12) / SCALE;
+	}
+
+	/**
+	 * @param record
+	 * @return the dense index of the node, handing out the next index if the node has none
+	 */
+	int denseIndex(long record){
+		MappedByteBuffer segment = segment(record);
+		int offset = offset(record) + 16;
+		int index = segment.getInt(offset);
+		if(index < 0){
+			index = dense++;
+			segment.putInt(offset, index);
+		}
+		return index;
+	}
+
+	/**
+	 * @return the number of dense indices handed out
+	 */
+	int denseCount(){
+		return dense;
+	}
+
+	private MappedByteBuffer segment(long record){
+		return segments[(int) (record * RECORD / SEGMENT)];
+	}
+
+	private int offset(long record){
+		return (int) (record * RECORD % SEGMENT);
+	}
+
+	/**
+	 * Deletes the file. The mappings are released when they are collected
+	 */
+	void delete(){
+		try{
+			if(out != null)		out.close();
+		}catch(IOException e){
+			System.out.println("IOException while closing writing stream : " + e);
+		}
+		segments = null;
+		if(!file.delete())	System.out.println("Could not delete " + file + ", it is deleted on exit");
+	}
+}
@@ -17,9 +17,7 @@ public class Point implements Comparable<Point>, Serializable{
 
 	private transient final double x;
 	private transient final double y;
-	private transient int id;
-
-	private transient final Object stateLock = new Object();
+	private transient volatile int id;
 
 	/**
 	 * Create a point with a specific id value
@@ -65,9 +63,7 @@ public class Point implements Comparable<Point>, Serializable{
 	 * @return The value of id
 	 */
 	public int getId(){
-		synchronized(stateLock){
-			return id;
-		}
+		return id;
 	}
 
 	/**
@@ -75,9 +71,7 @@ public class Point implements Comparable<Point>, Serializable{
 	 * @param newId
 	 */
 	public void setId(int newId){
-		synchronized(stateLock){
-			id = newId;
-		}
+		id = newId;
 	}
 
 	@Override
@@ -125,9 +119,7 @@ public class Point implements Comparable<Point>, Serializable{
 	 * @return a reference to a proxy containing info about this Point instance
 	 */
 	private Object writeReplace(){
-		synchronized(stateLock){
-			return new SerializationProxy(this);
-		}
+		return new SerializationProxy(this);
 	}
 
 	/**
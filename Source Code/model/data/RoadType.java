@@ -59,6 +59,13 @@ public enum RoadType implements Serializable{
 	private final int roadNameLevel;
 	
 	private static int maxZoom;
+	private static final RoadType[] byTypeID;		// RoadType of every type id, null for unknown ids. Looked up for every edge while ingesting
+	static{
+		int max = 0;
+		for(RoadType rt : values())		max = Math.max(max, rt.typeID);
+		byTypeID = new RoadType[max + 1];
+		for(RoadType rt : values())		byTypeID[rt.typeID] = rt;
+	}
 	
 	RoadType(int typeID, String typeName, Color colour, float lineWidth, int zoomlevel, int roadNameLevel) {
 		if(typeID < 0)				throw new IllegalArgumentException("parameter typeID was negative");
@@ -120,11 +127,8 @@ public enum RoadType implements Serializable{
 	 * @return RoadType object matching typeID. Null if nothing matches
 	 */
 	public static RoadType getRoadType(int typeID) {		
-		for (RoadType rt : RoadType.values())
-			if(rt.getTypeID() == typeID)
-				return rt;
-		
-		return null;
+		if(typeID < 0 || typeID >= byTypeID.length)	return null;
+		return byTypeID[typeID];
 	}
 	
 	/**
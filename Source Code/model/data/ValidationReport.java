@@ -0,0 +1,173 @@
+package model.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The problems found in the edges of a source while it was ingested, see IngestPipeline.
+ * Every problem is counted, and the first lines of the source showing it are kept as samples.
+ *
+ * The report is filled by the pipeline before it is handed out, and is not changed after that
+ * @author ejer
+ *
+ */
+public class ValidationReport {
+
+	static final int SAMPLES = 10;		// Number of sample lines, and dangling node ids, kept
+
+	public enum Problem {
+		MALFORMED			("malformed node ids or road types (dropped)"),
+		SELFLOOP			("self loops (dropped)"),
+		DANGLINGNODE		("references to missing nodes (dropped)"),
+		UNKNOWNTYPE			("unknown road types (read as " + RoadType.STEDNAVN + ")"),
+		ZEROLENGTH			("zero length segments"),
+		DUPLICATE			("duplicate segments");
+
+		private final String description;
+
+		Problem(String description){
+			this.description = description;
+		}
+
+		/**
+		 * @return what the problem is, and what is done with the edges showing it
+		 */
+		public String getDescription(){
+			return description;
+		}
+	}
+
+	private final String source;
+	private final long[] counts = new long[Problem.values().length];
+	private final List<List<Integer>> samples = new ArrayList<List<Integer>>();
+	private final Map<Integer, Long> unknownTypes = new TreeMap<Integer, Long>();
+	private final Set<Integer> danglingNodes = new TreeSet<Integer>();
+	private long records = 0;
+	private double seconds = 0;
+
+	/**
+	 * @param source the name of the source, such as the edge file
+	 */
+	ValidationReport(String source){
+		if(source == null)	throw new NullPointerException("parameter source was null");
+
+		this.source = source;
+		for(int i = 0 ; i < counts.length ; i++)	samples.add(new ArrayList<Integer>());
+	}
+
+	void addRecords(long n){
+		records += n;
+	}
+
+	void add(Problem problem, int line){
+		counts[problem.ordinal()]++;
+		List<Integer> kept = samples.get(problem.ordinal());
+		if(kept.size() < SAMPLES)	kept.add(line);
+	}
+
+	// Adds count records showing problem, of which lines are the first
+	void add(Problem problem, long count, int[] lines){
+		counts[problem.ordinal()] += count;
+		List<Integer> kept = samples.get(problem.ordinal());
+		for(int i = 0 ; i < lines.length && kept.size() < SAMPLES ; i++)	kept.add(lines[i]);
+	}
+
+	void addUnknownType(int typeID, long n){
+		Long count = unknownTypes.get(typeID);
+		unknownTypes.put(typeID, count == null ? n : count + n);
+	}
+
+	void addDanglingNode(int id){
+		if(danglingNodes.size() < SAMPLES)	danglingNodes.add(id);
+	}
+
+	void setTime(double seconds){
+		this.seconds = seconds;
+	}
+
+	/**
+	 * @return the name of the source
+	 */
+	public String getSource(){
+		return source;
+	}
+
+	/**
+	 * @return the number of edge records in the source
+	 */
+	public long getRecords(){
+		return records;
+	}
+
+	/**
+	 * @param problem
+	 * @return the number of records showing problem
+	 */
+	public long getCount(Problem problem){
+		if(problem == null)	throw new NullPointerException("parameter problem was null");
+		return counts[problem.ordinal()];
+	}
+
+	/**
+	 * @param problem
+	 * @return the first lines of the source showing problem, in line order
+	 */
+	public List<Integer> getSampleLines(Problem problem){
+		if(problem == null)	throw new NullPointerException("parameter problem was null");
+		return Collections.unmodifiableList(samples.get(problem.ordinal()));
+	}
+
+	/**
+	 * @return the number of records of every unknown road type id
+	 */
+	public Map<Integer, Long> getUnknownTypes(){
+		return Collections.unmodifiableMap(unknownTypes);
+	}
+
+	/**
+	 * @return some of the missing node ids referred to by the source
+	 */
+	public Set<Integer> getDanglingNodes(){
+		return Collections.unmodifiableSet(danglingNodes);
+	}
+
+	/**
+	 * @return true if no problem was found
+	 */
+	public boolean isClean(){
+		for(long count : counts){
+			if(count > 0)	return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of seconds spent validating, not counting time spent waiting for the source
+	 */
+	public double getTime(){
+		return seconds;
+	}
+
+	@Override
+	public String toString(){
+		StringBuilder sb = new StringBuilder();
+		sb.append("validation of ").append(source).append(": ").append(records).append(" records in ").append(seconds).append(" s");
+		if(isClean())	return sb.append(", no problems\n").toString();
+		sb.append('\n');
+
+		for(Problem problem : Problem.values()){
+			if(counts[problem.ordinal()] == 0)	continue;
+			sb.append("  ").append(counts[problem.ordinal()]).append(' ').append(problem.getDescription());
+			sb.append(", lines ").append(samples.get(problem.ordinal()));
+			if(problem == Problem.UNKNOWNTYPE)		sb.append(", type ids ").append(unknownTypes);
+			if(problem == Problem.DANGLINGNODE)		sb.append(", node ids ").append(danglingNodes);
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+}
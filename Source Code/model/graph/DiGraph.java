@@ -1,9 +1,12 @@
 
 package model.graph;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
 import model.Bag;
 import model.Search;
-import model.Stopwatch;
 import model.data.Edge;
 import model.data.Edge.OneWayType;
 
@@ -17,23 +20,29 @@ public class DiGraph {
 	protected int E;
 	protected int EInSet = 0;
 	protected static double progress = 0;
-	protected static Bag<Edge>[] adj;
+	protected Bag<Edge>[] adj;
+	protected final Map<Integer, Edge> inverted = new HashMap<Integer, Edge>();	// The inverted copy of each road added in that direction, by Edge.getId of the road
 
 	/**
 	 * Create an empty edge-weighted digraph based on the KrakData.
 	 */
 	public DiGraph() {
+		this(Search.Data.INSTANCE.getNodeSize()); //gets the max size from our dataset to generate the array
 		k = Search.Data.INSTANCE;
-		if (k.size() < 0) throw new RuntimeException("Number of vertices must be nonnegative");
-		V = 0;
+		generateGraph();
+	}
+
+	/**
+	 * Create an empty edge-weighted digraph with V vertices. Roads are added with addRoad.
+	 */
+	public DiGraph(int V) {
+		if (V < 0) throw new RuntimeException("Number of vertices must be nonnegative");
+		this.V = V;
 		E = 0;
-		int maxsize = k.getNodeSize(); //gets the max size from our dataset to generate the array
-		adj = (Bag<Edge>[]) new Bag[maxsize];
-		for(int i = 0; i < maxsize ; i++ ) {
+		adj = (Bag<Edge>[]) new Bag[V];
+		for(int i = 0; i < V ; i++ ) {
 			adj[i] = new Bag<Edge>(); //generating empty bags
 		}
-		generateGraph();
-		V = k.getNodeSize();
 	}
 
 	/**
@@ -85,29 +94,72 @@ public class DiGraph {
 	 * Generate the edges based on input
 	 */
 	protected void generateGraph() {
-		double ksize = k.getAll().size();
-		new Stopwatch();
-		for(Edge e : k.getAll()) 
+		Set<Edge> all = k.getAll();
+		double ksize = all.size();
+		for(Edge e : all) 
 		{
 			EInSet++;
 			 //keeps track of edges in set
 			// this is written for keeping track of progress.
 			Search.Graph.INSTANCE.setProgress( (double)EInSet/ksize );
-			OneWayType owt = e.getOneWay();
-			if(owt == OneWayType.FROMTO)
-			{
-				addEdge(e); continue;
-			}
-			else if(owt == OneWayType.TOFROM)
-			{
-				addInvertedEdge(e); continue;
-			}
-			else if(owt == OneWayType.NONE)
-			{
-				addEdge(e);
-				addInvertedEdge(e); continue;
-			}
-		}
+			addRoad(e);
+		}
+	}
+
+	/**
+	 * Add the road e to this digraph in the directions it can be driven.
+	 */
+	public void addRoad(Edge e) {
+		if(e == null)	throw new NullPointerException("parameter e was null");
+
+		OneWayType owt = e.getOneWay();
+		if(owt == OneWayType.FROMTO)
+		{
+			addEdge(e);
+		}
+		else if(owt == OneWayType.TOFROM)
+		{
+			addInvertedEdge(e);
+		}
+		else if(owt == OneWayType.NONE)
+		{
+			addEdge(e);
+			addInvertedEdge(e);
+		}
+	}
+
+	/**
+	 * Remove the road e, as it was added by addRoad, from this digraph.
+	 */
+	public void removeRoad(Edge e) {
+		if(e == null)	throw new NullPointerException("parameter e was null");
+
+		OneWayType owt = e.getOneWay();
+		if(owt == OneWayType.FROMTO || owt == OneWayType.NONE)
+		{
+			if(adj[e.getStartId()].remove(e)) E--;
+		}
+		if(owt == OneWayType.TOFROM || owt == OneWayType.NONE)
+		{
+			Edge tmp = inverted.remove(e.getId()); //the inverted edge is a copy, so it is looked up by the road it was made from
+			if(tmp != null && adj[tmp.getStartId()].remove(tmp)) E--;
+		}
+	}
+
+	/**
+	 * Grow this digraph to V vertices. The new vertices have no edges.
+	 */
+	@SuppressWarnings({"rawtypes","unchecked"})
+	public void grow(int V) {
+		if(V < this.V) throw new IllegalArgumentException("parameter V was smaller than the number of vertices");
+
+		Bag<Edge>[] grown = (Bag<Edge>[]) new Bag[V];
+		System.arraycopy(adj, 0, grown, 0, this.V);
+		for(int i = this.V; i < V ; i++ ) {
+			grown[i] = new Bag<Edge>(); //generating empty bags
+		}
+		adj = grown;
+		this.V = V;
 	}
 
 	/**
@@ -136,18 +188,19 @@ public class DiGraph {
 	public void addEdge(Edge e) {
 		if(e == null)	throw new NullPointerException("parameter e was null");
 		
-		adj[e.getStart().getId()].add(e); //add to current references
+		adj[e.getStartId()].add(e); //add to current references
 		E++;
 	}
 
 	/**
-	 * Add the inverted edge of e to this digraph.
+	 * Add the inverted edge of e to this digraph. The inverted edge is kept by e, so removeRoad(e) removes it.
 	 */
 	public void addInvertedEdge(Edge e) {
 		if(e == null)	throw new NullPointerException("parameter e was null");
 		
 		Edge tmp = e.invertEdge();
-		adj[tmp.getStart().getId()].add(tmp); //add to current refs
+		adj[tmp.getStartId()].add(tmp); //add to current refs
+		inverted.put(e.getId(), tmp);
 		E++;
 	}
 
@@ -194,7 +247,7 @@ public class DiGraph {
 		for(int P = 0; P < adj.length; P++) {
 			System.out.println("From: "+P);
 			for(Edge e : adj[P])
-				System.out.println("\t"+e.getEnd().getId());
+				System.out.println("\t"+e.getEndId());
 		}
 	}
 }
\ No newline at end of file
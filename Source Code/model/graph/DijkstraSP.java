@@ -31,25 +31,36 @@ public class DijkstraSP {
 		if(G == null) {
 			System.err.println("Set the Graph before calling Dijkstra.searchRoutes");
 			return null;
-		}
-		
-		if(from == null)	throw new NullPointerException("parameter from was null");
+		}
+		
+		return searchRoutes(G, from, to);
+	}
+
+	/**
+	 * Constructs 2 shortest paths - from edge start and end - in the graph G rather than the graph that was set
+	 * @param G - directed graph containing both edges
+	 * @param from - edge to search from
+	 * @param to - edge to search to
+	 */
+	public static Route searchRoutes(DiGraph G, Edge from, Edge to) {
+		if(G == null)		throw new NullPointerException("parameter G was null");
+		else if(from == null)	throw new NullPointerException("parameter from was null");
 		else if(to == null)	throw new NullPointerException("parameter to was null");
 
 		//generating 2 paths - from start and end point of the edge
-		DijkstraSP route1 = new DijkstraSP(G, from.getStart().getId());
-		DijkstraSP route2 = new DijkstraSP(G, from.getEnd().getId());
+		DijkstraSP route1 = new DijkstraSP(G, from.getStartId());
+		DijkstraSP route2 = new DijkstraSP(G, from.getEndId());
 
 		//result sets
 		List<Edge>[] results = new List[4];
 
 		//results based on start-edge start + end-edge start or end
-		results[0] = route1.pathTo(from, to.getStart().getId(), to);
-		results[1] = route1.pathTo(from, to.getEnd().getId(), to);
+		results[0] = route1.pathTo(from, to.getStartId(), to);
+		results[1] = route1.pathTo(from, to.getEndId(), to);
 
 		//results based on start-edge end + end-edge start or end
-		results[2] = route2.pathTo(from, to.getStart().getId(), to);
-		results[3] = route2.pathTo(from, to.getEnd().getId(), to);
+		results[2] = route2.pathTo(from, to.getStartId(), to);
+		results[3] = route2.pathTo(from, to.getEndId(), to);
 
 		//length comparison array
 		double[] a = new double[4];
@@ -102,7 +113,7 @@ public class DijkstraSP {
 
 	// relax edge e and update pq if changed
 	private void relax(Edge e) {
-		int v = e.getStart().getId(), w = e.getEnd().getId();
+		int v = e.getStartId(), w = e.getEndId();
 		if (distTo[w] > distTo[v] + e.getDist()) {
 			distTo[w] = distTo[v] + e.getDist();
 			edgeTo[w] = e;
@@ -133,7 +144,7 @@ public class DijkstraSP {
 		if (!hasPathTo(v)) return path;
 
 		path.add(to);
-		for (Edge e = edgeTo[v]; e != null; e = edgeTo[e.getStart().getId()]) {
+		for (Edge e = edgeTo[v]; e != null; e = edgeTo[e.getStartId()]) {
 			path.add(e);
 		}
 		path.add(start);
@@ -30,7 +30,7 @@ public class Route {
 			if(x == edges.length-1) {
 				route[x+1] = edges[x+1].getRoadName();
 			}
-			if(edges[x].getRoadName().equals(edges[x+1].getRoadName())) { //if 2 IDENTIC names occur the name is replaced with a line
+			if(edges[x].getRoadNameId() == edges[x+1].getRoadNameId()) { //if 2 IDENTIC names occur the name is replaced with a line
 				route[x] = " | ";
 			}
 			else {
@@ -0,0 +1,186 @@
+package model.tree;
+
+import model.data.Edge;
+import model.data.Point;
+import model.data.RoadType;
+
+/**
+ * The distance from the segment of a KrakTreeKey to a route, for keys within a buffer around the route, of road types shown at the zoom level of maxRoadType.
+ * Every other key and region is unwanted, so a nearest search for all values, DataSearch.nearest(metric, Integer.MAX_VALUE),
+ * returns the edges of the corridor around the route, nearest first, and only searches the regions reaching into the corridor.
+ * A region is tested against the capsule of buffer around every segment of the route, so the regions searched follow the route,
+ * and a diagonal route does not search its whole bounding box.
+ *
+ * The segments are kept in groups of GROUPSIZE consecutive segments with the box of their capsules, so a region far from a group skips its segments.
+ * As for SegmentMetric, the end of a cut key is within extent of its start, which narrows the regions of a kd-tree.
+ *
+ * This class is immutable
+ * @author ejer
+ *
+ */
+public class CorridorMetric implements KDTMetric<KrakTreeKey>{
+
+	private static final double SLACK = Math.pow(10, -6);		// Allows for rounding in the coordinates of cut keys
+	private static final int GROUPSIZE = 16;
+
+	private final double[] segments;		// The start x, start y, end x and end y of every segment of the route
+	private final double[] groups;			// The lowest x, lowest y, highest x and highest y of the capsules of every group of segments
+	private final double buffer;
+	private final double maxZoom;
+	private final double extent;
+
+	/**
+	 * @param polyline the points of the route, in order
+	 * @param buffer the largest distance from the route of a key wanted
+	 * @param maxRoadType the least important road type wanted
+	 * @param extent the largest difference in x, and in y, between the start and the end of a key
+	 */
+	public CorridorMetric(Point[] polyline, double buffer, RoadType maxRoadType, double extent){
+		this(segments(polyline), buffer, maxRoadType, extent);
+	}
+
+	/**
+	 * @param route the edges of the route, each a segment of it. The edges can be in any order and direction, such as those of Route.getVisualRoute()
+	 * @param buffer the largest distance from the route of a key wanted
+	 * @param maxRoadType the least important road type wanted
+	 * @param extent the largest difference in x, and in y, between the start and the end of a key
+	 */
+	public CorridorMetric(Edge[] route, double buffer, RoadType maxRoadType, double extent){
+		this(segments(route), buffer, maxRoadType, extent);
+	}
+
+	private CorridorMetric(double[] segments, double buffer, RoadType maxRoadType, double extent){
+		if(maxRoadType == null)		throw new NullPointerException("parameter maxRoadType was null");
+		else if(buffer < 0)			throw new IllegalArgumentException("parameter buffer was negative");
+		else if(extent < 0)			throw new IllegalArgumentException("parameter extent was negative");
+
+		this.segments = segments;
+		this.buffer = buffer;
+		this.maxZoom = maxRoadType.getZoomLevel();
+		this.extent = extent + SLACK;
+
+		int count = segments.length / 4;
+		groups = new double[(count + GROUPSIZE - 1) / GROUPSIZE * 4];
+		for(int g = 0 ; g < groups.length / 4 ; g++){
+			double x1 = Double.POSITIVE_INFINITY, y1 = Double.POSITIVE_INFINITY, x2 = Double.NEGATIVE_INFINITY, y2 = Double.NEGATIVE_INFINITY;
+			for(int s = g * GROUPSIZE ; s < Math.min(count, (g + 1) * GROUPSIZE) ; s++){
+				x1 = Math.min(x1, Math.min(segments[4*s], segments[4*s + 2]));
+				y1 = Math.min(y1, Math.min(segments[4*s + 1], segments[4*s + 3]));
+				x2 = Math.max(x2, Math.max(segments[4*s], segments[4*s + 2]));
+				y2 = Math.max(y2, Math.max(segments[4*s + 1], segments[4*s + 3]));
+			}
+			groups[4*g] = x1 - buffer;
+			groups[4*g + 1] = y1 - buffer;
+			groups[4*g + 2] = x2 + buffer;
+			groups[4*g + 3] = y2 + buffer;
+		}
+	}
+
+	private static double[] segments(Point[] polyline){
+		if(polyline == null)	throw new NullPointerException("parameter polyline was null");
+
+		double[] segments = new double[Math.max(0, polyline.length - 1) * 4];
+		for(int i = 0 ; i + 1 < polyline.length ; i++){
+			if(polyline[i] == null || polyline[i+1] == null)	throw new NullPointerException("parameter polyline contained null");
+			segments[4*i] = polyline[i].getX();
+			segments[4*i + 1] = polyline[i].getY();
+			segments[4*i + 2] = polyline[i+1].getX();
+			segments[4*i + 3] = polyline[i+1].getY();
+		}
+		return segments;
+	}
+
+	private static double[] segments(Edge[] route){
+		if(route == null)	throw new NullPointerException("parameter route was null");
+
+		double[] segments = new double[route.length * 4];
+		for(int i = 0 ; i < route.length ; i++){
+			if(route[i] == null)	throw new NullPointerException("parameter route contained null");
+			segments[4*i] = route[i].getStartX();
+			segments[4*i + 1] = route[i].getStartY();
+			segments[4*i + 2] = route[i].getEndX();
+			segments[4*i + 3] = route[i].getEndY();
+		}
+		return segments;
+	}
+
+	@Override
+	public double distance(KrakTreeKey key){
+		if(key.roadType.getZoomLevel() > maxZoom)	return Double.POSITIVE_INFINITY;
+
+		double x1 = Math.min(key.startx, key.endx), x2 = Math.max(key.startx, key.endx);
+		double y1 = Math.min(key.starty, key.endy), y2 = Math.max(key.starty, key.endy);
+		double best = Double.POSITIVE_INFINITY;
+		for(int g = 0 ; g < groups.length / 4 ; g++){
+			if(x2 < groups[4*g] || x1 > groups[4*g + 2] || y2 < groups[4*g + 1] || y1 > groups[4*g + 3])	continue;
+			for(int s = g * GROUPSIZE ; s < Math.min(segments.length / 4, (g + 1) * GROUPSIZE) ; s++){
+				double d = distance(key.startx, key.starty, key.endx, key.endy, segments[4*s], segments[4*s + 1], segments[4*s + 2], segments[4*s + 3]);
+				if(d < best)	best = d;
+			}
+		}
+		return best <= buffer ? best : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * The segment of a key lies in the box of SegmentMetric.segmentBox, and is no closer to the route than that box.
+	 * As every wanted key is found anyway, the bound is 0 for a box reaching into the corridor, so regions are expanded before values are polled
+	 */
+	@Override
+	public double lowerBound(double[] min, double[] max){
+		if(min[4] > maxZoom)	return Double.POSITIVE_INFINITY;
+		double[] box = SegmentMetric.segmentBox(min, max, extent);
+		if(box == null)			return Double.POSITIVE_INFINITY;
+
+		double x1 = box[0], y1 = box[1], x2 = box[2], y2 = box[3];
+		for(int g = 0 ; g < groups.length / 4 ; g++){
+			if(x2 < groups[4*g] || x1 > groups[4*g + 2] || y2 < groups[4*g + 1] || y1 > groups[4*g + 3])	continue;
+			for(int s = g * GROUPSIZE ; s < Math.min(segments.length / 4, (g + 1) * GROUPSIZE) ; s++){
+				if(boxDistance(x1, y1, x2, y2, segments[4*s], segments[4*s + 1], segments[4*s + 2], segments[4*s + 3]) <= buffer)	return 0;
+			}
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return the distance between the segment from (ax, ay) to (bx, by) and the segment from (cx, cy) to (dx, dy)
+	 */
+	public static double distance(double ax, double ay, double bx, double by, double cx, double cy, double dx, double dy){
+		if(crosses(ax, ay, bx, by, cx, cy, dx, dy))	return 0;
+		return Math.min(Math.min(SegmentMetric.distance(ax, ay, cx, cy, dx, dy), SegmentMetric.distance(bx, by, cx, cy, dx, dy)),
+						Math.min(SegmentMetric.distance(cx, cy, ax, ay, bx, by), SegmentMetric.distance(dx, dy, ax, ay, bx, by)));
+	}
+
+	// The distance between the box from (x1, y1) to (x2, y2) and the segment from (sx, sy) to (ex, ey)
+	private static double boxDistance(double x1, double y1, double x2, double y2, double sx, double sy, double ex, double ey){
+		if(inBox(sx, sy, x1, y1, x2, y2) || inBox(ex, ey, x1, y1, x2, y2))	return 0;
+		if(crosses(sx, sy, ex, ey, x1, y1, x2, y1) || crosses(sx, sy, ex, ey, x2, y1, x2, y2)
+				|| crosses(sx, sy, ex, ey, x2, y2, x1, y2) || crosses(sx, sy, ex, ey, x1, y2, x1, y1))	return 0;
+
+		// Apart, so the nearest points are an end of the segment and the box, or a corner of the box and the segment
+		double best = Math.min(pointBoxDistance(sx, sy, x1, y1, x2, y2), pointBoxDistance(ex, ey, x1, y1, x2, y2));
+		best = Math.min(best, Math.min(SegmentMetric.distance(x1, y1, sx, sy, ex, ey), SegmentMetric.distance(x2, y1, sx, sy, ex, ey)));
+		return Math.min(best, Math.min(SegmentMetric.distance(x2, y2, sx, sy, ex, ey), SegmentMetric.distance(x1, y2, sx, sy, ex, ey)));
+	}
+
+	private static boolean inBox(double x, double y, double x1, double y1, double x2, double y2){
+		return x >= x1 && x <= x2 && y >= y1 && y <= y2;
+	}
+
+	private static double pointBoxDistance(double x, double y, double x1, double y1, double x2, double y2){
+		double dx = x < x1 ? x1 - x : x > x2 ? x - x2 : 0;
+		double dy = y < y1 ? y1 - y : y > y2 ? y - y2 : 0;
+		return Math.sqrt(dx*dx + dy*dy);
+	}
+
+	// True if the segments share a point, apart from touching collinear segments, which are found by the distances of their ends
+	private static boolean crosses(double ax, double ay, double bx, double by, double cx, double cy, double dx, double dy){
+		double d1 = cross(cx, cy, dx, dy, ax, ay), d2 = cross(cx, cy, dx, dy, bx, by);
+		double d3 = cross(ax, ay, bx, by, cx, cy), d4 = cross(ax, ay, bx, by, dx, dy);
+		return ((d1 > 0 && d2 < 0) || (d1 < 0 && d2 > 0)) && ((d3 > 0 && d4 < 0) || (d3 < 0 && d4 > 0));
+	}
+
+	// The cross product of (b - a) and (p - a)
+	private static double cross(double ax, double ay, double bx, double by, double px, double py){
+		return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+	}
+}
@@ -0,0 +1,91 @@
+package model.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import model.data.Edge;
+
+/**
+ * A visitor passing every edge of a range search on to another visitor once, however many keys the edge has in the range.
+ * The edges seen are marked in a bitset by Edge.getId(). Every thread reuses its own visitor, and only the words of the bitset marked
+ * by a search are cleared after it, so a search allocates nothing once the bitset has grown to the highest id searched.
+ * A thread acquiring several visitors at once, as for the ranges of DataSearch.getRanges or a search started by a visitor, gets one for each,
+ * and keeps them for its next searches.
+ *
+ * Use:
+ * DistinctEdges distinct = DistinctEdges.acquire(visitor);
+ * try{ index.getRange(from, to, distinct, limit); } finally { distinct.release(); }
+ *
+ * This class is not thread-safe. An acquired visitor is used by the thread that acquired it only
+ * @author ejer
+ *
+ */
+public final class DistinctEdges implements RangeVisitor<Edge>{
+
+	private static final ThreadLocal<List<DistinctEdges>> local = new ThreadLocal<List<DistinctEdges>>(){
+		@Override
+		protected List<DistinctEdges> initialValue(){
+			return new ArrayList<DistinctEdges>();
+		}
+	};
+
+	private long[] words = new long[1 << 10];		// Bit id of word id >>> 6 is set if the edge of that id was seen
+	private int[] marked = new int[1 << 8];			// The indices of the words set since the last release
+	private int markedCount = 0;
+	private RangeVisitor<? super Edge> target;		// Null while released
+
+	private DistinctEdges(){}
+
+	/**
+	 * @param target the visitor to pass every edge to once
+	 * @return a released visitor of the calling thread, or a new one kept by the thread if all of its visitors are acquired
+	 */
+	public static DistinctEdges acquire(RangeVisitor<? super Edge> target){
+		if(target == null)	throw new NullPointerException("parameter target was null");
+
+		List<DistinctEdges> pool = local.get();
+		DistinctEdges distinct = null;
+		for(int i = 0 ; i < pool.size() && distinct == null ; i++){
+			if(pool.get(i).target == null)	distinct = pool.get(i);
+		}
+		if(distinct == null){
+			distinct = new DistinctEdges();
+			pool.add(distinct);
+		}
+		distinct.target = target;
+		return distinct;
+	}
+
+	/**
+	 * Forgets the edges seen, so the visitor can be acquired again
+	 */
+	public void release(){
+		for(int i = 0 ; i < markedCount ; i++)	words[marked[i]] = 0;
+		markedCount = 0;
+		target = null;
+	}
+
+	/**
+	 * Passes edge on to the target the first time it is seen since the visitor was acquired
+	 * @return what the target returned, false if edge was seen before
+	 */
+	@Override
+	public boolean visit(Edge edge){
+		if(target == null)	throw new IllegalStateException("the visitor was released");
+
+		int id = edge.getId();
+		int w = id >>> 6;
+		if(w >= words.length)	words = Arrays.copyOf(words, Math.max(w + 1, words.length * 2));
+
+		long bit = 1L << id;
+		long word = words[w];
+		if((word & bit) != 0)	return false;
+		if(word == 0){
+			if(markedCount == marked.length)	marked = Arrays.copyOf(marked, marked.length * 2);
+			marked[markedCount++] = w;
+		}
+		words[w] = word | bit;
+		return target.visit(edge);
+	}
+}
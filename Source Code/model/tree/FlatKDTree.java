@@ -0,0 +1,563 @@
+package model.tree;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import model.DataSearch;
+import model.data.Edge;
+import model.data.KeyBuffer;
+import model.data.RoadType;
+
+/**
+ * A balanced kd-tree of KrakTreeKeys without node objects. The keys are kept in parallel arrays, one column per coordinate,
+ * a column of road type ordinals and a column of edge ids into a table of the distinct edges.
+ * The tree is implicit: The root of the keys from lo to hi is at (lo + hi) / 2, and its subtrees are the keys before and after it,
+ * so children are found by index arithmetic and a subtree is a contiguous run of the arrays.
+ *
+ * Range searches return the same edges as a KDTree of the same keys. The layout can not grow, so pairs put after build()
+ * are kept in a small KDTree searched together with the arrays, and removed pairs are marked in a bit set. Both are folded into the arrays by the next build.
+ *
+ * The columns are nio buffers, so the tree is searched the same way whether it was built in memory or mapped from a file written by write(File),
+ * see map(File). A mapped tree is searched in place, without reading the file into memory first.
+ *
+ * This class is unconditionally thread-safe. Reads take no locks, and writers are serialized
+ * @author ejer
+ *
+ */
+public class FlatKDTree implements DataSearch<KrakTreeKey, Edge>{
+
+	private static final int DIMENSIONS = 5;
+	private static final RoadType[] ROADTYPES = RoadType.values();
+	private static final double[] ZOOM = new double[ROADTYPES.length];		// The zoom level of every road type, its value in dimension 4
+	static{
+		for(RoadType rt : ROADTYPES)	ZOOM[rt.ordinal()] = rt.getZoomLevel();
+	}
+	private static final double EPSILON = Math.pow(10, -9);		// Tolerance when keys are compared, as in KrakTreeKey
+
+	private volatile Layout layout = new Layout(0);
+	private volatile KDTree<KrakTreeKey, Edge> added = new KDTree<KrakTreeKey, Edge>(new KrakTreeKey());
+	private final Object stateLock = new Object();		// Held by writers only
+
+	/**
+	 * The columns of one build, or of a mapped file. Only the removed bits change after the layout is published
+	 */
+	private static class Layout{
+		final DoubleBuffer[] columns = new DoubleBuffer[DIMENSIONS - 1];		// startx, starty, endx, endy
+		final ByteBuffer type;
+		final IntBuffer edge;
+		Edge[] edges = new Edge[0];			// The edges by id of a built layout
+		final IndexFile file;				// The file of a mapped layout, which creates its edges. Null for a built layout
+		final AtomicLongArray removed;
+		final AtomicInteger removedCount = new AtomicInteger();
+		final int size;
+
+		Layout(int size){
+			this.size = size;
+			for(int d = 0 ; d < columns.length ; d++)	columns[d] = DoubleBuffer.wrap(new double[size]);
+			type = ByteBuffer.wrap(new byte[size]);
+			edge = IntBuffer.wrap(new int[size]);
+			file = null;
+			removed = new AtomicLongArray((size + 63) >>> 6);
+		}
+
+		Layout(IndexFile file){
+			size = file.size;
+			System.arraycopy(file.columns, 0, columns, 0, columns.length);
+			type = file.type;
+			edge = file.edge;
+			edges = null;
+			this.file = file;
+			removed = new AtomicLongArray((size + 63) >>> 6);
+		}
+
+		double value(int dimension, int i){
+			return dimension < columns.length ? columns[dimension].get(i) : ZOOM[type.get(i)];
+		}
+
+		// The edge of key i
+		Edge edgeOf(int i){
+			return edgeById(edge.get(i));
+		}
+
+		Edge edgeById(int id){
+			return file == null ? edges[id] : file.getEdge(id);
+		}
+
+		int edgeCount(){
+			return file == null ? edges.length : file.edges();
+		}
+
+		boolean isRemoved(int i){
+			return (removed.get(i >>> 6) & (1L << i)) != 0;
+		}
+
+		// Returns false if i was already removed
+		boolean remove(int i){
+			long word, updated;
+			do{
+				word = removed.get(i >>> 6);
+				if((word & (1L << i)) != 0)		return false;
+				updated = word | (1L << i);
+			}while(!removed.compareAndSet(i >>> 6, word, updated));
+			removedCount.incrementAndGet();
+			return true;
+		}
+	}
+
+	@Override
+	public int size(){
+		Layout l = layout;
+		return l.size - l.removedCount.get() + added.size();
+	}
+
+	/**
+	 * Adds the pair to the keys put since the last build
+	 */
+	@Override
+	public void put(KrakTreeKey key, Edge value){
+		if(key == null)	throw new NullPointerException("parameter key was null");
+		synchronized(stateLock){
+			added.put(key, value);
+		}
+	}
+
+	@Override
+	public boolean remove(KrakTreeKey key, Edge value){
+		if(key == null)	throw new NullPointerException("parameter key was null");
+		synchronized(stateLock){
+			if(added.remove(key, value))	return true;
+
+			Layout l = layout;
+			double[] min = new double[DIMENSIONS], max = new double[DIMENSIONS];
+			for(int d = 0 ; d < DIMENSIONS ; d++){
+				min[d] = key.getDimensionValue(d) - EPSILON;
+				max[d] = key.getDimensionValue(d) + EPSILON;
+			}
+			List<Integer> found = new ArrayList<Integer>();
+			find(l, min, max, 0, l.size - 1, 0, found);
+			for(int i : found){
+				Edge e = l.edgeOf(i);
+				if((value == null ? e == null : value.equals(e)) && l.remove(i))	return true;
+			}
+			return false;
+		}
+	}
+
+	// Puts the index of every live key in range from lo to hi in found
+	private static void find(Layout l, double[] min, double[] max, int lo, int hi, int depth, List<Integer> found){
+		if(lo > hi)	return;
+		int mid = (lo + hi) >>> 1;
+		int dim = depth % DIMENSIONS;
+		double v = l.value(dim, mid);
+
+		if(inRange(l, mid, min, max) && !l.isRemoved(mid))	found.add(mid);
+		if(v >= min[dim])	find(l, min, max, lo, mid - 1, depth + 1, found);
+		if(v <= max[dim])	find(l, min, max, mid + 1, hi, depth + 1, found);
+	}
+
+	private static boolean inRange(Layout l, int i, double[] min, double[] max){
+		return inRange(l, i, min, max, 0);
+	}
+
+	// True if key i lies within the bounds from offset in the arrays min and max
+	private static boolean inRange(Layout l, int i, double[] min, double[] max, int offset){
+		for(int d = 0 ; d < DIMENSIONS ; d++){
+			double v = l.value(d, i);
+			if(v < min[offset + d] || v > max[offset + d])	return false;
+		}
+		return true;
+	}
+
+	private static boolean inRange(Layout l, int i, KrakTreeKey min, KrakTreeKey max){
+		for(int d = 0 ; d < DIMENSIONS ; d++){
+			double v = l.value(d, i);
+			if(v < min.getDimensionValue(d) || v > max.getDimensionValue(d))	return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Return all values in the range. No lock is taken
+	 * @param keyfrom	the key to start from
+	 * @param keyto		the key to end with
+	 * @return			a set containing all edges with a key within the bounds of start and end
+	 */
+	@Override
+	public Set<Edge> getRange(KrakTreeKey keyfrom, KrakTreeKey keyto){
+		final Set<Edge> result = new HashSet<Edge>();
+		getRange(keyfrom, keyto, new RangeVisitor<Edge>(){
+			@Override
+			public boolean visit(Edge value){
+				return result.add(value);
+			}
+		}, Integer.MAX_VALUE);
+		return result;
+	}
+
+	/**
+	 * Passes the edges in the range to visitor, once for every key in the range, searching the pairs put since the build first.
+	 * Nothing is allocated by the search. No lock is taken
+	 */
+	@Override
+	public int getRange(KrakTreeKey keyfrom, KrakTreeKey keyto, RangeVisitor<? super Edge> visitor, int limit){
+		if(keyfrom == null)		throw new NullPointerException("parameter keyfrom was null");
+		else if(keyto == null)	throw new NullPointerException("parameter keyto was null");
+		else if(visitor == null)	throw new NullPointerException("parameter visitor was null");
+		else if(limit < 0)		throw new IllegalArgumentException("parameter limit was negative");
+
+		Layout l = layout;
+		int counted = added.getRange(keyfrom, keyto, visitor, limit);
+		return limit - getRange(l, keyfrom, keyto, 0, l.size - 1, 0, visitor, limit - counted);
+	}
+
+	// Returns what is left of remaining after visiting the keys in range from lo to hi
+	private static int getRange(Layout l, KrakTreeKey min, KrakTreeKey max, int lo, int hi, int depth, RangeVisitor<? super Edge> visitor, int remaining){
+		while(lo <= hi && remaining > 0){
+			int mid = (lo + hi) >>> 1;
+			int dim = depth % DIMENSIONS;
+			double v = l.value(dim, mid);
+
+			// The right subtree is searched by the loop, so only the left one recurses
+			boolean left = v >= min.getDimensionValue(dim), right = v <= max.getDimensionValue(dim);
+			if(left && right){
+				if(inRange(l, mid, min, max) && !l.isRemoved(mid) && visitor.visit(l.edgeOf(mid)))	remaining--;
+				remaining = getRange(l, min, max, lo, mid - 1, depth + 1, visitor, remaining);
+			}
+			if(right)		lo = mid + 1;
+			else			hi = mid - 1;
+			depth++;
+		}
+		return remaining;
+	}
+
+	/**
+	 * Passes the edges in every range to the visitor of the range, once for every key in it, walking the arrays once for all the ranges,
+	 * see KDTree.getRanges. No lock is taken
+	 */
+	@Override
+	public int[] getRanges(List<KrakTreeKey> keysfrom, List<KrakTreeKey> keysto, List<? extends RangeVisitor<? super Edge>> visitors){
+		OpenRanges.check(keysfrom, keysto, visitors);
+
+		Layout l = layout;
+		int[] counted = added.getRanges(keysfrom, keysto, visitors);
+		int size = visitors.size();
+		double[] min = new double[size * DIMENSIONS], max = new double[size * DIMENSIONS];		// The bounds of range r are from r * DIMENSIONS
+		for(int r = 0 ; r < size ; r++){
+			for(int d = 0 ; d < DIMENSIONS ; d++){
+				min[r * DIMENSIONS + d] = keysfrom.get(r).getDimensionValue(d);
+				max[r * DIMENSIONS + d] = keysto.get(r).getDimensionValue(d);
+			}
+		}
+		OpenRanges ranges = new OpenRanges(size);
+		getRanges(l, 0, l.size - 1, 0, ranges, size, min, max, visitors);
+		for(int i = 0 ; i < counted.length ; i++)	counted[i] += ranges.counted[i];
+		return counted;
+	}
+
+	// Visits the keys from lo to hi in the first open ranges of the list of depth
+	private static void getRanges(Layout l, int lo, int hi, int depth, OpenRanges ranges, int open,
+			double[] min, double[] max, List<? extends RangeVisitor<? super Edge>> visitors){
+		while(lo <= hi && open > 0){
+			int mid = (lo + hi) >>> 1;
+			int dim = depth % DIMENSIONS;
+			double v = l.value(dim, mid);
+			int[] here = ranges.at(depth), next = ranges.at(depth + 1);
+
+			int left = 0;
+			for(int i = 0 ; i < open ; i++){
+				int r = here[i];
+				if(v < min[r * DIMENSIONS + dim])	continue;
+				if(v <= max[r * DIMENSIONS + dim] && inRange(l, mid, min, max, r * DIMENSIONS) && !l.isRemoved(mid)
+						&& visitors.get(r).visit(l.edgeOf(mid)))		ranges.counted[r]++;
+				next[left++] = r;
+			}
+			getRanges(l, lo, mid - 1, depth + 1, ranges, left, min, max, visitors);
+
+			// The right subtree is searched by the loop, with the list of the next depth refilled
+			int right = 0;
+			for(int i = 0 ; i < open ; i++){
+				if(v <= max[here[i] * DIMENSIONS + dim])	next[right++] = here[i];
+			}
+			open = right;
+			lo = mid + 1;
+			depth++;
+		}
+	}
+
+	/**
+	 * Finds the k edges nearest to the query of metric, searching the arrays and the pairs put since the build together. No lock is taken
+	 * @param metric
+	 * @param k
+	 * @return at most k distinct edges, nearest first
+	 */
+	@Override
+	public List<Edge> nearest(KDTMetric<KrakTreeKey> metric, int k){
+		if(metric == null)	throw new NullPointerException("parameter metric was null");
+
+		NearestQueue<KrakTreeKey, Edge> queue = new NearestQueue<KrakTreeKey, Edge>(metric, k);
+		added.start(queue);
+		Layout l = layout;
+		double[] min = new double[DIMENSIONS], max = new double[DIMENSIONS];
+		for(int d = 0 ; d < DIMENSIONS ; d++){
+			min[d] = Double.NEGATIVE_INFINITY;
+			max[d] = Double.POSITIVE_INFINITY;
+		}
+		if(l.size > 0)	queue.addRegion(min, max, new Region(l, 0, l.size - 1, 0, min, max));
+		return queue.search();
+	}
+
+	// The keys from lo to hi of a nearest neighbour search, and the region they lie in
+	private static class Region implements NearestQueue.Region<KrakTreeKey, Edge>{
+		final Layout l;
+		final int lo, hi, depth;
+		final double[] min, max;
+
+		Region(Layout l, int lo, int hi, int depth, double[] min, double[] max){
+			this.l = l;
+			this.lo = lo;
+			this.hi = hi;
+			this.depth = depth;
+			this.min = min;
+			this.max = max;
+		}
+
+		@Override
+		public void expand(NearestQueue<KrakTreeKey, Edge> queue){
+			int mid = (lo + hi) >>> 1;
+			if(!l.isRemoved(mid)){
+				KrakTreeKey key = new KrakTreeKey(l.value(0, mid), l.value(1, mid), l.value(2, mid), l.value(3, mid), ROADTYPES[l.type.get(mid)]);
+				queue.addValue(key, l.edgeOf(mid));
+			}
+
+			int dim = depth % DIMENSIONS;
+			double split = l.value(dim, mid);
+			if(lo < mid){
+				double[] leftMax = max.clone();
+				leftMax[dim] = Math.min(leftMax[dim], split);
+				queue.addRegion(min, leftMax, new Region(l, lo, mid - 1, depth + 1, min, leftMax));
+			}
+			if(mid < hi){
+				double[] rightMin = min.clone();
+				rightMin[dim] = Math.max(rightMin[dim], split);
+				queue.addRegion(rightMin, max, new Region(l, mid + 1, hi, depth + 1, rightMin, max));
+			}
+		}
+	}
+
+	@Override
+	public void build(Map<KrakTreeKey, Edge> map){
+		if(map == null)	throw new NullPointerException("parameter map was null");
+
+		List<KrakTreeKey> keys = new ArrayList<KrakTreeKey>(map.size());
+		List<Edge> values = new ArrayList<Edge>(map.size());
+		for(Map.Entry<KrakTreeKey, Edge> entry : map.entrySet()){
+			keys.add(entry.getKey());
+			values.add(entry.getValue());
+		}
+		build(keys, values);
+	}
+
+	/**
+	 * Builds the tree from the pairs, together with the live pairs already in it. Edges are given ids by identity
+	 */
+	@Override
+	public void build(List<KrakTreeKey> keys, List<Edge> values){
+		if(keys == null)						throw new NullPointerException("parameter keys was null");
+		else if(values == null)					throw new NullPointerException("parameter values was null");
+		else if(keys.size() != values.size())	throw new IllegalArgumentException("parameters keys and values differ in size");
+
+		synchronized(stateLock){
+			Layout current = layout;
+			KDTree<KrakTreeKey, Edge> pending = added;
+			List<KrakTreeKey> pendingKeys = new ArrayList<KrakTreeKey>();
+			List<Edge> pendingValues = new ArrayList<Edge>();
+			pending.collect(pendingKeys, pendingValues);
+
+			int live = current.size - current.removedCount.get();
+			Layout l = new Layout(live + pendingKeys.size() + keys.size());
+			Map<Edge, Integer> ids = new IdentityHashMap<Edge, Integer>();
+			List<Edge> edges = new ArrayList<Edge>();
+			int n = 0;
+			for(int i = 0 ; i < current.size ; i++){
+				if(current.isRemoved(i))	continue;
+				for(int d = 0 ; d < DIMENSIONS - 1 ; d++)	l.columns[d].put(n, current.value(d, i));
+				l.type.put(n, current.type.get(i));
+				l.edge.put(n++, id(current.edgeOf(i), ids, edges));
+			}
+			for(int i = 0 ; i < pendingKeys.size() ; i++)	set(l, n++, pendingKeys.get(i), id(pendingValues.get(i), ids, edges));
+			for(int i = 0 ; i < keys.size() ; i++)			set(l, n++, keys.get(i), id(values.get(i), ids, edges));
+
+			l.edges = edges.toArray(new Edge[edges.size()]);
+			build(l);
+			added = new KDTree<KrakTreeKey, Edge>(new KrakTreeKey());
+			layout = l;
+		}
+	}
+
+	/**
+	 * Builds the tree from the keys of a buffer, whose edge ids are used as they are
+	 * @param buffer a joined buffer, see KeyBuffer.join
+	 * @param edges the edges of the buffer, by id
+	 */
+	public void build(KeyBuffer buffer, Edge[] edges){
+		if(buffer == null)		throw new NullPointerException("parameter buffer was null");
+		else if(edges == null)	throw new NullPointerException("parameter edges was null");
+
+		synchronized(stateLock){
+			if(size() != 0)		throw new IllegalStateException("a buffer can only be built into an empty tree");
+
+			Layout l = new Layout(buffer.size());
+			for(int i = 0 ; i < buffer.size() ; i++){
+				l.columns[0].put(i, buffer.getStartX(i));
+				l.columns[1].put(i, buffer.getStartY(i));
+				l.columns[2].put(i, buffer.getEndX(i));
+				l.columns[3].put(i, buffer.getEndY(i));
+				l.type.put(i, (byte) buffer.getRoadType(i).ordinal());
+				l.edge.put(i, buffer.getEdgeId(i));
+			}
+			l.edges = edges.clone();
+			build(l);
+			layout = l;
+		}
+	}
+
+	/**
+	 * Writes the tree to file in the layout it is searched in, folding the pairs put and removed since the build into it first, see map(File).
+	 * The file is replaced by a move, so a tree mapped from it stays valid
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException{
+		if(file == null)	throw new NullPointerException("parameter file was null");
+
+		synchronized(stateLock){
+			if(added.size() > 0 || layout.removedCount.get() > 0)	build(new ArrayList<KrakTreeKey>(), new ArrayList<Edge>());
+			final Layout l = layout;
+			IndexFile.write(file, l.size, l.columns, l.type, l.edge, new AbstractList<Edge>(){
+				@Override
+				public Edge get(int id){
+					return l.edgeById(id);
+				}
+
+				@Override
+				public int size(){
+					return l.edgeCount();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Opens a tree written by write(File). The file is mapped rather than read, and searched in place: The OS reads its pages as searches touch them,
+	 * and shares them with every program mapping the file, so opening takes the same time whatever the size of the tree.
+	 * An edge is created the first time a search finds it. Pairs are put and removed as for a built tree, and kept in memory until the next build or write.
+	 * Note: The name index and the graph are not in the file. Search.Text and Search.Graph build them from every edge when they are initialized,
+	 * so the program still creates every edge at startup, and only the tree itself opens in constant time.
+	 * The file must not be written while it is mapped, but can be replaced, as by write(File)
+	 * @param file
+	 * @return the tree of file
+	 * @throws IOException if file can not be read, or was not written by write(File)
+	 */
+	public static FlatKDTree map(File file) throws IOException{
+		if(file == null)	throw new NullPointerException("parameter file was null");
+
+		FlatKDTree tree = new FlatKDTree();
+		tree.layout = new Layout(IndexFile.map(file));
+		return tree;
+	}
+
+	private static int id(Edge e, Map<Edge, Integer> ids, List<Edge> edges){
+		Integer id = ids.get(e);
+		if(id == null){
+			id = edges.size();
+			ids.put(e, id);
+			edges.add(e);
+		}
+		return id;
+	}
+
+	private static void set(Layout l, int i, KrakTreeKey key, int edge){
+		l.columns[0].put(i, key.startx);
+		l.columns[1].put(i, key.starty);
+		l.columns[2].put(i, key.endx);
+		l.columns[3].put(i, key.endy);
+		l.type.put(i, (byte) key.roadType.ordinal());
+		l.edge.put(i, edge);
+	}
+
+	/**
+	 * Arranges the keys of the layout as an implicit tree: The median of every range in the dimension of its depth is moved to the middle of the range
+	 */
+	private static void build(Layout l){
+		double[] values = new double[l.size];
+		build(l, values, 0, l.size - 1, 0);
+	}
+
+	private static void build(Layout l, double[] values, int lo, int hi, int depth){
+		if(lo >= hi)	return;
+
+		int dimension = depth % DIMENSIONS;
+		for(int i = lo ; i <= hi ; i++)		values[i] = l.value(dimension, i);
+
+		int median = (lo + hi) >>> 1;
+		select(l, values, lo, hi, median);
+		build(l, values, lo, median - 1, depth + 1);
+		build(l, values, median + 1, hi, depth + 1);
+	}
+
+	// Quickselect with a median of three pivot, as KDTree.select
+	private static void select(Layout l, double[] values, int lo, int hi, int k){
+		while(hi > lo){
+			int mid = (lo + hi) >>> 1;
+			double p = medianOfThree(values[lo], values[mid], values[hi]);
+			int lt = lo, i = lo, gt = hi;
+			while(i <= gt){
+				if		(values[i] < p)		swap(l, values, lt++, i++);
+				else if	(values[i] > p)		swap(l, values, i, gt--);
+				else						i++;
+			}
+			if		(k < lt)	hi = lt - 1;
+			else if	(k > gt)	lo = gt + 1;
+			else				return;
+		}
+	}
+
+	private static double medianOfThree(double a, double b, double c){
+		return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+	}
+
+	private static void swap(Layout l, double[] values, int i, int j){
+		for(DoubleBuffer column : l.columns){
+			double d = column.get(i);	column.put(i, column.get(j));	column.put(j, d);
+		}
+		byte t = l.type.get(i);		l.type.put(i, l.type.get(j));		l.type.put(j, t);
+		int e = l.edge.get(i);		l.edge.put(i, l.edge.get(j));		l.edge.put(j, e);
+		double v = values[i];	values[i] = values[j];		values[j] = v;
+	}
+
+	/**
+	 * @return the number of bytes held by the arrays of the tree, not counting the edges
+	 */
+	public long getMemoryUsage(){
+		Layout l = layout;
+		if(l.file != null)	return l.removed.length() * 8L;		// The columns are in the file
+		return (long) l.size * (8 * (DIMENSIONS - 1) + 1 + 4) + (long) l.edges.length * 4 + l.removed.length() * 8L;
+	}
+
+	@Override
+	public String toString(){
+		return size() + " keys in a flat kd-tree, " + (getMemoryUsage() >> 20) + " MB";
+	}
+}
@@ -0,0 +1,330 @@
+package model.tree;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import model.data.Dictionary;
+import model.data.Edge;
+import model.data.Edge.OneWayType;
+import model.data.Point;
+import model.data.RoadType;
+
+/**
+ * The file of a FlatKDTree, laid out as the arrays the tree is searched in, so the tree is searched in place in the mapped file, see FlatKDTree.map.
+ * Opening the file reads nothing but the header: The pages of the columns are read by the OS as searches touch them, and are shared by every program mapping the file.
+ *
+ * After a header of 8 ints (magic, version, keys, edges, road names, road name chars, postal codes, postal code chars) come the columns:
+ * The doubles first (startx, starty, endx, endy of the keys, then of the edges), the ints (the edge id of every key, start id, end id, road name,
+ * left and right postal code of every edge, and the offsets of the strings), the chars of the strings, and the bytes (road type of the keys,
+ * road type and oneway type of the edges). So every column is aligned to its size. Numbers are written in the native order of the processor
+ * writing the file, so the machine building the index reads them without swapping their bytes. The magic number tells the order, so a file
+ * written on a machine of the other order is still read, only slower.
+ *
+ * Every column is mapped by itself, so the file can be larger than the 2 GB of a mapping, as long as no column is.
+ *
+ * The program works on Edge objects, which are compared by identity, so an edge is created the first time it is asked for, and kept,
+ * and every search returns the same edge object for an id. Only the edges searches have found are on the heap: The table keeping them
+ * is made of blocks allocated when an edge of the block is first created, so opening the file allocates nothing in proportion to its size.
+ * The strings of an edge are put in the dictionaries when its first edge is created.
+ *
+ * This class is unconditionally thread-safe. The columns are never written after the file is mapped
+ * @author ejer
+ *
+ */
+final class IndexFile{
+
+	private static final int MAGIC = 0x464B4454;		// "FKDT"
+	private static final int VERSION = 1;
+	private static final int HEADER = 8 * 4;
+	private static final int BLOCK = 1 << 12;		// The number of edges in a block of the table of created edges
+	private static final RoadType[] ROADTYPES = RoadType.values();
+	private static final OneWayType[] ONEWAYTYPES = OneWayType.values();
+
+	final int size;					// The number of keys
+	final DoubleBuffer[] columns;	// startx, starty, endx, endy of the keys
+	final IntBuffer edge;			// The edge id of every key
+	final ByteBuffer type;			// The road type ordinal of every key
+
+	private final int edges;
+	private final DoubleBuffer startx, starty, endx, endy;
+	private final IntBuffer startId, endId, roadName, postalleft, postalright;
+	private final ByteBuffer edgeType, oneway;
+	private final Strings roadNames, postalCodes;
+	private final AtomicReferenceArray<AtomicReferenceArray<Edge>> created;		// The edges created so far, by id, in blocks of BLOCK. Null for a block without any
+
+	/**
+	 * The strings of a file and their ids in a dictionary, looked up the first time a string is used
+	 */
+	private static class Strings{
+		final Dictionary dictionary;
+		final IntBuffer offsets;				// String i is the chars from offsets[i] to offsets[i+1]
+		final CharBuffer chars;
+		final AtomicIntegerArray ids;			// The id in dictionary plus one of every string, 0 if not yet looked up
+
+		Strings(Dictionary dictionary, IntBuffer offsets, CharBuffer chars){
+			this.dictionary = dictionary;
+			this.offsets = offsets;
+			this.chars = chars;
+			ids = new AtomicIntegerArray(offsets.limit() - 1);
+		}
+
+		int id(int i){
+			int id = ids.get(i);
+			if(id == 0){
+				id = dictionary.id(chars.subSequence(offsets.get(i), offsets.get(i + 1)).toString()) + 1;
+				ids.set(i, id);		// A racing thread finds the same id
+			}
+			return id - 1;
+		}
+	}
+
+	private IndexFile(FileChannel channel) throws IOException{
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		while(header.hasRemaining()){
+			if(channel.read(header, header.position()) < 0)	throw new IOException("not an index file");
+		}
+		ByteOrder order = ByteOrder.BIG_ENDIAN;
+		if(header.getInt(0) == Integer.reverseBytes(MAGIC))		order = ByteOrder.LITTLE_ENDIAN;
+		else if(header.getInt(0) != MAGIC)						throw new IOException("not an index file");
+		header.order(order);
+		if(header.getInt(4) != VERSION)	throw new IOException("index file version " + header.getInt(4) + ", expected " + VERSION);
+
+		size = header.getInt(8);
+		edges = header.getInt(12);
+		int names = header.getInt(16), nameChars = header.getInt(20), codes = header.getInt(24), codeChars = header.getInt(28);
+		long length = HEADER + 8L * 4 * (size + edges) + 4L * (size + 5L * edges + names + 1 + codes + 1) + 2L * (nameChars + codeChars) + size + 2L * edges;
+		if(size < 0 || edges < 0 || names < 0 || codes < 0 || channel.size() != length)	throw new IOException("index file of " + channel.size() + " bytes, expected " + length);
+
+		Columns in = new Columns(channel, order);
+		columns = new DoubleBuffer[4];
+		for(int d = 0 ; d < columns.length ; d++)	columns[d] = in.next(8L * size).asDoubleBuffer();
+		startx = in.next(8L * edges).asDoubleBuffer();
+		starty = in.next(8L * edges).asDoubleBuffer();
+		endx = in.next(8L * edges).asDoubleBuffer();
+		endy = in.next(8L * edges).asDoubleBuffer();
+		edge = in.next(4L * size).asIntBuffer();
+		startId = in.next(4L * edges).asIntBuffer();
+		endId = in.next(4L * edges).asIntBuffer();
+		roadName = in.next(4L * edges).asIntBuffer();
+		postalleft = in.next(4L * edges).asIntBuffer();
+		postalright = in.next(4L * edges).asIntBuffer();
+		IntBuffer nameOffsets = in.next(4L * (names + 1)).asIntBuffer();
+		IntBuffer codeOffsets = in.next(4L * (codes + 1)).asIntBuffer();
+		CharBuffer nameText = in.next(2L * nameChars).asCharBuffer();
+		CharBuffer codeText = in.next(2L * codeChars).asCharBuffer();
+		type = in.next(size);
+		edgeType = in.next(edges);
+		oneway = in.next(edges);
+
+		roadNames = new Strings(Dictionary.ROADNAMES, nameOffsets, nameText);
+		postalCodes = new Strings(Dictionary.POSTALCODES, codeOffsets, codeText);
+		created = new AtomicReferenceArray<AtomicReferenceArray<Edge>>((edges + BLOCK - 1) / BLOCK);
+	}
+
+	/**
+	 * Maps the columns of a file one after the other, from the end of the header
+	 */
+	private static class Columns{
+		private final FileChannel channel;
+		private final ByteOrder order;
+		private long at = HEADER;
+
+		Columns(FileChannel channel, ByteOrder order){
+			this.channel = channel;
+			this.order = order;
+		}
+
+		// Maps the next length bytes read only
+		ByteBuffer next(long length) throws IOException{
+			if(length > Integer.MAX_VALUE)	throw new IOException("column of " + length + " bytes at " + at + ", larger than a mapping");
+			MappedByteBuffer column = channel.map(FileChannel.MapMode.READ_ONLY, at, length);
+			at += length;
+			column.order(order);
+			return column;
+		}
+	}
+
+	/**
+	 * Maps the file read only. The file can be replaced, but must not be written, while it is mapped
+	 * @param file
+	 * @return the columns of the file
+	 * @throws IOException if the file can not be read, or is not an index file
+	 */
+	static IndexFile map(File file) throws IOException{
+		if(file == null)	throw new NullPointerException("parameter file was null");
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try{
+			return new IndexFile(raf.getChannel());		// The mappings stay valid when the channel is closed
+		}finally{
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return the number of edges in the file
+	 */
+	int edges(){
+		return edges;
+	}
+
+	/**
+	 * @param id
+	 * @return edge id, the same object on every call
+	 */
+	Edge getEdge(int id){
+		AtomicReferenceArray<Edge> block = created.get(id / BLOCK);
+		if(block == null){
+			block = new AtomicReferenceArray<Edge>(BLOCK);
+			if(!created.compareAndSet(id / BLOCK, null, block))	block = created.get(id / BLOCK);		// Another thread allocated it first
+		}
+		Edge e = block.get(id % BLOCK);
+		if(e == null){
+			e = new Edge(new Point(startId.get(id), startx.get(id), starty.get(id)), new Point(endId.get(id), endx.get(id), endy.get(id)),
+					roadNames.id(roadName.get(id)), ROADTYPES[edgeType.get(id)], ONEWAYTYPES[oneway.get(id)],
+					postalCodes.id(postalleft.get(id)), postalCodes.id(postalright.get(id)));
+			if(!block.compareAndSet(id % BLOCK, null, e))	e = block.get(id % BLOCK);		// Another thread created it first
+		}
+		return e;
+	}
+
+	/**
+	 * Writes the keys and edges of a FlatKDTree. The file is written next to file and moved in place, so a mapping of the file it replaces stays valid
+	 * @param file
+	 * @param size the number of keys
+	 * @param columns startx, starty, endx, endy of the keys
+	 * @param type the road type ordinal of every key
+	 * @param edge the index in edges of the edge of every key
+	 * @param edges the edges of the keys
+	 * @throws IOException
+	 */
+	static void write(File file, int size, DoubleBuffer[] columns, ByteBuffer type, IntBuffer edge, List<Edge> edges) throws IOException{
+		if(file == null)		throw new NullPointerException("parameter file was null");
+		else if(edges == null)	throw new NullPointerException("parameter edges was null");
+
+		// The strings of the file, numbered from 0 in the order they are first used
+		List<String> names = new ArrayList<String>(), codes = new ArrayList<String>();
+		Map<String, Integer> nameIds = new HashMap<String, Integer>(), codeIds = new HashMap<String, Integer>();
+		int[] name = new int[edges.size()], left = new int[edges.size()], right = new int[edges.size()];
+		for(int i = 0 ; i < edges.size() ; i++){
+			Edge e = edges.get(i);
+			name[i] = stringId(e.getRoadName(), names, nameIds);
+			left[i] = stringId(e.getPostalLeft(), codes, codeIds);
+			right[i] = stringId(e.getPostalRight(), codes, codeIds);
+		}
+
+		File tmp = new File(file.getPath() + ".tmp");
+		Output out = new Output(new FileOutputStream(tmp).getChannel());
+		try{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(size);
+			out.writeInt(edges.size());
+			out.writeInt(names.size());
+			out.writeInt(chars(names));
+			out.writeInt(codes.size());
+			out.writeInt(chars(codes));
+
+			for(DoubleBuffer column : columns){
+				for(int i = 0 ; i < size ; i++)	out.writeDouble(column.get(i));
+			}
+			for(Edge e : edges)	out.writeDouble(e.getStartX());
+			for(Edge e : edges)	out.writeDouble(e.getStartY());
+			for(Edge e : edges)	out.writeDouble(e.getEndX());
+			for(Edge e : edges)	out.writeDouble(e.getEndY());
+
+			for(int i = 0 ; i < size ; i++)	out.writeInt(edge.get(i));
+			for(Edge e : edges)	out.writeInt(e.getStartId());
+			for(Edge e : edges)	out.writeInt(e.getEndId());
+			for(int i : name)	out.writeInt(i);
+			for(int i : left)	out.writeInt(i);
+			for(int i : right)	out.writeInt(i);
+			writeOffsets(out, names);
+			writeOffsets(out, codes);
+			for(String s : names)	out.writeChars(s);
+			for(String s : codes)	out.writeChars(s);
+
+			for(int i = 0 ; i < size ; i++)	out.writeByte(type.get(i));
+			for(Edge e : edges)	out.writeByte(e.getRoadType().ordinal());
+			for(Edge e : edges)	out.writeByte(e.getOneWay().ordinal());
+		}finally{
+			out.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static int stringId(String s, List<String> strings, Map<String, Integer> ids){
+		Integer id = ids.get(s);
+		if(id == null){
+			id = strings.size();
+			ids.put(s, id);
+			strings.add(s);
+		}
+		return id;
+	}
+
+	private static int chars(List<String> strings){
+		int chars = 0;
+		for(String s : strings)	chars += s.length();
+		return chars;
+	}
+
+	private static void writeOffsets(Output out, List<String> strings) throws IOException{
+		int offset = 0;
+		out.writeInt(offset);
+		for(String s : strings)	out.writeInt(offset += s.length());
+	}
+
+	// A buffered channel writing numbers in the native order
+	private static class Output{
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.nativeOrder());
+
+		Output(FileChannel channel){
+			this.channel = channel;
+		}
+
+		private void room(int bytes) throws IOException{
+			if(buffer.remaining() >= bytes)	return;
+			buffer.flip();
+			while(buffer.hasRemaining())	channel.write(buffer);
+			buffer.clear();
+		}
+
+		void writeDouble(double d) throws IOException{		room(8);	buffer.putDouble(d); }
+		void writeInt(int i) throws IOException{			room(4);	buffer.putInt(i); }
+		void writeByte(int b) throws IOException{			room(1);	buffer.put((byte) b); }
+
+		void writeChars(String s) throws IOException{
+			for(int i = 0 ; i < s.length() ; i++){
+				room(2);
+				buffer.putChar(s.charAt(i));
+			}
+		}
+
+		void close() throws IOException{
+			try{
+				room(buffer.capacity());
+			}finally{
+				channel.close();
+			}
+		}
+	}
+}
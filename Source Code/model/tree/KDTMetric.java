@@ -0,0 +1,25 @@
+package model.tree;
+
+/**
+ * A distance from a query to keys, used by nearest neighbour searches, see DataSearch.nearest.
+ * The searches are branch and bound: A region of keys is skipped when its lower bound is no better than the k best keys found.
+ * 
+ * @author ejer
+ *
+ * @param <K>
+ */
+public interface KDTMetric<K>{
+
+	/**
+	 * @param key
+	 * @return the distance from the query to key. Double.POSITIVE_INFINITY if key is not wanted
+	 */
+	public double distance(K key);
+
+	/**
+	 * @param min the lowest value of every dimension of the keys in the region
+	 * @param max the highest value of every dimension of the keys in the region
+	 * @return a value no higher than distance(key) of any key in the region. Double.POSITIVE_INFINITY if no key in the region is wanted
+	 */
+	public double lowerBound(double[] min, double[] max);
+}
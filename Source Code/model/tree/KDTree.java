@@ -4,19 +4,28 @@ import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import model.DataSearch;
-import model.QuickKDTSort;
 import model.Search;
 
 
 /**
+ * The tree stays balanced under puts and removes, as a scapegoat tree: A put landing deeper than log(nodes) / log(1 / ALPHA)
+ * rebuilds the lowest subtree on its path holding more than ALPHA of the nodes of its parent's subtree, and removed nodes are
+ * dropped by rebuilding the whole tree once they are half of its nodes. As a subtree is rebuilt by median selection,
+ * a put takes O(log^2 n) amortized time and a remove O(log n), and the depth stays within a factor 1 / log2(1 / ALPHA) of a fresh build.
  *  
- * This class is unconditionally thread-safe
+ * This class is unconditionally thread-safe. Reads take no locks: The nodes are immutable and the root is published through a volatile field,
+ * so a read sees the whole tree as it was when the read started. Writers are serialized, and copy the path to every node they change.
  *  
  * @author Morten Fredrik Therkildsen (mfrt@itu.dk), Sune Debel (sdeb@itu.dk)
  *
@@ -27,89 +36,223 @@ public class KDTree<K extends KDTComparable<K>, V> implements DataSearch<K, V>,
 
 	private static final long serialVersionUID = 2530395579737497198L;
 
-	private transient final int DIMENSIONS;
+	private static final int PROGRESSINTERVAL = 1 << 12;		// Size of the subtrees whose nodes are counted together
+	public static final int PARALLELTHRESHOLD = 1 << 14;		// Subtrees of more pairs are built in parallel by buildParallel
+	private static final int BOXSIZE = 32;						// Subtrees of at least this many live pairs keep the bounds of their keys
+	private static final double ALPHA = 0.7;					// The largest share of the nodes of a subtree allowed in one of its children
+	public static final int MAXPIXELS = 1 << 24;				// The most pixels of a sampled range search, see sampleRange
+	private static final ForkJoinPool buildPool = new ForkJoinPool();		// Shared by all parallel builds. Its threads are daemons
 
-	private transient List<K> keys;
-	private transient List<V> values;
+	private transient final int DIMENSIONS;
 
 	private transient double treesize = 0;	// Used for the recursive build method. To return the progress at a given point during building
-	private transient Node root;
+	private transient volatile Node root;	// Replaced, never modified, once published
+	private transient int nodes = 0;		// # nodes in the tree, counting removed nodes. Guarded by stateLock
 	public transient int maxdepth = 0;		// Auxiliary field
 
-	private transient final Object stateLock = new Object();
-	private transient final Object accessorLock = new Object();
+	private transient final Object stateLock = new Object();	// Held by writers only
 
 	public KDTree(K k){
 		if(k == null)	throw new NullPointerException("parameter k was null");
 		
-		keys = new ArrayList<K>();
-		values = new ArrayList<V>();
 		DIMENSIONS = k.getDimensions();
 	}
 
+	/**
+	 * Nodes are immutable. A writer copies the path from the root to the node it changes and publishes the new root,
+	 * so a reader keeps seeing the version of the tree it started on.
+	 * The bounds of a subtree are found from the bounds of its children when the node is made, so only the bounds of small subtrees are walked.
+	 * Every node keeps the value of its key in the dimension of its depth, so a search passing a node compares doubles without reading the key.
+	 */
 	private class Node{		
-		K key;				// key
-		V val;				// associated data
-		Node left, right;	// subtrees
-		int n;				// # nodes in this subtree
+		final K key;				// key
+		final V val;				// associated data
+		final Node left, right;		// subtrees
+		final int n;				// # nodes in this subtree, not counting removed nodes
+		final boolean removed;		// Removed nodes are kept to guide searches, until the tree is rebuilt
+		final double split;			// The value of key in the dimension of the depth of this node
+		final double[] box;			// The lowest and then the highest value of every dimension of the live keys in this subtree. Null below BOXSIZE live nodes
+
+		public Node(K key, V val, double split, Node left, Node right, int n, boolean removed){
+			this(key, val, split, left, right, n, removed, null);
+		}
 
-		public Node(K key, V val, int n){
+		// A node with the bounds of its subtree found by the caller. Null bounds are found from the children, if the subtree has BOXSIZE live nodes
+		Node(K key, V val, double split, Node left, Node right, int n, boolean removed, double[] box){
 			this.key = key;
 			this.val = val;
+			this.split = split;
+			this.left = left;
+			this.right = right;
 			this.n = n;
+			this.removed = removed;
+			if(n >= BOXSIZE && box == null){
+				box = emptyBox();
+				if(!removed)	addToBox(key, box);
+				addToBox(left, box);
+				addToBox(right, box);
+			}
+			this.box = n >= BOXSIZE ? box : null;
+		}
+
+		Node withLeft(Node left){
+			return new Node(key, val, split, left, right, size(left) + size(right) + (removed ? 0 : 1), removed);
+		}
+
+		Node withRight(Node right){
+			return new Node(key, val, split, left, right, size(left) + size(right) + (removed ? 0 : 1), removed);
 		}
 	}
 
 	/**
 	 * Searches for a node equal to searchkey. If found, adds searchkey as the right leaf of that node. 
 	 * If not found, searchkey is added as a node with value val.
+	 * If the new node is too deep, the subtree of its scapegoat is rebuilt, see the class description.
+	 * Writers are serialized, while readers carry on with the tree they started on.
 	 * @param searchkey
 	 * @param val	Can be null.
 	 */
 	public void put(K searchkey, V val){
 		if(searchkey == null)	throw new NullPointerException("parameter searchkey was null");
 		synchronized(stateLock){
-			root = put(root, searchkey, val, 0);
+			nodes++;
+			Insert insert = new Insert((int) (Math.log(nodes) / Math.log(1 / ALPHA)));
+			root = put(root, searchkey, val, 0, insert);
 		}
 	}
 
-	private Node put(Node h, K searchkey, V val, int depth){
-		synchronized(stateLock){
-			if(h == null){
-				if(maxdepth < depth)	maxdepth = depth;	// Dynamically determine the maximum depth of the tree
-				keys.add(searchkey);
-				values.add(val);
-				return new Node(searchkey, val, 1);			// Standard insert
+	// The state of a put on its way back to the root
+	private static class Insert{
+		final int maxDepth;		// A node put deeper than this has a scapegoat
+		boolean deep = false;	// True until the scapegoat is found
+		int nodes;				// # nodes in the subtree returned, counting removed nodes, while deep
+
+		Insert(int maxDepth){
+			this.maxDepth = maxDepth;
+		}
+	}
+
+	private Node put(Node h, K searchkey, V val, int depth, Insert insert){
+		if(h == null){
+			if(maxdepth < depth)	maxdepth = depth;	// Dynamically determine the maximum depth of the tree
+			insert.deep = depth > insert.maxDepth;
+			insert.nodes = 1;
+			return new Node(searchkey, val, searchkey.getDimensionValue(depth % DIMENSIONS), null, null, 1, false);			// Standard insert
+		}
+
+		int dim = depth % DIMENSIONS;
+		int cmp = searchkey.compareInDimension(h.key, dim);
+
+		Node result, sibling;
+		if(cmp < 0){
+			result = h.withLeft(put(h.left, searchkey, val, depth+1, insert));
+			sibling = h.right;
+		}else{
+			result = h.withRight(put(h.right, searchkey, val, depth+1, insert));		// Equal keys are put to the right
+			sibling = h.left;
+		}
+
+		if(insert.deep){
+			int subtree = insert.nodes + nodes(sibling) + 1;
+			if(insert.nodes > ALPHA * subtree){		// h is the scapegoat
+				insert.deep = false;
+				return rebuild(result, depth);
 			}
+			insert.nodes = subtree;
+		}
+		return result;
+	}
 
-			int dim = depth % DIMENSIONS;
-			int cmp = searchkey.compareInDimension(h.key, dim);
+	// The number of nodes below h, counting removed nodes
+	private int nodes(Node h){
+		if(h == null)	return 0;
+		return 1 + nodes(h.left) + nodes(h.right);
+	}
 
-			if		(cmp < 0)		h.left = put(h.left, searchkey, val, depth+1);
-			else if	(cmp > 0)		h.right = put(h.right, searchkey, val, depth+1);
-			else					h.right = put(h.right, searchkey, val, depth+1);
+	// Builds the live pairs below h into a balanced subtree at depth, dropping the removed nodes. Must hold stateLock
+	private Node rebuild(Node h, int depth){
+		Object[] keys = new Object[size(h)], vals = new Object[keys.length];
+		collect(h, keys, vals, 0);
+		nodes -= nodes(h) - keys.length;
 
-			h.n = size(h.left) + size(h.right) + 1;
+		BuildState state = new BuildState(keys, vals, null, 0);
+		Node rebuilt = buildTree(state, 0, keys.length - 1, depth, true);		// Counted, so the progress is not touched
+		if(maxdepth < state.maxdepth.get())		maxdepth = state.maxdepth.get();
+		return rebuilt;
+	}
 
-			return h;
+	/**
+	 * @return the depth of the deepest node of the tree, as it is now. The root is at depth 0, and an empty tree has depth -1
+	 */
+	public int height(){
+		return height(root);
+	}
+
+	private int height(Node h){
+		if(h == null)	return -1;
+		return 1 + Math.max(height(h.left), height(h.right));
+	}
+
+	/**
+	 * Removes the pair of searchkey and val. The node is only marked as removed, so the shape of the tree is kept,
+	 * until removed nodes are half of the nodes of the tree, and it is rebuilt without them.
+	 * Writers are serialized, while readers carry on with the tree they started on.
+	 * @param searchkey
+	 * @param val	compared by equals. Can be null.
+	 * @return true if the pair was found
+	 */
+	public boolean remove(K searchkey, V val){
+		if(searchkey == null)	throw new NullPointerException("parameter searchkey was null");
+		synchronized(stateLock){
+			Node current = root;
+			Node updated = remove(current, searchkey, val, 0);
+			if(updated == current)	return false;
+			if(2 * size(updated) < nodes)	updated = rebuild(updated, 0);
+			root = updated;
+			return true;
 		}
 	}
 
+	// Returns the subtree of h without the pair, or h itself if the pair is not below h
+	private Node remove(Node h, K searchkey, V val, int depth){
+		if(h == null)	return null;
+
+		int dim = depth % DIMENSIONS;
+		int cmp = searchkey.compareInDimension(h.key, dim);
+
+		if(cmp == 0 && !h.removed && equalKeys(searchkey, h.key) && (val == null ? h.val == null : val.equals(h.val))){
+			return new Node(h.key, h.val, h.split, h.left, h.right, h.n - 1, true);
+		}
+
+		if(cmp <= 0){			// Equal keys are put to the right, but a build can place them on both sides
+			Node left = remove(h.left, searchkey, val, depth+1);
+			if(left != h.left)	return h.withLeft(left);
+		}
+		if(cmp >= 0){
+			Node right = remove(h.right, searchkey, val, depth+1);
+			if(right != h.right)	return h.withRight(right);
+		}
+		return h;
+	}
+
+	private boolean equalKeys(K a, K b){
+		for(int i = 0 ; i < DIMENSIONS ; i++){
+			if(a.compareInDimension(b, i) != 0)		return false;
+		}
+		return true;
+	}
+
 	/**
 	 * 
 	 * @return the size of the tree
 	 */
 	public int size(){
-		synchronized(accessorLock){
-			return size(root);	
-		}
+		return size(root);	
 	}
 
 	private int size(Node h){
-		synchronized(accessorLock){
-			if(h == null)	return 0;
-			else			return h.n;
-		}
+		if(h == null)	return 0;
+		else			return h.n;
 	}
 
 	/**
@@ -118,78 +261,622 @@ public class KDTree<K extends KDTComparable<K>, V> implements DataSearch<K, V>,
 	 * @return values associated with key. Null if key doesn't exist
 	 */
 	public V get(K searchkey){
-		synchronized(stateLock){
-			return get(root, searchkey, 0);
-		}
+		return get(root, searchkey, 0);
 	}
 
 	private V get(Node h, K searchkey, int depth){
 		if(h == null)	return null;
 
-		synchronized(stateLock){
-			int dim = depth % DIMENSIONS;
-			int cmp = searchkey.compareInDimension(h.key, dim);			// TODO This method is broken! Refactor or delete!
+		int dim = depth % DIMENSIONS;
+		int cmp = searchkey.compareInDimension(h.key, dim);			// TODO This method is broken! Refactor or delete!
 
-			if		(cmp < 0)	return get(h.left, searchkey, depth+1);
-			else if	(cmp > 0)	return get(h.right, searchkey, depth+1);
-			else				return h.val;
-		}
+		if		(cmp < 0)	return get(h.left, searchkey, depth+1);
+		else if	(cmp > 0)	return get(h.right, searchkey, depth+1);
+		else				return h.val;
 	}
 
 	/**
-	 * Return all values in the range
+	 * Return all values in the range. No lock is taken, so any number of range searches run at the same time,
+	 * each on the version of the tree published when it started.
 	 * @param keyfrom	the key to start from
 	 * @param keyto		the key to end with
 	 * @return			a set containing all V within the bounds of start and end
 	 */
 	public Set<V> getRange(K keyfrom, K keyto){
+		final Set<V> valueset = new HashSet<V>();
+		getRange(keyfrom, keyto, new RangeVisitor<V>(){
+			@Override
+			public boolean visit(V value){
+				return valueset.add(value);
+			}
+		}, Integer.MAX_VALUE);
+		return valueset;
+	}
+
+	/**
+	 * Passes all values in the range to visitor, once for every key in the range. Only the bounds of the range are copied by the search. No lock is taken
+	 * @param keyfrom	the key to start from
+	 * @param keyto		the key to end with
+	 * @param visitor	see RangeVisitor
+	 * @return			the number of values visitor counted
+	 */
+	public int getRange(K keyfrom, K keyto, RangeVisitor<? super V> visitor){
+		return getRange(keyfrom, keyto, visitor, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Passes the values in the range to visitor like getRange(K, K, RangeVisitor), ending the search when visitor has counted limit values
+	 */
+	public int getRange(K keyfrom, K keyto, RangeVisitor<? super V> visitor, int limit){
 		if(keyfrom == null)		throw new NullPointerException("parameter keyfrom was null");
 		else if(keyto == null)	throw new NullPointerException("parameter keyto was null");
-		
-		Set<V> valueset = new HashSet<V>();
-		synchronized(stateLock){
-			getRange(root, keyfrom, keyto, valueset, 0);
-			//System.out.println("Time for getRange(): " + st.elapsedTime());
-			return valueset;
+		else if(visitor == null)	throw new NullPointerException("parameter visitor was null");
+		else if(limit < 0)		throw new IllegalArgumentException("parameter limit was negative");
+
+		return limit - getRange(root, values(keyfrom), values(keyto), visitor, limit, 0);
+	}
+
+	// The value of key in every dimension, so a search compares the bounds of its range without reading the keys
+	private double[] values(K key){
+		double[] values = new double[DIMENSIONS];
+		for(int d = 0 ; d < DIMENSIONS ; d++)	values[d] = key.getDimensionValue(d);
+		return values;
+	}
+
+	// Returns what is left of remaining after visiting the values in range below thisNode
+	private int getRange(Node thisNode, double[] min, double[] max, RangeVisitor<? super V> visitor, int remaining, int depth){
+		while(thisNode != null && remaining > 0){
+			int dim = depth % DIMENSIONS;
+			double split = thisNode.split;
+
+			if		(split > max[dim])		thisNode = thisNode.left;
+			else if	(split < min[dim])		thisNode = thisNode.right;
+			else{
+				if(!thisNode.removed && inRange(min, max, 0, thisNode.key) && visitor.visit(thisNode.val))	remaining--;	// Only visit keys within bounds in all dimensions
+				remaining = getRange(thisNode.left, min, max, visitor, remaining, depth+1);
+				thisNode = thisNode.right;		// The right subtree is searched by the loop, so only the left one recurses
+			}
+			depth++;
 		}
+		return remaining;
 	}
 
-	private void getRange(Node thisNode, K minKey, K maxKey, Set<V> valuelist, int depth){
-		if (thisNode == null)			return;
+	/**
+	 * Passes the values in every range to the visitor of the range, once for every key in it, searching the tree once for all the ranges.
+	 * A node is only tested against the ranges reaching into the region of its parent, and a subtree with bounds inside a range is passed whole.
+	 * So the top of the tree is walked once, rather than once for every range. No lock is taken
+	 * @param keysfrom	the keys every range starts with
+	 * @param keysto	the keys every range ends with
+	 * @param visitors	visitors.get(i) gets the values of range i, see RangeVisitor
+	 * @return			the number of values every visitor counted
+	 */
+	public int[] getRanges(List<K> keysfrom, List<K> keysto, List<? extends RangeVisitor<? super V>> visitors){
+		OpenRanges.check(keysfrom, keysto, visitors);
 
-		int dim = depth % DIMENSIONS;
-		int[] inRange = dimensionsInRange(minKey, maxKey, thisNode.key);
+		// The bounds of range r in dimension d are at r * DIMENSIONS + d
+		int size = visitors.size();
+		double[] min = new double[size * DIMENSIONS], max = new double[size * DIMENSIONS];
+		for(int r = 0 ; r < size ; r++){
+			for(int d = 0 ; d < DIMENSIONS ; d++){
+				min[r * DIMENSIONS + d] = keysfrom.get(r).getDimensionValue(d);
+				max[r * DIMENSIONS + d] = keysto.get(r).getDimensionValue(d);
+			}
+		}
+		OpenRanges ranges = new OpenRanges(size);
+		getRanges(root, 0, ranges, size, min, max, visitors);
+		return ranges.counted;
+	}
 
-		synchronized(stateLock){
-			if		(inRange[dim] > 0)		getRange(thisNode.left, minKey, maxKey, valuelist, depth+1);
-			else if	(inRange[dim] < 0)		getRange(thisNode.right, minKey, maxKey, valuelist, depth+1);
+	// Visits the values below h in the first open ranges of the list of depth
+	private void getRanges(Node h, int depth, OpenRanges ranges, int open, double[] min, double[] max, List<? extends RangeVisitor<? super V>> visitors){
+		while(h != null && h.n > 0 && open > 0){
+			int[] here = ranges.at(depth);
+			if(h.box != null){
+				int kept = 0;
+				for(int i = 0 ; i < open ; i++){
+					int r = here[i];
+					int inRange = boxInRange(h.box, min, max, r * DIMENSIONS);
+					if		(inRange > 0)	ranges.counted[r] += visitAll(h, visitors.get(r));		// The range is done with h
+					else if	(inRange == 0)	here[kept++] = r;
+				}
+				open = kept;
+			}
+
+			int dim = depth % DIMENSIONS;
+			double split = h.split;
+			int[] next = ranges.at(depth + 1);
+			int left = 0;
+			for(int i = 0 ; i < open ; i++){
+				int r = here[i];
+				if(split < min[r * DIMENSIONS + dim])	continue;
+				if(split <= max[r * DIMENSIONS + dim] && !h.removed && inRange(min, max, r * DIMENSIONS, h.key) && visitors.get(r).visit(h.val))	ranges.counted[r]++;
+				next[left++] = r;
+			}
+			getRanges(h.left, depth + 1, ranges, left, min, max, visitors);
+
+			// The left subtree is done with the list of the next depth, so it is refilled for the right subtree, which is searched by the loop
+			int right = 0;
+			for(int i = 0 ; i < open ; i++){
+				if(split <= max[here[i] * DIMENSIONS + dim])	next[right++] = here[i];
+			}
+			open = right;
+			h = h.right;
+			depth++;
+		}
+	}
+
+	// Visits every live value below h
+	private int visitAll(Node h, RangeVisitor<? super V> visitor){
+		int counted = 0;
+		while(h != null && h.n > 0){
+			if(!h.removed && visitor.visit(h.val))	counted++;
+			counted += visitAll(h.left, visitor);
+			h = h.right;
+		}
+		return counted;
+	}
+
+	/**
+	 * Passes a sample of the values in the range to visitor, for a view where many keys fall in one pixel, such as the whole map.
+	 * The first four dimensions of a key are taken as the start and end point of a segment, as those of KrakTreeKeys, and the range of the first two
+	 * is cut into pixels of resolution. A key at least a pixel long is always passed, while a shorter key is only passed if no key was passed
+	 * in the pixel of its start before it. Keys are taken in order of their value in the last dimension, lowest first, as the most important road types of KrakTreeKeys,
+	 * so every pixel is drawn by the roads longer than a pixel or by one of its most important roads. A subtree with bounds inside the range and inside
+	 * one pixel is passed by one of its keys, or skipped if its pixel is drawn, so the search ends at subtrees the size of a pixel however many keys they hold.
+	 * Subtrees are searched in order of the lowest value in the last dimension below them, largest first, so a search ended by limit
+	 * has found the most important keys, spread over the whole range. No lock is taken
+	 * @param keyfrom		the key to start from
+	 * @param keyto			the key to end with
+	 * @param resolution	the size of a pixel. 0 passes every key in the range. A resolution giving more than MAXPIXELS pixels is doubled until it does not
+	 * @param visitor		see RangeVisitor
+	 * @param limit			the search ends when visitor has counted this many values
+	 * @return				the number of values visitor counted
+	 */
+	public int sampleRange(K keyfrom, K keyto, double resolution, RangeVisitor<? super V> visitor, int limit){
+		if(keyfrom == null)			throw new NullPointerException("parameter keyfrom was null");
+		else if(keyto == null)		throw new NullPointerException("parameter keyto was null");
+		else if(visitor == null)	throw new NullPointerException("parameter visitor was null");
+		else if(resolution < 0)		throw new IllegalArgumentException("parameter resolution was negative");
+		else if(limit < 0)			throw new IllegalArgumentException("parameter limit was negative");
+		else if(DIMENSIONS < 5)		throw new UnsupportedOperationException("the keys have less than five dimensions");
+
+		Sampling sampling = new Sampling(values(keyfrom), values(keyto), resolution, visitor, limit);
+		sampling.queue(root, 0);
+		while(!sampling.queue.isEmpty() && sampling.counted < limit)	sampling.take(sampling.queue.poll());
+		return sampling.counted;
+	}
+
+	// A subtree, or a key when depth is -1, of a sampled range search. Ordered by rank, the lowest value in the last dimension,
+	// with keys before subtrees of the same rank and larger subtrees before smaller
+	private class Sample implements Comparable<Sample>{
+		final Node node;
+		final int depth;
+		final double rank;
+
+		Sample(Node node, int depth, double rank){
+			this.node = node;
+			this.depth = depth;
+			this.rank = rank;
+		}
+
+		@Override
+		public int compareTo(Sample that){
+			if(rank != that.rank)				return rank < that.rank ? -1 : 1;
+			if((depth < 0) != (that.depth < 0))	return depth < 0 ? -1 : 1;
+			return that.node.n - node.n;
+		}
+	}
+
+	// The state of a sampled range search
+	private class Sampling{
+		final double[] min, max;
+		final RangeVisitor<? super V> visitor;
+		final int limit;
+		final PriorityQueue<Sample> queue = new PriorityQueue<Sample>();
+		final BitSet drawn;			// The pixels a key was passed in. Null for a resolution of 0
+		final double size;			// The width of a pixel
+		final int cols, rows;
+		int counted = 0;
+		double rank = Double.NEGATIVE_INFINITY;		// The rank of the last sample taken. No sample in the queue has a lower rank
+
+		Sampling(double[] min, double[] max, double resolution, RangeVisitor<? super V> visitor, int limit){
+			this.min = min;
+			this.max = max;
+			this.visitor = visitor;
+			this.limit = limit;
+			double width = Math.max(max[0] - min[0], 0), height = Math.max(max[1] - min[1], 0);
+			while(resolution > 0 && (Math.floor(width / resolution) + 1) * (Math.floor(height / resolution) + 1) > MAXPIXELS)	resolution *= 2;
+			size = resolution;
+			cols = resolution > 0 ? (int) (width / resolution) + 1 : 0;
+			rows = resolution > 0 ? (int) (height / resolution) + 1 : 0;
+			drawn = resolution > 0 ? new BitSet() : null;
+		}
+
+		// The pixel of a point. The end of a key in the range can lie outside the range of the first two dimensions, and is put in the nearest pixel
+		int pixel(double x, double y){
+			int col = (int) ((x - min[0]) / size), row = (int) ((y - min[1]) / size);
+			col = col < 0 ? 0 : col >= cols ? cols - 1 : col;
+			row = row < 0 ? 0 : row >= rows ? rows - 1 : row;
+			return row * cols + col;
+		}
+
+		// The pixel all the start and end points in box lie in, or -1 if they reach across pixels
+		int pixel(double[] box){
+			int pixel = pixel(box[0], box[1]);
+			if(pixel != pixel(box[2], box[3]) || pixel != pixel(box[DIMENSIONS], box[DIMENSIONS + 1]) || pixel != pixel(box[DIMENSIONS + 2], box[DIMENSIONS + 3]))	return -1;
+			return pixel;
+		}
+
+		// The pixel the segment of key starts in, or -1 if it is at least a pixel long
+		int pixel(K key){
+			double x = key.getDimensionValue(0), y = key.getDimensionValue(1);
+			if(Math.abs(key.getDimensionValue(2) - x) >= size || Math.abs(key.getDimensionValue(3) - y) >= size)	return -1;
+			return pixel(x, y);
+		}
+
+		// Queues the subtree of h, if it has live keys in the range. The keys of a subtree without bounds are offered instead, as it is small
+		void queue(Node h, int depth){
+			if(h == null || h.n == 0)	return;
+			if(h.box != null){
+				if(boxInRange(h.box, min, max, 0) >= 0)		queue.add(new Sample(h, depth, h.box[DIMENSIONS - 1]));
+				return;
+			}
+			if(!h.removed && inRange(min, max, 0, h.key))	offer(h);
+			int dim = depth % DIMENSIONS;
+			if(h.split >= min[dim])		queue(h.left, depth + 1);
+			if(h.split <= max[dim])		queue(h.right, depth + 1);
+		}
+
+		// Passes the key of h now if it would be the next sample taken, and queues it otherwise. A key in a drawn pixel is dropped
+		void offer(Node h){
+			if(drawn != null){
+				int pixel = pixel(h.key);
+				if(pixel >= 0 && drawn.get(pixel))	return;
+			}
+			double value = h.key.getDimensionValue(DIMENSIONS - 1);
+			if(value <= rank)	visit(h);
+			else				queue.add(new Sample(h, -1, value));
+		}
+
+		void take(Sample sample){
+			rank = sample.rank;
+			Node h = sample.node;
+			if(sample.depth < 0){
+				visit(h);
+				return;
+			}
+			if(drawn != null && boxInRange(h.box, min, max, 0) > 0){
+				int pixel = pixel(h.box);
+				if(pixel >= 0){		// The subtree is one pixel
+					if(!drawn.get(pixel))	visit(lowest(h, rank));
+					return;
+				}
+			}
+			if(!h.removed && inRange(min, max, 0, h.key))	offer(h);
+			int dim = sample.depth % DIMENSIONS;
+			if(h.split >= min[dim])		queue(h.left, sample.depth + 1);
+			if(h.split <= max[dim])		queue(h.right, sample.depth + 1);
+		}
+
+		// Passes the value of h, unless it lies in a drawn pixel or the search has reached its limit. The pixels of both ends are drawn
+		void visit(Node h){
+			if(counted >= limit)	return;
+			if(drawn != null){
+				int pixel = pixel(h.key);
+				if(pixel >= 0 && drawn.get(pixel))	return;
+				drawn.set(pixel(h.key.getDimensionValue(0), h.key.getDimensionValue(1)));
+				drawn.set(pixel(h.key.getDimensionValue(2), h.key.getDimensionValue(3)));
+			}
+			if(visitor.visit(h.val))	counted++;
+		}
+	}
+
+	// A live node below h with value in the last dimension, which is the lowest below h. Only the children with that lowest value are searched
+	private Node lowest(Node h, double value){
+		if(h == null || h.n == 0 || (h.box != null && h.box[DIMENSIONS - 1] != value))	return null;
+		if(!h.removed && h.key.getDimensionValue(DIMENSIONS - 1) == value)	return h;
+		Node found = lowest(h.left, value);
+		return found != null ? found : lowest(h.right, value);
+	}
+
+	/**
+	 * Finds the k values nearest to the query of metric. Subtrees are searched in order of the lower bound of the region their keys lie in,
+	 * narrowed by the split of every node above them. No lock is taken
+	 * @param metric
+	 * @param k
+	 * @return at most k distinct values, nearest first
+	 */
+	public List<V> nearest(KDTMetric<K> metric, int k){
+		if(metric == null)	throw new NullPointerException("parameter metric was null");
+		else if(k < 0)		throw new IllegalArgumentException("parameter k was negative");
+
+		NearestQueue<K, V> queue = new NearestQueue<K, V>(metric, k);
+		start(queue);
+		return queue.search();
+	}
+
+	// Queues the root, so the tree can be searched together with other structures
+	void start(NearestQueue<K, V> queue){
+		double[] min = new double[DIMENSIONS], max = new double[DIMENSIONS];
+		for(int d = 0 ; d < DIMENSIONS ; d++){
+			min[d] = Double.NEGATIVE_INFINITY;
+			max[d] = Double.POSITIVE_INFINITY;
+		}
+		queueRegion(queue, root, 0, min, max);
+	}
+
+	// Queues the subtree of h, in the region of the splits above it narrowed to its bounds. Subtrees without live keys are left out
+	private void queueRegion(NearestQueue<K, V> queue, Node h, int depth, double[] min, double[] max){
+		if(h == null || h.n == 0)	return;
+		if(h.box != null){
+			min = min.clone();
+			max = max.clone();
+			for(int d = 0 ; d < DIMENSIONS ; d++){
+				min[d] = Math.max(min[d], h.box[d]);
+				max[d] = Math.min(max[d], h.box[DIMENSIONS + d]);
+			}
+		}
+		queue.addRegion(min, max, new Region(h, depth, min, max));
+	}
+
+	// A subtree of a nearest neighbour search, and the region its keys lie in. Equal keys can be on both sides of a split
+	private class Region implements NearestQueue.Region<K, V>{
+		final Node node;
+		final int depth;
+		final double[] min, max;
+
+		Region(Node node, int depth, double[] min, double[] max){
+			this.node = node;
+			this.depth = depth;
+			this.min = min;
+			this.max = max;
+		}
+
+		@Override
+		public void expand(NearestQueue<K, V> queue){
+			if(!node.removed)	queue.addValue(node.key, node.val);
+
+			int dim = depth % DIMENSIONS;
+			double split = node.split;
+			if(node.left != null){
+				double[] leftMax = max.clone();
+				leftMax[dim] = Math.min(leftMax[dim], split);
+				queueRegion(queue, node.left, depth + 1, min, leftMax);
+			}
+			if(node.right != null){
+				double[] rightMin = min.clone();
+				rightMin[dim] = Math.max(rightMin[dim], split);
+				queueRegion(queue, node.right, depth + 1, rightMin, max);
+			}
+		}
+	}
+
+	private double[] emptyBox(){
+		double[] box = new double[2 * DIMENSIONS];
+		for(int d = 0 ; d < DIMENSIONS ; d++){
+			box[d] = Double.POSITIVE_INFINITY;
+			box[DIMENSIONS + d] = Double.NEGATIVE_INFINITY;
+		}
+		return box;
+	}
+
+	private void addToBox(K key, double[] box){
+		for(int d = 0 ; d < DIMENSIONS ; d++){
+			double v = key.getDimensionValue(d);
+			if(v < box[d])				box[d] = v;
+			if(v > box[DIMENSIONS + d])	box[DIMENSIONS + d] = v;
+		}
+	}
+
+	// Widens box to the live keys below h, walking the subtrees without bounds
+	private void addToBox(Node h, double[] box){
+		if(h == null || h.n == 0)	return;
+		if(h.box != null){
+			for(int d = 0 ; d < DIMENSIONS ; d++){
+				if(h.box[d] < box[d])								box[d] = h.box[d];
+				if(h.box[DIMENSIONS + d] > box[DIMENSIONS + d])		box[DIMENSIONS + d] = h.box[DIMENSIONS + d];
+			}
+			return;
+		}
+		if(!h.removed)	addToBox(h.key, box);
+		addToBox(h.left, box);
+		addToBox(h.right, box);
+	}
+
+	// 1 if box lies within the bounds of a range from offset in the arrays min and max, -1 if it lies outside them, 0 if it crosses them
+	private int boxInRange(double[] box, double[] min, double[] max, int offset){
+		boolean inside = true;
+		for(int d = 0 ; d < DIMENSIONS ; d++){
+			double lo = min[offset + d], hi = max[offset + d];
+			if(box[DIMENSIONS + d] < lo || box[d] > hi)		return -1;
+			if(box[d] < lo || box[DIMENSIONS + d] > hi)		inside = false;
+		}
+		return inside ? 1 : 0;
+	}
+
+	/**
+	 * Counts the pairs in the range without visiting them. A subtree with bounds inside the range is counted by its size,
+	 * so the time depends on the number of subtrees crossing the border of the range, not on the number of pairs in it. No lock is taken
+	 * @param keyfrom	the key to start from
+	 * @param keyto		the key to end with
+	 * @return			the number of pairs with a key within the bounds of start and end. A value with several keys is counted for every key
+	 */
+	public int countRange(K keyfrom, K keyto){
+		if(keyfrom == null)		throw new NullPointerException("parameter keyfrom was null");
+		else if(keyto == null)	throw new NullPointerException("parameter keyto was null");
+
+		return countRange(root, values(keyfrom), values(keyto), 0);
+	}
+
+	private int countRange(Node h, double[] min, double[] max, int depth){
+		int count = 0;
+		while(h != null && h.n > 0){
+			if(h.box != null){
+				int inRange = boxInRange(h.box, min, max, 0);
+				if		(inRange < 0)	return count;
+				else if	(inRange > 0)	return count + h.n;
+			}
+
+			int dim = depth % DIMENSIONS;
+			double split = h.split;
+			if		(split > max[dim])		h = h.left;
+			else if	(split < min[dim])		h = h.right;
 			else{
-				boolean allDimsInRange = true;			
-				for(int i = 0; i < DIMENSIONS; i++){
-					if(inRange[i] != 0)		allDimsInRange = false;
+				if(!h.removed && inRange(min, max, 0, h.key))	count++;
+				count += countRange(h.left, min, max, depth+1);
+				h = h.right;
+			}
+			depth++;
+		}
+		return count;
+	}
+
+	/**
+	 * Finds the bounds of the keys in the range. Subtrees with bounds inside the range, or inside the bounds found so far, are not walked. No lock is taken
+	 * @param keyfrom	the key to start from
+	 * @param keyto		the key to end with
+	 * @return			the lowest and then the highest value of every dimension of the keys within the bounds of start and end. Null if there are none
+	 */
+	public double[] extentRange(K keyfrom, K keyto){
+		if(keyfrom == null)		throw new NullPointerException("parameter keyfrom was null");
+		else if(keyto == null)	throw new NullPointerException("parameter keyto was null");
+
+		double[] extent = emptyBox();
+		extentRange(root, values(keyfrom), values(keyto), extent, 0);
+		return extent[0] > extent[DIMENSIONS] ? null : extent;
+	}
+
+	private void extentRange(Node h, double[] min, double[] max, double[] extent, int depth){
+		while(h != null && h.n > 0){
+			if(h.box != null){
+				if(boxInBox(h.box, extent))		return;			// Nothing below h can widen the extent
+				int inRange = boxInRange(h.box, min, max, 0);
+				if(inRange < 0)		return;
+				else if(inRange > 0){
+					addToBox(h, extent);
+					return;
 				}
+			}
 
-				if	(allDimsInRange){		// Only add key the the set if all dimensions are within bounds
-					valuelist.add(thisNode.val);
-					getRange(thisNode.left, minKey, maxKey, valuelist, depth+1);
-					getRange(thisNode.right, minKey, maxKey, valuelist, depth+1);
-				}else{
-					getRange(thisNode.left, minKey, maxKey, valuelist, depth+1);
-					getRange(thisNode.right, minKey, maxKey, valuelist, depth+1);
+			int dim = depth % DIMENSIONS;
+			double split = h.split;
+			if		(split > max[dim])		h = h.left;
+			else if	(split < min[dim])		h = h.right;
+			else{
+				if(!h.removed && inRange(min, max, 0, h.key))	addToBox(h.key, extent);
+				extentRange(h.left, min, max, extent, depth+1);
+				h = h.right;
+			}
+			depth++;
+		}
+	}
+
+	private boolean boxInBox(double[] box, double[] outer){
+		for(int d = 0 ; d < DIMENSIONS ; d++){
+			if(box[d] < outer[d] || box[DIMENSIONS + d] > outer[DIMENSIONS + d])	return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Counts the pairs in the range in a grid of cells over the first two dimensions of the range, such as the start points of KrakTreeKeys.
+	 * A subtree with bounds inside the range and inside one cell is counted by its size, so a grid over the whole map only walks
+	 * the subtrees crossing the borders of the cells. No lock is taken
+	 * @param keyfrom	the key to start from. Dimension 0 and 1 are the lower left corner of the grid
+	 * @param keyto		the key to end with. Dimension 0 and 1 are the upper right corner of the grid
+	 * @param cols		the number of cells along dimension 0
+	 * @param rows		the number of cells along dimension 1
+	 * @return			grid[row][col], the number of pairs in the range with a key in that cell. Row 0 and column 0 hold the lowest values
+	 */
+	public int[][] densityGrid(K keyfrom, K keyto, int cols, int rows){
+		if(keyfrom == null)		throw new NullPointerException("parameter keyfrom was null");
+		else if(keyto == null)	throw new NullPointerException("parameter keyto was null");
+		else if(cols <= 0)		throw new IllegalArgumentException("parameter cols was not positive");
+		else if(rows <= 0)		throw new IllegalArgumentException("parameter rows was not positive");
+		else if(DIMENSIONS < 2)	throw new UnsupportedOperationException("the keys have less than two dimensions");
+
+		Grid grid = new Grid(keyfrom, keyto, cols, rows);
+		densityGrid(root, values(keyfrom), values(keyto), grid, 0);
+		return grid.cells;
+	}
+
+	// The cells of a density grid, of equal width across the first two dimensions of the range
+	private static class Grid{
+		final int[][] cells;
+		final double x, y, width, height;
+
+		<K extends KDTComparable<K>> Grid(K from, K to, int cols, int rows){
+			cells = new int[rows][cols];
+			x = from.getDimensionValue(0);
+			y = from.getDimensionValue(1);
+			width = to.getDimensionValue(0) - x;
+			height = to.getDimensionValue(1) - y;
+		}
+
+		// The highest value of the range is in the last column
+		int col(double value){
+			int cols = cells[0].length;
+			int col = width > 0 ? (int) ((value - x) / width * cols) : 0;
+			return col < 0 ? 0 : col >= cols ? cols - 1 : col;
+		}
+
+		int row(double value){
+			int rows = cells.length;
+			int row = height > 0 ? (int) ((value - y) / height * rows) : 0;
+			return row < 0 ? 0 : row >= rows ? rows - 1 : row;
+		}
+	}
+
+	private void densityGrid(Node h, double[] min, double[] max, Grid grid, int depth){
+		while(h != null && h.n > 0){
+			if(h.box != null){
+				int inRange = boxInRange(h.box, min, max, 0);
+				if		(inRange < 0)	return;
+				else if	(inRange > 0){
+					addToGrid(h, grid);
+					return;
 				}
 			}
+
+			int dim = depth % DIMENSIONS;
+			double split = h.split;
+			if		(split > max[dim])		h = h.left;
+			else if	(split < min[dim])		h = h.right;
+			else{
+				if(!h.removed && inRange(min, max, 0, h.key))	addToGrid(h.key, grid);
+				densityGrid(h.left, min, max, grid, depth+1);
+				h = h.right;
+			}
+			depth++;
+		}
+	}
+
+	private void addToGrid(K key, Grid grid){
+		grid.cells[grid.row(key.getDimensionValue(1))][grid.col(key.getDimensionValue(0))]++;
+	}
+
+	// Adds the live keys below h, which all lie in the range, to the grid. A subtree with bounds inside one cell is added by its size
+	private void addToGrid(Node h, Grid grid){
+		if(h == null || h.n == 0)	return;
+		if(h.box != null){
+			int row = grid.row(h.box[1]), col = grid.col(h.box[0]);
+			if(row == grid.row(h.box[DIMENSIONS + 1]) && col == grid.col(h.box[DIMENSIONS])){
+				grid.cells[row][col] += h.n;
+				return;
+			}
 		}
+		if(!h.removed)	addToGrid(h.key, grid);
+		addToGrid(h.left, grid);
+		addToGrid(h.right, grid);
 	}
 
-	// Helper method to determine what dimensions of compareKey is within the bounds of minKey and maxKey
-	private int[] dimensionsInRange(K minKey, K maxKey, K compareKey){		
-		int[] dims = new int[DIMENSIONS];
+	// Helper method to determine if every dimension of compareKey is within the bounds of a range from offset in the arrays min and max
+	private boolean inRange(double[] min, double[] max, int offset, K compareKey){
 		for(int i = 0; i < DIMENSIONS; i++){
-			if	   (compareKey.getDimensionValue(i) < minKey.getDimensionValue(i))	dims[i] = -1;
-			else if(compareKey.getDimensionValue(i) > maxKey.getDimensionValue(i))	dims[i] = 1;
-			else	dims[i] = 0;
+			double v = compareKey.getDimensionValue(i);
+			if(v < min[offset + i] || v > max[offset + i])	return false;
 		}
-		return dims;
+		return true;
 	}
 
 	private void setProgress(double percent){
@@ -202,85 +889,282 @@ public class KDTree<K extends KDTComparable<K>, V> implements DataSearch<K, V>,
 	public void build(Map<K, V> map){
 		if(map == null)	throw new NullPointerException("parameter map was null");
 		
+		List<K> keylist = new ArrayList<K>(map.size());
+		List<V> valuelist = new ArrayList<V>(map.size());
+		for(Map.Entry<K, V> entry : map.entrySet()){
+			keylist.add(entry.getKey());
+			valuelist.add(entry.getValue());
+		}
+		build(keylist, valuelist);
+	}
+
+	/**
+	 * Builds a balanced kd-tree where keylist.get(i) is associated with valuelist.get(i). The lists are not modified.
+	 * The pairs already in the tree are built into it as well.
+	 *
+	 * Every node is the median of its range in the dimension of its depth, found by introselect, so the range is only partitioned, not sorted,
+	 * and the children are linked directly. The build takes O(n log n) time.
+	 */
+	public void build(List<K> keylist, List<V> valuelist){
+		build(keylist, valuelist, null, 0);
+	}
+
+	/**
+	 * Builds the tree like build(List, List), using the shared build pool with PARALLELTHRESHOLD
+	 */
+	public void buildParallel(List<K> keylist, List<V> valuelist){
+		build(keylist, valuelist, buildPool, PARALLELTHRESHOLD);
+	}
+
+	/**
+	 * Builds the tree like build(List, List), forking the build of every left subtree of more than threshold pairs onto pool.
+	 * The subtrees of a node cover disjoint ranges of the pairs, so they are built without any locking, and the tree has the same shape as a sequential build.
+	 * @param pool to build on. Null builds sequentially
+	 * @param threshold the number of pairs in a subtree below which it is built by a single thread
+	 */
+	public void build(List<K> keylist, List<V> valuelist, ForkJoinPool pool, int threshold){
+		if(keylist == null)							throw new NullPointerException("parameter keylist was null");
+		else if(valuelist == null)					throw new NullPointerException("parameter valuelist was null");
+		else if(keylist.size() != valuelist.size())	throw new IllegalArgumentException("parameters keylist and valuelist differ in size");
+		else if(threshold < 0)						throw new IllegalArgumentException("parameter threshold was negative");
+
 		synchronized(stateLock){
-			treesize = map.size();
-			List<K> keylist = new ArrayList<K>(map.keySet().size());
-			keylist.addAll(map.keySet());
+			int existing = size();
+			Object[] keys = new Object[existing + keylist.size()];
+			Object[] vals = new Object[keys.length];
+			collect(root, keys, vals, 0);
+			for(int i = 0 ; i < keylist.size() ; i++){
+				keys[existing + i] = keylist.get(i);
+				vals[existing + i] = valuelist.get(i);
+			}
 
-			QuickKDTSort.sort(keylist, 0, keylist.size()-1, 0);
-			int mean = findMeanIndex(keylist, 0, keylist.size()-1, 0);
-			K key = keylist.get(mean);
-			put(key, map.get(key));			
-			setProgress(size() / treesize);
+			treesize = keys.length;
+			nodes = keys.length;		// The removed nodes are dropped
+			if(keys.length == 0){
+				root = null;
+				return;
+			}
 
-			buildTree(map, keylist, 0, mean-1, 0);
-			buildTree(map, keylist, mean+1, keylist.size()-1, 0);
+			BuildState state = new BuildState(keys, vals, pool, threshold);
+			BuildTask task = new BuildTask(state, 0, keys.length - 1, 0);
+			root = pool == null ? task.compute() : pool.invoke(task);
+			if(maxdepth < state.maxdepth.get())		maxdepth = state.maxdepth.get();
+			setProgress(1);
 		}
 	}
 
-	private void buildTree(Map<K, V> map, List<K> keylist, int fromIndex, int toIndex, int depth){
+	/**
+	 * Adds the live pairs of the tree to keys and vals, as the tree was when the call started. No lock is taken
+	 */
+	@SuppressWarnings("unchecked")
+	void collect(List<K> keys, List<V> vals){
+		Node h = root;
+		Object[] k = new Object[size(h)], v = new Object[k.length];
+		collect(h, k, v, 0);
+		for(int i = 0 ; i < k.length ; i++){
+			keys.add((K) k[i]);
+			vals.add((V) v[i]);
+		}
+	}
 
-		if(fromIndex > toIndex)		return;
-		depth++;
+	// Puts the pairs of the live nodes below h in keys and vals from index i. Returns the index after the last pair
+	private int collect(Node h, Object[] keys, Object[] vals, int i){
+		if(h == null)	return i;
+		if(!h.removed){
+			keys[i] = h.key;
+			vals[i] = h.val;
+			i++;
+		}
+		i = collect(h.left, keys, vals, i);
+		return collect(h.right, keys, vals, i);
+	}
 
-		int dimension = depth % DIMENSIONS;
+	/**
+	 * Adds the pair of every node of the tree, removed or not, to keys and vals in preorder, and the depth of the node to depths,
+	 * as the tree was when the call started. Two trees giving equal lists have the same shape. No lock is taken
+	 */
+	public void preorder(List<K> keys, List<V> vals, List<Integer> depths){
+		if(keys == null)		throw new NullPointerException("parameter keys was null");
+		else if(vals == null)	throw new NullPointerException("parameter vals was null");
+		else if(depths == null)	throw new NullPointerException("parameter depths was null");
 
-		synchronized(stateLock){
-			QuickKDTSort.sort(keylist, fromIndex, toIndex, dimension);
-			int mean = findMeanIndex(keylist, fromIndex, toIndex, dimension);
+		preorder(root, 0, keys, vals, depths);
+	}
 
-			if(mean != fromIndex &&  mean - 1 >= 0) assert keylist.get(mean).getDimensionValue(dimension) > keylist.get(mean-1).getDimensionValue(dimension) : ".get(mean): " + keylist.get(mean).getDimensionValue(dimension) + ", .get(mean-1): " + keylist.get(mean-1).getDimensionValue(dimension) + ", fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", depth: " + depth;
+	private void preorder(Node h, int depth, List<K> keys, List<V> vals, List<Integer> depths){
+		while(h != null){
+			keys.add(h.key);
+			vals.add(h.val);
+			depths.add(depth);
+			preorder(h.left, depth + 1, keys, vals, depths);
+			h = h.right;
+			depth++;
+		}
+	}
 
-			K key = keylist.get(mean);
-			put(key, map.get(key));
+	/**
+	 * The pairs being built, together with the value of every key in the dimension of the range being partitioned.
+	 * Every task only touches the range of its own subtree. The counters are shared by all tasks
+	 */
+	private static class BuildState{
+		final Object[] keys, vals;
+		final double[] values;
+		final ForkJoinPool pool;
+		final int threshold;
+		final AtomicInteger built = new AtomicInteger();		// Added to once per PROGRESSINTERVAL nodes, so the tasks rarely contend
+		final AtomicInteger maxdepth = new AtomicInteger();
+
+		BuildState(Object[] keys, Object[] vals, ForkJoinPool pool, int threshold){
+			this.keys = keys;
+			this.vals = vals;
+			this.values = new double[keys.length];
+			this.pool = pool;
+			this.threshold = threshold;
+		}
 
-			setProgress(size() / treesize);
+		void depth(int depth){
+			int max = maxdepth.get();
+			while(depth > max && !maxdepth.compareAndSet(max, depth))	max = maxdepth.get();
+		}
 
-			buildTree(map, keylist, fromIndex, mean-1, depth);
-			buildTree(map, keylist, mean+1, toIndex, depth);
+		void swap(int i, int j){
+			Object k = keys[i];		keys[i] = keys[j];		keys[j] = k;
+			Object v = vals[i];		vals[i] = vals[j];		vals[j] = v;
+			double d = values[i];	values[i] = values[j];	values[j] = d;
 		}
 	}
 
-	private int findMeanIndex(List<K> list, int fromIndex, int toIndex, int dimension){
-		if(fromIndex > toIndex)				return -1;
-		if(fromIndex == toIndex)			return fromIndex;
+	/**
+	 * Builds the subtree of a range of the pairs
+	 */
+	@SuppressWarnings("serial")
+	private class BuildTask extends RecursiveTask<Node>{
+		private final BuildState state;
+		private final int lo, hi, depth;
 
-		double mean = findMean(list, fromIndex, toIndex, dimension);		// Find the mean value of the dimension
+		BuildTask(BuildState state, int lo, int hi, int depth){
+			this.state = state;
+			this.lo = lo;
+			this.hi = hi;
+			this.depth = depth;
+		}
 
-		if(mean == -1)		return -1;
+		@Override
+		protected Node compute(){
+			return buildTree(state, lo, hi, depth, false);
+		}
+	}
 
-		double nearest = list.get(toIndex).getDimensionValue(dimension) - list.get(fromIndex).getDimensionValue(dimension);
-		int nearestIndex = fromIndex;
-		for(int i = fromIndex ; i <= toIndex ; i++){
-			double dimensionValue = list.get(i).getDimensionValue(dimension);
-			if( Math.abs(dimensionValue - mean) < Math.pow(10, -8) ){
+	// Builds the subtree of the pairs from lo to hi, with the median in the dimension of depth as its root.
+	// counted is true if an ancestor adds the subtree to the progress
+	@SuppressWarnings("unchecked")
+	private Node buildTree(BuildState state, int lo, int hi, int depth, boolean counted){
+		if(lo > hi)		return null;
+		int size = hi - lo + 1;
+		boolean counts = !counted && size <= PROGRESSINTERVAL;
+		state.depth(depth);
 
-				return i;		// If the mean matches a value, return index of that value
-			}else{
-				if(Math.abs(dimensionValue - mean) < nearest){
-					nearest = Math.abs(dimensionValue - mean);
-					nearestIndex = i;
-				}
-			}
+		int dimension = depth % DIMENSIONS;
+		for(int i = lo ; i <= hi ; i++)		state.values[i] = ((K) state.keys[i]).getDimensionValue(dimension);
+
+		int median = (lo + hi) >>> 1;
+		select(state, lo, hi, median);
+		double split = state.values[median];
+
+		K key = (K) state.keys[median];
+		V val = (V) state.vals[median];
+		Node left, right;
+		if(state.pool != null && size > state.threshold){
+			BuildTask task = new BuildTask(state, lo, median - 1, depth + 1);
+			task.fork();
+			right = buildTree(state, median + 1, hi, depth + 1, counted || counts);
+			left = task.join();
+		}else{
+			left = buildTree(state, lo, median - 1, depth + 1, counted || counts);
+			right = buildTree(state, median + 1, hi, depth + 1, counted || counts);
+		}
+		double[] box = null;
+		if(size >= BOXSIZE && (size(left) < BOXSIZE || size(right) < BOXSIZE)){		// The children have no bounds to widen, so the keys of the range are read in order
+			box = emptyBox();
+			for(int i = lo ; i <= hi ; i++)	addToBox((K) state.keys[i], box);
 		}
+		Node h = new Node(key, val, split, left, right, size, false, box);
 
-		return nearestIndex;	// Return the index of the value closest to mean
+		if(counts)	addProgress(state, size);
+		else if(!counted)	addProgress(state, 1);		// A node above the counted subtrees
+		return h;
 	}
 
-	private double findMean(List<K> list, int fromIndex, int toIndex, int dimension){
-		if(toIndex == fromIndex)						return list.get(toIndex).getDimensionValue(dimension);		// If difference between to and from is zero
+	// Only the task crossing a whole percent updates the progress
+	private void addProgress(BuildState state, int nodes){
+		int built = state.built.addAndGet(nodes);
+		if((int) (100 * built / treesize) != (int) (100 * (built - nodes) / treesize))		setProgress(built / treesize);
+	}
 
-		// Below is a method to accurately calculate the sum of a set of numbers
-		double sum = 0;
-		double carry = 0;          				//A running compensation for lost low-order bits.
-		for(int i = fromIndex ; i <= toIndex ; i++){
-			double value = list.get(i).getDimensionValue(dimension) - carry;    
-			double total = sum + value;         //Alas, sum is big, y small, so low-order digits of y are lost.
-			carry = (total - sum) - value;   	//(t - sum) recovers the high-order part of y; subtracting y recovers -(low part of y)
-			sum = total;
+	/**
+	 * Introselect: Partitions the range so values[k] holds the value it would have if the range was sorted,
+	 * with no larger value before it and no smaller value after it. Quickselect with a median of three pivot is used,
+	 * until the range has failed to shrink to half its size twice, after which the pivot is the median of medians, bounding the time by O(n).
+	 */
+	private static void select(BuildState state, int lo, int hi, int k){
+		int budget = 2;
+		while(hi > lo){
+			int length = hi - lo + 1;
+			int pivot = budget > 0 ? medianOfThree(state.values, lo, (lo + hi) >>> 1, hi) : medianOfMedians(state, lo, hi);
+			int j = partition(state, lo, hi, pivot);
+
+			if		(k < j)		hi = j - 1;
+			else if	(k > j)		lo = j + 1;
+			else				return;
+
+			if(hi - lo + 1 > length / 2)	budget--;
+		}
+	}
+
+	private static int medianOfThree(double[] values, int a, int b, int c){
+		if(values[a] < values[b]){
+			if		(values[b] < values[c])		return b;
+			else if	(values[a] < values[c])		return c;
+			else								return a;
+		}else{
+			if		(values[a] < values[c])		return a;
+			else if	(values[b] < values[c])		return c;
+			else								return b;
+		}
+	}
+
+	// Moves the median of every group of five to the front of the range, and returns the index of the median of those
+	private static int medianOfMedians(BuildState state, int lo, int hi){
+		int medians = lo;
+		for(int group = lo ; group <= hi ; group += 5){
+			int end = Math.min(group + 4, hi);
+			for(int i = group + 1 ; i <= end ; i++){			// Insertion sort of the group
+				for(int j = i ; j > group && state.values[j] < state.values[j-1] ; j--)		state.swap(j, j-1);
+			}
+			state.swap(medians++, (group + end) >>> 1);
 		}
+		int mid = (lo + medians - 1) >>> 1;
+		select(state, lo, medians - 1, mid);
+		return mid;
+	}
 
-		return sum / ( (toIndex - fromIndex) + 1);		// The smaller the sub-array, the greater the loss of precision
+	/**
+	 * Partition around the value at pivot, scanning from both ends and swapping only the pairs on the wrong side.
+	 * The scans stop at values equal to the pivot, so a range of equal values, such as the zoom levels of many keys, is split in the middle
+	 * @return the index the pivot value is moved to. No larger value is before it and no smaller value after it
+	 */
+	private static int partition(BuildState state, int lo, int hi, int pivot){
+		state.swap(lo, pivot);
+		double p = state.values[lo];
+		int i = lo, j = hi + 1;
+		while(true){
+			while(state.values[++i] < p)	if(i == hi)		break;
+			while(p < state.values[--j])	if(j == lo)		break;
+			if(i >= j)	break;
+			state.swap(i, j);
+		}
+		state.swap(lo, j);
+		return j;
 	}
 
 	/**
@@ -299,24 +1183,33 @@ public class KDTree<K extends KDTComparable<K>, V> implements DataSearch<K, V>,
 		List<V> values;
 		static final transient Object stateLock = new Object();
 
+		// The pairs are stored in preorder. Removed nodes are left out
 		SerializationProxy(KDTree<K, V> tree){
-			this.keys = tree.keys;
-			this.values = tree.values;
+			this.keys = new ArrayList<K>(tree.size());
+			this.values = new ArrayList<V>(tree.size());
+			preorder(tree.root);
+		}
+
+		private void preorder(KDTree<K, V>.Node h){
+			if(h == null)	return;
+			if(!h.removed){
+				keys.add(h.key);
+				values.add(h.val);
+			}
+			preorder(h.left);
+			preorder(h.right);
 		}
 
 		/**
-		 * Creates a new instance of KDTree containing the exact information it had at serialization time
+		 * Creates a new instance of KDTree containing the exact information it had at serialization time.
+		 * The pairs are built into a balanced tree rather than put one at a time, which would rebuild subtrees along the way
 		 * @return a faithful replica of the serialized instance
 		 */
 		private Object readResolve(){
 			KDTree<K, V> tree = new KDTree<K, V>(keys.get(0));
-			double treesize = keys.size();
 			
 			synchronized(stateLock){
-				for(int i = 0 ; i < keys.size() ; i++){
-					tree.put(keys.get(i), values.get(i));
-					tree.setProgress(tree.size() / treesize);
-				}
+				tree.buildParallel(keys, values);
 				return tree;
 			}
 		}
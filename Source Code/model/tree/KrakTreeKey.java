@@ -19,6 +19,7 @@ public class KrakTreeKey implements KDTComparable<KrakTreeKey>, Serializable{
 	private static final long serialVersionUID = 4525951466836388989L;
 
 	private transient final int DIMENSIONS = 5;
+	private static final double EPSILON = 1e-9;		// Coordinates closer than this are equal
 
 	public transient final double startx;
 	public transient final double starty;
@@ -44,6 +45,24 @@ public class KrakTreeKey implements KDTComparable<KrakTreeKey>, Serializable{
 		this.roadType = roadType;
 	}
 
+	/**
+	 * Creates an instance of this class without creating points for its ends
+	 * @param startx
+	 * @param starty
+	 * @param endx
+	 * @param endy
+	 * @param roadType The roadtype this key represents
+	 */
+	public KrakTreeKey(double startx, double starty, double endx, double endy, RoadType roadType){
+		if(roadType == null)	throw new NullPointerException("parameter roadType was null");
+
+		this.startx = startx;
+		this.endx = endx;
+		this.starty = starty;
+		this.endy = endy;
+		this.roadType = roadType;
+	}
+
 	public KrakTreeKey(){
 		this.startx = 0;
 		this.endx = 0;
@@ -82,15 +101,16 @@ public class KrakTreeKey implements KDTComparable<KrakTreeKey>, Serializable{
 	}
 
 	private int compareValue(double thisval, double thatval){
-		if(Math.abs(thisval - thatval) < Math.pow(10, -9))	return 0;
-		if(thisval < thatval)								return -1;
+		if(Math.abs(thisval - thatval) < EPSILON)	return 0;
+		if(thisval < thatval)						return -1;
 		return 1;
 	}
 
-	private int compareRoadType(RoadType thistype, RoadType thattype){
-		if(thistype.getZoomLevel() > thattype.getZoomLevel())		return 1;	
-		else if(thistype.getZoomLevel() < thattype.getZoomLevel())	return -1;
-		else														return 0;
+	private int compareRoadType(RoadType thistype, RoadType thattype){
+		double thiszoom = thistype.getZoomLevel(), thatzoom = thattype.getZoomLevel();
+		if(thiszoom > thatzoom)			return 1;
+		else if(thiszoom < thatzoom)	return -1;
+		else							return 0;
 	}	
 
 	@Override
@@ -0,0 +1,197 @@
+package model.tree;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import model.DataSearch;
+import model.data.Edge;
+import model.data.RoadType;
+
+/**
+ * A level of detail pyramid: One RTree for every distinct zoom level of RoadType, holding the segments of the road types of that zoom level.
+ * A range only searches the levels from the zoom level of keyfrom to that of keyto, so a view showing only motorways and primary roads
+ * never touches the trees of the minor roads and paths, and takes the same time however many of those there are.
+ * Keys are whole segments as for RTree, see RTree.keyOf(Edge).
+ *
+ * This class is unconditionally thread-safe, as every level is an RTree
+ * @author ejer
+ *
+ */
+public class LODIndex implements DataSearch<KrakTreeKey, Edge>, Serializable{
+
+	private static final long serialVersionUID = 4271908650185123390L;
+
+	private static final double[] ZOOMLEVELS;		// The distinct zoom levels of RoadType, ascending
+	static{
+		Set<Double> zooms = new HashSet<Double>();
+		for(RoadType rt : RoadType.values())	zooms.add(rt.getZoomLevel());
+		ZOOMLEVELS = new double[zooms.size()];
+		int i = 0;
+		for(double zoom : zooms)	ZOOMLEVELS[i++] = zoom;
+		Arrays.sort(ZOOMLEVELS);
+	}
+
+	private final RTree[] levels = new RTree[ZOOMLEVELS.length];
+
+	public LODIndex(){
+		for(int i = 0 ; i < levels.length ; i++)	levels[i] = new RTree();
+	}
+
+	// The level of the zoom level of a road type
+	private static int level(RoadType roadType){
+		return Arrays.binarySearch(ZOOMLEVELS, roadType.getZoomLevel());
+	}
+
+	@Override
+	public int size(){
+		int size = 0;
+		for(RTree level : levels)	size += level.size();
+		return size;
+	}
+
+	@Override
+	public void put(KrakTreeKey key, Edge value){
+		if(key == null)	throw new NullPointerException("parameter key was null");
+		levels[level(key.roadType)].put(key, value);
+	}
+
+	@Override
+	public boolean remove(KrakTreeKey key, Edge value){
+		if(key == null)	throw new NullPointerException("parameter key was null");
+		return levels[level(key.roadType)].remove(key, value);
+	}
+
+	/**
+	 * Return the edges crossing the range, searching only the levels from the zoom level of keyfrom to that of keyto
+	 * @param keyfrom	the lowest x, y and zoom level of the range
+	 * @param keyto		the highest x, y and zoom level of the range
+	 * @return			a set containing the edges of the segments crossing the rectangle between keyfrom and keyto, with a zoom level between theirs
+	 */
+	@Override
+	public Set<Edge> getRange(KrakTreeKey keyfrom, KrakTreeKey keyto){
+		if(keyfrom == null)		throw new NullPointerException("parameter keyfrom was null");
+		else if(keyto == null)	throw new NullPointerException("parameter keyto was null");
+
+		final Set<Edge> result = new HashSet<Edge>();
+		getRange(keyfrom, keyto, new RangeVisitor<Edge>(){
+			@Override
+			public boolean visit(Edge value){
+				return result.add(value);
+			}
+		}, Integer.MAX_VALUE);
+		return result;
+	}
+
+	/**
+	 * Passes the edges crossing the range to visitor, searching only the levels from the zoom level of keyfrom to that of keyto, most important roads first.
+	 * So a search ended by limit has found the most important roads of the range
+	 */
+	@Override
+	public int getRange(KrakTreeKey keyfrom, KrakTreeKey keyto, RangeVisitor<? super Edge> visitor, int limit){
+		if(keyfrom == null)		throw new NullPointerException("parameter keyfrom was null");
+		else if(keyto == null)	throw new NullPointerException("parameter keyto was null");
+		else if(visitor == null)	throw new NullPointerException("parameter visitor was null");
+		else if(limit < 0)		throw new IllegalArgumentException("parameter limit was negative");
+
+		int counted = 0;
+		double from = keyfrom.roadType.getZoomLevel(), to = keyto.roadType.getZoomLevel();
+		for(int i = 0 ; i < levels.length && ZOOMLEVELS[i] <= to && counted < limit ; i++){
+			if(ZOOMLEVELS[i] >= from)	counted += levels[i].getRange(keyfrom, keyto, visitor, limit - counted);
+		}
+		return counted;
+	}
+
+	/**
+	 * Passes the edges crossing every range to the visitor of the range, walking every level once for all the ranges, see RTree.getRanges.
+	 * The levels outside the zoom levels of all the ranges are not searched
+	 */
+	@Override
+	public int[] getRanges(List<KrakTreeKey> keysfrom, List<KrakTreeKey> keysto, List<? extends RangeVisitor<? super Edge>> visitors){
+		OpenRanges.check(keysfrom, keysto, visitors);
+
+		double from = Double.POSITIVE_INFINITY, to = Double.NEGATIVE_INFINITY;
+		for(int i = 0 ; i < visitors.size() ; i++){
+			from = Math.min(from, keysfrom.get(i).roadType.getZoomLevel());
+			to = Math.max(to, keysto.get(i).roadType.getZoomLevel());
+		}
+		int[] counted = new int[visitors.size()];
+		for(int i = 0 ; i < levels.length && ZOOMLEVELS[i] <= to ; i++){
+			if(ZOOMLEVELS[i] < from)	continue;
+			int[] level = levels[i].getRanges(keysfrom, keysto, visitors);
+			for(int j = 0 ; j < counted.length ; j++)	counted[j] += level[j];
+		}
+		return counted;
+	}
+
+	/**
+	 * Finds the k edges nearest to the query of metric. The levels share one queue, so the nearest nodes of all levels are searched first
+	 */
+	@Override
+	public List<Edge> nearest(KDTMetric<KrakTreeKey> metric, int k){
+		if(metric == null)	throw new NullPointerException("parameter metric was null");
+
+		NearestQueue<KrakTreeKey, Edge> queue = new NearestQueue<KrakTreeKey, Edge>(metric, k);
+		for(RTree level : levels)	level.start(queue);
+		return queue.search();
+	}
+
+	@Override
+	public void build(Map<KrakTreeKey, Edge> map){
+		if(map == null)	throw new NullPointerException("parameter map was null");
+
+		List<KrakTreeKey> keys = new ArrayList<KrakTreeKey>(map.size());
+		List<Edge> values = new ArrayList<Edge>(map.size());
+		for(Map.Entry<KrakTreeKey, Edge> entry : map.entrySet()){
+			keys.add(entry.getKey());
+			values.add(entry.getValue());
+		}
+		build(keys, values);
+	}
+
+	/**
+	 * Builds every level with the pairs of its zoom level, together with the pairs already in it. The lists are not modified
+	 */
+	@Override
+	public void build(List<KrakTreeKey> keys, List<Edge> values){
+		if(keys == null)						throw new NullPointerException("parameter keys was null");
+		else if(values == null)					throw new NullPointerException("parameter values was null");
+		else if(keys.size() != values.size())	throw new IllegalArgumentException("parameters keys and values differ in size");
+
+		List<List<KrakTreeKey>> levelKeys = new ArrayList<List<KrakTreeKey>>();
+		List<List<Edge>> levelValues = new ArrayList<List<Edge>>();
+		for(int i = 0 ; i < levels.length ; i++){
+			levelKeys.add(new ArrayList<KrakTreeKey>());
+			levelValues.add(new ArrayList<Edge>());
+		}
+		for(int i = 0 ; i < keys.size() ; i++){
+			KrakTreeKey key = keys.get(i);
+			if(key == null)		throw new NullPointerException("parameter keys contained null");
+			int level = level(key.roadType);
+			levelKeys.get(level).add(key);
+			levelValues.get(level).add(values.get(i));
+		}
+		for(int i = 0 ; i < levels.length ; i++)	levels[i].build(levelKeys.get(i), levelValues.get(i));
+	}
+
+	/**
+	 * @return the number of bytes held by the arrays of the levels, not counting the edges
+	 */
+	public long getMemoryUsage(){
+		long bytes = 0;
+		for(RTree level : levels)	bytes += level.getMemoryUsage();
+		return bytes;
+	}
+
+	@Override
+	public String toString(){
+		StringBuilder sb = new StringBuilder();
+		sb.append(size()).append(" segments in ").append(levels.length).append(" levels");
+		for(int i = 0 ; i < levels.length ; i++)	sb.append(", zoom ").append((int) ZOOMLEVELS[i]).append(": ").append(levels[i].size());
+		return sb.toString();
+	}
+}
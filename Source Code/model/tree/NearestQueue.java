@@ -0,0 +1,95 @@
+package model.tree;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * The queue of a best-first nearest neighbour search. Regions of keys are queued by their lower bound and values by their distance,
+ * so values are polled in order of distance, and the search is done when k distinct values are polled, see KDTMetric.
+ * A region queues its subregions and values when it is polled, so the regions of several structures can be searched together.
+ *
+ * This class is not thread-safe. It is used by one search only
+ * @author ejer
+ *
+ * @param <K>
+ * @param <V>
+ */
+class NearestQueue<K, V>{
+
+	/**
+	 * A region of keys of some structure
+	 */
+	interface Region<K, V>{
+		/**
+		 * Queues the subregions and values of this region
+		 */
+		void expand(NearestQueue<K, V> queue);
+	}
+
+	private final PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+	private final List<V> result = new ArrayList<V>();
+	private final Set<V> found = new HashSet<V>();
+	private final KDTMetric<K> metric;
+	private final int k;
+
+	NearestQueue(KDTMetric<K> metric, int k){
+		if(metric == null)	throw new NullPointerException("parameter metric was null");
+		else if(k < 0)		throw new IllegalArgumentException("parameter k was negative");
+
+		this.metric = metric;
+		this.k = k;
+	}
+
+	private class Entry implements Comparable<Entry>{
+		final double distance;
+		final Region<K, V> region;		// Null for a value
+		final V value;
+
+		Entry(double distance, Region<K, V> region, V value){
+			this.distance = distance;
+			this.region = region;
+			this.value = value;
+		}
+
+		@Override
+		public int compareTo(Entry that){
+			return Double.compare(distance, that.distance);
+		}
+	}
+
+	KDTMetric<K> getMetric(){
+		return metric;
+	}
+
+	/**
+	 * Queues a region whose keys lie between min and max in every dimension, unless no key in it is wanted
+	 */
+	void addRegion(double[] min, double[] max, Region<K, V> region){
+		double bound = metric.lowerBound(min, max);
+		if(bound < Double.POSITIVE_INFINITY)	queue.add(new Entry(bound, region, null));
+	}
+
+	/**
+	 * Queues the value of key, unless key is not wanted
+	 */
+	void addValue(K key, V value){
+		double distance = metric.distance(key);
+		if(distance < Double.POSITIVE_INFINITY)	queue.add(new Entry(distance, null, value));
+	}
+
+	/**
+	 * Expands the nearest regions until k distinct values are polled
+	 * @return the values, nearest first
+	 */
+	List<V> search(){
+		while(result.size() < k && !queue.isEmpty()){
+			Entry e = queue.poll();
+			if(e.region != null)		e.region.expand(this);
+			else if(found.add(e.value))	result.add(e.value);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,54 @@
+package model.tree;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The ranges of a batched range search, see DataSearch.getRanges, that are still open at every depth of a tree.
+ * A node keeps the indices of the ranges reaching into it in the list of its depth, and its children narrow that list into the list of the next depth,
+ * so a node is only tested against the ranges reaching into its parent. The lists are reused by every node of a depth, as a search finishes
+ * one child before it fills the list of the next.
+ *
+ * This class is not thread-safe. It is used by one search only
+ * @author ejer
+ *
+ */
+final class OpenRanges{
+
+	final int[] counted;		// The number of values the visitor of every range counted
+	private int[][] open;		// open[depth] holds the indices of the ranges open at the node searched at depth
+
+	/**
+	 * @param size the number of ranges, all of them open at depth 0
+	 */
+	OpenRanges(int size){
+		counted = new int[size];
+		open = new int[16][];
+		open[0] = new int[size];
+		for(int i = 0 ; i < size ; i++)	open[0][i] = i;
+	}
+
+	/**
+	 * @return the list of the ranges open at depth, grown to hold every range
+	 */
+	int[] at(int depth){
+		if(depth >= open.length)	open = Arrays.copyOf(open, Math.max(depth + 1, open.length * 2));
+		if(open[depth] == null)		open[depth] = new int[counted.length];
+		return open[depth];
+	}
+
+	/**
+	 * Checks the arguments of DataSearch.getRanges
+	 */
+	static void check(List<?> keys1, List<?> keys2, List<?> visitors){
+		if(keys1 == null)			throw new NullPointerException("parameter keys1 was null");
+		else if(keys2 == null)		throw new NullPointerException("parameter keys2 was null");
+		else if(visitors == null)	throw new NullPointerException("parameter visitors was null");
+		else if(keys1.size() != keys2.size() || keys1.size() != visitors.size())	throw new IllegalArgumentException("parameters keys1, keys2 and visitors differ in size");
+
+		for(int i = 0 ; i < keys1.size() ; i++){
+			if(keys1.get(i) == null || keys2.get(i) == null)	throw new NullPointerException("parameter keys1 or keys2 contained null");
+			else if(visitors.get(i) == null)					throw new NullPointerException("parameter visitors contained null");
+		}
+	}
+}
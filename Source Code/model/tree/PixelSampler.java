@@ -0,0 +1,85 @@
+package model.tree;
+
+import java.util.BitSet;
+
+import model.data.Edge;
+
+/**
+ * A visitor passing a pixel-stratified sample of the edges of range searches on to another visitor, for indexes without a sampled range search of their own.
+ * The range is cut into pixels as by KDTree.sampleRange: An edge at least a pixel long is always passed, while a shorter edge is only passed
+ * if no edge was passed in the pixel of its start before it. The pixels of both ends of a passed edge are drawn.
+ * So when the edges are visited most important roads first, every pixel is drawn by the roads longer than a pixel or by one of its most important roads.
+ *
+ * Use:
+ * PixelSampler sampler = new PixelSampler(visitor, minx, miny, maxx, maxy, resolution);
+ * for every level, most important first: index.getRange(from, to, sampler, limit - sampler.getCounted());
+ *
+ * This class is not thread-safe
+ * @author ejer
+ *
+ */
+public class PixelSampler implements RangeVisitor<Edge>{
+
+	private final RangeVisitor<? super Edge> target;
+	private final double minx, miny;
+	private final double size;			// The width of a pixel
+	private final int cols, rows;
+	private final BitSet drawn;			// The pixels an edge was passed in. Null for a resolution of 0
+	private int counted = 0;
+
+	/**
+	 * @param target		the visitor to pass the sample to
+	 * @param minx			the lower left corner of the range
+	 * @param miny
+	 * @param maxx			the upper right corner of the range
+	 * @param maxy
+	 * @param resolution	the size of a pixel. 0 passes every edge. A resolution giving more than KDTree.MAXPIXELS pixels is doubled until it does not
+	 */
+	public PixelSampler(RangeVisitor<? super Edge> target, double minx, double miny, double maxx, double maxy, double resolution){
+		if(target == null)			throw new NullPointerException("parameter target was null");
+		else if(resolution < 0)		throw new IllegalArgumentException("parameter resolution was negative");
+
+		this.target = target;
+		this.minx = minx;
+		this.miny = miny;
+		double width = Math.max(maxx - minx, 0), height = Math.max(maxy - miny, 0);
+		while(resolution > 0 && (Math.floor(width / resolution) + 1) * (Math.floor(height / resolution) + 1) > KDTree.MAXPIXELS)	resolution *= 2;
+		size = resolution;
+		cols = resolution > 0 ? (int) (width / resolution) + 1 : 0;
+		rows = resolution > 0 ? (int) (height / resolution) + 1 : 0;
+		drawn = resolution > 0 ? new BitSet() : null;
+	}
+
+	// The pixel of a point. The end of an edge in the range can lie outside it, and is put in the nearest pixel
+	private int pixel(double x, double y){
+		int col = (int) ((x - minx) / size), row = (int) ((y - miny) / size);
+		col = col < 0 ? 0 : col >= cols ? cols - 1 : col;
+		row = row < 0 ? 0 : row >= rows ? rows - 1 : row;
+		return row * cols + col;
+	}
+
+	/**
+	 * Passes edge on to the target, unless it is shorter than a pixel and starts in a drawn pixel
+	 * @return what the target returned, false if edge was left out
+	 */
+	@Override
+	public boolean visit(Edge edge){
+		if(drawn != null){
+			double x = edge.getStartX(), y = edge.getStartY();
+			boolean shorter = Math.abs(edge.getEndX() - x) < size && Math.abs(edge.getEndY() - y) < size;
+			if(shorter && drawn.get(pixel(x, y)))	return false;
+			drawn.set(pixel(x, y));
+			drawn.set(pixel(edge.getEndX(), edge.getEndY()));
+		}
+		if(!target.visit(edge))	return false;
+		counted++;
+		return true;
+	}
+
+	/**
+	 * @return the number of edges the target counted
+	 */
+	public int getCounted(){
+		return counted;
+	}
+}
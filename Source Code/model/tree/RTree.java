@@ -0,0 +1,645 @@
+package model.tree;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import model.DataSearch;
+import model.Search;
+import model.data.Edge;
+import model.data.RoadType;
+
+/**
+ * An R-tree of segments, packed by Sort-Tile-Recursive. Every key is a whole segment, see keyOf(Edge), so edges are not cut into pieces as for KDTree.
+ * A range is given by two keys as for KDTree: The segments crossing the rectangle from keyfrom to keyto, with a zoom level from that of keyfrom to that of keyto, are found.
+ * The rectangle is tested against the segment itself, not just its bounding box, so a range needs no padding.
+ *
+ * The tree is packed by build(). STR sorts the segments by the x of their centers, cuts them into vertical slices, and sorts every slice by y,
+ * so every group of NODESIZE segments in that order is a leaf. The leaves are packed the same way into the level above, until one node is left.
+ * Pairs put after build() are kept in a buffer searched with the tree, and removed pairs are marked in a bit set, until the tree is packed again.
+ *
+ * This class is unconditionally thread-safe. Reads take no locks, and writers are serialized
+ * @author ejer
+ *
+ */
+public class RTree implements DataSearch<KrakTreeKey, Edge>, Serializable{
+
+	private static final long serialVersionUID = -3870215418446253613L;
+
+	private static final int NODESIZE = 16;			// Children of every node, and segments of every leaf
+	private static final int PENDINGLIMIT = 1024;	// Pairs put since the last build, before the tree is packed again
+	private static final RoadType[] ROADTYPES = RoadType.values();
+
+	private transient volatile Packing packing = new Packing(new KrakTreeKey[0], new Edge[0], 0);
+	private transient volatile Pending pending = new Pending(new KrakTreeKey[0], new Edge[0], 0);
+	private transient final Object stateLock = new Object();	// Held by writers only
+
+	/**
+	 * @param e
+	 * @return the key of the whole segment of e
+	 */
+	public static KrakTreeKey keyOf(Edge e){
+		if(e == null)	throw new NullPointerException("parameter e was null");
+		return new KrakTreeKey(e.getStartX(), e.getStartY(), e.getEndX(), e.getEndY(), e.getRoadType());
+	}
+
+	/**
+	 * The packed segments and the levels of nodes above them. Only the removed bits change after a packing is published
+	 */
+	private static class Packing{
+		final int size;
+		final double[] startx, starty, endx, endy;
+		final byte[] type;					// RoadType ordinal
+		final Edge[] values;
+		final Level[] levels;				// levels[0] are the leaves, the last level is the root
+		final AtomicLongArray removed;
+		final AtomicInteger removedCount = new AtomicInteger();
+
+		Packing(KrakTreeKey[] keys, Edge[] vals, int size){
+			this.size = size;
+			startx = new double[size];	starty = new double[size];
+			endx = new double[size];	endy = new double[size];
+			type = new byte[size];
+			values = new Edge[size];
+			removed = new AtomicLongArray((size + 63) >>> 6);
+
+			// The leaves
+			double[] cx = new double[size], cy = new double[size];
+			for(int i = 0 ; i < size ; i++){
+				cx[i] = (keys[i].startx + keys[i].endx) / 2;
+				cy[i] = (keys[i].starty + keys[i].endy) / 2;
+			}
+			int[] order = tile(cx, cy, size);
+			for(int i = 0 ; i < size ; i++){
+				KrakTreeKey key = keys[order[i]];
+				startx[i] = key.startx;		starty[i] = key.starty;
+				endx[i] = key.endx;			endy[i] = key.endy;
+				type[i] = (byte) key.roadType.ordinal();
+				values[i] = vals[order[i]];
+			}
+			List<Level> built = new ArrayList<Level>();
+			Level level = leaves();
+			built.add(level);
+
+			// The levels above
+			while(level.size > 1){
+				level.pack();
+				level = new Level(level);
+				built.add(level);
+			}
+			levels = built.toArray(new Level[built.size()]);
+		}
+
+		private Level leaves(){
+			Level leaves = new Level((size + NODESIZE - 1) / NODESIZE);
+			for(int n = 0 ; n < leaves.size ; n++){
+				leaves.start[n] = n * NODESIZE;
+				leaves.end[n] = Math.min(size, (n + 1) * NODESIZE);
+				leaves.minx[n] = leaves.miny[n] = leaves.minzoom[n] = Double.POSITIVE_INFINITY;
+				leaves.maxx[n] = leaves.maxy[n] = Double.NEGATIVE_INFINITY;
+				for(int i = leaves.start[n] ; i < leaves.end[n] ; i++){
+					leaves.include(n, Math.min(startx[i], endx[i]), Math.min(starty[i], endy[i]), Math.max(startx[i], endx[i]), Math.max(starty[i], endy[i]),
+							ROADTYPES[type[i]].getZoomLevel());
+				}
+			}
+			return leaves;
+		}
+
+		boolean isRemoved(int i){
+			return (removed.get(i >>> 6) & (1L << i)) != 0;
+		}
+
+		// Returns false if i was already removed
+		boolean remove(int i){
+			long word;
+			do{
+				word = removed.get(i >>> 6);
+				if((word & (1L << i)) != 0)		return false;
+			}while(!removed.compareAndSet(i >>> 6, word, word | (1L << i)));
+			removedCount.incrementAndGet();
+			return true;
+		}
+	}
+
+	/**
+	 * The bounding boxes of the nodes of one level. Node n covers the nodes, or for leaves the segments, from start[n] to end[n]-1 of the level below
+	 */
+	private static class Level{
+		final int size;
+		final double[] minx, miny, maxx, maxy;
+		final double[] minzoom;			// The lowest zoom level of a segment below the node
+		final int[] start, end;
+
+		Level(int size){
+			this.size = size;
+			minx = new double[size];	miny = new double[size];
+			maxx = new double[size];	maxy = new double[size];
+			minzoom = new double[size];
+			start = new int[size];		end = new int[size];
+		}
+
+		// The level above a packed level
+		Level(Level below){
+			this((below.size + NODESIZE - 1) / NODESIZE);
+			for(int n = 0 ; n < size ; n++){
+				start[n] = n * NODESIZE;
+				end[n] = Math.min(below.size, (n + 1) * NODESIZE);
+				minx[n] = miny[n] = minzoom[n] = Double.POSITIVE_INFINITY;
+				maxx[n] = maxy[n] = Double.NEGATIVE_INFINITY;
+				for(int c = start[n] ; c < end[n] ; c++)	include(n, below.minx[c], below.miny[c], below.maxx[c], below.maxy[c], below.minzoom[c]);
+			}
+		}
+
+		void include(int n, double x1, double y1, double x2, double y2, double zoom){
+			minx[n] = Math.min(minx[n], x1);	miny[n] = Math.min(miny[n], y1);
+			maxx[n] = Math.max(maxx[n], x2);	maxy[n] = Math.max(maxy[n], y2);
+			minzoom[n] = Math.min(minzoom[n], zoom);
+		}
+
+		// Orders the nodes of the level by STR, so they can be grouped into the level above
+		void pack(){
+			double[] cx = new double[size], cy = new double[size];
+			for(int n = 0 ; n < size ; n++){
+				cx[n] = (minx[n] + maxx[n]) / 2;
+				cy[n] = (miny[n] + maxy[n]) / 2;
+			}
+			int[] order = tile(cx, cy, size);
+			permute(minx, order);		permute(miny, order);
+			permute(maxx, order);		permute(maxy, order);
+			permute(minzoom, order);
+			permute(start, order);		permute(end, order);
+		}
+	}
+
+	/**
+	 * Sort-Tile-Recursive order of n rectangles by their centers: Sorted by x, cut into slices of whole nodes, and every slice sorted by y
+	 * @return the indices of the rectangles in tile order
+	 */
+	private static int[] tile(double[] cx, double[] cy, int n){
+		int[] order = new int[n];
+		for(int i = 0 ; i < n ; i++)	order[i] = i;
+		sort(order, cx, 0, n - 1);
+
+		int nodes = (n + NODESIZE - 1) / NODESIZE;
+		int slices = (int) Math.ceil(Math.sqrt(nodes));
+		int slice = Math.max(1, (int) Math.ceil((double) nodes / Math.max(1, slices))) * NODESIZE;
+		for(int lo = 0 ; lo < n ; lo += slice)	sort(order, cy, lo, Math.min(n, lo + slice) - 1);
+		return order;
+	}
+
+	// Sorts the indices from lo to hi by their keys. Three-way quicksort, with insertion sort for short ranges
+	private static void sort(int[] idx, double[] key, int lo, int hi){
+		while(hi - lo > 16){
+			int mid = (lo + hi) >>> 1;
+			double p = Math.max(Math.min(key[idx[lo]], key[idx[mid]]), Math.min(Math.max(key[idx[lo]], key[idx[mid]]), key[idx[hi]]));
+			int lt = lo, i = lo, gt = hi;
+			while(i <= gt){
+				double v = key[idx[i]];
+				if		(v < p)		swap(idx, lt++, i++);
+				else if	(v > p)		swap(idx, i, gt--);
+				else				i++;
+			}
+			// The shorter side recurses, so the stack stays logarithmic
+			if(lt - lo < hi - gt){
+				sort(idx, key, lo, lt - 1);
+				lo = gt + 1;
+			}else{
+				sort(idx, key, gt + 1, hi);
+				hi = lt - 1;
+			}
+		}
+		for(int i = lo + 1 ; i <= hi ; i++){
+			for(int j = i ; j > lo && key[idx[j]] < key[idx[j - 1]] ; j--)	swap(idx, j, j - 1);
+		}
+	}
+
+	private static void swap(int[] a, int i, int j){
+		int t = a[i];	a[i] = a[j];	a[j] = t;
+	}
+
+	private static void permute(double[] a, int[] order){
+		double[] copy = a.clone();
+		for(int i = 0 ; i < order.length ; i++)	a[i] = copy[order[i]];
+	}
+
+	private static void permute(int[] a, int[] order){
+		int[] copy = a.clone();
+		for(int i = 0 ; i < order.length ; i++)	a[i] = copy[order[i]];
+	}
+
+	/**
+	 * The first size pairs of the buffers are the pairs put since the last build. A put appends to the buffers, doubling them when they are full,
+	 * and publishes a new Pending with one more pair, so a reader of an older Pending never sees the entries written after it.
+	 * The entries below size are never modified, a removal copies the buffers
+	 */
+	private static class Pending{
+		final KrakTreeKey[] keys;
+		final Edge[] values;
+		final int size;
+
+		Pending(KrakTreeKey[] keys, Edge[] values, int size){
+			this.keys = keys;
+			this.values = values;
+			this.size = size;
+		}
+	}
+
+	@Override
+	public int size(){
+		Packing p = packing;
+		return p.size - p.removedCount.get() + pending.size;
+	}
+
+	/**
+	 * Adds the pair to the pairs searched with the tree. The tree is packed again when there are many of them
+	 */
+	@Override
+	public void put(KrakTreeKey key, Edge value){
+		if(key == null)	throw new NullPointerException("parameter key was null");
+		synchronized(stateLock){
+			Pending p = pending;
+			int n = p.size;
+			KrakTreeKey[] keys = p.keys;
+			Edge[] values = p.values;
+			if(n == keys.length){
+				keys = Arrays.copyOf(keys, Math.max(16, 2 * n));
+				values = Arrays.copyOf(values, keys.length);
+			}
+			keys[n] = key;
+			values[n] = value;
+			pending = new Pending(keys, values, n + 1);		// Publishes the entry written above
+
+			if(n + 1 > PENDINGLIMIT + packing.size / 16)	build(new ArrayList<KrakTreeKey>(), new ArrayList<Edge>());
+		}
+	}
+
+	/**
+	 * Removes the pair of key and value. Keys are compared as in KrakTreeKey.compareInDimension, values by equals
+	 */
+	@Override
+	public boolean remove(KrakTreeKey key, Edge value){
+		if(key == null)	throw new NullPointerException("parameter key was null");
+		synchronized(stateLock){
+			Pending p = pending;
+			for(int i = 0 ; i < p.size ; i++){
+				if(equalKeys(key, p.keys[i]) && (value == null ? p.values[i] == null : value.equals(p.values[i]))){
+					int n = p.size;
+					KrakTreeKey[] keys = new KrakTreeKey[p.keys.length];
+					Edge[] values = new Edge[p.keys.length];
+					System.arraycopy(p.keys, 0, keys, 0, i);			System.arraycopy(p.keys, i + 1, keys, i, n - i - 1);
+					System.arraycopy(p.values, 0, values, 0, i);		System.arraycopy(p.values, i + 1, values, i, n - i - 1);
+					pending = new Pending(keys, values, n - 1);
+					return true;
+				}
+			}
+
+			// The segment lies in every leaf covering its start point
+			Packing pk = packing;
+			if(pk.size == 0)	return false;
+			return remove(pk, pk.levels.length - 1, 0, key, value);
+		}
+	}
+
+	private static boolean remove(Packing p, int depth, int n, KrakTreeKey key, Edge value){
+		Level level = p.levels[depth];
+		if(key.startx < level.minx[n] || key.startx > level.maxx[n] || key.starty < level.miny[n] || key.starty > level.maxy[n])	return false;
+
+		for(int c = level.start[n] ; c < level.end[n] ; c++){
+			if(depth > 0){
+				if(remove(p, depth - 1, c, key, value))		return true;
+			}else if(!p.isRemoved(c) && equalKeys(key, new KrakTreeKey(p.startx[c], p.starty[c], p.endx[c], p.endy[c], ROADTYPES[p.type[c]]))
+					&& (value == null ? p.values[c] == null : value.equals(p.values[c])) && p.remove(c)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean equalKeys(KrakTreeKey a, KrakTreeKey b){
+		for(int d = 0 ; d < a.getDimensions() ; d++){
+			if(a.compareInDimension(b, d) != 0)		return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Return the edges crossing the range. No lock is taken
+	 * @param keyfrom	the lowest x, y and zoom level of the range
+	 * @param keyto		the highest x, y and zoom level of the range
+	 * @return			a set containing the edges of the segments crossing the rectangle between keyfrom and keyto, with a zoom level between theirs
+	 */
+	@Override
+	public Set<Edge> getRange(KrakTreeKey keyfrom, KrakTreeKey keyto){
+		if(keyfrom == null)		throw new NullPointerException("parameter keyfrom was null");
+		else if(keyto == null)	throw new NullPointerException("parameter keyto was null");
+
+		final Set<Edge> result = new HashSet<Edge>();
+		getRange(keyfrom, keyto, new RangeVisitor<Edge>(){
+			@Override
+			public boolean visit(Edge value){
+				return result.add(value);
+			}
+		}, Integer.MAX_VALUE);
+		return result;
+	}
+
+	/**
+	 * Passes the edges crossing the range to visitor, once for every segment. The search only allocates the range itself. No lock is taken
+	 */
+	@Override
+	public int getRange(KrakTreeKey keyfrom, KrakTreeKey keyto, RangeVisitor<? super Edge> visitor, int limit){
+		if(keyfrom == null)		throw new NullPointerException("parameter keyfrom was null");
+		else if(keyto == null)	throw new NullPointerException("parameter keyto was null");
+		else if(visitor == null)	throw new NullPointerException("parameter visitor was null");
+		else if(limit < 0)		throw new IllegalArgumentException("parameter limit was negative");
+
+		Range r = new Range(keyfrom, keyto);
+		int remaining = limit;
+		Pending pd = pending;
+		for(int i = 0 ; i < pd.size && remaining > 0 ; i++){
+			KrakTreeKey k = pd.keys[i];
+			if(r.contains(k.startx, k.starty, k.endx, k.endy, k.roadType.getZoomLevel()) && visitor.visit(pd.values[i]))	remaining--;
+		}
+
+		Packing p = packing;
+		if(p.size > 0 && remaining > 0)	remaining = getRange(p, p.levels.length - 1, 0, r, visitor, remaining);
+		return limit - remaining;
+	}
+
+	// Returns what is left of remaining after visiting the segments crossing the range below node n of the level of depth
+	private static int getRange(Packing p, int depth, int n, Range r, RangeVisitor<? super Edge> visitor, int remaining){
+		Level level = p.levels[depth];
+		if(level.maxx[n] < r.x1 || level.minx[n] > r.x2 || level.maxy[n] < r.y1 || level.miny[n] > r.y2 || level.minzoom[n] > r.zoom2)	return remaining;
+
+		for(int c = level.start[n] ; c < level.end[n] && remaining > 0 ; c++){
+			if(depth > 0)	remaining = getRange(p, depth - 1, c, r, visitor, remaining);
+			else if(!p.isRemoved(c) && r.contains(p.startx[c], p.starty[c], p.endx[c], p.endy[c], ROADTYPES[p.type[c]].getZoomLevel())
+					&& visitor.visit(p.values[c]))	remaining--;
+		}
+		return remaining;
+	}
+
+	/**
+	 * Passes the edges crossing every range to the visitor of the range, once for every segment, walking the tree once for all the ranges.
+	 * A node is only tested against the ranges crossing its parent. No lock is taken
+	 */
+	@Override
+	public int[] getRanges(List<KrakTreeKey> keysfrom, List<KrakTreeKey> keysto, List<? extends RangeVisitor<? super Edge>> visitors){
+		OpenRanges.check(keysfrom, keysto, visitors);
+
+		Range[] r = new Range[visitors.size()];
+		for(int i = 0 ; i < r.length ; i++)	r[i] = new Range(keysfrom.get(i), keysto.get(i));
+		OpenRanges ranges = new OpenRanges(r.length);
+		Pending pd = pending;
+		for(int i = 0 ; i < pd.size ; i++){
+			KrakTreeKey k = pd.keys[i];
+			for(int j = 0 ; j < r.length ; j++){
+				if(r[j].contains(k.startx, k.starty, k.endx, k.endy, k.roadType.getZoomLevel()) && visitors.get(j).visit(pd.values[i]))	ranges.counted[j]++;
+			}
+		}
+
+		Packing p = packing;
+		if(p.size > 0)	getRanges(p, p.levels.length - 1, 0, r, ranges, r.length, visitors);
+		return ranges.counted;
+	}
+
+	// Visits the segments below node n of the level of depth in the first open ranges of the list of that level, counted from the root
+	private static void getRanges(Packing p, int depth, int n, Range[] r, OpenRanges ranges, int open, List<? extends RangeVisitor<? super Edge>> visitors){
+		Level level = p.levels[depth];
+		int[] here = ranges.at(p.levels.length - 1 - depth);
+		int kept = 0;
+		for(int i = 0 ; i < open ; i++){
+			Range q = r[here[i]];
+			if(!(level.maxx[n] < q.x1 || level.minx[n] > q.x2 || level.maxy[n] < q.y1 || level.miny[n] > q.y2 || level.minzoom[n] > q.zoom2))	here[kept++] = here[i];
+		}
+		if(kept == 0)	return;
+
+		for(int c = level.start[n] ; c < level.end[n] ; c++){
+			if(depth > 0){
+				int[] next = ranges.at(p.levels.length - depth);		// Refilled for every child, as the one before is done with it
+				System.arraycopy(here, 0, next, 0, kept);
+				getRanges(p, depth - 1, c, r, ranges, kept, visitors);
+			}
+			else if(!p.isRemoved(c)){
+				double zoom = ROADTYPES[p.type[c]].getZoomLevel();
+				for(int i = 0 ; i < kept ; i++){
+					int j = here[i];
+					if(r[j].contains(p.startx[c], p.starty[c], p.endx[c], p.endy[c], zoom) && visitors.get(j).visit(p.values[c]))	ranges.counted[j]++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the k edges nearest to the query of metric. Nodes are searched in order of the lower bound of their bounding box. No lock is taken
+	 * @param metric
+	 * @param k
+	 * @return at most k distinct edges, nearest first
+	 */
+	@Override
+	public List<Edge> nearest(KDTMetric<KrakTreeKey> metric, int k){
+		if(metric == null)	throw new NullPointerException("parameter metric was null");
+
+		NearestQueue<KrakTreeKey, Edge> queue = new NearestQueue<KrakTreeKey, Edge>(metric, k);
+		start(queue);
+		return queue.search();
+	}
+
+	// Queues the pending pairs and the root, so the tree can be searched together with other structures
+	void start(NearestQueue<KrakTreeKey, Edge> queue){
+		Pending pd = pending;
+		for(int i = 0 ; i < pd.size ; i++)	queue.addValue(pd.keys[i], pd.values[i]);
+
+		Packing p = packing;
+		if(p.size > 0)	new NodeRef(p, p.levels.length - 1, 0).queue(queue);
+	}
+
+	// A node of a nearest neighbour search
+	private static class NodeRef implements NearestQueue.Region<KrakTreeKey, Edge>{
+		final Packing packing;
+		final int depth, node;
+
+		NodeRef(Packing packing, int depth, int node){
+			this.packing = packing;
+			this.depth = depth;
+			this.node = node;
+		}
+
+		// Queues the node by its bounding box. Both ends of a segment below it lie in the box
+		void queue(NearestQueue<KrakTreeKey, Edge> queue){
+			Level level = packing.levels[depth];
+			double[] min = { level.minx[node], level.miny[node], level.minx[node], level.miny[node], level.minzoom[node] };
+			double[] max = { level.maxx[node], level.maxy[node], level.maxx[node], level.maxy[node], Double.POSITIVE_INFINITY };
+			queue.addRegion(min, max, this);
+		}
+
+		@Override
+		public void expand(NearestQueue<KrakTreeKey, Edge> queue){
+			Packing p = packing;
+			Level level = p.levels[depth];
+			for(int c = level.start[node] ; c < level.end[node] ; c++){
+				if(depth > 0)				new NodeRef(p, depth - 1, c).queue(queue);
+				else if(!p.isRemoved(c))	queue.addValue(new KrakTreeKey(p.startx[c], p.starty[c], p.endx[c], p.endy[c], ROADTYPES[p.type[c]]), p.values[c]);
+			}
+		}
+	}
+
+	/**
+	 * The rectangle and zoom levels of a range search
+	 */
+	private static class Range{
+		final double x1, y1, x2, y2, zoom1, zoom2;
+
+		Range(KrakTreeKey from, KrakTreeKey to){
+			x1 = Math.min(from.startx, from.endx);		y1 = Math.min(from.starty, from.endy);
+			x2 = Math.max(to.startx, to.endx);			y2 = Math.max(to.starty, to.endy);
+			zoom1 = from.roadType.getZoomLevel();
+			zoom2 = to.roadType.getZoomLevel();
+		}
+
+		// True if the segment crosses the rectangle, clipped as by Liang-Barsky. The part of the segment between the x sides and between the y sides is t0 to t1
+		boolean contains(double sx, double sy, double ex, double ey, double zoom){
+			if(zoom < zoom1 || zoom > zoom2)	return false;
+			double dx = ex - sx, dy = ey - sy;
+			double t0 = 0, t1 = 1;
+			if(dx == 0){
+				if(sx < x1 || sx > x2)	return false;
+			}else{
+				double a = (x1 - sx) / dx, b = (x2 - sx) / dx;
+				t0 = Math.max(t0, Math.min(a, b));
+				t1 = Math.min(t1, Math.max(a, b));
+			}
+			if(dy == 0){
+				if(sy < y1 || sy > y2)	return false;
+			}else{
+				double a = (y1 - sy) / dy, b = (y2 - sy) / dy;
+				t0 = Math.max(t0, Math.min(a, b));
+				t1 = Math.min(t1, Math.max(a, b));
+			}
+			return t0 <= t1;
+		}
+	}
+
+	@Override
+	public void build(Map<KrakTreeKey, Edge> map){
+		if(map == null)	throw new NullPointerException("parameter map was null");
+
+		List<KrakTreeKey> keys = new ArrayList<KrakTreeKey>(map.size());
+		List<Edge> values = new ArrayList<Edge>(map.size());
+		for(Map.Entry<KrakTreeKey, Edge> entry : map.entrySet()){
+			keys.add(entry.getKey());
+			values.add(entry.getValue());
+		}
+		build(keys, values);
+	}
+
+	/**
+	 * Packs the tree with the pairs, together with the pairs already in it. The lists are not modified.
+	 * Every key should be a whole segment, see keyOf(Edge)
+	 */
+	@Override
+	public void build(List<KrakTreeKey> keys, List<Edge> values){
+		if(keys == null)						throw new NullPointerException("parameter keys was null");
+		else if(values == null)					throw new NullPointerException("parameter values was null");
+		else if(keys.size() != values.size())	throw new IllegalArgumentException("parameters keys and values differ in size");
+
+		synchronized(stateLock){
+			Packing current = packing;
+			Pending p = pending;
+			int n = current.size - current.removedCount.get() + p.size + keys.size();
+			KrakTreeKey[] allKeys = new KrakTreeKey[n];
+			Edge[] allValues = new Edge[n];
+
+			int i = 0;
+			for(int c = 0 ; c < current.size ; c++){
+				if(current.isRemoved(c))	continue;
+				allKeys[i] = new KrakTreeKey(current.startx[c], current.starty[c], current.endx[c], current.endy[c], ROADTYPES[current.type[c]]);
+				allValues[i++] = current.values[c];
+			}
+			System.arraycopy(p.keys, 0, allKeys, i, p.size);
+			System.arraycopy(p.values, 0, allValues, i, p.size);
+			i += p.size;
+			for(int k = 0 ; k < keys.size() ; k++){
+				if(keys.get(k) == null)		throw new NullPointerException("parameter keys contained null");
+				allKeys[i] = keys.get(k);
+				allValues[i++] = values.get(k);
+			}
+
+			packing = new Packing(allKeys, allValues, n);
+			pending = new Pending(new KrakTreeKey[0], new Edge[0], 0);
+			Search.Data.INSTANCE.setProgress(1);
+		}
+	}
+
+	/**
+	 * @return the number of levels of nodes above the segments
+	 */
+	public int getHeight(){
+		return packing.levels.length;
+	}
+
+	/**
+	 * @return the number of bytes held by the arrays of the tree, not counting the edges
+	 */
+	public long getMemoryUsage(){
+		Packing p = packing;
+		long bytes = (long) p.size * (8 * 4 + 1 + 4) + p.removed.length() * 8L;
+		for(Level level : p.levels)		bytes += (long) level.size * (8 * 5 + 4 * 2);
+		return bytes;
+	}
+
+	@Override
+	public String toString(){
+		return size() + " segments in an R-tree of height " + getHeight();
+	}
+
+	/**
+	 * Serialization proxy writing the live pairs. The tree is packed again when it is read
+	 * @serial
+	 */
+	private static class SerializationProxy implements Serializable{
+
+		private static final long serialVersionUID = 1538245102853307519L;
+
+		private final List<KrakTreeKey> keys = new ArrayList<KrakTreeKey>();
+		private final List<Edge> values = new ArrayList<Edge>();
+
+		SerializationProxy(RTree tree){
+			Packing p = tree.packing;
+			for(int c = 0 ; c < p.size ; c++){
+				if(p.isRemoved(c))	continue;
+				keys.add(new KrakTreeKey(p.startx[c], p.starty[c], p.endx[c], p.endy[c], ROADTYPES[p.type[c]]));
+				values.add(p.values[c]);
+			}
+			Pending pd = tree.pending;
+			for(int i = 0 ; i < pd.size ; i++){
+				keys.add(pd.keys[i]);
+				values.add(pd.values[i]);
+			}
+		}
+
+		private Object readResolve(){
+			RTree tree = new RTree();
+			tree.build(keys, values);
+			return tree;
+		}
+	}
+
+	private Object writeReplace(){
+		synchronized(stateLock){
+			return new SerializationProxy(this);
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws InvalidObjectException{
+		throw new InvalidObjectException("Proxy required");
+	}
+}
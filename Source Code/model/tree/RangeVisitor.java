@@ -0,0 +1,20 @@
+package model.tree;
+
+/**
+ * Receives the values of a range search one at a time, see DataSearch.getRange(K, K, RangeVisitor, int).
+ * The search allocates nothing per value, so a visitor drawing or counting the values keeps a range search free of garbage.
+ * A value with several keys in the range is passed once for each of them. DistinctEdges passes every edge on once.
+ *
+ * @author ejer
+ *
+ * @param <V>
+ */
+public interface RangeVisitor<V>{
+
+	/**
+	 * Called for every pair in the range
+	 * @param value
+	 * @return true if value counts towards the limit of the search. A visitor skipping values it has already seen returns false for those
+	 */
+	public boolean visit(V value);
+}
@@ -0,0 +1,93 @@
+package model.tree;
+
+import model.data.Point;
+import model.data.RoadType;
+
+/**
+ * The distance from a point to the segment of a KrakTreeKey, for keys of road types shown at the zoom level of maxRoadType.
+ * As keys are pieces of their edge, the least distance to the keys of an edge is the distance to the edge.
+ * If the pieces are short, as the keys of KrakDataLoader.generateKeys, the end of a key is near its start,
+ * which narrows the regions of a kd-tree much more than its splits alone.
+ *
+ * This class is immutable
+ * @author ejer
+ *
+ */
+public class SegmentMetric implements KDTMetric<KrakTreeKey>{
+
+	private static final double SLACK = Math.pow(10, -6);		// Allows for rounding in the coordinates of cut keys
+
+	private final double x, y;
+	private final double maxZoom;
+	private final double extent;
+
+	/**
+	 * @param point the point to measure from
+	 * @param maxRoadType the least important road type wanted
+	 */
+	public SegmentMetric(Point point, RoadType maxRoadType){
+		this(point, maxRoadType, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * @param point the point to measure from
+	 * @param maxRoadType the least important road type wanted
+	 * @param extent the largest difference in x, and in y, between the start and the end of a key
+	 */
+	public SegmentMetric(Point point, RoadType maxRoadType, double extent){
+		if(point == null)				throw new NullPointerException("parameter point was null");
+		else if(maxRoadType == null)	throw new NullPointerException("parameter maxRoadType was null");
+		else if(extent < 0)				throw new IllegalArgumentException("parameter extent was negative");
+
+		x = point.getX();
+		y = point.getY();
+		maxZoom = maxRoadType.getZoomLevel();
+		this.extent = extent + SLACK;
+	}
+
+	@Override
+	public double distance(KrakTreeKey key){
+		if(key.roadType.getZoomLevel() > maxZoom)	return Double.POSITIVE_INFINITY;
+		return distance(x, y, key.startx, key.starty, key.endx, key.endy);
+	}
+
+	/**
+	 * The segment of a key has its start in the box of dimensions 0 and 1 and its end in the box of dimensions 2 and 3,
+	 * and each end is within extent of the other, so it lies in the box around both ends narrowed that way, and is no closer than that box
+	 */
+	@Override
+	public double lowerBound(double[] min, double[] max){
+		if(min[4] > maxZoom)	return Double.POSITIVE_INFINITY;
+		double[] box = segmentBox(min, max, extent);
+		if(box == null)			return Double.POSITIVE_INFINITY;
+
+		double dx = x < box[0] ? box[0] - x : x > box[2] ? x - box[2] : 0;
+		double dy = y < box[1] ? box[1] - y : y > box[3] ? y - box[3] : 0;
+		return Math.sqrt(dx*dx + dy*dy);
+	}
+
+	/**
+	 * @return the lowest x, lowest y, highest x and highest y of the segments of the keys in the region, with their ends within extent of each other.
+	 * Null if no such key fits the region
+	 */
+	static double[] segmentBox(double[] min, double[] max, double extent){
+		double sx1 = Math.max(min[0], min[2] - extent), sx2 = Math.min(max[0], max[2] + extent);
+		double sy1 = Math.max(min[1], min[3] - extent), sy2 = Math.min(max[1], max[3] + extent);
+		double ex1 = Math.max(min[2], min[0] - extent), ex2 = Math.min(max[2], max[0] + extent);
+		double ey1 = Math.max(min[3], min[1] - extent), ey2 = Math.min(max[3], max[1] + extent);
+		if(sx1 > sx2 || sy1 > sy2 || ex1 > ex2 || ey1 > ey2)	return null;
+
+		return new double[]{ Math.min(sx1, ex1), Math.min(sy1, ey1), Math.max(sx2, ex2), Math.max(sy2, ey2) };
+	}
+
+	/**
+	 * @return the distance from the point (px, py) to the segment from (sx, sy) to (ex, ey)
+	 */
+	public static double distance(double px, double py, double sx, double sy, double ex, double ey){
+		double dx = ex - sx, dy = ey - sy;
+		double length = dx*dx + dy*dy;
+		double t = length == 0 ? 0 : Math.max(0, Math.min(1, ((px - sx) * dx + (py - sy) * dy) / length));
+		double cx = sx + t * dx - px, cy = sy + t * dy - py;
+		return Math.sqrt(cx*cx + cy*cy);
+	}
+}
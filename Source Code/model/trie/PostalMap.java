@@ -45,7 +45,7 @@ public class PostalMap {
 		}
 		finally {
 			try {
-				in.close();
+				if(in != null) in.close(); // The file was not found
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -0,0 +1,107 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import model.DataSearch;
+import model.data.Edge;
+import model.data.KrakDataLoader;
+import model.data.Point;
+import model.data.RoadType;
+import model.tree.CorridorMetric;
+import model.tree.FlatKDTree;
+import model.tree.KDTree;
+import model.tree.KrakTreeKey;
+import model.tree.LODIndex;
+import model.tree.RTree;
+import model.tree.SegmentMetric;
+import org.junit.Test;
+import junit.framework.TestCase;
+
+public class CorridorTests extends TestCase {
+
+	private List<Edge> edges;
+	private Random random = new Random(21);
+
+	// The distance between two segments, from points along the first one, accurate to the step of at most a metre
+	private double sampled(Edge e, Point a, Point b) {
+		double best = Double.POSITIVE_INFINITY;
+		for (int i = 0; i <= 1000; i++) {
+			double x = e.getStartX() + (e.getEndX() - e.getStartX()) * i / 1000, y = e.getStartY() + (e.getEndY() - e.getStartY()) * i / 1000;
+			best = Math.min(best, SegmentMetric.distance(x, y, a.getX(), a.getY(), b.getX(), b.getY()));
+		}
+		return best;
+	}
+
+	private void check(DataSearch<KrakTreeKey, Edge> index, double extent) {
+		for (int q = 0; q < 10; q++) {
+			Point[] route = new Point[2 + random.nextInt(40)];
+			route[0] = new Point(random.nextInt(10000), random.nextInt(10000));
+			for (int i = 1; i < route.length; i++) route[i] = new Point(route[i - 1].getX() + random.nextInt(1000) - 500, route[i - 1].getY() + random.nextInt(1000) - 500);
+			double buffer = random.nextInt(300);
+			RoadType maxType = RoadType.getTypeByZoom(random.nextInt(RoadType.getMaxZoom() + 1));
+
+			List<Edge> result = index.nearest(new CorridorMetric(route, buffer, maxType, extent), Integer.MAX_VALUE);
+			Set<Edge> found = new HashSet<Edge>(result);
+			assertEquals(result.size(), found.size());
+			for (Edge e : edges) {
+				if (e.getRoadType().getZoomLevel() > maxType.getZoomLevel()) {
+					assertFalse(found.contains(e));
+					continue;
+				}
+				double distance = Double.POSITIVE_INFINITY;
+				for (int i = 0; i + 1 < route.length; i++) {
+					distance = Math.min(distance, CorridorMetric.distance(e.getStartX(), e.getStartY(), e.getEndX(), e.getEndY(),
+							route[i].getX(), route[i].getY(), route[i + 1].getX(), route[i + 1].getY()));
+				}
+				if (distance < buffer - 1e-6) assertTrue(found.contains(e));
+				else if (distance > buffer + 1e-6) assertFalse(found.contains(e));
+			}
+		}
+	}
+
+	@Test
+	public void testCorridor() {
+		//choice 1: crossing, parallel, touching and apart segments
+		assertEquals(0, CorridorMetric.distance(0, 0, 10, 10, 0, 10, 10, 0), 1e-9);
+		assertEquals(5, CorridorMetric.distance(0, 0, 10, 0, 0, 5, 10, 5), 1e-9);
+		assertEquals(0, CorridorMetric.distance(0, 0, 10, 0, 5, 0, 5, 7), 1e-9);
+		assertEquals(Math.sqrt(2), CorridorMetric.distance(0, 0, 1, 1, 2, 2, 3, 5), 1e-9);
+		edges = EdgeFixture.generate(random, 1500);
+		for (int i = 0; i < 100; i++) {
+			Edge e = edges.get(i), f = edges.get(i + 100);
+			double distance = CorridorMetric.distance(e.getStartX(), e.getStartY(), e.getEndX(), e.getEndY(), f.getStartX(), f.getStartY(), f.getEndX(), f.getEndY());
+			assertEquals(sampled(e, f.getStart(), f.getEnd()), distance, 1);
+		}
+
+		List<KrakTreeKey> cut = new ArrayList<KrakTreeKey>(), whole = new ArrayList<KrakTreeKey>();
+		List<Edge> cutEdges = new ArrayList<Edge>();
+		for (Edge e : edges) {
+			for (KrakTreeKey key : KrakDataLoader.generateKeys(e)) {
+				cut.add(key);
+				cutEdges.add(e);
+			}
+			whole.add(RTree.keyOf(e));
+		}
+
+		//choice 2: every index finds the edges within the buffer of a random route
+		KDTree<KrakTreeKey, Edge> kdtree = new KDTree<KrakTreeKey, Edge>(new KrakTreeKey());
+		kdtree.build(cut, cutEdges);
+		check(kdtree, KrakDataLoader.DELTA);
+		FlatKDTree flat = new FlatKDTree();
+		flat.build(cut, cutEdges);
+		check(flat, KrakDataLoader.DELTA);
+		RTree rtree = new RTree();
+		rtree.build(whole, edges);
+		check(rtree, Double.POSITIVE_INFINITY);
+		LODIndex lod = new LODIndex();
+		lod.build(whole, edges);
+		check(lod, Double.POSITIVE_INFINITY);
+
+		//choice 3: a route of one point has no segments, and no edges near it
+		assertTrue(rtree.nearest(new CorridorMetric(new Point[] { new Point(5000, 5000) }, 100, RoadType.STI, 0), Integer.MAX_VALUE).isEmpty());
+	}
+}
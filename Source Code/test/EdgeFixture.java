@@ -0,0 +1,61 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import model.data.Edge;
+import model.data.Point;
+import model.data.RoadType;
+import model.tree.KrakTreeKey;
+import model.tree.RTree;
+
+/**
+ * Random edges shared by the tests of the indexes, so every test class only holds its own assertions.
+ * The edges depend only on the Random given, so a test seeding its Random gets the same edges every run.
+ *
+ * @author ejer
+ *
+ */
+public class EdgeFixture {
+
+	private EdgeFixture() {}
+
+	/**
+	 * @param random
+	 * @param n			the number of edges
+	 * @param size		the start of every edge lies in the square from 0 to size
+	 * @param spread	the end of an edge is offset from its start by random.nextInt(spread) - shift in both coordinates
+	 * @param shift
+	 * @return n edges with random road types, named "road 0" to "road n-1"
+	 */
+	public static List<Edge> generate(Random random, int n, int size, int spread, int shift) {
+		RoadType[] types = RoadType.values();
+		List<Edge> edges = new ArrayList<Edge>();
+		for (int i = 0; i < n; i++) {
+			Point s = new Point(random.nextInt(size), random.nextInt(size));
+			Point e = new Point(s.getX() + random.nextInt(spread) - shift, s.getY() + random.nextInt(spread) - shift);
+			edges.add(new Edge(s, e, "road " + i, types[random.nextInt(types.length)]));
+		}
+		return edges;
+	}
+
+	/**
+	 * @param random
+	 * @param n	the number of edges
+	 * @return n edges of up to 500 in both coordinates, starting in a map of 10000 by 10000
+	 */
+	public static List<Edge> generate(Random random, int n) {
+		return generate(random, n, 10000, 1000, 500);
+	}
+
+	/**
+	 * @param edges
+	 * @return the keys of the whole segments of the edges, see RTree.keyOf, in the order of the edges
+	 */
+	public static List<KrakTreeKey> keysOf(List<Edge> edges) {
+		List<KrakTreeKey> keys = new ArrayList<KrakTreeKey>();
+		for (Edge e : edges) keys.add(RTree.keyOf(e));
+		return keys;
+	}
+}
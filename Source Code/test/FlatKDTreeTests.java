@@ -0,0 +1,162 @@
+package test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import model.data.Edge;
+import model.data.RoadType;
+import model.tree.FlatKDTree;
+import model.tree.KDTree;
+import model.tree.KrakTreeKey;
+import org.junit.Test;
+import junit.framework.TestCase;
+
+public class FlatKDTreeTests extends TestCase {
+
+	private List<KrakTreeKey> keys;
+	private List<Edge> values;
+	private Random random = new Random(11);
+
+	private KrakTreeKey min(double x, double y) {
+		return new KrakTreeKey(x, y, x, y, RoadType.getTypeByZoom(0));
+	}
+
+	private KrakTreeKey max(double x, double y) {
+		return new KrakTreeKey(x, y, x, y, RoadType.getTypeByZoom(RoadType.getMaxZoom()));
+	}
+
+	@Test
+	public void testGetRange() {
+		values = EdgeFixture.generate(random, 3000, 100, 5, 0);		// Short segments on a small grid, so many coordinates are equal
+		keys = EdgeFixture.keysOf(values);
+		KDTree<KrakTreeKey, Edge> expected = new KDTree<KrakTreeKey, Edge>(new KrakTreeKey());
+		expected.build(keys, values);
+		FlatKDTree tree = new FlatKDTree();
+		tree.build(keys, values);
+		assertEquals(3000, tree.size());
+
+		//choice 1: ranges find the same edges as a KDTree of the same pairs
+		for (int q = 0; q < 100; q++) {
+			int x = random.nextInt(100), y = random.nextInt(100), w = random.nextInt(30), h = random.nextInt(30);
+			assertEquals(expected.getRange(min(x, y), max(x + w, y + h)), tree.getRange(min(x, y), max(x + w, y + h)));
+		}
+
+		//choice 2: an empty range
+		assertTrue(tree.getRange(min(200, 200), max(300, 300)).isEmpty());
+	}
+
+	@Test
+	public void testPutRemove() {
+		values = EdgeFixture.generate(random, 1000, 100, 5, 0);
+		keys = EdgeFixture.keysOf(values);
+		FlatKDTree tree = new FlatKDTree();
+		tree.build(keys.subList(0, 800), values.subList(0, 800));
+
+		//choice 1: pairs put after the build are found
+		for (int i = 800; i < 1000; i++) tree.put(keys.get(i), values.get(i));
+		assertEquals(1000, tree.size());
+		assertEquals(values.size(), tree.getRange(min(0, 0), max(200, 200)).size());
+
+		//choice 2: pairs are removed from the arrays and from the pairs put since the build
+		for (int i = 0; i < 1000; i += 2) assertTrue(tree.remove(keys.get(i), values.get(i)));
+		assertFalse(tree.remove(keys.get(0), values.get(0)));
+		assertEquals(500, tree.size());
+		assertFalse(tree.getRange(min(0, 0), max(200, 200)).contains(values.get(0)));
+		assertTrue(tree.getRange(min(0, 0), max(200, 200)).contains(values.get(1)));
+
+		//choice 3: a build folds the remaining pairs into the arrays
+		tree.build(new ArrayList<KrakTreeKey>(), new ArrayList<Edge>());
+		assertEquals(500, tree.size());
+		assertEquals(500, tree.getRange(min(0, 0), max(200, 200)).size());
+	}
+
+	// The edges of a range by their attributes, as the edges of a mapped tree are other objects
+	private Set<String> describe(Set<Edge> edges) {
+		Set<String> described = new HashSet<String>();
+		for (Edge e : edges) {
+			described.add(e.getStartX() + " " + e.getStartY() + " " + e.getEndX() + " " + e.getEndY() + " "
+					+ e.getRoadName() + " " + e.getRoadType() + " " + e.getOneWay() + " " + e.getPostalLeft());
+		}
+		return described;
+	}
+
+	@Test
+	public void testMap() throws IOException {
+		values = EdgeFixture.generate(random, 2000, 100, 5, 0);
+		keys = EdgeFixture.keysOf(values);
+		FlatKDTree tree = new FlatKDTree();
+		tree.build(keys, values);
+		File file = File.createTempFile("flatkdtree", ".idx");
+		try {
+			tree.write(file);
+			FlatKDTree mapped = FlatKDTree.map(file);
+			assertEquals(2000, mapped.size());
+
+			//choice 1: ranges of the mapped tree find the same edges, and the same edge objects every time
+			for (int q = 0; q < 100; q++) {
+				int x = random.nextInt(100), y = random.nextInt(100), w = random.nextInt(30), h = random.nextInt(30);
+				Set<Edge> found = mapped.getRange(min(x, y), max(x + w, y + h));
+				assertEquals(describe(tree.getRange(min(x, y), max(x + w, y + h))), describe(found));
+				assertEquals(found, mapped.getRange(min(x, y), max(x + w, y + h)));
+			}
+
+			//choice 2: pairs are put and removed in a mapped tree, and written over the file it is mapped from
+			Edge removed = mapped.getRange(min(0, 0), max(200, 200)).iterator().next();
+			assertTrue(mapped.remove(new KrakTreeKey(removed.getStart(), removed.getEnd(), removed.getRoadType()), removed));
+			mapped.put(keys.get(0), values.get(0));
+			assertEquals(2000, mapped.size());
+			mapped.write(file);
+			assertEquals(2000, FlatKDTree.map(file).size());
+			assertFalse(FlatKDTree.map(file).getRange(min(0, 0), max(200, 200)).isEmpty());
+
+			//choice 3: the numbers are written in the native order, starting with the magic number "FKDT"
+			byte[] magic = new byte[4];
+			FileInputStream in = new FileInputStream(file);
+			assertEquals(4, in.read(magic));
+			in.close();
+			assertEquals(0x464B4454, ByteBuffer.wrap(magic).order(ByteOrder.nativeOrder()).getInt());
+
+			//choice 4: an empty tree written in the other order is still read
+			ByteOrder other = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+			ByteBuffer empty = ByteBuffer.allocate(40).order(other);
+			empty.putInt(0x464B4454).putInt(1);		// The magic number and the version, then no keys, edges or strings but the first offset of each table
+			FileOutputStream out = new FileOutputStream(file);
+			out.write(empty.array());
+			out.close();
+			assertEquals(0, FlatKDTree.map(file).size());
+
+			//choice 5: a file that is not an index
+			out = new FileOutputStream(file);
+			out.write("not an index".getBytes());
+			out.close();
+			try {
+				FlatKDTree.map(file);
+				fail("Exception not thrown");
+			} catch (IOException e) {
+				//Succes!
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testNull() {
+		FlatKDTree tree = new FlatKDTree();
+		try {
+			tree.getRange(null, max(1, 1));
+			fail("Exception not thrown");
+		} catch (NullPointerException e) {
+			//Succes!
+		}
+	}
+}
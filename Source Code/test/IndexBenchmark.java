@@ -0,0 +1,108 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import model.DataSearch;
+import model.data.Edge;
+import model.data.KrakDataLoader;
+import model.data.Point;
+import model.data.RoadType;
+import model.tree.KDTree;
+import model.tree.KrakTreeKey;
+import model.tree.LODIndex;
+import model.tree.RTree;
+
+/**
+ * Compares the KDTree of cut edges with the R-tree and the level of detail pyramid of whole segments on the same krak files:
+ * the number of keys, the build time, the memory held by the index and the latency of range searches the size of a map view,
+ * and of searches of the whole map showing only the road types of the lowest zoom level.
+ * The KDTree is searched with the padded range of Search.Data, the R-tree with the exact range.
+ * Run with: java test.IndexBenchmark <point file> <edge file> [view width in m]
+ * @author ejer
+ *
+ */
+public class IndexBenchmark {
+
+	private static final int SEARCHES = 2000;
+	private static final int PAD = 210;		// The padding of Search.Data
+	private static final int NODEBYTES = 40;	// A KDTree node on a 64-bit JVM with compressed references
+	private static final int KEYBYTES = 48;		// A KrakTreeKey object
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.out.println("usage: java test.IndexBenchmark <point file> <edge file> [view width in m]");
+			return;
+		}
+		double view = args.length > 2 ? Double.parseDouble(args[2]) : 3000;
+
+		KrakDataLoader loader = new KrakDataLoader(args[0], args[1]);
+		Point min = loader.getMinPoint(), max = loader.getMaxPoint();
+		List<KrakTreeKey> cut = new ArrayList<KrakTreeKey>(loader.getKeys());
+		List<Edge> cutEdges = new ArrayList<Edge>(loader.getValues());
+		List<Edge> edges = new ArrayList<Edge>(loader.getEdges());
+		List<KrakTreeKey> whole = new ArrayList<KrakTreeKey>(edges.size());
+		for (Edge e : edges) whole.add(RTree.keyOf(e));
+		loader.releaseKeys();
+
+		long start = System.nanoTime();
+		KDTree<KrakTreeKey, Edge> kdtree = new KDTree<KrakTreeKey, Edge>(new KrakTreeKey());
+		kdtree.build(cut, cutEdges);
+		report("KDTree", start, cut.size(), (long) cut.size() * (NODEBYTES + KEYBYTES));
+
+		start = System.nanoTime();
+		RTree rtree = new RTree();
+		rtree.build(whole, edges);
+		report("RTree ", start, whole.size(), rtree.getMemoryUsage());
+
+		start = System.nanoTime();
+		LODIndex lod = new LODIndex();
+		lod.build(whole, edges);
+		report("LOD   ", start, whole.size(), lod.getMemoryUsage());
+		System.out.println(lod);
+
+		// The same views for all, at the highest zoom level
+		Random random = new Random(1);
+		double[][] views = new double[SEARCHES][];
+		for (int i = 0; i < SEARCHES; i++) {
+			double x = min.getX() + random.nextDouble() * (max.getX() - min.getX()), y = min.getY() + random.nextDouble() * (max.getY() - min.getY());
+			views[i] = new double[] { x, y, x + view, y + view };
+		}
+		RoadType all = RoadType.getTypeByZoom(RoadType.getMaxZoom()), least = RoadType.getTypeByZoom(0);
+		double[][] map = { { min.getX(), min.getY(), max.getX(), max.getY() } };
+		for (int round = 0; round < 3; round++) {
+			System.out.println("views of " + view + " m, all road types");
+			print("KDTree", search(kdtree, views, PAD, all));
+			print("RTree ", search(rtree, views, 0, all));
+			print("LOD   ", search(lod, views, 0, all));
+			System.out.println("the whole map, road types of zoom level 0");
+			print("KDTree", search(kdtree, map, PAD, least));
+			print("RTree ", search(rtree, map, 0, least));
+			print("LOD   ", search(lod, map, 0, least));
+		}
+	}
+
+	private static void print(String name, double[] result) {
+		System.out.printf("%s %10.1f us/search, %8.1f edges/search%n", name, result[0], result[1]);
+	}
+
+	// Returns the average microseconds and edges of the searches
+	private static double[] search(DataSearch<KrakTreeKey, Edge> index, double[][] views, double pad, RoadType maxType) {
+		long edges = 0;
+		long start = System.nanoTime();
+		for (double[] v : views) {
+			KrakTreeKey from = new KrakTreeKey(v[0] - pad, v[1] - pad, v[0] - pad, v[1] - pad, RoadType.MOTORVEJ);
+			KrakTreeKey to = new KrakTreeKey(v[2] + pad, v[3] + pad, v[2] + pad, v[3] + pad, maxType);
+			Set<Edge> result = index.getRange(from, to);
+			edges += result.size();
+		}
+		return new double[] { (System.nanoTime() - start) / 1e3 / views.length, (double) edges / views.length };
+	}
+
+	private static void report(String name, long start, int keys, long bytes) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%s %9d keys, built in %6.2f s, %6.1f MB%n", name, keys, seconds, bytes / 1048576.0);
+	}
+}
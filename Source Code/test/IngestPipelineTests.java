@@ -0,0 +1,200 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import model.data.Edge;
+import model.data.IngestPipeline;
+import model.data.KrakParser;
+import model.data.NodeStore;
+import model.data.Point;
+import model.data.RoadType;
+import model.data.ValidationReport;
+import org.junit.Test;
+import junit.framework.TestCase;
+
+public class IngestPipelineTests extends TestCase {
+
+	// Collects the batches of a pipeline, checking that finish is called once after the last batch
+	private static class Collector implements IngestPipeline.Sink {
+		final List<Edge> edges = new ArrayList<Edge>();
+		int finished = 0;
+
+		@Override
+		public void consume(Edge[] batch) {
+			assertEquals(0, finished);
+			edges.addAll(Arrays.asList(batch));
+		}
+
+		@Override
+		public void finish() {
+			finished++;
+		}
+	}
+
+	private NodeStore nodes(String... lines) {
+		return new NodeStore(KrakParser.parseNodes(KrakFixture.write(Arrays.asList(lines))));
+	}
+
+	@Test
+	public void testNodeStore() {
+		NodeStore store = nodes(KrakFixture.node(1000, 10, 20), KrakFixture.node(5, 3, 8), KrakFixture.node(77, 15, 5), KrakFixture.node(5, 1, 2));
+
+		//choice 1: sparse krak ids get dense indices in file order, and a repeated id keeps its index with the last coordinates
+		assertEquals(3, store.size());
+		assertEquals(0, store.indexOf(1000));
+		assertEquals(1, store.indexOf(5));
+		assertEquals(2, store.indexOf(77));
+		assertEquals(-1, store.indexOf(6));
+		assertEquals(5, store.getId(1));
+		assertEquals(1.0, store.getX(1));
+		assertEquals(2.0, store.getY(1));
+
+		//choice 2: points use the index as their id, and unknown ids have no point
+		Point p = store.getNode(77);
+		assertEquals(2, p.getId());
+		assertEquals(15.0, p.getX());
+		assertEquals(5.0, p.getY());
+		assertNull(store.getNode(6));
+
+		//choice 3: the bounds of all coordinates
+		assertEquals(1.0, store.getMinPoint().getX());
+		assertEquals(2.0, store.getMinPoint().getY());
+		assertEquals(15.0, store.getMaxPoint().getX());
+		assertEquals(20.0, store.getMaxPoint().getY());
+	}
+
+	@Test
+	public void testRun() {
+		NodeStore store = nodes(KrakFixture.node(10, 0, 0), KrakFixture.node(20, 100, 0), KrakFixture.node(30, 100, 100));
+		String edgeFile = KrakFixture.write(Arrays.asList(
+				KrakFixture.edge(10, 20, 1, "Motorvejen", "0800", "0900", "ft"),
+				KrakFixture.edge(20, 20, 6, "Løkken", "", "", ""),
+				KrakFixture.edge(20, 40, 6, "Blindgyden", "", "", ""),
+				KrakFixture.edge(20, 30, 99, "Stedet", "", "", "")));
+		IngestPipeline pipeline = new IngestPipeline(store);
+		Collector first = new Collector(), second = new Collector();
+		pipeline.addSink("first", first);
+		pipeline.addSink("second", second);
+		pipeline.run(edgeFile);
+
+		//choice 1: every sink gets the same edges, and the self loop and the edge to a missing node are dropped
+		assertEquals(1, first.finished);
+		assertEquals(1, second.finished);
+		assertEquals(first.edges, second.edges);
+		assertEquals(2, first.edges.size());
+
+		//choice 2: the edges refer to the nodes by index, and carry the attributes of their line
+		Edge motorway = first.edges.get(0);
+		assertEquals(0, motorway.getStartId());
+		assertEquals(1, motorway.getEndId());
+		assertEquals(100.0, motorway.getEndX());
+		assertEquals("Motorvejen", motorway.getRoadName());
+		assertEquals(RoadType.MOTORVEJ, motorway.getRoadType());
+		assertEquals(Edge.OneWayType.FROMTO, motorway.getOneWay());
+		assertEquals("0800", motorway.getPostalLeft());
+		assertEquals("0900", motorway.getPostalRight());
+		assertEquals(RoadType.STEDNAVN, first.edges.get(1).getRoadType());
+
+		//choice 3: the report of the run
+		ValidationReport report = pipeline.getValidationReport();
+		assertEquals(4, report.getRecords());
+		assertEquals(1, report.getCount(ValidationReport.Problem.SELFLOOP));
+		assertEquals(1, report.getCount(ValidationReport.Problem.DANGLINGNODE));
+		assertTrue(pipeline.report().contains("first"));
+	}
+
+	@Test
+	public void testSinkFailure() {
+		NodeStore store = nodes(KrakFixture.node(1, 0, 0), KrakFixture.node(2, 1, 1));
+		IngestPipeline pipeline = new IngestPipeline(store);
+		Collector other = new Collector();
+		pipeline.addSink("failing", new IngestPipeline.Sink() {
+			@Override
+			public void consume(Edge[] batch) {
+				throw new IllegalStateException("sink failed");
+			}
+
+			@Override
+			public void finish() {
+			}
+		});
+		pipeline.addSink("other", other);
+		try {
+			pipeline.run(KrakFixture.write(Arrays.asList(KrakFixture.edge(1, 2, 6, "Vej", "", "", ""))));
+			fail("the failure of a sink must end the run");
+		} catch (RuntimeException e) {
+			assertEquals("sink failed", e.getCause().getMessage());
+		}
+		assertEquals(1, other.edges.size());
+	}
+
+	// A source of the chunks of the file, failing with failure after count chunks
+	private static IngestPipeline.Source failingSource(String edgeFile, final int count, final RuntimeException failure) {
+		final KrakParser.EdgeChunk[] chunks = KrakParser.parseEdges(edgeFile);
+		return new IngestPipeline.Source() {
+			@Override
+			public void stream(KrakParser.ChunkHandler<KrakParser.EdgeChunk> handler) {
+				for (int i = 0; i < count; i++) handler.handle(chunks[0]);
+				throw failure;
+			}
+		};
+	}
+
+	@Test
+	public void testSourceFailure() {
+		NodeStore store = nodes(KrakFixture.node(1, 0, 0), KrakFixture.node(2, 1, 1));
+		String edgeFile = KrakFixture.write(Arrays.asList(KrakFixture.edge(1, 2, 6, "Vej", "", "", "")));
+		IngestPipeline pipeline = new IngestPipeline(store);
+		Collector sink = new Collector();
+		pipeline.addSink("sink", sink);
+		IllegalStateException failure = new IllegalStateException("source failed");
+		try {
+			pipeline.run(failingSource(edgeFile, 3, failure));
+			fail("the failure of the source must end the run");
+		} catch (IllegalStateException e) {
+			assertSame(failure, e);
+		}
+
+		//choice 1: the stages got the chunks read before the failure, and were waited for
+		assertEquals(3, sink.edges.size());
+		assertEquals(1, sink.finished);
+		assertNull(pipeline.getValidationReport());
+	}
+
+	@Test
+	public void testSinkError() {
+		NodeStore store = nodes(KrakFixture.node(1, 0, 0), KrakFixture.node(2, 1, 1));
+		String edgeFile = KrakFixture.write(Arrays.asList(KrakFixture.edge(1, 2, 6, "Vej", "", "", "")));
+		IngestPipeline pipeline = new IngestPipeline(store);
+		Collector other = new Collector();
+		pipeline.addSink("failing", new IngestPipeline.Sink() {
+			@Override
+			public void consume(Edge[] batch) {
+				throw new AssertionError("sink error");
+			}
+
+			@Override
+			public void finish() {
+			}
+		});
+		pipeline.addSink("other", other);
+
+		//choice 1: an Error in a sink does not block the stages before it, though far more batches follow than the queues hold
+		final KrakParser.EdgeChunk chunk = KrakParser.parseEdges(edgeFile)[0];
+		try {
+			pipeline.run(new IngestPipeline.Source() {
+				@Override
+				public void stream(KrakParser.ChunkHandler<KrakParser.EdgeChunk> handler) {
+					for (int i = 0; i < 100; i++) handler.handle(chunk);
+				}
+			});
+			fail("the error of a sink must end the run");
+		} catch (RuntimeException e) {
+			assertEquals("sink error", e.getCause().getMessage());
+		}
+		assertEquals(100, other.edges.size());
+		assertEquals(1, other.finished);
+	}
+}
@@ -0,0 +1,76 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import model.data.RoadType;
+import model.tree.KDTree;
+import model.tree.KrakTreeKey;
+
+/**
+ * Measures the throughput of range searches on a KDTree from 1 up to twice as many threads as there are processors.
+ * As range searches take no locks the throughput should grow with the threads until the processors are used up.
+ * Run with: java test.KDTreeConcurrencyBenchmark [keys] [seconds per thread count]
+ * @author ejer
+ *
+ */
+public class KDTreeConcurrencyBenchmark {
+
+	private static final double SIZE = 400000;		// Width and height of the area of the keys
+	private static final double VIEW = 5000;		// Width and height of a range search
+
+	public static void main(String[] args) throws InterruptedException {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+		double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 3;
+
+		Random random = new Random(1);
+		List<KrakTreeKey> keys = new ArrayList<KrakTreeKey>(n);
+		List<Integer> values = new ArrayList<Integer>(n);
+		RoadType[] types = RoadType.values();
+		for (int i = 0; i < n; i++) {
+			double x = random.nextDouble() * SIZE, y = random.nextDouble() * SIZE;
+			keys.add(new KrakTreeKey(x, y, x + random.nextDouble() * 200, y + random.nextDouble() * 200, types[random.nextInt(types.length)]));
+			values.add(i);
+		}
+		KDTree<KrakTreeKey, Integer> tree = new KDTree<KrakTreeKey, Integer>(new KrakTreeKey());
+		tree.buildParallel(keys, values);
+		System.out.println(n + " keys, depth " + tree.maxdepth);
+
+		run(tree, 1, seconds);		// Warm up
+		double single = 0;
+		int processors = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; threads <= 2 * processors; threads *= 2) {
+			double rate = run(tree, threads, seconds);
+			if (threads == 1) single = rate;
+			System.out.printf("%3d threads: %10.0f searches/s, %5.2f x one thread%n", threads, rate, rate / single);
+		}
+	}
+
+	// Returns the number of range searches per second done by threads searching at the same time
+	private static double run(final KDTree<KrakTreeKey, Integer> tree, int threads, double seconds) throws InterruptedException {
+		final long end = System.nanoTime() + (long) (seconds * 1e9);
+		final AtomicLong searches = new AtomicLong();
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			final Random random = new Random(t);
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					long count = 0;
+					while (System.nanoTime() < end) {
+						double x = random.nextDouble() * (SIZE - VIEW), y = random.nextDouble() * (SIZE - VIEW);
+						tree.getRange(new KrakTreeKey(x, y, x, y, RoadType.MOTORVEJ), new KrakTreeKey(x + VIEW, y + VIEW, x + VIEW, y + VIEW, RoadType.getTypeByZoom(RoadType.getMaxZoom())));
+						count++;
+					}
+					searches.addAndGet(count);
+					done.countDown();
+				}
+			}).start();
+		}
+		done.await();
+		return searches.get() / seconds;
+	}
+}
@@ -1,7 +1,12 @@
 package test;
 
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import model.tree.KDTComparable;
 import model.tree.KDTree;
@@ -150,5 +155,204 @@ public class KDTreeTests extends TestCase {
 		
 		//choice 6: root in range covered by choice 1.
 	}
+	
+	@Test
+	public void testRemove() {
+		KDTree<KDTTestPoint, String> tree = new KDTree<KDTTestPoint, String>(new KDTTestPoint());
+		for (KDTTestPoint p : E) {
+			tree.put(p, p.toString());
+		}
+		
+		//choice 1: the key is in the tree, but with another value
+		assertFalse(tree.remove(new KDTTestPoint(1, 1), "19.19"));
+		assertEquals(3, tree.size());
+		
+		//choice 2: the root is removed, and still guides the search to its children
+		assertTrue(tree.remove(new KDTTestPoint(10, 10), "10.10"));
+		assertEquals(2, tree.size());
+		Set<String> result = tree.getRange(new KDTTestPoint(0, 0), new KDTTestPoint(20, 20));
+		assertTrue(result.contains("1.1") && result.contains("19.19") && result.size() == 2);
+		
+		//choice 3: a removed pair can not be removed again
+		assertFalse(tree.remove(new KDTTestPoint(10, 10), "10.10"));
+		
+		//choice 4: a pair put below a removed node is found
+		tree.put(new KDTTestPoint(10, 10), "10.10");
+		assertEquals(3, tree.size());
+		result = tree.getRange(new KDTTestPoint(9, 9), new KDTTestPoint(11, 11));
+		assertTrue(result.contains("10.10") && result.size() == 1);
+	}
+	
+	@Test
+	public void testBuild() {
+		KDTree<KDTTestPoint, String> tree = new KDTree<KDTTestPoint, String>(new KDTTestPoint());
+		List<KDTTestPoint> keys = new ArrayList<KDTTestPoint>();
+		List<String> values = new ArrayList<String>();
+		Random random = new Random(42);
+		for (int i = 0; i < 1000; i++) {
+			KDTTestPoint p = new KDTTestPoint(random.nextInt(50), random.nextInt(50));	// Many equal values in both dimensions
+			keys.add(p);
+			values.add(p.toString() + "#" + i);
+		}
+		
+		//choice 1: every pair is in the tree, which is balanced
+		tree.build(keys, values);
+		assertEquals(1000, tree.size());
+		assertTrue(tree.maxdepth <= 10);
+		
+		//choice 2: ranges find the same pairs as a linear search
+		for (int q = 0; q < 50; q++) {
+			int x = random.nextInt(50), y = random.nextInt(50), w = random.nextInt(20), h = random.nextInt(20);
+			Set<String> expected = new HashSet<String>();
+			for (int i = 0; i < keys.size(); i++) {
+				KDTTestPoint p = keys.get(i);
+				if (p.x >= x && p.x <= x + w && p.y >= y && p.y <= y + h) expected.add(values.get(i));
+			}
+			assertEquals(expected, tree.getRange(new KDTTestPoint(x, y), new KDTTestPoint(x + w, y + h)));
+		}
+		
+		//choice 3: every pair can be removed, wherever the build placed equal keys
+		for (int i = 0; i < keys.size(); i++) {
+			assertTrue(tree.remove(keys.get(i), values.get(i)));
+		}
+		assertEquals(0, tree.size());
+	}
+	
+	@Test
+	public void testAggregates() {
+		List<KDTTestPoint> keys = new ArrayList<KDTTestPoint>();
+		List<String> values = new ArrayList<String>();
+		Random random = new Random(19);
+		for (int i = 0; i < 5000; i++) {
+			keys.add(new KDTTestPoint(random.nextInt(1000), random.nextInt(1000)));
+			values.add("" + i);
+		}
+		KDTree<KDTTestPoint, String> tree = new KDTree<KDTTestPoint, String>(new KDTTestPoint());
+		tree.build(keys.subList(0, 4000), values.subList(0, 4000));
+		for (int i = 4000; i < 5000; i++) tree.put(keys.get(i), values.get(i));
+		for (int i = 0; i < 500; i++) assertTrue(tree.remove(keys.get(i), values.get(i)));
+		List<KDTTestPoint> live = keys.subList(500, 5000);
+
+		for (int q = 0; q < 200; q++) {
+			int x = random.nextInt(1000), y = random.nextInt(1000), w = random.nextInt(600), h = random.nextInt(600);
+			KDTTestPoint from = new KDTTestPoint(x, y), to = new KDTTestPoint(x + w, y + h);
+			int count = 0, minx = Integer.MAX_VALUE, miny = Integer.MAX_VALUE, maxx = Integer.MIN_VALUE, maxy = Integer.MIN_VALUE;
+			int[][] grid = new int[3][4];
+			for (KDTTestPoint p : live) {
+				if (p.x < from.x || p.x > to.x || p.y < from.y || p.y > to.y) continue;
+				count++;
+				minx = Math.min(minx, p.x); miny = Math.min(miny, p.y);
+				maxx = Math.max(maxx, p.x); maxy = Math.max(maxy, p.y);
+				grid[Math.min((int) ((p.y - from.y) / (double) h * 3), 2)][Math.min((int) ((p.x - from.x) / (double) w * 4), 3)]++;
+			}
+
+			//choice 1: the count of the subtrees inside the range equals the keys found by a linear search
+			assertEquals(count, tree.countRange(from, to));
+
+			//choice 2: the extent of the keys in the range, null if there are none
+			double[] extent = tree.extentRange(from, to);
+			if (count == 0) assertNull(extent);
+			else {
+				assertEquals(minx, extent[0], 0);
+				assertEquals(miny, extent[1], 0);
+				assertEquals(maxx, extent[2], 0);
+				assertEquals(maxy, extent[3], 0);
+			}
+
+			//choice 3: the cells of the density grid
+			int[][] density = tree.densityGrid(from, to, 4, 3);
+			for (int r = 0; r < 3; r++) {
+				for (int c = 0; c < 4; c++) assertEquals(grid[r][c], density[r][c]);
+			}
+		}
+	}
+
+	@Test
+	public void testBalance() {
+		KDTree<KDTTestPoint, String> tree = new KDTree<KDTTestPoint, String>(new KDTTestPoint());
+		List<KDTTestPoint> keys = new ArrayList<KDTTestPoint>();
+		List<String> values = new ArrayList<String>();
+		for (int i = 0; i < 4096; i++) {
+			keys.add(new KDTTestPoint(i, i));
+			values.add(keys.get(i).toString());
+		}
+		KDTree<KDTTestPoint, String> built = new KDTree<KDTTestPoint, String>(new KDTTestPoint());
+		built.build(keys, values);
+		int fresh = built.height();
+
+		//choice 1: keys put in sorted order, which would make a list of an unbalanced tree, stay within a constant factor of a fresh build
+		for (int i = 0; i < keys.size(); i++) tree.put(keys.get(i), values.get(i));
+		assertEquals(4096, tree.size());
+		assertTrue(tree.height() <= 2 * fresh);
+
+		//choice 2: mass removes drop the removed nodes, and every remaining pair is found
+		for (int i = 0; i < 4096; i += 4) {
+			assertTrue(tree.remove(keys.get(i + 1), values.get(i + 1)));
+			assertTrue(tree.remove(keys.get(i + 2), values.get(i + 2)));
+			assertTrue(tree.remove(keys.get(i + 3), values.get(i + 3)));
+		}
+		assertEquals(1024, tree.size());
+		assertTrue(tree.height() <= 2 * fresh);
+		Set<String> result = tree.getRange(new KDTTestPoint(0, 0), new KDTTestPoint(4095, 4095));
+		assertEquals(1024, result.size());
+		for (int i = 0; i < 4096; i += 4) assertTrue(result.contains(values.get(i)));
+
+		//choice 3: the removed pairs put back in reverse order
+		for (int i = 4095; i >= 0; i--) {
+			if (i % 4 != 0) tree.put(keys.get(i), values.get(i));
+		}
+		assertEquals(4096, tree.size());
+		assertTrue(tree.height() <= 2 * fresh);
+		assertEquals(4096, tree.countRange(new KDTTestPoint(0, 0), new KDTTestPoint(4095, 4095)));
+	}
+
+	// Asserts that the trees have the same pairs at the same places
+	private void assertSameShape(KDTree<KDTTestPoint, String> expected, KDTree<KDTTestPoint, String> actual) {
+		List<KDTTestPoint> expectedKeys = new ArrayList<KDTTestPoint>(), actualKeys = new ArrayList<KDTTestPoint>();
+		List<String> expectedValues = new ArrayList<String>(), actualValues = new ArrayList<String>();
+		List<Integer> expectedDepths = new ArrayList<Integer>(), actualDepths = new ArrayList<Integer>();
+		expected.preorder(expectedKeys, expectedValues, expectedDepths);
+		actual.preorder(actualKeys, actualValues, actualDepths);
+		assertEquals(expectedKeys, actualKeys);
+		assertEquals(expectedValues, actualValues);
+		assertEquals(expectedDepths, actualDepths);
+	}
+
+	@Test
+	public void testBuildParallel() {
+		List<KDTTestPoint> keys = new ArrayList<KDTTestPoint>();
+		List<String> values = new ArrayList<String>();
+		Random random = new Random(7);
+		for (int i = 0; i < 5000; i++) {
+			KDTTestPoint p = new KDTTestPoint(random.nextInt(100), random.nextInt(100));
+			keys.add(p);
+			values.add(p.toString() + "#" + i);
+		}
+		KDTree<KDTTestPoint, String> sequential = new KDTree<KDTTestPoint, String>(new KDTTestPoint());
+		sequential.build(keys, values);
+		
+		//choice 1: a parallel build forking almost every subtree gives the same tree as the sequential build
+		ForkJoinPool pool = new ForkJoinPool(4);
+		KDTree<KDTTestPoint, String> parallel = new KDTree<KDTTestPoint, String>(new KDTTestPoint());
+		parallel.build(keys, values, pool, 2);
+		pool.shutdown();
+		assertEquals(sequential.size(), parallel.size());
+		assertEquals(sequential.maxdepth, parallel.maxdepth);
+		assertSameShape(sequential, parallel);
+		assertEquals(sequential.getRange(new KDTTestPoint(10, 20), new KDTTestPoint(60, 50)), parallel.getRange(new KDTTestPoint(10, 20), new KDTTestPoint(60, 50)));
+		
+		//choice 2: the shared pool
+		parallel = new KDTree<KDTTestPoint, String>(new KDTTestPoint());
+		parallel.buildParallel(keys, values);
+		assertSameShape(sequential, parallel);
+
+		//choice 3: a different tree has a different shape
+		KDTree<KDTTestPoint, String> other = new KDTree<KDTTestPoint, String>(new KDTTestPoint());
+		other.build(keys.subList(1, keys.size()), values.subList(1, values.size()));
+		List<KDTTestPoint> k1 = new ArrayList<KDTTestPoint>(), k2 = new ArrayList<KDTTestPoint>();
+		sequential.preorder(k1, new ArrayList<String>(), new ArrayList<Integer>());
+		other.preorder(k2, new ArrayList<String>(), new ArrayList<Integer>());
+		assertFalse(k1.equals(k2));
+	}
 
 }
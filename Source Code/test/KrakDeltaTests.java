@@ -0,0 +1,170 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import model.data.Edge;
+import model.data.Edge.OneWayType;
+import model.data.IngestPipeline;
+import model.data.KrakDelta;
+import model.data.KrakParser;
+import model.data.NodeStore;
+import model.data.Point;
+import model.data.RoadType;
+import model.graph.DiGraph;
+import org.junit.Test;
+import junit.framework.TestCase;
+
+public class KrakDeltaTests extends TestCase {
+
+	private String currentPoints = KrakFixture.write(Arrays.asList(
+			KrakFixture.node(1, 0, 0), KrakFixture.node(2, 100, 0), KrakFixture.node(3, 100, 100), KrakFixture.node(4, 0, 100), KrakFixture.node(6, 500, 500)));
+	private String currentEdges = KrakFixture.write(Arrays.asList(
+			KrakFixture.edge(1, 2, 6, "Avej", "", "", ""),
+			KrakFixture.edge(2, 3, 6, "Bvej", "", "", ""),
+			KrakFixture.edge(3, 4, 6, "Cvej", "", "", ""),
+			KrakFixture.edge(4, 1, 6, "Dvej", "", "", "")));
+
+	// Node 3 is moved, node 5 is new and node 6 is gone
+	private String newPoints = KrakFixture.write(Arrays.asList(
+			KrakFixture.node(1, 0, 0), KrakFixture.node(2, 100, 0), KrakFixture.node(3, 100, 150), KrakFixture.node(4, 0, 100), KrakFixture.node(5, 50, 50)));
+	// 1-2 is unchanged, 2-3 moves with node 3, 3-4 is renamed, 4-1 is removed and 1-5 is added
+	private String newEdges = KrakFixture.write(Arrays.asList(
+			KrakFixture.edge(1, 2, 6, "Avej", "", "", ""),
+			KrakFixture.edge(2, 3, 6, "Bvej", "", "", ""),
+			KrakFixture.edge(3, 4, 6, "Cgade", "", "", ""),
+			KrakFixture.edge(1, 5, 6, "Evej", "", "", "")));
+
+	private List<Edge> ingest(NodeStore nodes, String edgeFile) {
+		final List<Edge> edges = new ArrayList<Edge>();
+		IngestPipeline pipeline = new IngestPipeline(nodes);
+		pipeline.addSink("edges", new IngestPipeline.Sink() {
+			@Override
+			public void consume(Edge[] batch) {
+				edges.addAll(Arrays.asList(batch));
+			}
+
+			@Override
+			public void finish() {
+			}
+		});
+		pipeline.run(edgeFile);
+		return edges;
+	}
+
+	private static List<String> names(List<Edge> edges) {
+		List<String> names = new ArrayList<String>();
+		for (Edge e : edges) names.add(e.getRoadName());
+		return names;
+	}
+
+	private static List<String> sorted(List<String> names) {
+		Collections.sort(names);
+		return names;
+	}
+
+	@Test
+	public void testExtend() {
+		NodeStore current = new NodeStore(KrakParser.parseNodes(currentPoints));
+		NodeStore extended = NodeStore.extend(current, KrakParser.parseNodes(newPoints));
+
+		//choice 1: known nodes keep their index, also when they are gone from the new file, and new nodes follow them
+		assertEquals(6, extended.size());
+		for (int id : new int[] { 1, 2, 3, 4, 6 }) assertEquals(current.indexOf(id), extended.indexOf(id));
+		assertEquals(5, extended.indexOf(5));
+
+		//choice 2: moved nodes get the new coordinates, and nodes gone from the new file do not count towards the bounds
+		assertEquals(150.0, extended.getY(extended.indexOf(3)));
+		assertEquals(500.0, extended.getX(extended.indexOf(6)));
+		assertEquals(1, extended.getAddedCount());
+		assertEquals(1, extended.getMovedCount());
+		assertEquals(100.0, extended.getMaxPoint().getX());
+		assertEquals(150.0, extended.getMaxPoint().getY());
+	}
+
+	@Test
+	public void testDelta() {
+		NodeStore current = new NodeStore(KrakParser.parseNodes(currentPoints));
+		List<Edge> edges = ingest(current, currentEdges);
+		KrakDelta delta = new KrakDelta(current, edges, newPoints, newEdges);
+
+		assertEquals(1, delta.getUnchangedCount());
+		assertEquals(Arrays.asList("Evej"), names(delta.getAdded()));
+		assertEquals(Arrays.asList("Dvej"), names(delta.getRemoved()));
+		assertEquals(Arrays.asList("Bvej", "Cgade"), names(delta.getChanged()));
+		assertEquals(Arrays.asList("Bvej", "Cvej"), names(delta.getReplaced()));
+
+		//choice 1: the new version of a moved edge has the new coordinates, and the old version the old ones
+		assertEquals(150.0, delta.getChanged().get(0).getEndY());
+		assertEquals(100.0, delta.getReplaced().get(0).getEndY());
+
+		//choice 2: what goes out of and into the indices
+		assertEquals(Arrays.asList("Dvej", "Bvej", "Cvej"), names(delta.getOutgoing()));
+		assertEquals(Arrays.asList("Evej", "Bvej", "Cgade"), names(delta.getIncoming()));
+		assertEquals(delta.getNodeStore().indexOf(5), delta.getAdded().get(0).getEndId());
+		assertEquals(0, delta.getAmbiguousCount());
+	}
+
+	@Test
+	public void testParallel() {
+		NodeStore current = new NodeStore(KrakParser.parseNodes(currentPoints));
+		List<Edge> edges = ingest(current, KrakFixture.write(Arrays.asList(
+				KrakFixture.edge(1, 2, 6, "Avej", "", "", ""),
+				KrakFixture.edge(1, 2, 6, "Bvej", "", "", ""),
+				KrakFixture.edge(2, 3, 6, "Cvej", "", "", ""),
+				KrakFixture.edge(2, 3, 6, "Dvej", "", "", ""),
+				KrakFixture.edge(3, 4, 6, "Evej", "", "", ""))));
+
+		//choice 1: parallel edges in another order are unchanged, and a changed one is paired with the one left over
+		KrakDelta delta = new KrakDelta(current, edges, currentPoints, KrakFixture.write(Arrays.asList(
+				KrakFixture.edge(1, 2, 6, "Bvej", "", "", ""),
+				KrakFixture.edge(1, 2, 6, "Avej", "", "", ""),
+				KrakFixture.edge(2, 3, 6, "Fvej", "", "", ""),
+				KrakFixture.edge(2, 3, 6, "Cvej", "", "", ""),
+				KrakFixture.edge(3, 4, 6, "Evej", "", "", ""))));
+		assertEquals(4, delta.getUnchangedCount());
+		assertEquals(Arrays.asList("Fvej"), names(delta.getChanged()));
+		assertEquals(Arrays.asList("Dvej"), names(delta.getReplaced()));
+		assertTrue(delta.getAdded().isEmpty());
+		assertTrue(delta.getRemoved().isEmpty());
+		assertEquals(0, delta.getAmbiguousCount());
+
+		//choice 2: two changed parallel edges are paired in order, and counted as ambiguous. A third new one is added
+		delta = new KrakDelta(current, edges, currentPoints, KrakFixture.write(Arrays.asList(
+				KrakFixture.edge(1, 2, 6, "Gvej", "", "", ""),
+				KrakFixture.edge(1, 2, 6, "Hvej", "", "", ""),
+				KrakFixture.edge(1, 2, 6, "Ivej", "", "", ""),
+				KrakFixture.edge(2, 3, 6, "Cvej", "", "", ""))));
+		assertEquals(1, delta.getUnchangedCount());
+		assertEquals(Arrays.asList("Gvej", "Hvej"), names(delta.getChanged()));
+		assertEquals(Arrays.asList("Avej", "Bvej"), names(delta.getReplaced()));
+		assertEquals(Arrays.asList("Ivej"), names(delta.getAdded()));
+		assertEquals(Arrays.asList("Dvej", "Evej"), sorted(names(delta.getRemoved())));
+		assertEquals(2, delta.getAmbiguousCount());
+	}
+
+	@Test
+	public void testRemoveRoad() {
+		// Two parallel roads alike in all but their postal codes
+		Point p = new Point(0, 0, 0), q = new Point(1, 30, 40);
+		Edge a = new Edge(p, q, "Avej", RoadType.MOTORVEJ, OneWayType.NONE, "1000", "1000");
+		Edge b = new Edge(p, q, "Avej", RoadType.MOTORVEJ, OneWayType.NONE, "2000", "2000");
+		DiGraph graph = new DiGraph(2);
+		graph.addRoad(a);
+		graph.addRoad(b);
+		assertEquals(4, graph.E());
+
+		//choice 1: the inverted copy made from the removed road goes with it
+		graph.removeRoad(b);
+		assertEquals(2, graph.E());
+		assertEquals(1, graph.outdegree(1));
+		assertEquals("1000", graph.getAdj(1).iterator().next().getPostalLeft());
+		assertSame(a, graph.getAdj(0).iterator().next());
+
+		//choice 2: removing a road twice leaves the graph as it is
+		graph.removeRoad(b);
+		assertEquals(2, graph.E());
+	}
+}
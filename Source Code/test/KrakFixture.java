@@ -0,0 +1,80 @@
+package test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Small krak point and edge files written to temporary files, for the tests of the parser and the ingestion.
+ * Only the columns read by KrakParser are filled, every other column is 0.
+ *
+ * @author ejer
+ *
+ */
+public class KrakFixture {
+
+	private static final int EDGECOLUMNS = 30;
+
+	private KrakFixture() {}
+
+	/**
+	 * @param id
+	 * @param x
+	 * @param y
+	 * @return a line of the point file. The id and coordinates are its last three columns
+	 */
+	public static String node(int id, double x, double y) {
+		return "0,0," + id + "," + x + "," + y;
+	}
+
+	/**
+	 * @param from		the krak id of the first node
+	 * @param to		the krak id of the second node
+	 * @param type		the type id of the road
+	 * @param name		the road name, written in quotes
+	 * @param postalLeft	the field as written, so it can be empty or malformed
+	 * @param postalRight
+	 * @param oneway	ft, tf, n or empty, written in quotes
+	 * @return a line of the edge file
+	 */
+	public static String edge(Object from, Object to, int type, String name, String postalLeft, String postalRight, String oneway) {
+		String[] columns = new String[EDGECOLUMNS];
+		for (int i = 0; i < columns.length; i++) columns[i] = "0";
+		columns[0] = String.valueOf(from);
+		columns[1] = String.valueOf(to);
+		columns[5] = String.valueOf(type);
+		columns[6] = "'" + name + "'";
+		columns[17] = postalLeft;
+		columns[18] = postalRight;
+		columns[27] = "'" + oneway + "'";
+
+		StringBuilder sb = new StringBuilder(columns[0]);
+		for (int i = 1; i < columns.length; i++) sb.append(',').append(columns[i]);
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the lines after a header line, in ISO-8859-1 as the krak files, to a temporary file deleted when the tests exit
+	 * @param lines
+	 * @return the name of the file
+	 */
+	public static String write(List<String> lines) {
+		try {
+			File file = File.createTempFile("krak", ".txt");
+			file.deleteOnExit();
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "ISO-8859-1"));
+			try {
+				out.print("HEADER\n");
+				for (String line : lines) out.print(line + "\n");
+			} finally {
+				out.close();
+			}
+			return file.getPath();
+		} catch (IOException e) {
+			throw new IllegalStateException("could not write the fixture", e);
+		}
+	}
+}
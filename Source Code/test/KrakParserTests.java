@@ -0,0 +1,142 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import model.data.Dictionary;
+import model.data.Edge.OneWayType;
+import model.data.KrakParser;
+import org.junit.Test;
+import junit.framework.TestCase;
+
+public class KrakParserTests extends TestCase {
+
+	private static String postal(int id) {
+		return Dictionary.POSTALCODES.get(id);
+	}
+
+	@Test
+	public void testChunkBoundaries() {
+		// Files of several chunks of 4 MB, so lines are split across the chunk boundaries
+		List<String> lines = new ArrayList<String>();
+		for (int i = 0; i < 160000; i++) lines.add(KrakFixture.node(i + 1, 500000.125 + i, 6100000.5 + i));
+		KrakParser.NodeChunk[] nodes = KrakParser.parseNodes(KrakFixture.write(lines));
+		assertTrue(nodes.length > 1);
+		int i = 0;
+		for (KrakParser.NodeChunk chunk : nodes) {
+			for (int c = 0; c < chunk.size; c++, i++) {
+				assertEquals(i + 1, chunk.id[c]);
+				assertEquals(500000.125 + i, chunk.x[c]);
+				assertEquals(6100000.5 + i, chunk.y[c]);
+			}
+		}
+		assertEquals(lines.size(), i);
+
+		lines.clear();
+		for (i = 0; i < 60000; i++) lines.add(KrakFixture.edge(i + 1, i + 2, 1 + i % 8, "Vej " + i, i % 2 == 0 ? "0800" : "", "" + (1000 + i % 100), "ft"));
+		KrakParser.EdgeChunk[] edges = KrakParser.parseEdges(KrakFixture.write(lines));
+		assertTrue(edges.length > 1);
+		i = 0;
+		for (KrakParser.EdgeChunk chunk : edges) {
+			for (int c = 0; c < chunk.size; c++, i++) {
+				assertEquals(i + 1, chunk.from[c]);
+				assertEquals(i + 2, chunk.to[c]);
+				assertEquals(1 + i % 8, chunk.type[c]);
+				assertEquals("Vej " + i, chunk.name[c]);
+				assertEquals(i % 2 == 0 ? "0800" : "", postal(chunk.postalLeft[c]));
+				assertEquals("" + (1000 + i % 100), postal(chunk.postalRight[c]));
+				assertEquals(OneWayType.FROMTO, chunk.oneway[c]);
+				assertEquals(i + 2, chunk.line[c]);		// The header is line 1
+			}
+		}
+		assertEquals(lines.size(), i);
+	}
+
+	@Test
+	public void testFields() {
+		List<String> lines = Arrays.asList(
+				KrakFixture.edge(1, 2, 6, "  Østergade ", "0800", "SW1A 1AA", "tf"),
+				KrakFixture.edge(" 3 ", "-4", 8, "", "", " ", "n"),
+				KrakFixture.edge("12a", "", 5, "Vej", "8OO0", "12345678", ""),
+				KrakFixture.edge(5, 6, 1, "Crlf", "800", "0800", "ft") + "\r");
+		KrakParser.EdgeChunk[] chunks = KrakParser.parseEdges(KrakFixture.write(lines));
+		assertEquals(1, chunks.length);
+		KrakParser.EdgeChunk chunk = chunks[0];
+		assertEquals(4, chunk.size);
+
+		//choice 1: names and postal codes as written, without surrounding white space, and with their leading zeros
+		assertEquals("Østergade", chunk.name[0]);
+		assertEquals("0800", postal(chunk.postalLeft[0]));
+		assertEquals("SW1A 1AA", postal(chunk.postalRight[0]));
+		assertEquals(OneWayType.TOFROM, chunk.oneway[0]);
+
+		//choice 2: surrounding white space and signs of numbers, and empty fields
+		assertEquals(3, chunk.from[1]);
+		assertEquals(-4, chunk.to[1]);
+		assertEquals("", chunk.name[1]);
+		assertEquals("", postal(chunk.postalLeft[1]));
+		assertEquals("", postal(chunk.postalRight[1]));
+		assertEquals(OneWayType.NODRIVING, chunk.oneway[1]);
+
+		//choice 3: malformed and empty numbers are -1, rather than the digits before the first letter
+		assertEquals(-1, chunk.from[2]);
+		assertEquals(-1, chunk.to[2]);
+		assertTrue(chunk.malformed[2]);
+		assertFalse(chunk.malformed[1]);
+		assertEquals("8OO0", postal(chunk.postalLeft[2]));
+		assertEquals("12345678", postal(chunk.postalRight[2]));
+		assertEquals(OneWayType.NONE, chunk.oneway[2]);
+
+		//choice 4: a line ending in CRLF, and codes that only differ by a leading zero
+		assertEquals(OneWayType.FROMTO, chunk.oneway[3]);
+		assertEquals("800", postal(chunk.postalLeft[3]));
+		assertEquals("0800", postal(chunk.postalRight[3]));
+		assertFalse(chunk.postalLeft[3] == chunk.postalRight[3]);
+		assertEquals(chunk.postalLeft[0], chunk.postalRight[3]);
+	}
+
+	@Test
+	public void testNumbers() {
+		List<String> lines = Arrays.asList(
+				"0,0,1,595527.51786,6402050.98297",
+				"0,0,2, -12.5 ,+7",
+				"0,0,3,1.5E3,0.1234567890123456789",
+				"0,0,4,42,0");
+		KrakParser.NodeChunk chunk = KrakParser.parseNodes(KrakFixture.write(lines))[0];
+		assertEquals(4, chunk.size);
+		assertEquals(595527.51786, chunk.x[0]);
+		assertEquals(6402050.98297, chunk.y[0]);
+		assertEquals(-12.5, chunk.x[1]);
+		assertEquals(7.0, chunk.y[1]);
+		assertEquals(1500.0, chunk.x[2]);
+		assertEquals(0.1234567890123456789, chunk.y[2]);
+		assertEquals(42.0, chunk.x[3]);
+
+		//choice 1: a node without a proper id can not be referred to, so the file is not read
+		try {
+			KrakParser.parseNodes(KrakFixture.write(Arrays.asList("0,0,1,1,1", "0,0,2b,1,1")));
+			fail("a malformed node id must not be read");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("line 2"));
+		}
+	}
+
+	@Test
+	public void testDictionary() {
+		int id = Dictionary.ROADNAMES.id("Parser testvej");
+		assertEquals(id, Dictionary.ROADNAMES.id(new String("Parser testvej")));
+		assertEquals(id, Dictionary.ROADNAMES.indexOf("Parser testvej"));
+		assertEquals("Parser testvej", Dictionary.ROADNAMES.get(id));
+		assertEquals(-1, Dictionary.ROADNAMES.indexOf("Parser ukendt vej"));
+
+		//choice 1: the dictionaries are separate
+		assertEquals(-1, Dictionary.POSTALCODES.indexOf("Parser testvej"));
+	}
+
+	@Test
+	public void testMissingFile() {
+		assertEquals(0, KrakParser.parseNodes("no such file").length);
+		assertEquals(0, KrakParser.parseEdges("no such file").length);
+	}
+}
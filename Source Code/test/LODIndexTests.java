@@ -0,0 +1,49 @@
+package test;
+
+import java.util.List;
+import java.util.Random;
+
+import model.data.Edge;
+import model.data.RoadType;
+import model.tree.KrakTreeKey;
+import model.tree.LODIndex;
+import model.tree.RTree;
+import org.junit.Test;
+import junit.framework.TestCase;
+
+public class LODIndexTests extends TestCase {
+
+	private List<KrakTreeKey> keys;
+	private List<Edge> values;
+	private Random random = new Random(3);
+
+	@Test
+	public void testGetRange() {
+		values = EdgeFixture.generate(random, 3000);
+		keys = EdgeFixture.keysOf(values);
+		RTree expected = new RTree();
+		expected.build(keys, values);
+		LODIndex lod = new LODIndex();
+		lod.build(keys, values);
+		assertEquals(3000, lod.size());
+
+		//choice 1: ranges of every zoom level find the same edges as one R-tree
+		for (int q = 0; q < 100; q++) {
+			int x = random.nextInt(10000), y = random.nextInt(10000), w = random.nextInt(3000), h = random.nextInt(3000);
+			RoadType type = RoadType.getTypeByZoom(random.nextInt(RoadType.getMaxZoom() + 1));
+			KrakTreeKey from = new KrakTreeKey(x, y, x, y, RoadType.getTypeByZoom(0));
+			KrakTreeKey to = new KrakTreeKey(x + w, y + h, x + w, y + h, type);
+			assertEquals(expected.getRange(from, to), lod.getRange(from, to));
+		}
+
+		//choice 2: pairs are put in and removed from the level of their road type
+		KrakTreeKey from = new KrakTreeKey(-1000, -1000, -1000, -1000, RoadType.getTypeByZoom(0));
+		KrakTreeKey to = new KrakTreeKey(11000, 11000, 11000, 11000, RoadType.getTypeByZoom(RoadType.getMaxZoom()));
+		for (int i = 0; i < 100; i++) assertTrue(lod.remove(keys.get(i), values.get(i)));
+		assertFalse(lod.remove(keys.get(0), values.get(0)));
+		assertEquals(2900, lod.getRange(from, to).size());
+		lod.put(keys.get(0), values.get(0));
+		assertTrue(lod.getRange(from, to).contains(values.get(0)));
+		assertEquals(2901, lod.size());
+	}
+}
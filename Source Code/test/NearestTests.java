@@ -0,0 +1,92 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import model.DataSearch;
+import model.data.Edge;
+import model.data.KrakDataLoader;
+import model.data.Point;
+import model.data.RoadType;
+import model.tree.FlatKDTree;
+import model.tree.KDTree;
+import model.tree.KrakTreeKey;
+import model.tree.LODIndex;
+import model.tree.RTree;
+import model.tree.SegmentMetric;
+import org.junit.Test;
+import junit.framework.TestCase;
+
+public class NearestTests extends TestCase {
+
+	private List<Edge> edges;
+	private Random random = new Random(17);
+
+	private double distance(Point p, Edge e) {
+		return SegmentMetric.distance(p.getX(), p.getY(), e.getStartX(), e.getStartY(), e.getEndX(), e.getEndY());
+	}
+
+	// The distances of the k nearest edges of a type shown at maxType, found by a linear search
+	private List<Double> expected(Point p, int k, RoadType maxType) {
+		List<Double> distances = new ArrayList<Double>();
+		for (Edge e : edges) {
+			if (e.getRoadType().getZoomLevel() <= maxType.getZoomLevel()) distances.add(distance(p, e));
+		}
+		Collections.sort(distances);
+		return distances.subList(0, Math.min(k, distances.size()));
+	}
+
+	private void check(DataSearch<KrakTreeKey, Edge> index, double extent) {
+		for (int q = 0; q < 50; q++) {
+			Point p = new Point(random.nextInt(12000) - 1000, random.nextInt(12000) - 1000);
+			RoadType maxType = RoadType.getTypeByZoom(random.nextInt(RoadType.getMaxZoom() + 1));
+			List<Edge> result = index.nearest(new SegmentMetric(p, maxType, extent), 5);
+			List<Double> expected = expected(p, 5, maxType);
+			assertEquals(expected.size(), result.size());
+			for (int i = 0; i < result.size(); i++) {
+				assertEquals(expected.get(i), distance(p, result.get(i)), 1e-9);
+				assertTrue(result.get(i).getRoadType().getZoomLevel() <= maxType.getZoomLevel());
+			}
+		}
+	}
+
+	@Test
+	public void testNearest() {
+		edges = EdgeFixture.generate(random, 2000);
+		List<KrakTreeKey> cut = new ArrayList<KrakTreeKey>(), whole = new ArrayList<KrakTreeKey>();
+		List<Edge> cutEdges = new ArrayList<Edge>();
+		for (Edge e : edges) {
+			for (KrakTreeKey key : KrakDataLoader.generateKeys(e)) {
+				cut.add(key);
+				cutEdges.add(e);
+			}
+			whole.add(RTree.keyOf(e));
+		}
+
+		//choice 1: the KDTree of cut edges finds every edge once, by its distance to the whole edge, with and without the extent of the keys
+		KDTree<KrakTreeKey, Edge> kdtree = new KDTree<KrakTreeKey, Edge>(new KrakTreeKey());
+		kdtree.build(cut, cutEdges);
+		check(kdtree, Double.POSITIVE_INFINITY);
+		check(kdtree, KrakDataLoader.DELTA);
+
+		//choice 2: the flat tree, with pairs put after the build
+		FlatKDTree flat = new FlatKDTree();
+		flat.build(cut.subList(0, cut.size() / 2), cutEdges.subList(0, cut.size() / 2));
+		for (int i = cut.size() / 2; i < cut.size(); i++) flat.put(cut.get(i), cutEdges.get(i));
+		check(flat, KrakDataLoader.DELTA);
+
+		//choice 3: the R-tree and the level of detail pyramid of whole segments
+		RTree rtree = new RTree();
+		rtree.build(whole, edges);
+		check(rtree, Double.POSITIVE_INFINITY);
+		LODIndex lod = new LODIndex();
+		lod.build(whole, edges);
+		check(lod, Double.POSITIVE_INFINITY);
+
+		//choice 4: no edges
+		assertTrue(new RTree().nearest(new SegmentMetric(new Point(0, 0), RoadType.STI), 3).isEmpty());
+		assertTrue(kdtree.nearest(new SegmentMetric(new Point(0, 0), RoadType.STI), 0).isEmpty());
+	}
+}
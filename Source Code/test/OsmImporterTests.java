@@ -0,0 +1,146 @@
+package test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import model.data.Dictionary;
+import model.data.Edge.OneWayType;
+import model.data.KrakParser;
+import model.data.NodeStore;
+import model.data.OsmImporter;
+import model.data.RoadType;
+import org.junit.Test;
+import junit.framework.TestCase;
+
+public class OsmImporterTests extends TestCase {
+
+	// Writes an OpenStreetMap file of the nodes and ways, to a temporary file deleted when the tests exit
+	private static String write(String... elements) {
+		try {
+			File file = File.createTempFile("osm", ".osm");
+			file.deleteOnExit();
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+			try {
+				out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+				out.println("<osm version=\"0.6\">");
+				for (String element : elements) out.println(element);
+				out.println("</osm>");
+			} finally {
+				out.close();
+			}
+			return file.getPath();
+		} catch (IOException e) {
+			throw new IllegalStateException("could not write the fixture", e);
+		}
+	}
+
+	private static String node(long id, double lat, double lon) {
+		return "<node id=\"" + id + "\" lat=\"" + lat + "\" lon=\"" + lon + "\"/>";
+	}
+
+	// A way from node 1 to node 2 with the tags, given as key and value pairs
+	private static String way(long id, String... tags) {
+		StringBuilder sb = new StringBuilder("<way id=\"" + id + "\"><nd ref=\"1\"/><nd ref=\"2\"/>");
+		for (int i = 0; i < tags.length; i += 2) sb.append("<tag k=\"" + tags[i] + "\" v=\"" + tags[i + 1] + "\"/>");
+		return sb.append("</way>").toString();
+	}
+
+	private static List<KrakParser.EdgeChunk> chunks(OsmImporter importer) {
+		final List<KrakParser.EdgeChunk> chunks = new ArrayList<KrakParser.EdgeChunk>();
+		importer.getSource().stream(new KrakParser.ChunkHandler<KrakParser.EdgeChunk>() {
+			@Override
+			public void handle(KrakParser.EdgeChunk chunk) {
+				chunks.add(chunk);
+			}
+		});
+		return chunks;
+	}
+
+	@Test
+	public void testTags() {
+		OsmImporter importer = new OsmImporter(write(
+				node(1, 55.6761, 12.5683), node(2, 55.6771, 12.5693),
+				way(10, "highway", "residential", "name", "Østergade", "addr:postcode", "0800"),
+				way(11, "highway", "motorway"),
+				way(12, "highway", "primary", "oneway", "-1"),
+				way(13, "highway", "secondary", "oneway", "no"),
+				way(14, "highway", "footway", "addr:postcode", "SW1A 1AA"),
+				way(15, "highway", "motorway", "tunnel", "yes"),
+				way(16, "route", "ferry"),
+				way(17, "highway", "tertiary", "junction", "roundabout", "addr:postcode", " 1012 AB "),
+				way(18, "highway", "residential", "access", "no"),
+				way(19, "building", "yes"),
+				way(20, "highway", "raceway")));
+		List<KrakParser.EdgeChunk> chunks = chunks(importer);
+		importer.delete();
+		assertEquals(1, chunks.size());
+		KrakParser.EdgeChunk chunk = chunks.get(0);
+
+		//choice 1: every road becomes one edge, and ways that are not roads are left out
+		assertEquals(9, chunk.size);
+		RoadType[] types = { RoadType.ANDENVEJ, RoadType.MOTORVEJ, RoadType.PRIMÆRRUTESTRSEKSM, RoadType.SEKUNDÆRRUTESTRSEKSM, RoadType.STI,
+				RoadType.MOTORVEJSTUNNEL, RoadType.FÆRGEFORBINDELSE, RoadType.VEJTRETILSEKSM, RoadType.ANDENVEJ };
+		OneWayType[] oneways = { OneWayType.NONE, OneWayType.FROMTO, OneWayType.TOFROM, OneWayType.NONE, OneWayType.NODRIVING,
+				OneWayType.FROMTO, OneWayType.NONE, OneWayType.FROMTO, OneWayType.NODRIVING };
+		for (int i = 0; i < chunk.size; i++) {
+			assertEquals(types[i].getTypeID(), chunk.type[i]);
+			assertEquals(oneways[i], chunk.oneway[i]);
+			assertEquals(0, chunk.from[i]);
+			assertEquals(1, chunk.to[i]);
+		}
+
+		//choice 2: names, and postal codes as tagged, also when they are not numbers
+		assertEquals("Østergade", chunk.name[0]);
+		assertEquals("", chunk.name[1]);
+		assertEquals("0800", Dictionary.POSTALCODES.get(chunk.postalLeft[0]));
+		assertEquals("", Dictionary.POSTALCODES.get(chunk.postalLeft[1]));
+		assertEquals("SW1A 1AA", Dictionary.POSTALCODES.get(chunk.postalRight[4]));
+		assertEquals("1012 AB", Dictionary.POSTALCODES.get(chunk.postalLeft[7]));
+	}
+
+	@Test
+	public void testProjection() {
+		// Reference coordinates of UTM zone 32 from the Krüger series, exact to well below a millimetre
+		OsmImporter importer = new OsmImporter(write(
+				node(1, 55.6761, 12.5683), node(2, 56.0, 9.0), node(3, 57.0, 10.0), node(4, 0.0, 9.0),
+				"<way id=\"10\"><nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"7\"/><nd ref=\"3\"/><nd ref=\"4\"/><tag k=\"highway\" v=\"road\"/></way>"));
+		NodeStore nodes = importer.getNodeStore();
+		importer.delete();
+
+		//choice 1: the nodes used by the way are indexed in the order they are used
+		assertEquals(4, nodes.size());
+		assertEquals(724351.9286, nodes.getX(0), 0.05);		// Copenhagen, 3.6 degrees from the central meridian
+		assertEquals(6175804.0223, nodes.getY(0), 0.05);
+		assertEquals(500000.0, nodes.getX(1), 0.001);		// On the central meridian
+		assertEquals(6206079.5873, nodes.getY(1), 0.001);
+		assertEquals(560746.6237, nodes.getX(2), 0.01);
+		assertEquals(6317830.5300, nodes.getY(2), 0.01);
+		assertEquals(500000.0, nodes.getX(3), 0.001);		// The false origin of the zone
+		assertEquals(0.0, nodes.getY(3), 0.001);
+
+		//choice 2: the missing node 7 splits the way
+		assertTrue(importer.toString().contains("1 missing node references"));
+		assertEquals(2, chunks(new OsmImporter(write(node(1, 55.6761, 12.5683), node(2, 56.0, 9.0), node(3, 57.0, 10.0),
+				"<way id=\"10\"><nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"7\"/><nd ref=\"3\"/><nd ref=\"1\"/><tag k=\"highway\" v=\"road\"/></way>"))).get(0).size);
+	}
+
+	@Test
+	public void testBadFile() {
+		try {
+			new OsmImporter(write(node(1, 55, 12), "<way id=\"10\">"));
+			fail("a file that is not well formed must not be imported");
+		} catch (IllegalStateException e) {
+			assertNotNull(e.getCause());
+		}
+		try {
+			new OsmImporter(write(node(2, 55, 12), node(1, 55, 12)));
+			fail("nodes out of order must not be imported");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
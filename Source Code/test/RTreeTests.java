@@ -0,0 +1,93 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import model.data.Edge;
+import model.data.RoadType;
+import model.tree.KrakTreeKey;
+import model.tree.RTree;
+import org.junit.Test;
+import junit.framework.TestCase;
+
+public class RTreeTests extends TestCase {
+
+	private List<KrakTreeKey> keys;
+	private List<Edge> values;
+	private Random random = new Random(5);
+
+	private KrakTreeKey min(double x, double y) {
+		return new KrakTreeKey(x, y, x, y, RoadType.getTypeByZoom(0));
+	}
+
+	private KrakTreeKey max(double x, double y, RoadType type) {
+		return new KrakTreeKey(x, y, x, y, type);
+	}
+
+	// The edges crossing the rectangle, found by sampling every segment densely
+	private Set<Edge> crossing(double x1, double y1, double x2, double y2, RoadType type) {
+		Set<Edge> result = new HashSet<Edge>();
+		for (Edge e : values) {
+			if (e.getRoadType().getZoomLevel() > type.getZoomLevel()) continue;
+			for (int s = 0; s <= 4000; s++) {
+				double x = e.getStartX() + (e.getEndX() - e.getStartX()) * s / 4000, y = e.getStartY() + (e.getEndY() - e.getStartY()) * s / 4000;
+				if (x >= x1 && x <= x2 && y >= y1 && y <= y2) {
+					result.add(e);
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	@Test
+	public void testGetRange() {
+		values = EdgeFixture.generate(random, 500, 10000, 4000, 2000);		// Segments of up to 2000 m, much longer than the keys of a KDTree
+		keys = EdgeFixture.keysOf(values);
+		RTree tree = new RTree();
+		tree.build(keys, values);
+		assertEquals(500, tree.size());
+		assertTrue(tree.getHeight() >= 2);
+
+		//choice 1: ranges find the segments crossing them, including segments with no end point in the range
+		RoadType[] types = RoadType.values();
+		for (int q = 0; q < 30; q++) {
+			int x = random.nextInt(10000), y = random.nextInt(10000), w = random.nextInt(1000), h = random.nextInt(1000);
+			RoadType type = types[random.nextInt(types.length)];
+			assertEquals(crossing(x, y, x + w, y + h, type), tree.getRange(min(x, y), max(x + w, y + h, type)));
+		}
+
+		//choice 2: a range around all segments
+		assertEquals(500, tree.getRange(min(-3000, -3000), max(13000, 13000, RoadType.getTypeByZoom(RoadType.getMaxZoom()))).size());
+	}
+
+	@Test
+	public void testPutRemove() {
+		values = EdgeFixture.generate(random, 2000, 10000, 4000, 2000);
+		keys = EdgeFixture.keysOf(values);
+		RTree tree = new RTree();
+		tree.build(keys.subList(0, 1000), values.subList(0, 1000));
+		KrakTreeKey all = max(13000, 13000, RoadType.getTypeByZoom(RoadType.getMaxZoom()));
+
+		//choice 1: pairs put after the build are found, also when the tree is packed again
+		for (int i = 1000; i < 2000; i++) tree.put(keys.get(i), values.get(i));
+		assertEquals(2000, tree.size());
+		assertEquals(2000, tree.getRange(min(-3000, -3000), all).size());
+
+		//choice 2: pairs are removed once
+		for (int i = 0; i < 2000; i += 2) assertTrue(tree.remove(keys.get(i), values.get(i)));
+		assertFalse(tree.remove(keys.get(0), values.get(0)));
+		assertEquals(1000, tree.size());
+		Set<Edge> left = tree.getRange(min(-3000, -3000), all);
+		assertFalse(left.contains(values.get(0)));
+		assertTrue(left.contains(values.get(1)));
+
+		//choice 3: a build packs the remaining pairs
+		tree.build(new ArrayList<KrakTreeKey>(), new ArrayList<Edge>());
+		assertEquals(1000, tree.size());
+		assertEquals(left, tree.getRange(min(-3000, -3000), all));
+	}
+}
@@ -0,0 +1,288 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import model.DataSearch;
+import model.data.Edge;
+import model.data.KrakDataLoader;
+import model.data.RoadType;
+import model.tree.DistinctEdges;
+import model.tree.FlatKDTree;
+import model.tree.KDTree;
+import model.tree.KrakTreeKey;
+import model.tree.LODIndex;
+import model.tree.PixelSampler;
+import model.tree.RTree;
+import model.tree.RangeVisitor;
+import org.junit.Test;
+import junit.framework.TestCase;
+
+public class RangeVisitorTests extends TestCase {
+
+	private List<Edge> edges;
+	private Random random = new Random(18);
+
+	// Collects the edges visited, failing if an edge is visited twice
+	private static class Collector implements RangeVisitor<Edge> {
+		final Set<Edge> found = new HashSet<Edge>();
+
+		@Override
+		public boolean visit(Edge value) {
+			assertTrue(found.add(value));
+			return true;
+		}
+	}
+
+	private void check(DataSearch<KrakTreeKey, Edge> index) {
+		for (int q = 0; q < 100; q++) {
+			int x = random.nextInt(10000), y = random.nextInt(10000), w = random.nextInt(3000), h = random.nextInt(3000);
+			KrakTreeKey from = new KrakTreeKey(x, y, x, y, RoadType.getTypeByZoom(0));
+			KrakTreeKey to = new KrakTreeKey(x + w, y + h, x + w, y + h, RoadType.getTypeByZoom(random.nextInt(RoadType.getMaxZoom() + 1)));
+			Set<Edge> expected = index.getRange(from, to);
+
+			// every edge once, through the bitset of the thread
+			Collector all = new Collector();
+			DistinctEdges distinct = DistinctEdges.acquire(all);
+			try {
+				assertEquals(expected.size(), index.getRange(from, to, distinct, Integer.MAX_VALUE));
+			} finally {
+				distinct.release();
+			}
+			assertEquals(expected, all.found);
+
+			// the search ends at the limit
+			Collector some = new Collector();
+			int limit = expected.size() / 2;
+			distinct = DistinctEdges.acquire(some);
+			try {
+				assertEquals(limit, index.getRange(from, to, distinct, limit));
+			} finally {
+				distinct.release();
+			}
+			assertEquals(limit, some.found.size());
+			assertTrue(expected.containsAll(some.found));
+		}
+	}
+
+	// Searches a 3 x 3 block of adjacent windows, and a far window, in one batch
+	private void checkBatch(DataSearch<KrakTreeKey, Edge> index) {
+		for (int q = 0; q < 20; q++) {
+			int x = random.nextInt(8000), y = random.nextInt(8000), size = 1 + random.nextInt(700);
+			RoadType maxType = RoadType.getTypeByZoom(random.nextInt(RoadType.getMaxZoom() + 1));
+			List<KrakTreeKey> from = new ArrayList<KrakTreeKey>(), to = new ArrayList<KrakTreeKey>();
+			for (int i = 0; i < 10; i++) {
+				int wx = i < 9 ? x + i % 3 * size : 9000, wy = i < 9 ? y + i / 3 * size : 0;
+				from.add(new KrakTreeKey(wx, wy, wx, wy, RoadType.getTypeByZoom(0)));
+				to.add(new KrakTreeKey(wx + size, wy + size, wx + size, wy + size, maxType));
+			}
+			List<Collector> collectors = new ArrayList<Collector>();
+			List<DistinctEdges> distinct = new ArrayList<DistinctEdges>();
+			int[] counted;
+			try {
+				for (int i = 0; i < 10; i++) {
+					collectors.add(new Collector());
+					distinct.add(DistinctEdges.acquire(collectors.get(i)));
+				}
+				counted = index.getRanges(from, to, distinct);
+			} finally {
+				for (DistinctEdges d : distinct) d.release();
+			}
+			for (int i = 0; i < 10; i++) {
+				Set<Edge> expected = index.getRange(from.get(i), to.get(i));
+				assertEquals(expected, collectors.get(i).found);
+				assertEquals(expected.size(), counted[i]);
+			}
+		}
+	}
+
+	@Test
+	public void testBatch() {
+		edges = EdgeFixture.generate(random, 2000);
+		List<KrakTreeKey> cut = new ArrayList<KrakTreeKey>(), whole = new ArrayList<KrakTreeKey>();
+		List<Edge> cutEdges = new ArrayList<Edge>();
+		for (Edge e : edges) {
+			for (KrakTreeKey key : KrakDataLoader.generateKeys(e)) {
+				cut.add(key);
+				cutEdges.add(e);
+			}
+			whole.add(RTree.keyOf(e));
+		}
+
+		//choice 1: every window gets the edges of its own search, from the trees of cut edges, with pairs put after the build
+		KDTree<KrakTreeKey, Edge> kdtree = new KDTree<KrakTreeKey, Edge>(new KrakTreeKey());
+		kdtree.build(cut, cutEdges);
+		checkBatch(kdtree);
+		FlatKDTree flat = new FlatKDTree();
+		flat.build(cut.subList(0, cut.size() / 2), cutEdges.subList(0, cut.size() / 2));
+		for (int i = cut.size() / 2; i < cut.size(); i++) flat.put(cut.get(i), cutEdges.get(i));
+		checkBatch(flat);
+
+		//choice 2: the trees of whole segments
+		RTree rtree = new RTree();
+		rtree.build(whole.subList(0, 1900), edges.subList(0, 1900));
+		for (int i = 1900; i < whole.size(); i++) rtree.put(whole.get(i), edges.get(i));
+		checkBatch(rtree);
+		LODIndex lod = new LODIndex();
+		lod.build(whole, edges);
+		checkBatch(lod);
+
+		//choice 3: no windows
+		assertEquals(0, kdtree.getRanges(new ArrayList<KrakTreeKey>(), new ArrayList<KrakTreeKey>(), new ArrayList<DistinctEdges>()).length);
+	}
+
+	// Samples the whole map through the bitset of the thread
+	private Set<Edge> sample(KDTree<KrakTreeKey, Edge> kdtree, KrakTreeKey from, KrakTreeKey to, double resolution, int limit) {
+		Collector sampled = new Collector();
+		DistinctEdges distinct = DistinctEdges.acquire(sampled);
+		int counted;
+		try {
+			counted = kdtree.sampleRange(from, to, resolution, distinct, limit);
+		} finally {
+			distinct.release();
+		}
+		assertEquals(sampled.found.size(), counted);
+		return sampled.found;
+	}
+
+	@Test
+	public void testSample() {
+		edges = EdgeFixture.generate(random, 2000);
+		List<KrakTreeKey> cut = new ArrayList<KrakTreeKey>();
+		List<Edge> cutEdges = new ArrayList<Edge>();
+		for (Edge e : edges) {
+			for (KrakTreeKey key : KrakDataLoader.generateKeys(e)) {
+				cut.add(key);
+				cutEdges.add(e);
+			}
+		}
+		KDTree<KrakTreeKey, Edge> kdtree = new KDTree<KrakTreeKey, Edge>(new KrakTreeKey());
+		kdtree.build(cut, cutEdges);
+		for (int i = 0; i < cut.size(); i += 3) kdtree.remove(cut.get(i), cutEdges.get(i));
+		KrakTreeKey from = new KrakTreeKey(-1000, -1000, -1000, -1000, RoadType.getTypeByZoom(0));
+		KrakTreeKey to = new KrakTreeKey(11000, 11000, 11000, 11000, RoadType.getTypeByZoom(RoadType.getMaxZoom()));
+		Set<Edge> all = kdtree.getRange(from, to);
+
+		//choice 1: a resolution of 0 passes every edge
+		assertEquals(all, sample(kdtree, from, to, 0, Integer.MAX_VALUE));
+
+		//choice 2: a resolution wider than the map passes one of the most important edges
+		double top = Double.POSITIVE_INFINITY;
+		for (Edge e : all) top = Math.min(top, e.getRoadType().getZoomLevel());
+		Set<Edge> one = sample(kdtree, from, to, 100000, Integer.MAX_VALUE);
+		assertEquals(1, one.size());
+		assertEquals(top, one.iterator().next().getRoadType().getZoomLevel());
+
+		//choice 3: a pixel of 2000, a fifth of the map, passes fewer edges, and a limited search passes the most important edges first
+		Set<Edge> pixels = sample(kdtree, from, to, 2000, Integer.MAX_VALUE);
+		assertTrue(pixels.size() < all.size());
+		assertTrue(all.containsAll(pixels));
+		Set<Edge> some = sample(kdtree, from, to, 0, all.size() / 4);
+		assertEquals(all.size() / 4, some.size());
+		double lowest = Double.POSITIVE_INFINITY, highest = 0;
+		for (Edge e : some) highest = Math.max(highest, e.getRoadType().getZoomLevel());
+		for (Edge e : all) if (!some.contains(e)) lowest = Math.min(lowest, e.getRoadType().getZoomLevel());
+		assertTrue(highest <= lowest);
+	}
+
+	@Test
+	public void testPixelSampler() {
+		edges = EdgeFixture.generate(random, 2000);
+		List<KrakTreeKey> whole = new ArrayList<KrakTreeKey>();
+		for (Edge e : edges) whole.add(RTree.keyOf(e));
+		LODIndex lod = new LODIndex();
+		lod.build(whole, edges);
+		KrakTreeKey from = new KrakTreeKey(-1000, -1000, -1000, -1000, RoadType.getTypeByZoom(0));
+		KrakTreeKey to = new KrakTreeKey(11000, 11000, 11000, 11000, RoadType.getTypeByZoom(RoadType.getMaxZoom()));
+		Set<Edge> all = lod.getRange(from, to);
+
+		//choice 1: a resolution of 0 passes every edge
+		Collector every = new Collector();
+		PixelSampler sampler = new PixelSampler(every, -1000, -1000, 11000, 11000, 0);
+		assertEquals(all.size(), lod.getRange(from, to, sampler, Integer.MAX_VALUE));
+		assertEquals(all.size(), sampler.getCounted());
+		assertEquals(all, every.found);
+
+		//choice 2: a resolution wider than the map passes one of the most important edges, as the levels are searched most important first
+		double top = Double.POSITIVE_INFINITY;
+		for (Edge e : all) top = Math.min(top, e.getRoadType().getZoomLevel());
+		Collector one = new Collector();
+		lod.getRange(from, to, new PixelSampler(one, -1000, -1000, 11000, 11000, 100000), Integer.MAX_VALUE);
+		assertEquals(1, one.found.size());
+		assertEquals(top, one.found.iterator().next().getRoadType().getZoomLevel());
+
+		//choice 3: a pixel of 400 passes fewer edges, every edge longer than a pixel among them, and the limit counts only the edges passed
+		Collector pixels = new Collector();
+		sampler = new PixelSampler(pixels, -1000, -1000, 11000, 11000, 400);
+		lod.getRange(from, to, sampler, Integer.MAX_VALUE);
+		assertEquals(pixels.found.size(), sampler.getCounted());
+		assertTrue(pixels.found.size() < all.size());
+		for (Edge e : all) {
+			if (Math.abs(e.getEndX() - e.getStartX()) >= 400 || Math.abs(e.getEndY() - e.getStartY()) >= 400) assertTrue(pixels.found.contains(e));
+		}
+		Collector some = new Collector();
+		sampler = new PixelSampler(some, -1000, -1000, 11000, 11000, 400);
+		assertEquals(pixels.found.size() / 2, lod.getRange(from, to, sampler, pixels.found.size() / 2));
+		assertEquals(pixels.found.size() / 2, some.found.size());
+	}
+
+	@Test
+	public void testVisitor() {
+		edges = EdgeFixture.generate(random, 2000);
+		List<KrakTreeKey> cut = new ArrayList<KrakTreeKey>(), whole = new ArrayList<KrakTreeKey>();
+		List<Edge> cutEdges = new ArrayList<Edge>();
+		for (Edge e : edges) {
+			for (KrakTreeKey key : KrakDataLoader.generateKeys(e)) {
+				cut.add(key);
+				cutEdges.add(e);
+			}
+			whole.add(RTree.keyOf(e));
+		}
+
+		//choice 1: the trees of cut edges visit an edge once for every key, so the bitset is needed
+		final KDTree<KrakTreeKey, Edge> kdtree = new KDTree<KrakTreeKey, Edge>(new KrakTreeKey());
+		kdtree.build(cut, cutEdges);
+		check(kdtree);
+		FlatKDTree flat = new FlatKDTree();
+		flat.build(cut.subList(0, cut.size() / 2), cutEdges.subList(0, cut.size() / 2));
+		for (int i = cut.size() / 2; i < cut.size(); i++) flat.put(cut.get(i), cutEdges.get(i));
+		check(flat);
+
+		//choice 2: the trees of whole segments
+		RTree rtree = new RTree();
+		rtree.build(whole, edges);
+		check(rtree);
+		LODIndex lod = new LODIndex();
+		lod.build(whole, edges);
+		check(lod);
+
+		//choice 3: a search started by the visitor of another search gets its own bitset
+		final KrakTreeKey from = new KrakTreeKey(0, 0, 0, 0, RoadType.getTypeByZoom(0));
+		final KrakTreeKey to = new KrakTreeKey(10000, 10000, 10000, 10000, RoadType.getTypeByZoom(RoadType.getMaxZoom()));
+		final Collector inner = new Collector();
+		final int[] outer = { 0 };
+		DistinctEdges distinct = DistinctEdges.acquire(new RangeVisitor<Edge>() {
+			@Override
+			public boolean visit(Edge value) {
+				if (outer[0]++ == 0) {
+					DistinctEdges nested = DistinctEdges.acquire(inner);
+					try {
+						kdtree.getRange(from, to, nested, Integer.MAX_VALUE);
+					} finally {
+						nested.release();
+					}
+				}
+				return true;
+			}
+		});
+		try {
+			kdtree.getRange(from, to, distinct);
+		} finally {
+			distinct.release();
+		}
+		assertEquals(outer[0], inner.found.size());
+	}
+}
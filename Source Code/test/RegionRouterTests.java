@@ -0,0 +1,155 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import model.RegionDataset;
+import model.RegionRouter;
+import model.Search;
+import model.data.Edge;
+import model.data.Point;
+import model.data.RoadType;
+import org.junit.Test;
+import junit.framework.TestCase;
+
+public class RegionRouterTests extends TestCase {
+
+	// Two regions 10 km apart, both with a Nordvej
+	private String westPoints = KrakFixture.write(Arrays.asList(
+			KrakFixture.node(1, 0, 0), KrakFixture.node(2, 1000, 0), KrakFixture.node(3, 1000, 1000)));
+	private String westEdges = KrakFixture.write(Arrays.asList(
+			KrakFixture.edge(1, 2, 6, "Vestvej", "1000", "1000", ""),
+			KrakFixture.edge(2, 3, 6, "Nordvej", "1000", "1000", "")));
+	private String eastPoints = KrakFixture.write(Arrays.asList(
+			KrakFixture.node(1, 10000, 0), KrakFixture.node(2, 11000, 0), KrakFixture.node(3, 11000, 1000)));
+	private String eastEdges = KrakFixture.write(Arrays.asList(
+			KrakFixture.edge(1, 2, 6, "Østvej", "2000", "2000", ""),
+			KrakFixture.edge(2, 3, 6, "Nordvej", "2000", "2000", "")));
+
+	private static List<String> names(Set<Edge> edges) {
+		List<String> names = new ArrayList<String>();
+		for (Edge e : edges) names.add(e.getRoadName());
+		Collections.sort(names);
+		return names;
+	}
+
+	private RegionRouter router(Search.Data.Index index) {
+		RegionRouter router = new RegionRouter(Arrays.asList(
+				new RegionDataset("west", westPoints, westEdges, index), new RegionDataset("east", eastPoints, eastEdges, index)));
+		router.load();
+		return router;
+	}
+
+	@Test
+	public void testBoundingBox() {
+		for (Search.Data.Index index : Search.Data.Index.values()) {
+			RegionRouter router = router(index);
+			RegionDataset west = router.getRegions().get(0);
+			int zoom = RoadType.getMaxZoom();
+			assertEquals(index, west.getIndex());
+
+			//choice 1: a range in one region only finds its edges
+			assertEquals(Arrays.asList("Nordvej", "Vestvej"), names(router.getRange(new Point(-100, -100), new Point(1100, 1100), zoom)));
+			assertEquals(Arrays.asList("Nordvej", "Østvej"), names(router.getRange(new Point(9900, -100), new Point(11100, 1100), zoom)));
+
+			//choice 2: a range over both regions finds the edges of both, in a set of its own
+			Set<Edge> both = router.getRange(new Point(-100, -100), new Point(11100, 1100), zoom);
+			assertEquals(Arrays.asList("Nordvej", "Nordvej", "Vestvej", "Østvej"), names(both));
+			both.clear();
+			assertEquals(2, west.getRange(new Point(-100, -100), new Point(1100, 1100), zoom).size());
+			assertEquals(4, router.getSample(new Point(-100, -100), new Point(11100, 1100), zoom, 1, 100).size());
+			assertTrue(router.count(new Point(-100, -100), new Point(11100, 1100), zoom, 100) >= 4);	// The KDTree counts the pieces of the edges
+			assertEquals(1, router.count(new Point(-100, -100), new Point(11100, 1100), zoom, 1));
+
+			//choice 3: a range between or outside the regions
+			assertTrue(router.getRange(new Point(5000, 5000), new Point(6000, 6000), zoom).isEmpty());
+			assertEquals(0, router.count(new Point(5000, 5000), new Point(6000, 6000), zoom, 100));
+			assertEquals(0.0, router.getMinPoint().getX());
+			assertEquals(11000.0, router.getMaxPoint().getX());
+			assertEquals(1000.0, router.getMaxPoint().getY());
+		}
+	}
+
+	@Test
+	public void testSearch() {
+		RegionRouter router = router(Search.Data.Index.KDTREE);
+
+		//choice 1: a road with a postal code is found in the region having it
+		Set<Edge> east = router.get(new String[] { "Nordvej", "", "2000", "" });
+		assertEquals(1, east.size());
+		Edge eastEdge = east.iterator().next();
+		assertEquals(11000.0, eastEdge.getStartX());
+		Set<Edge> west = router.get(new String[] { "Nordvej", "", "1000", "" });
+		Edge westEdge = west.iterator().next();
+
+		//choice 2: addresses of every region, each once
+		List<String> addresses = new ArrayList<String>();
+		for (String address : router.prefixAndPostal("nord")) addresses.add(address.substring(0, "Nordvej, 1000".length()));
+		Collections.sort(addresses);
+		assertEquals(Arrays.asList("Nordvej, 1000", "Nordvej, 2000"), addresses);
+
+		//choice 3: routes are searched in the region owning both edges, and not between regions
+		Edge vestvej = router.get(new String[] { "Vestvej", "", "1000", "" }).iterator().next();
+		assertNotNull(router.searchRoutes(vestvej, westEdge));
+		assertNull(router.searchRoutes(vestvej, eastEdge));
+	}
+
+	// A region waiting for the other regions to start loading before it loads
+	private static class WaitingRegion extends RegionDataset {
+		private final CyclicBarrier started;
+		private final long timeout;
+
+		WaitingRegion(String name, String pointFile, String edgeFile, CyclicBarrier started, long timeout) {
+			super(name, pointFile, edgeFile, Search.Data.Index.KDTREE);
+			this.started = started;
+			this.timeout = timeout;
+		}
+
+		@Override
+		public void load() {
+			try {
+				started.await(timeout, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			} catch (BrokenBarrierException e) {
+				throw new IllegalStateException(e);
+			} catch (TimeoutException e) {
+				throw new IllegalStateException("the regions were not loaded side by side", e);
+			}
+			super.load();
+		}
+	}
+
+	@Test
+	public void testConcurrentLoad() {
+		//choice 1: every region is loading at the same time, however many cores there are
+		CyclicBarrier started = new CyclicBarrier(2);
+		RegionRouter router = new RegionRouter(Arrays.<RegionDataset>asList(
+				new WaitingRegion("west", westPoints, westEdges, started, 10000), new WaitingRegion("east", eastPoints, eastEdges, started, 10000)));
+		router.load(2);
+		for (RegionDataset region : router.getRegions()) assertTrue(region.isLoaded());
+		String report = router.memoryReport();
+		assertTrue(report.startsWith("west: "));
+		assertTrue(report.contains("\neast: "));
+		assertTrue(report.contains("\ntotal: "));
+
+		//choice 2: a region failing to load is named, after every region has been waited for
+		RegionRouter failing = new RegionRouter(Arrays.<RegionDataset>asList(
+				new WaitingRegion("west", westPoints, westEdges, new CyclicBarrier(1), 10000), new WaitingRegion("east", eastPoints, eastEdges, new CyclicBarrier(3), 100)));
+		try {
+			failing.load(2);
+			fail("the east region cannot start loading");
+		} catch (RuntimeException e) {
+			assertEquals("Loading of east failed", e.getMessage());
+		}
+		assertTrue(failing.getRegions().get(0).isLoaded());
+		assertFalse(failing.getRegions().get(1).isLoaded());
+	}
+}
@@ -0,0 +1,118 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import model.data.IngestPipeline;
+import model.data.KrakParser;
+import model.data.NodeStore;
+import model.data.ValidationReport;
+import model.data.ValidationReport.Problem;
+import org.junit.Test;
+import junit.framework.TestCase;
+
+public class ValidationReportTests extends TestCase {
+
+	private NodeStore nodes = new NodeStore(KrakParser.parseNodes(KrakFixture.write(Arrays.asList(
+			KrakFixture.node(1, 0, 0), KrakFixture.node(2, 100, 0), KrakFixture.node(3, 100, 100), KrakFixture.node(4, 100, 100)))));
+
+	private ValidationReport validate(List<String> lines) {
+		String file = KrakFixture.write(lines);
+		ValidationReport report = IngestPipeline.validate(nodes, IngestPipeline.fileSource(file));
+		assertEquals(file, report.getSource());
+		return report;
+	}
+
+	@Test
+	public void testProblems() {
+		// The header is line 1, so the first edge is on line 2
+		ValidationReport report = validate(Arrays.asList(
+				KrakFixture.edge(1, 2, 6, "Avej", "", "", ""),		// line 2
+				KrakFixture.edge(2, 2, 6, "Løkken", "", "", ""),	// line 3: self loop
+				KrakFixture.edge(2, 9, 6, "Blindgyden", "", "", ""),	// line 4: dangling
+				KrakFixture.edge(7, 8, 6, "Ingenstedvej", "", "", ""),	// line 5: dangling at both ends
+				KrakFixture.edge(2, 3, 55, "Bvej", "", "", ""),		// line 6: unknown type
+				KrakFixture.edge(1, 3, 55, "Cvej", "", "", ""),		// line 7: unknown type
+				KrakFixture.edge(3, 1, 77, "Cvej", "", "", ""),		// line 8: unknown type, and the reverse of line 7
+				KrakFixture.edge(3, 4, 6, "Dvej", "", "", ""),		// line 9: zero length
+				KrakFixture.edge(1, 2, 6, "Avej", "", "", ""),		// line 10: duplicate of line 2
+				KrakFixture.edge(5, 5, 55, "Evej", "", "", ""),		// line 11: unknown type and self loop
+				KrakFixture.edge("12a", 2, 6, "Fvej", "", "", ""),	// line 12: malformed
+				KrakFixture.edge(1, "", 6, "Gvej", "", "", "")));	// line 13: malformed
+
+		assertEquals(12, report.getRecords());
+		assertFalse(report.isClean());
+
+		//choice 1: a self loop is only counted as a self loop, whatever its nodes
+		assertEquals(2, report.getCount(Problem.SELFLOOP));
+		assertEquals(Arrays.asList(3, 11), report.getSampleLines(Problem.SELFLOOP));
+
+		//choice 2: dangling records and the missing node ids they refer to
+		assertEquals(2, report.getCount(Problem.DANGLINGNODE));
+		assertEquals(Arrays.asList(4, 5), report.getSampleLines(Problem.DANGLINGNODE));
+		assertEquals(new HashSet<Integer>(Arrays.asList(7, 8, 9)), report.getDanglingNodes());
+
+		//choice 3: unknown types are counted by type id
+		assertEquals(4, report.getCount(Problem.UNKNOWNTYPE));
+		assertEquals(Arrays.asList(6, 7, 8, 11), report.getSampleLines(Problem.UNKNOWNTYPE));
+		assertEquals(2, report.getUnknownTypes().size());
+		assertEquals(Long.valueOf(3), report.getUnknownTypes().get(55));
+		assertEquals(Long.valueOf(1), report.getUnknownTypes().get(77));
+
+		//choice 4: distinct nodes at the same coordinates
+		assertEquals(1, report.getCount(Problem.ZEROLENGTH));
+		assertEquals(Arrays.asList(9), report.getSampleLines(Problem.ZEROLENGTH));
+
+		//choice 5: duplicates in either direction, reported at the later line
+		assertEquals(2, report.getCount(Problem.DUPLICATE));
+		assertEquals(Arrays.asList(8, 10), report.getSampleLines(Problem.DUPLICATE));
+
+		//choice 6: node ids that are not numbers are only counted as malformed, rather than as dangling
+		assertEquals(2, report.getCount(Problem.MALFORMED));
+		assertEquals(Arrays.asList(12, 13), report.getSampleLines(Problem.MALFORMED));
+	}
+
+	@Test
+	public void testClean() {
+		ValidationReport report = validate(Arrays.asList(
+				KrakFixture.edge(1, 2, 1, "Motorvejen", "0800", "0900", "ft"),
+				KrakFixture.edge(2, 3, 6, "Avej", "", "", ""),
+				KrakFixture.edge(3, 1, 8, "Sti", "", "", "n")));
+		assertEquals(3, report.getRecords());
+		assertTrue(report.isClean());
+		for (Problem problem : Problem.values()) {
+			assertEquals(0, report.getCount(problem));
+			assertTrue(report.getSampleLines(problem).isEmpty());
+		}
+		assertTrue(report.getUnknownTypes().isEmpty());
+		assertTrue(report.getDanglingNodes().isEmpty());
+
+		//choice 1: an empty file
+		report = validate(new ArrayList<String>());
+		assertEquals(0, report.getRecords());
+		assertTrue(report.isClean());
+	}
+
+	@Test
+	public void testChunks() {
+		// A path over 30000 nodes, and the same path again reversed, so the file is several chunks of 4 MB
+		List<String> points = new ArrayList<String>();
+		for (int i = 1; i <= 30001; i++) points.add(KrakFixture.node(i, i, 0));
+		nodes = new NodeStore(KrakParser.parseNodes(KrakFixture.write(points)));
+		List<String> lines = new ArrayList<String>();
+		for (int i = 1; i <= 30000; i++) lines.add(KrakFixture.edge(i, i + 1, 6, "Vej " + i, "", "", ""));
+		for (int i = 1; i <= 30000; i++) lines.add(KrakFixture.edge(i + 1, i, 6, "Vej " + i, "", "", ""));
+		assertTrue(KrakParser.parseEdges(KrakFixture.write(lines)).length > 1);
+		ValidationReport report = validate(lines);
+
+		//choice 1: duplicates are found across chunks, and only the first lines are kept as samples
+		assertEquals(60000, report.getRecords());
+		assertEquals(30000, report.getCount(Problem.DUPLICATE));
+		List<Integer> samples = new ArrayList<Integer>();
+		for (int i = 0; i < 10; i++) samples.add(30002 + i);
+		assertEquals(samples, report.getSampleLines(Problem.DUPLICATE));
+		assertEquals(0, report.getCount(Problem.DANGLINGNODE));
+	}
+}
@@ -7,10 +7,14 @@ import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.MouseMotionAdapter;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
 
 import view.loading.LoadingType;
 import controller.threads.Counter;
@@ -18,6 +22,7 @@ import controller.threads.CounterThread;
 import model.Search;
 import model.data.Edge;
 import model.data.Point;
+import model.data.RoadType;
 
 
 @SuppressWarnings("serial")
@@ -26,6 +31,7 @@ public class MapCanvas extends Component implements Counter {
 	private Set<Edge> setEdges = new HashSet<Edge>();
 	private Edge[] originalRouteEdges = new Edge[0];
 	private Edge[] routeEdges = new Edge[0];
+	private volatile Edge hoverEdge = null;	// The road nearest to the mouse, in true coordinates
 	Viewport vp;
 	private double loadTotal = 0; // For making a loading bar
 	private double loadKDTree = 0, loadTST = 0, loadGraph = 0;
@@ -33,6 +39,31 @@ public class MapCanvas extends Component implements Counter {
 	private CounterThread counter = new CounterThread(this);
 	private ExecutorService executor = Executors.newSingleThreadExecutor();
 
+	// The nearest road is searched off the event dispatch thread. Mouse moves made while a search runs are coalesced into one search of the last position
+	private final AtomicReference<Point> hoverPoint = new AtomicReference<Point>();	// The last mouse position not yet searched, in true coordinates
+	private volatile RoadType hoverType;	// The least important road type shown at that position
+	private final ExecutorService hoverExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "nearest road");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	private final Runnable hoverSearch = new Runnable() {
+		@Override
+		public void run() {
+			Point p = hoverPoint.getAndSet(null);
+			if ( p == null ) return;
+			List<Edge> nearest = Search.Data.INSTANCE.nearest(p, 1, hoverType);
+			Edge edge = nearest.isEmpty() ? null : nearest.get(0);
+			if ( edge != hoverEdge ) {
+				hoverEdge = edge;
+				repaint();
+			}
+		}
+	};
+
 	public MapCanvas()
 	{
 		super();
@@ -48,6 +79,20 @@ public class MapCanvas extends Component implements Counter {
 			}
 		});
 
+		// A mouse motion listener, which highlights the road nearest to the mouse among the road types shown
+		addMouseMotionListener(new MouseMotionAdapter() {
+			@Override
+			public void mouseMoved(MouseEvent e) {
+				if ( vp != null ) {
+					hoverType = RoadType.getTypeByZoom(vp.zoomLevel());
+					// Only starts a search if none is waiting, as a waiting search reads the newest position when it runs
+					if ( hoverPoint.getAndSet(new Point(vp.mapCanToTrueHor(e.getX()), vp.mapCanToTrueVer(e.getY()))) == null ) {
+						hoverExecutor.execute(hoverSearch);
+					}
+				}
+			}
+		});
+
 		// Execute the counter runnable and shut down the pool, when finished
 		executor.execute(counter);
 		executor.shutdown();
@@ -132,7 +177,7 @@ public class MapCanvas extends Component implements Counter {
 				// All the drawing goes here.
 				double linewidthMod = 0.85 + (vp.zoomLevel() - e.getRoadType().getZoomLevel())*0.05; if ( linewidthMod > 2.5 ) linewidthMod = 2.5;
 				g2d.setColor(e.getRoadType().getColour());
-				g2d.drawLine((int) e.getStart().getX() , (int) e.getStart().getY(), (int) e.getEnd().getX() , (int) e.getEnd().getY() );
+				g2d.drawLine((int) e.getStartX() , (int) e.getStartY(), (int) e.getEndX() , (int) e.getEndY() );
 
 			}
 
@@ -141,8 +186,16 @@ public class MapCanvas extends Component implements Counter {
 
 				double linewidthMod = 0.85 + (vp.zoomLevel() - e.getRoadType().getZoomLevel())*0.05; if ( linewidthMod > 2.5 ) linewidthMod = 2.5;
 				g2d.setColor(Color.BLUE);
-				g2d.drawLine((int) e.getStart().getX() , (int) e.getStart().getY(), (int) e.getEnd().getX() , (int) e.getEnd().getY() );
+				g2d.drawLine((int) e.getStartX() , (int) e.getStartY(), (int) e.getEndX() , (int) e.getEndY() );
+
+			}
 
+			// Draw the road nearest to the mouse
+			Edge hover = hoverEdge;
+			if ( hover != null ) {
+				Edge e = vp.getVisibleEdges(new Edge[] { hover })[0];
+				g2d.setColor(Color.MAGENTA);
+				g2d.drawLine((int) e.getStartX() , (int) e.getStartY(), (int) e.getEndX() , (int) e.getEndY() );
 			}
 
 		}
@@ -327,6 +327,11 @@ public class View extends JFrame implements Searchable {
 		mapCanvas.setViewport();
 	}
 
+	// The size of the MapCanvas in pixels. 0 by 0 until it is shown
+	public Dimension getMapSize() {
+		return mapCanvas.getSize();
+	}
+
 	// Update the MapCanvas' edges with the given ones
 	public void updateEdges(Set<Edge> unCovertedEdges) {
 		mapCanvas.updateEdges(unCovertedEdges);
@@ -36,10 +36,10 @@ public class Viewport {
 		Set<Edge> set = new HashSet<Edge>();
 
 		for ( Edge e : unConvertedEdges ) {
-			double sX = ( e.getStart().getX() - v0.getX() ) * c.getWidth() / ( width() );
-			double sY = ( e.getStart().getY() - v0.getY()) * c.getHeight() / ( height() );
-			double eX = ( e.getEnd().getX() - v0.getX() ) * c.getWidth() / ( width() );
-			double eY = ( e.getEnd().getY() - v0.getY()) * c.getHeight() / ( height() );
+			double sX = ( e.getStartX() - v0.getX() ) * c.getWidth() / ( width() );
+			double sY = ( e.getStartY() - v0.getY()) * c.getHeight() / ( height() );
+			double eX = ( e.getEndX() - v0.getX() ) * c.getWidth() / ( width() );
+			double eY = ( e.getEndY() - v0.getY()) * c.getHeight() / ( height() );
 
 			double sFY = flipYCoord(sY);
 			double eFY = flipYCoord(eY);
@@ -71,10 +71,10 @@ public class Viewport {
 		int count = 0;
 
 		for ( Edge e : unConvertedEdges ) {
-			double sX = ( e.getStart().getX() - v0.getX() ) * c.getWidth() / ( width() );
-			double sY = ( e.getStart().getY() - v0.getY()) * c.getHeight() / ( height() );
-			double eX = ( e.getEnd().getX() - v0.getX() ) * c.getWidth() / ( width() );
-			double eY = ( e.getEnd().getY() - v0.getY()) * c.getHeight() / ( height() );
+			double sX = ( e.getStartX() - v0.getX() ) * c.getWidth() / ( width() );
+			double sY = ( e.getStartY() - v0.getY()) * c.getHeight() / ( height() );
+			double eX = ( e.getEndX() - v0.getX() ) * c.getWidth() / ( width() );
+			double eY = ( e.getEndY() - v0.getY()) * c.getHeight() / ( height() );
 
 			double sFY = flipYCoord(sY);
 			double eFY = flipYCoord(eY);